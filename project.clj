@@ -2,6 +2,7 @@
   :java-source-path "src/java"
   :java-fork "true"
   :javac-debug "true"
-  :dependencies [[cascading/cascading-core "1.2-wip-63" :exclusions [org.codehaus.janino/janino]]]
+  :dependencies [[cascading/cascading-core "1.2-wip-63" :exclusions [org.codehaus.janino/janino]]
+                 [postgresql "8.4-702.jdbc4"]]
   :repositories {"conjars" "http://conjars.org/repo/"}
   :dev-dependencies [[org.apache.hadoop/hadoop-core "0.20.2-dev"]])
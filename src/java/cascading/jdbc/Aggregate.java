@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Class Aggregate describes a SQL aggregate function computed by the database when a {@link JDBCScheme}
+ * is used as an aggregating source.
+ * <p/>
+ * Each Aggregate contributes one or more result columns, see {@link #getExpressions()}. Averages are returned as
+ * their sum and count parts so that they may be combined downstream.
+ *
+ * @see JDBCScheme
+ */
+public class Aggregate implements Serializable
+  {
+  private static final long serialVersionUID = 1L;
+
+  /** Field expressions */
+  private final String[] expressions;
+
+  /**
+   * Method count returns an Aggregate counting all rows in each group.
+   *
+   * @return Aggregate
+   */
+  public static Aggregate count()
+    {
+    return new Aggregate( "COUNT(*)" );
+    }
+
+  /**
+   * Method count returns an Aggregate counting the non null values of the given column in each group.
+   *
+   * @param column of type String
+   * @return Aggregate
+   */
+  public static Aggregate count( String column )
+    {
+    return new Aggregate( function( "COUNT", column ) );
+    }
+
+  /**
+   * Method sum returns an Aggregate summing the given column in each group.
+   *
+   * @param column of type String
+   * @return Aggregate
+   */
+  public static Aggregate sum( String column )
+    {
+    return new Aggregate( function( "SUM", column ) );
+    }
+
+  /**
+   * Method min returns an Aggregate selecting the smallest value of the given column in each group.
+   *
+   * @param column of type String
+   * @return Aggregate
+   */
+  public static Aggregate min( String column )
+    {
+    return new Aggregate( function( "MIN", column ) );
+    }
+
+  /**
+   * Method max returns an Aggregate selecting the largest value of the given column in each group.
+   *
+   * @param column of type String
+   * @return Aggregate
+   */
+  public static Aggregate max( String column )
+    {
+    return new Aggregate( function( "MAX", column ) );
+    }
+
+  /**
+   * Method avg returns an Aggregate selecting the parts of the average of the given column in each group,
+   * the sum and the count of its non null values, in that order.
+   *
+   * @param column of type String
+   * @return Aggregate
+   */
+  public static Aggregate avg( String column )
+    {
+    return new Aggregate( function( "SUM", column ), function( "COUNT", column ) );
+    }
+
+  private static String function( String function, String column )
+    {
+    if( column == null || column.length() == 0 )
+      throw new IllegalArgumentException( "column may not be null or empty" );
+
+    return function + "(" + column + ")";
+    }
+
+  /**
+   * Constructor Aggregate creates a new Aggregate instance from raw SQL aggregate expressions.
+   *
+   * @param expressions of type String...
+   */
+  public Aggregate( String... expressions )
+    {
+    this.expressions = expressions;
+    }
+
+  /**
+   * Method getExpressions returns the select list expressions of this Aggregate object.
+   *
+   * @return the expressions (type String[]) of this Aggregate object.
+   */
+  public String[] getExpressions()
+    {
+    return expressions;
+    }
+
+  @Override
+  public String toString()
+    {
+    return "Aggregate{" + "expressions=" + Arrays.asList( expressions ) + '}';
+    }
+
+  @Override
+  public boolean equals( Object object )
+    {
+    if( this == object )
+      return true;
+    if( !( object instanceof Aggregate ) )
+      return false;
+
+    Aggregate aggregate = (Aggregate) object;
+
+    return Arrays.equals( expressions, aggregate.expressions );
+    }
+
+  @Override
+  public int hashCode()
+    {
+    return Arrays.hashCode( expressions );
+    }
+  }
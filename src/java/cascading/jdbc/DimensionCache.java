@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cascading.jdbc.db.DBInputFormat;
+import cascading.tap.TapException;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class DimensionCache holds the rows of a dimension table in an {@link OffHeapLongMap}, keyed by a numeric
+ * key column, so that map side joins need no database round-trips and add no heap pressure.
+ * <p/>
+ * Caches are shared by all tasks running in the same JVM, so with JVM reuse enabled a table is loaded once per
+ * child JVM. The rows are read through the Tap's {@link cascading.jdbc.db.DBInputFormat}, as a single split,
+ * using the Tap's fetch size.
+ * <p/>
+ * If a version query is given, it is executed before each task uses the cache, and the table is reloaded when
+ * the returned value changes. If loading would allocate more than the given number of off-heap bytes, loading
+ * fails with a {@link TapException} naming the table and the limit.
+ *
+ * @see JDBCDimensionLookup
+ */
+public class DimensionCache
+  {
+  /** Field LOG */
+  private static final Logger LOG = LoggerFactory.getLogger( DimensionCache.class );
+
+  /** Field caches */
+  private static final Map<String, DimensionCache> caches = new HashMap<String, DimensionCache>();
+
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte INTEGER = 2;
+  private static final byte LONG = 3;
+  private static final byte DOUBLE = 4;
+  private static final byte FLOAT = 5;
+  private static final byte BOOLEAN = 6;
+  private static final byte DECIMAL = 7;
+  private static final byte DATE = 8;
+  private static final byte TIMESTAMP = 9;
+  private static final byte OBJECT = 10;
+
+  private final JDBCTap tap;
+  private final int keyPos;
+  private final int[] valuePos;
+  private final long maxBytes;
+  private OffHeapLongMap map;
+  private String version;
+
+  /**
+   * Method getCache returns the cache of the given Tap's table shared in this JVM, loading it if it is not loaded
+   * or if its version has changed.
+   *
+   * @param conf         the current job configuration
+   * @param tap          the JDBCTap to read the table from
+   * @param keyField     the source field of the Tap holding the numeric key
+   * @param maxBytes     the maximum number of off-heap bytes the cache may allocate
+   * @param versionQuery a query returning a single value that changes when the table changes, may be null
+   * @return DimensionCache
+   */
+  public static synchronized DimensionCache getCache( JobConf conf, JDBCTap tap, Comparable<?> keyField, long maxBytes, String versionQuery )
+    {
+    // taps on one table may select different rows or columns, so the scheme's query and fields are part of the name
+    JDBCScheme scheme = (JDBCScheme) tap.getScheme();
+    String name = tap.toString() + "|" + scheme.getSelectQuery( tap ) + "|" + scheme.getLimit() + "|" + tap.getSourceFields() + "|" + keyField;
+    DimensionCache cache = caches.get( name );
+
+    if( cache == null || cache.maxBytes != maxBytes )
+      {
+      cache = new DimensionCache( tap, keyField, maxBytes );
+      caches.put( name, cache );
+      }
+
+    cache.refresh( conf, versionQuery );
+
+    return cache;
+    }
+
+  DimensionCache( JDBCTap tap, Comparable<?> keyField, long maxBytes )
+    {
+    this.tap = tap;
+    this.maxBytes = maxBytes;
+
+    Fields sourceFields = tap.getSourceFields();
+
+    this.keyPos = sourceFields.getPos( keyField );
+    this.valuePos = new int[sourceFields.size() - 1];
+
+    for( int i = 0, j = 0; i < sourceFields.size(); i++ )
+      {
+      if( i != keyPos )
+        valuePos[ j++ ] = i;
+      }
+    }
+
+  /**
+   * Method get returns the values of the row with the given key, in source field order without the key,
+   * or null if there is no such row.
+   *
+   * @param key of type long
+   * @return Tuple
+   */
+  public Tuple get( long key )
+    {
+    byte[] bytes = map.get( key );
+
+    if( bytes == null )
+      return null;
+
+    try
+      {
+      return readTuple( bytes );
+      }
+    catch( IOException exception )
+      {
+      throw new TapException( "unable to read cached row for key: " + key, exception );
+      }
+    }
+
+  private void refresh( JobConf conf, String versionQuery )
+    {
+    String current = null;
+
+    if( versionQuery != null )
+      {
+      List<Object[]> result = tap.executeQuery( versionQuery, 1 );
+
+      if( !result.isEmpty() && result.get( 0 )[ 0 ] != null )
+        current = result.get( 0 )[ 0 ].toString();
+      }
+
+    if( map != null && ( versionQuery == null || ( current == null ? version == null : current.equals( version ) ) ) )
+      return;
+
+    LOG.info( "loading dimension table: {}, version: {}", tap.getTableName(), current );
+
+    map = null; // release the previous buffers before allocating new ones
+    map = load( conf );
+    version = current;
+
+    LOG.info( "loaded dimension table: {}, rows: {}, bytes: {}", new Object[]{tap.getTableName(), map.size(), map.getAllocatedBytes()} );
+    }
+
+  private OffHeapLongMap load( JobConf parent )
+    {
+    OffHeapLongMap loading = new OffHeapLongMap( maxBytes );
+    JobConf conf = new JobConf( parent );
+    InputFormat<?, ?> inputFormat = null;
+    RecordReader<?, ?> reader = null;
+
+    try
+      {
+      tap.sourceInit( conf );
+
+      inputFormat = conf.getInputFormat();
+      InputSplit[] splits = inputFormat.getSplits( conf, 1 );
+
+      for( InputSplit split : splits )
+        {
+        reader = inputFormat.getRecordReader( split, conf, Reporter.NULL );
+
+        read( reader, loading );
+
+        reader.close();
+        reader = null;
+        }
+      }
+    catch( IllegalStateException exception )
+      {
+      throw new TapException( "dimension table: " + tap.getTableName() + " does not fit in " + maxBytes + " off-heap bytes, raise the limit or use JDBCLookup", exception );
+      }
+    catch( IOException exception )
+      {
+      throw new TapException( "unable to load dimension table: " + tap.getTableName(), exception );
+      }
+    finally
+      {
+      closeQuietly( reader );
+
+      // the input format's own connection outlives its readers
+      if( inputFormat instanceof DBInputFormat )
+        ( (DBInputFormat<?>) inputFormat ).closeConnection();
+      }
+
+    return loading;
+    }
+
+  private <K, V> void read( RecordReader<K, V> reader, OffHeapLongMap loading ) throws IOException
+    {
+    K key = reader.createKey();
+    V value = reader.createValue();
+
+    while( reader.next( key, value ) )
+      {
+      Tuple tuple = tap.getScheme().source( key, value );
+
+      loading.put( toLong( tuple.get( keyPos ) ), writeTuple( tuple.get( valuePos ) ) );
+      }
+    }
+
+  private void closeQuietly( RecordReader<?, ?> reader )
+    {
+    try
+      {
+      if( reader != null )
+        reader.close();
+      }
+    catch( IOException exception )
+      {
+      LOG.warn( "ignoring reader close exception", exception );
+      }
+    }
+
+  static long toLong( Object value )
+    {
+    if( value instanceof Number )
+      return ( (Number) value ).longValue();
+
+    if( value instanceof String )
+      return Long.parseLong( (String) value );
+
+    throw new TapException( "dimension key must be numeric, got: " + value );
+    }
+
+  static byte[] writeTuple( Tuple tuple ) throws IOException
+    {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream( 64 );
+    DataOutputStream output = new DataOutputStream( bytes );
+
+    output.writeShort( tuple.size() );
+
+    for( int i = 0; i < tuple.size(); i++ )
+      {
+      Object value = tuple.get( i );
+
+      if( value == null )
+        {
+        output.writeByte( NULL );
+        }
+      else if( value instanceof String )
+        {
+        byte[] utf8 = ( (String) value ).getBytes( "UTF-8" );
+        output.writeByte( STRING );
+        output.writeInt( utf8.length );
+        output.write( utf8 );
+        }
+      else if( value instanceof Integer )
+        {
+        output.writeByte( INTEGER );
+        output.writeInt( (Integer) value );
+        }
+      else if( value instanceof Long )
+        {
+        output.writeByte( LONG );
+        output.writeLong( (Long) value );
+        }
+      else if( value instanceof Double )
+        {
+        output.writeByte( DOUBLE );
+        output.writeDouble( (Double) value );
+        }
+      else if( value instanceof Float )
+        {
+        output.writeByte( FLOAT );
+        output.writeFloat( (Float) value );
+        }
+      else if( value instanceof Boolean )
+        {
+        output.writeByte( BOOLEAN );
+        output.writeBoolean( (Boolean) value );
+        }
+      else if( value instanceof BigDecimal )
+        {
+        output.writeByte( DECIMAL );
+        output.writeUTF( value.toString() );
+        }
+      else if( value instanceof java.sql.Timestamp )
+        {
+        output.writeByte( TIMESTAMP );
+        output.writeLong( ( (java.sql.Timestamp) value ).getTime() );
+        output.writeInt( ( (java.sql.Timestamp) value ).getNanos() );
+        }
+      else if( value instanceof java.sql.Date )
+        {
+        output.writeByte( DATE );
+        output.writeLong( ( (java.sql.Date) value ).getTime() );
+        }
+      else
+        {
+        ByteArrayOutputStream objectBytes = new ByteArrayOutputStream();
+        ObjectOutputStream objectOutput = new ObjectOutputStream( objectBytes );
+
+        objectOutput.writeObject( value );
+        objectOutput.close();
+
+        output.writeByte( OBJECT );
+        output.writeInt( objectBytes.size() );
+        objectBytes.writeTo( output );
+        }
+      }
+
+    output.close();
+
+    return bytes.toByteArray();
+    }
+
+  static Tuple readTuple( byte[] bytes ) throws IOException
+    {
+    DataInputStream input = new DataInputStream( new ByteArrayInputStream( bytes ) );
+    int size = input.readShort();
+    Tuple tuple = new Tuple();
+
+    for( int i = 0; i < size; i++ )
+      {
+      byte type = input.readByte();
+
+      switch( type )
+        {
+        case NULL:
+          tuple.add( null );
+          break;
+        case STRING:
+          byte[] utf8 = new byte[input.readInt()];
+          input.readFully( utf8 );
+          tuple.add( new String( utf8, "UTF-8" ) );
+          break;
+        case INTEGER:
+          tuple.add( input.readInt() );
+          break;
+        case LONG:
+          tuple.add( input.readLong() );
+          break;
+        case DOUBLE:
+          tuple.add( input.readDouble() );
+          break;
+        case FLOAT:
+          tuple.add( input.readFloat() );
+          break;
+        case BOOLEAN:
+          tuple.add( input.readBoolean() );
+          break;
+        case DECIMAL:
+          tuple.add( new BigDecimal( input.readUTF() ) );
+          break;
+        case TIMESTAMP:
+          java.sql.Timestamp timestamp = new java.sql.Timestamp( input.readLong() );
+          timestamp.setNanos( input.readInt() );
+          tuple.add( timestamp );
+          break;
+        case DATE:
+          tuple.add( new java.sql.Date( input.readLong() ) );
+          break;
+        case OBJECT:
+          byte[] objectBytes = new byte[input.readInt()];
+          input.readFully( objectBytes );
+          tuple.add( readObject( objectBytes ) );
+          break;
+        default:
+          throw new IOException( "unknown value type: " + type );
+        }
+      }
+
+    return tuple;
+    }
+
+  private static Object readObject( byte[] bytes ) throws IOException
+    {
+    ObjectInputStream input = new ObjectInputStream( new ByteArrayInputStream( bytes ) );
+
+    try
+      {
+      return input.readObject();
+      }
+    catch( ClassNotFoundException exception )
+      {
+      throw new IOException( "unable to read cached value", exception );
+      }
+    finally
+      {
+      input.close();
+      }
+    }
+  }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import cascading.flow.FlowProcess;
+import cascading.flow.hadoop.HadoopFlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Class JDBCDimensionLookup is a {@link Function} that joins each argument Tuple with a row of a small dimension
+ * table replicated into every task, see {@link DimensionCache}.
+ * <p/>
+ * The single argument is the numeric key. The result holds the source fields of the given {@link JDBCTap} without
+ * the key field. If outer is true, keys without a row yield {@code null} values, otherwise they are dropped.
+ * <p/>
+ * Use {@link JDBCLookup} instead if the table does not fit in memory.
+ */
+public class JDBCDimensionLookup extends BaseOperation<Void> implements Function<Void>
+  {
+  private static final long serialVersionUID = 1L;
+
+  /** Counters reported by JDBCDimensionLookup */
+  public enum Counters
+    {
+      Hits, Misses
+    }
+
+  /** Field tap */
+  private final JDBCTap tap;
+  /** Field keyField */
+  private final Comparable<?> keyField;
+  /** Field maxBytes */
+  private final long maxBytes;
+  /** Field versionQuery */
+  private final String versionQuery;
+  /** Field outer */
+  private final boolean outer;
+
+  private transient DimensionCache cache;
+
+  /**
+   * Constructor JDBCDimensionLookup creates a new JDBCDimensionLookup instance.
+   *
+   * @param tap          the JDBCTap to read the dimension table from
+   * @param keyField     the source field of the Tap holding the numeric key
+   * @param maxBytes     the maximum number of off-heap bytes the cached table may use
+   * @param versionQuery a query returning a single value that changes when the table changes, may be null
+   * @param outer        true if keys without a row should be emitted with null values
+   */
+  public JDBCDimensionLookup( JDBCTap tap, Comparable<?> keyField, long maxBytes, String versionQuery, boolean outer )
+    {
+    super( 1, tap.getSourceFields().subtract( new Fields( keyField ) ) );
+    this.tap = tap;
+    this.keyField = keyField;
+    this.maxBytes = maxBytes;
+    this.versionQuery = versionQuery;
+    this.outer = outer;
+    }
+
+  /**
+   * Constructor JDBCDimensionLookup creates a new inner JDBCDimensionLookup instance that never reloads the table.
+   *
+   * @param tap      the JDBCTap to read the dimension table from
+   * @param keyField the source field of the Tap holding the numeric key
+   * @param maxBytes the maximum number of off-heap bytes the cached table may use
+   */
+  public JDBCDimensionLookup( JDBCTap tap, Comparable<?> keyField, long maxBytes )
+    {
+    this( tap, keyField, maxBytes, null, false );
+    }
+
+  @Override
+  public void prepare( FlowProcess flowProcess, OperationCall<Void> operationCall )
+    {
+    JobConf conf = flowProcess instanceof HadoopFlowProcess ? ( (HadoopFlowProcess) flowProcess ).getJobConf() : new JobConf();
+
+    cache = DimensionCache.getCache( conf, tap, keyField, maxBytes, versionQuery );
+    }
+
+  public void operate( FlowProcess flowProcess, FunctionCall<Void> functionCall )
+    {
+    Object key = functionCall.getArguments().getTuple().get( 0 );
+    Tuple values = key == null ? null : cache.get( DimensionCache.toLong( key ) );
+
+    if( values != null )
+      {
+      flowProcess.increment( Counters.Hits, 1 );
+      functionCall.getOutputCollector().add( values );
+      return;
+      }
+
+    flowProcess.increment( Counters.Misses, 1 );
+
+    if( outer )
+      functionCall.getOutputCollector().add( Tuple.size( getFieldDeclaration().size() ) );
+    }
+
+  @Override
+  public void cleanup( FlowProcess flowProcess, OperationCall<Void> operationCall )
+    {
+    cache = null;
+    }
+  }
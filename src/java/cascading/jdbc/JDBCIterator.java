@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.NoSuchElementException;
+
+import cascading.jdbc.db.ConnectionPool;
+import cascading.scheme.Scheme;
+import cascading.tap.TapException;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class JDBCIterator streams the rows of a single select statement as {@link Tuple} instances.
+ * <p/>
+ * It is returned by {@link JDBCTap#openForRead(org.apache.hadoop.mapred.JobConf)} so that reading a table
+ * locally does not plan or read input splits. The connection is borrowed from a {@link ConnectionPool}
+ * and returned once the rows are exhausted or the iterator is closed.
+ */
+public class JDBCIterator implements TupleIterator
+  {
+  /** Field LOG */
+  private static final Logger LOG = LoggerFactory.getLogger( JDBCIterator.class );
+
+  private final Scheme scheme;
+  private final ConnectionPool pool;
+  private Connection connection;
+  private Statement statement;
+  private ResultSet resultSet;
+  private Tuple next;
+
+  /**
+   * Constructor JDBCIterator creates a new JDBCIterator instance and executes the given query.
+   *
+   * @param scheme       the Scheme used to turn each row into a Tuple
+   * @param pool         the pool the connection is borrowed from
+   * @param query        the select statement
+   * @param fetchSize    the number of rows fetched per round-trip, 0 uses the driver default
+   * @param maxRows      the maximum number of rows to return, 0 for no limit
+   * @param queryTimeout the number of seconds the query may execute, 0 for no limit
+   * @throws IOException when the query cannot be executed
+   */
+  public JDBCIterator( Scheme scheme, ConnectionPool pool, String query, int fetchSize, int maxRows, int queryTimeout ) throws IOException
+    {
+    this.scheme = scheme;
+    this.pool = pool;
+    this.connection = pool.acquire();
+
+    try
+      {
+      LOG.info( "executing query: {}", query );
+
+      statement = connection.createStatement( ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY );
+
+      if( fetchSize > 0 )
+        statement.setFetchSize( fetchSize );
+
+      if( maxRows > 0 )
+        statement.setMaxRows( maxRows );
+
+      if( queryTimeout > 0 )
+        statement.setQueryTimeout( queryTimeout );
+
+      resultSet = statement.executeQuery( query );
+      }
+    catch( SQLException exception )
+      {
+      closeQuietly( false );
+      throw new IOException( "unable to execute select query: " + query, exception );
+      }
+    }
+
+  public boolean hasNext()
+    {
+    if( next != null )
+      return true;
+
+    if( resultSet == null )
+      return false;
+
+    try
+      {
+      if( !resultSet.next() )
+        {
+        closeQuietly( true );
+        return false;
+        }
+
+      TupleRecord record = new TupleRecord();
+
+      record.readFields( resultSet );
+
+      next = scheme.source( null, record );
+      }
+    catch( SQLException exception )
+      {
+      closeQuietly( false );
+      throw new TapException( "unable to read next row", exception );
+      }
+
+    return true;
+    }
+
+  public Tuple next()
+    {
+    if( !hasNext() )
+      throw new NoSuchElementException();
+
+    Tuple result = next;
+
+    next = null;
+
+    return result;
+    }
+
+  public void remove()
+    {
+    throw new UnsupportedOperationException( "unimplemented" );
+    }
+
+  public void close()
+    {
+    closeQuietly( true );
+    }
+
+  private void closeQuietly( boolean reuse )
+    {
+    if( connection == null )
+      return;
+
+    try
+      {
+      if( resultSet != null )
+        resultSet.close();
+
+      if( statement != null )
+        statement.close();
+      }
+    catch( SQLException exception )
+      {
+      LOG.warn( "ignoring statement close exception", exception );
+      reuse = false;
+      }
+
+    if( reuse )
+      pool.release( connection );
+    else
+      pool.discard( connection );
+
+    resultSet = null;
+    statement = null;
+    connection = null;
+    }
+  }
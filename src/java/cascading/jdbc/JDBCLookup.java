@@ -0,0 +1,434 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cascading.flow.FlowProcess;
+import cascading.jdbc.db.ConnectionPool;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.tap.TapException;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import cascading.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class JDBCLookup is a {@link Function} that joins each argument Tuple with the rows of a remote table
+ * sharing the same key, without reading the whole table through a {@link JDBCTap}.
+ * <p/>
+ * Keys that are not cached are collected into batches and selected with a single
+ * {@code SELECT ... WHERE key IN (?, ..., ?)} statement over a pooled connection. Selected rows, and keys
+ * without rows, are kept in a size bounded LRU cache for the rest of the task.
+ * <p/>
+ * Because argument Tuples are buffered, each result Tuple holds the given argument fields followed by the value
+ * fields, and this Function must be used with the {@link Fields#RESULTS} output selector. Pass every field needed
+ * downstream as an argument. Buffered Tuples are flushed when the operation is cleaned up.
+ * <p/>
+ * Key values are bound to the lookup query as they are in the arguments, so their types must be comparable with the
+ * key columns, but selected rows are matched to the arguments by the string representation of their key values, so
+ * the types need not be identical, an argument Integer matching a column Long.
+ * <p/>
+ * If outer is true, arguments without a matching row are emitted with {@code null} values, otherwise they are
+ * dropped.
+ */
+public class JDBCLookup extends BaseOperation<Void> implements Function<Void>
+  {
+  private static final long serialVersionUID = 1L;
+
+  /** Field LOG */
+  private static final Logger LOG = LoggerFactory.getLogger( JDBCLookup.class );
+
+  /** Counters reported by JDBCLookup */
+  public enum Counters
+    {
+      Hits, Misses, Queries
+    }
+
+  /** Field tap */
+  private final JDBCTap tap;
+  /** Field keyFields */
+  private final Fields keyFields;
+  /** Field keyColumns */
+  private final String[] keyColumns;
+  /** Field valueColumns */
+  private final String[] valueColumns;
+  /** Field outer */
+  private final boolean outer;
+  /** Field batchSize */
+  private int batchSize = 100;
+  /** Field bufferSize */
+  private int bufferSize = 1000;
+  /** Field cacheSize */
+  private int cacheSize = 10000;
+
+  private transient ConnectionPool pool;
+  private transient Connection connection;
+  private transient PreparedStatement statement;
+  private transient Map<Tuple, List<Tuple>> cache;
+  private transient List<Tuple[]> pending;
+  /** The pending keys, by the string form matching selected rows, to their argument values bound to the query */
+  private transient Map<Tuple, Tuple> pendingKeys;
+  private transient TupleEntryCollector outputCollector;
+
+  /**
+   * Constructor JDBCLookup creates a new JDBCLookup instance.
+   *
+   * @param tap            the JDBCTap whose connection and table are used for the lookups
+   * @param argumentFields the fields of the argument Tuples, copied to the result
+   * @param keyFields      the argument fields holding the key, aliases of keyColumns
+   * @param keyColumns     the key column names in the table
+   * @param valueFields    the fields declared for the selected values
+   * @param valueColumns   the value column names in the table
+   * @param outer          true if arguments without a matching row should be emitted with null values
+   */
+  public JDBCLookup( JDBCTap tap, Fields argumentFields, Fields keyFields, String[] keyColumns, Fields valueFields, String[] valueColumns, boolean outer )
+    {
+    super( argumentFields.size(), argumentFields.append( valueFields ) );
+    this.tap = tap;
+    this.keyFields = keyFields;
+    this.keyColumns = keyColumns;
+    this.valueColumns = valueColumns;
+    this.outer = outer;
+
+    if( tap.tableDesc == null )
+      throw new IllegalArgumentException( "tap must have a TableDesc" );
+
+    if( keyFields.size() != keyColumns.length )
+      throw new IllegalArgumentException( "keyFields and keyColumns must be the same size" );
+
+    if( valueFields.size() != valueColumns.length )
+      throw new IllegalArgumentException( "valueFields and valueColumns must be the same size" );
+    }
+
+  /**
+   * Method setBatchSize sets the number of keys selected by each lookup query.
+   *
+   * @param batchSize of type int
+   */
+  public void setBatchSize( int batchSize )
+    {
+    this.batchSize = batchSize;
+    }
+
+  /**
+   * Method setBufferSize sets the number of argument Tuples buffered while waiting for a batch of keys to fill.
+   *
+   * @param bufferSize of type int
+   */
+  public void setBufferSize( int bufferSize )
+    {
+    this.bufferSize = bufferSize;
+    }
+
+  /**
+   * Method setCacheSize sets the number of keys whose rows are cached.
+   *
+   * @param cacheSize of type int
+   */
+  public void setCacheSize( int cacheSize )
+    {
+    this.cacheSize = cacheSize;
+    }
+
+  @Override
+  public void prepare( FlowProcess flowProcess, OperationCall<Void> operationCall )
+    {
+    pool = ConnectionPool.getPool( tap.driverClassName, tap.connectionUrl, tap.username, tap.password );
+    cache = new LRUCache( cacheSize );
+    pending = new ArrayList<Tuple[]>();
+    pendingKeys = new LinkedHashMap<Tuple, Tuple>();
+
+    try
+      {
+      connection = pool.acquire();
+      }
+    catch( IOException exception )
+      {
+      throw new TapException( "unable to open lookup connection", exception );
+      }
+    }
+
+  public void operate( FlowProcess flowProcess, FunctionCall<Void> functionCall )
+    {
+    outputCollector = functionCall.getOutputCollector();
+
+    TupleEntry arguments = functionCall.getArguments();
+    Tuple boundKey = arguments.selectTuple( keyFields );
+    Tuple key = getKey( boundKey );
+    List<Tuple> values = cache.get( key );
+
+    if( values != null )
+      {
+      flowProcess.increment( Counters.Hits, 1 );
+      emit( arguments.getTuple(), values );
+      return;
+      }
+
+    flowProcess.increment( Counters.Misses, 1 );
+
+    pending.add( new Tuple[]{new Tuple( arguments.getTuple() ), key} );
+    if( !pendingKeys.containsKey( key ) )
+      pendingKeys.put( key, new Tuple( boundKey ) );
+
+    if( pendingKeys.size() >= batchSize || pending.size() >= bufferSize )
+      flush( flowProcess );
+    }
+
+  @Override
+  public void cleanup( FlowProcess flowProcess, OperationCall<Void> operationCall )
+    {
+    try
+      {
+      if( pending != null && !pending.isEmpty() )
+        flush( flowProcess );
+      }
+    finally
+      {
+      closeStatement();
+
+      if( connection != null )
+        pool.release( connection );
+
+      connection = null;
+      cache = null;
+      }
+    }
+
+  private void flush( FlowProcess flowProcess )
+    {
+    Map<Tuple, List<Tuple>> found = new HashMap<Tuple, List<Tuple>>();
+    List<Tuple> keys = new ArrayList<Tuple>( pendingKeys.keySet() );
+    List<Tuple> boundKeys = new ArrayList<Tuple>( pendingKeys.values() );
+
+    for( int i = 0; i < boundKeys.size(); i += batchSize )
+      {
+      List<Tuple> batch = boundKeys.subList( i, Math.min( boundKeys.size(), i + batchSize ) );
+
+      flowProcess.increment( Counters.Queries, 1 );
+      flowProcess.keepAlive();
+
+      select( batch, found );
+      }
+
+    for( Tuple key : keys )
+      {
+      List<Tuple> values = found.get( key );
+
+      if( values == null )
+        values = Collections.emptyList();
+
+      cache.put( key, values );
+      }
+
+    for( Tuple[] entry : pending )
+      {
+      List<Tuple> values = found.get( entry[ 1 ] );
+
+      emit( entry[ 0 ], values == null ? Collections.<Tuple>emptyList() : values );
+      }
+
+    pending.clear();
+    pendingKeys.clear();
+    }
+
+  /** Selects the rows of the given keys, holding their argument values, into found by the string form of their keys. */
+  private void select( List<Tuple> keys, Map<Tuple, List<Tuple>> found )
+    {
+    try
+      {
+      if( statement == null )
+        statement = connection.prepareStatement( getSelectQuery() );
+
+      int index = 1;
+
+      // pad a short batch with its last key so one statement serves every batch
+      for( int i = 0; i < batchSize; i++ )
+        {
+        Tuple key = keys.get( Math.min( i, keys.size() - 1 ) );
+
+        for( int j = 0; j < key.size(); j++ )
+          statement.setObject( index++, key.get( j ) );
+        }
+
+      ResultSet resultSet = statement.executeQuery();
+
+      while( resultSet.next() )
+        {
+        Tuple key = new Tuple();
+
+        for( int i = 0; i < keyColumns.length; i++ )
+          key.add( resultSet.getObject( i + 1 ) );
+
+        Tuple value = new Tuple();
+
+        for( int i = 0; i < valueColumns.length; i++ )
+          value.add( resultSet.getObject( keyColumns.length + i + 1 ) );
+
+        key = getKey( key );
+
+        List<Tuple> values = found.get( key );
+
+        if( values == null )
+          {
+          values = new ArrayList<Tuple>( 1 );
+          found.put( key, values );
+          }
+
+        values.add( value );
+        }
+
+      resultSet.close();
+      connection.commit();
+      }
+    catch( SQLException exception )
+      {
+      closeStatement();
+      pool.discard( connection );
+      connection = null;
+
+      throw new TapException( "unable to select lookup rows from: " + tap.getTableName(), exception );
+      }
+    }
+
+  private void emit( Tuple arguments, List<Tuple> values )
+    {
+    if( values.isEmpty() )
+      {
+      if( outer )
+        outputCollector.add( append( arguments, Tuple.size( valueColumns.length ) ) );
+
+      return;
+      }
+
+    for( Tuple value : values )
+      outputCollector.add( append( arguments, value ) );
+    }
+
+  private Tuple append( Tuple arguments, Tuple value )
+    {
+    Tuple result = new Tuple( arguments );
+
+    for( int i = 0; i < value.size(); i++ )
+      result.add( value.get( i ) );
+
+    return result;
+    }
+
+  private Tuple getKey( Tuple values )
+    {
+    Tuple key = new Tuple();
+
+    for( int i = 0; i < values.size(); i++ )
+      {
+      Object value = values.get( i );
+
+      key.add( value == null ? null : value.toString() );
+      }
+
+    return key;
+    }
+
+  String getSelectQuery()
+    {
+    StringBuilder query = new StringBuilder();
+
+    query.append( "SELECT " ).append( Util.join( keyColumns, ", " ) );
+    query.append( ", " ).append( Util.join( valueColumns, ", " ) );
+    query.append( " FROM " ).append( tap.getTableName() );
+    query.append( " WHERE " );
+
+    if( keyColumns.length == 1 )
+      {
+      query.append( keyColumns[ 0 ] ).append( " IN (" );
+
+      for( int i = 0; i < batchSize; i++ )
+        query.append( i == 0 ? "?" : ", ?" );
+
+      query.append( ")" );
+      }
+    else
+      {
+      for( int i = 0; i < batchSize; i++ )
+        {
+        if( i != 0 )
+          query.append( " OR " );
+
+        query.append( "(" );
+
+        for( int j = 0; j < keyColumns.length; j++ )
+          {
+          if( j != 0 )
+            query.append( " AND " );
+
+          query.append( keyColumns[ j ] ).append( " = ?" );
+          }
+
+        query.append( ")" );
+        }
+      }
+
+    return query.toString();
+    }
+
+  private void closeStatement()
+    {
+    try
+      {
+      if( statement != null )
+        statement.close();
+      }
+    catch( SQLException exception )
+      {
+      LOG.warn( "ignoring statement close exception", exception );
+      }
+
+    statement = null;
+    }
+
+  /** A LinkedHashMap in access order that evicts its least recently used entry once full. */
+  private static class LRUCache extends LinkedHashMap<Tuple, List<Tuple>>
+    {
+    private static final long serialVersionUID = 1L;
+
+    private final int maxSize;
+
+    private LRUCache( int maxSize )
+      {
+      super( 16, 0.75f, true );
+      this.maxSize = maxSize;
+      }
+
+    @Override
+    protected boolean removeEldestEntry( Map.Entry<Tuple, List<Tuple>> eldest )
+      {
+      return size() > maxSize;
+      }
+    }
+  }
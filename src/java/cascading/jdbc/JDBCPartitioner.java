@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.io.IOException;
+
+import cascading.tuple.Tuple;
+import cascading.util.Util;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Partitioner;
+
+/**
+ * Class JDBCPartitioner sends the grouping keys of each partition of the output table, as described by a
+ * {@link PartitionSpec}, to the same reducers, so each reducer writes to one partition, or a few, instead of all.
+ * <p/>
+ * The value of the partition column must be the first field of the grouping key. With more reducers than
+ * partitions, the keys of each partition are spread by hash over the reducers numbered alike modulo the number of
+ * partitions, with fewer, each reducer writes the partitions numbered alike modulo the number of reducers. Keys
+ * belonging to no partition are spread by hash over all reducers.
+ *
+ * @see JDBCScheme#setPartitionReducers(boolean)
+ */
+public class JDBCPartitioner implements Partitioner<Tuple, Tuple>
+  {
+  /** The serialized {@link PartitionSpec} of the output table */
+  public static final String PARTITION_SPEC_PROPERTY = "cascading.jdbc.partition.spec";
+
+  private PartitionSpec partitionSpec;
+
+  /**
+   * Method setPartitionSpec makes the given job partition its grouping keys with this partitioner and the given spec.
+   *
+   * @param conf          of type JobConf
+   * @param partitionSpec of type PartitionSpec
+   */
+  public static void setPartitionSpec( JobConf conf, PartitionSpec partitionSpec ) throws IOException
+    {
+    conf.set( PARTITION_SPEC_PROPERTY, Util.serializeBase64( partitionSpec ) );
+    conf.setPartitionerClass( JDBCPartitioner.class );
+    }
+
+  public void configure( JobConf conf )
+    {
+    try
+      {
+      partitionSpec = (PartitionSpec) Util.deserializeBase64( conf.get( PARTITION_SPEC_PROPERTY ) );
+      }
+    catch( IOException exception )
+      {
+      throw new IllegalStateException( "unable to deserialize partition spec", exception );
+      }
+    }
+
+  public int getPartition( Tuple key, Tuple value, int numReduceTasks )
+    {
+    Object partitionValue = key.getObject( 0 );
+    int partition = partitionSpec.getPartition( partitionValue );
+    int hash = ( key.hashCode() & Integer.MAX_VALUE );
+
+    if( partition < 0 )
+      return hash % numReduceTasks;
+
+    int partitions = partitionSpec.getNumPartitions();
+
+    if( numReduceTasks <= partitions )
+      return partition % numReduceTasks;
+
+    // the reducers numbered partition, partition + partitions, partition + 2 * partitions, and so on
+    int reducersPerPartition = ( numReduceTasks - partition + partitions - 1 ) / partitions;
+
+    return partition + partitions * ( hash % reducersPerPartition );
+    }
+  }
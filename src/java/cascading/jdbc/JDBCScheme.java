@@ -13,17 +13,25 @@
 package cascading.jdbc;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import cascading.jdbc.db.DBInputFormat;
 import cascading.jdbc.db.DBOutputFormat;
+import cascading.jdbc.db.SemiJoinFilter;
 import cascading.scheme.Scheme;
 import cascading.tap.Tap;
 import cascading.tap.TapException;
 import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
 import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryIterator;
 import cascading.util.Util;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.OutputCollector;
 
@@ -38,6 +46,10 @@ import org.apache.hadoop.mapred.OutputCollector;
  * in the respective arrays. In other words, if your DB TABLE has different column names than your assembly exepects,
  * use the Fields arguments to bind the assembly to the table. Both Fields and array must be the same size.
  * <p/>
+ * If groupBy column names and {@link Aggregate} functions are given, the Scheme may only be used as a source, and
+ * the database computes the aggregates of every group. Splits select contiguous ranges of whole groups, so the
+ * sourced Tuples are final results and need not be grouped again.
+ * <p/>
  * Override this class, {@link DBInputFormat}, and {@link DBOutputFormat} to specialize for a given vendor database.
  */
 public class JDBCScheme extends Scheme
@@ -54,7 +66,13 @@ public class JDBCScheme extends Scheme
   private Tuple updateIfTuple;
   private String selectQuery;
   private String countQuery;
+  private String[] groupBy;
+  private Aggregate[] aggregates;
   private long limit = -1;
+  private String semiJoinColumn;
+  private boolean upsert = false;
+  private boolean partitionReducers = false;
+  private String semiJoinPath;
 
   /**
    * Constructor JDBCScheme creates a new JDBCScheme instance.
@@ -486,6 +504,86 @@ public class JDBCScheme extends Scheme
     this( null, columnFields, columns, selectQuery, countQuery, -1 );
     }
 
+  /**
+   * Constructor JDBCScheme creates a new JDBCScheme instance that sources one Tuple per group of rows, holding the
+   * groupBy column values followed by the results of the given aggregates.
+   * <p/>
+   * Use this constructor if the data source may only be used as a source.
+   *
+   * @param inputFormatClass of type Class<? extends DBInputFormat>
+   * @param groupByFields    of type Fields
+   * @param groupBy          of type String[]
+   * @param aggregateFields  of type Fields
+   * @param aggregates       of type Aggregate[]
+   * @param conditions       of type String
+   * @param limit            of type long
+   */
+  public JDBCScheme( Class<? extends DBInputFormat> inputFormatClass, Fields groupByFields, String[] groupBy, Fields aggregateFields, Aggregate[] aggregates, String conditions, long limit )
+    {
+    if( groupBy == null || groupBy.length == 0 )
+      throw new IllegalArgumentException( "groupBy may not be null or empty" );
+
+    if( aggregates == null || aggregates.length == 0 )
+      throw new IllegalArgumentException( "aggregates may not be null or empty" );
+
+    this.columnFields = groupByFields.append( aggregateFields );
+    this.columns = getAggregateColumns( groupBy, aggregates );
+
+    verifyColumns( columnFields, columns );
+
+    setSourceFields( columnFields );
+
+    this.groupBy = groupBy;
+    this.aggregates = aggregates;
+    this.orderBy = groupBy; // splits page through the groups in key order
+    this.conditions = conditions;
+    this.limit = limit;
+
+    this.inputFormatClass = inputFormatClass;
+    }
+
+  /**
+   * Constructor JDBCScheme creates a new JDBCScheme instance that sources one Tuple per group of rows, holding the
+   * groupBy column values followed by the results of the given aggregates.
+   * <p/>
+   * Use this constructor if the data source may only be used as a source.
+   *
+   * @param groupByFields   of type Fields
+   * @param groupBy         of type String[]
+   * @param aggregateFields of type Fields
+   * @param aggregates      of type Aggregate[]
+   * @param conditions      of type String
+   */
+  public JDBCScheme( Fields groupByFields, String[] groupBy, Fields aggregateFields, Aggregate[] aggregates, String conditions )
+    {
+    this( null, groupByFields, groupBy, aggregateFields, aggregates, conditions, -1 );
+    }
+
+  /**
+   * Constructor JDBCScheme creates a new JDBCScheme instance that sources one Tuple per group of rows, holding the
+   * groupBy column values followed by the results of the given aggregates.
+   * <p/>
+   * Use this constructor if the data source may only be used as a source.
+   *
+   * @param groupBy         of type String[]
+   * @param aggregateFields of type Fields
+   * @param aggregates      of type Aggregate[]
+   */
+  public JDBCScheme( String[] groupBy, Fields aggregateFields, Aggregate[] aggregates )
+    {
+    this( null, new Fields( groupBy ), groupBy, aggregateFields, aggregates, null, -1 );
+    }
+
+  private static String[] getAggregateColumns( String[] groupBy, Aggregate[] aggregates )
+    {
+    List<String> columns = new ArrayList<String>( Arrays.asList( groupBy ) );
+
+    for( Aggregate aggregate : aggregates )
+      Collections.addAll( columns, aggregate.getExpressions() );
+
+    return columns.toArray( new String[columns.size()] );
+    }
+
   /**
    * Method getColumns returns the columns of this JDBCScheme object.
    *
@@ -506,6 +604,236 @@ public class JDBCScheme extends Scheme
     return orderBy;
     }
 
+  /**
+   * Method getGroupBy returns the groupBy of this JDBCScheme object.
+   *
+   * @return the groupBy (type String[]) of this JDBCScheme object, null unless this is an aggregating source.
+   */
+  public String[] getGroupBy()
+    {
+    return groupBy;
+    }
+
+  /**
+   * Method getAggregates returns the aggregates of this JDBCScheme object.
+   *
+   * @return the aggregates (type Aggregate[]) of this JDBCScheme object, null unless this is an aggregating source.
+   */
+  public Aggregate[] getAggregates()
+    {
+    return aggregates;
+    }
+
+  /**
+   * Method getLimit returns the limit of this JDBCScheme object.
+   *
+   * @return the limit (type long) of this JDBCScheme object, -1 if no limit is set.
+   */
+  public long getLimit()
+    {
+    return limit;
+    }
+
+  /**
+   * Method isUpsert returns true if this Scheme upserts every sunk Tuple.
+   *
+   * @return the upsert (type boolean) of this JDBCScheme object.
+   */
+  public boolean isUpsert()
+    {
+    return upsert;
+    }
+
+  /**
+   * Method setUpsert sets whether this Scheme upserts every sunk Tuple with a single statement native to the
+   * database, inserting the row or updating the existing row with the same key. The key is given by the updateBy
+   * columns, or else by the primary keys of the parent Tap's {@link TableDesc}.
+   * <p/>
+   * See {@link cascading.jdbc.db.Dialect} for the supported databases.
+   *
+   * @param upsert of type boolean
+   */
+  public void setUpsert( boolean upsert )
+    {
+    this.upsert = upsert;
+    }
+
+  /**
+   * Method isPartitionReducers returns true if this Scheme aligns the reducers with the partitions of the table.
+   *
+   * @return the partitionReducers (type boolean) of this JDBCScheme object.
+   */
+  public boolean isPartitionReducers()
+    {
+    return partitionReducers;
+    }
+
+  /**
+   * Method setPartitionReducers sets whether this Scheme sends the tuples of each partition of the table to the same
+   * reducers, with a {@link JDBCPartitioner}, so each reducer writes to one partition, or a few. The partitioning is
+   * the {@link PartitionSpec} declared on the parent Tap's {@link TableDesc}, or else read from the catalog.
+   * <p/>
+   * The tuples must be grouped by the partition column first, with a GroupBy without secondary sorting, since
+   * Cascading uses partitioners of its own for CoGroups and sorted GroupBys.
+   *
+   * @param partitionReducers of type boolean
+   */
+  public void setPartitionReducers( boolean partitionReducers )
+    {
+    this.partitionReducers = partitionReducers;
+    }
+
+  /**
+   * Method setSemiJoin restricts the rows sourced by a MapReduce job to those whose key column matches one of the
+   * keys written to the given path by {@link #writeSemiJoinKeys(JobConf, Tap, Comparable, String, int, double)}.
+   * <p/>
+   * The key column must be one of the selected columns. Reading the parent Tap directly is not restricted.
+   *
+   * @param column the key column name
+   * @param path   the path of the semi-join keys
+   */
+  public void setSemiJoin( String column, String path )
+    {
+    this.semiJoinColumn = column;
+    this.semiJoinPath = path;
+    }
+
+  /**
+   * Method writeSemiJoinKeys reads the distinct values of the given key field from the given Tap, usually the much
+   * smaller side of a join, and writes them to the given path for {@link #setSemiJoin(String, String)}.
+   * <p/>
+   * Up to maxExactKeys keys are written exactly, and pushed into each split's query. More keys are written as a Bloom
+   * filter with the given false positive rate, applied to each row as it is read. The keys are streamed, and only
+   * held in memory while there are no more than maxExactKeys of them, so keyTap is read a second time to fill the
+   * Bloom filter. Numeric keys are normalized, see {@link SemiJoinFilter#normalize(Object)}.
+   *
+   * @param conf              the current job configuration
+   * @param keyTap            the Tap to read the keys from
+   * @param keyField          the field of keyTap holding the key
+   * @param path              the path to write the keys to
+   * @param maxExactKeys      the largest number of keys written exactly
+   * @param falsePositiveRate the false positive rate of the Bloom filter
+   * @return the number of distinct keys, approximate if written as a Bloom filter (type int)
+   * @throws IOException when the keys cannot be read or written
+   */
+  public static int writeSemiJoinKeys( JobConf conf, Tap keyTap, Comparable<?> keyField, String path, int maxExactKeys, double falsePositiveRate ) throws IOException
+    {
+    int pos = keyTap.getSourceFields().getPos( keyField );
+    SortedSet<String> keys = new TreeSet<String>();
+    long count = 0;
+    TupleEntryIterator iterator = keyTap.openForRead( conf );
+
+    try
+      {
+      while( iterator.hasNext() )
+        {
+        String key = SemiJoinFilter.normalize( iterator.next().getTuple().get( pos ) );
+
+        if( key == null )
+          continue;
+
+        count++;
+
+        // stop holding the keys once there are too many to write exactly
+        if( keys != null && keys.add( key ) && keys.size() > maxExactKeys )
+          keys = null;
+        }
+      }
+    finally
+      {
+      iterator.close();
+      }
+
+    if( keys != null )
+      {
+      new SemiJoinFilter( keys, maxExactKeys, falsePositiveRate ).write( conf, new Path( path ) );
+
+      return keys.size();
+      }
+
+    // sized for every key read, as their distinct number is unknown
+    SemiJoinFilter filter = new SemiJoinFilter( count, falsePositiveRate );
+    int distinct = 0;
+
+    iterator = keyTap.openForRead( conf );
+
+    try
+      {
+      while( iterator.hasNext() )
+        {
+        String key = SemiJoinFilter.normalize( iterator.next().getTuple().get( pos ) );
+
+        if( key != null && filter.add( key ) )
+          distinct++;
+        }
+      }
+    finally
+      {
+      iterator.close();
+      }
+
+    filter.write( conf, new Path( path ) );
+
+    return distinct;
+    }
+
+  /**
+   * Method getSelectQuery returns the complete select statement this Scheme sources from, without any of the
+   * LIMIT or OFFSET clauses used to read a single split. It is used when the parent Tap is read directly
+   * instead of from within a MapReduce job.
+   *
+   * @param tap the parent JDBCTap
+   * @return the select statement (type String)
+   */
+  protected String getSelectQuery( JDBCTap tap )
+    {
+    if( selectQuery != null )
+      return selectQuery;
+
+    String tableName = tap.getTableName();
+    StringBuilder query = new StringBuilder();
+
+    query.append( "SELECT " ).append( Util.join( columns, ", " ) );
+    query.append( " FROM " ).append( tableName );
+    query.append( " AS " ).append( tableName ); //in hsqldb this is necessary
+
+    if( conditions != null && conditions.length() > 0 )
+      query.append( " WHERE (" ).append( conditions ).append( ")" );
+
+    if( groupBy != null )
+      query.append( " GROUP BY " ).append( Util.join( groupBy, ", " ) );
+
+    if( orderBy != null && orderBy.length != 0 )
+      query.append( " ORDER BY " ).append( Util.join( orderBy, ", " ) );
+
+    return query.toString();
+    }
+
+  /**
+   * Method getGroupCountQuery returns the query counting the number of groups an aggregating source returns.
+   *
+   * @param tap the parent JDBCTap
+   * @return the count query (type String)
+   */
+  protected String getGroupCountQuery( JDBCTap tap )
+    {
+    String tableName = tap.getTableName();
+    StringBuilder query = new StringBuilder();
+
+    query.append( "SELECT COUNT(*) FROM ( " );
+    query.append( "SELECT " ).append( Util.join( groupBy, ", " ) );
+    query.append( " FROM " ).append( tableName );
+    query.append( " AS " ).append( tableName );
+
+    if( conditions != null && conditions.length() > 0 )
+      query.append( " WHERE (" ).append( conditions ).append( ")" );
+
+    query.append( " GROUP BY " ).append( Util.join( groupBy, ", " ) );
+    query.append( " ) AS grouped" );
+
+    return query.toString();
+    }
+
   public void sourceInit( Tap tap, JobConf conf ) throws IOException
     {
     int concurrentReads = ( (JDBCTap) tap ).concurrentReads;
@@ -514,6 +842,11 @@ public class JDBCScheme extends Scheme
       {
       DBInputFormat.setInput( conf, TupleRecord.class, selectQuery, countQuery, limit, concurrentReads );
       }
+    else if( aggregates != null )
+      {
+      JDBCTap jdbcTap = (JDBCTap) tap;
+      DBInputFormat.setInput( conf, TupleRecord.class, getSelectQuery( jdbcTap ), getGroupCountQuery( jdbcTap ), limit, concurrentReads );
+      }
     else
       {
       String tableName = ( (JDBCTap) tap ).getTableName();
@@ -521,31 +854,133 @@ public class JDBCScheme extends Scheme
       DBInputFormat.setInput( conf, TupleRecord.class, tableName, conditions, joinedOrderBy, limit, concurrentReads, columns );
       }
 
+    // custom select queries are checked for an order by clause when they are read
+    if( ( (JDBCTap) tap ).readerConnections != 1 && selectQuery == null && ( orderBy == null || orderBy.length == 0 ) )
+      throw new TapException( "reading over more than one reader connection requires orderBy columns" );
+
+    DBInputFormat.setReaderConnections( conf, ( (JDBCTap) tap ).readerConnections );
+    DBInputFormat.setFetchSize( conf, ( (JDBCTap) tap ).fetchSize );
+    DBInputFormat.setQueryTimeout( conf, ( (JDBCTap) tap ).queryTimeout );
+
+    if( ( (JDBCTap) tap ).maxReaders != 0 && ( (JDBCTap) tap ).readerConnections != 1 )
+      throw new TapException( "limiting the number of readers requires a single reader connection" );
+
+    if( ( (JDBCTap) tap ).maxReaders != 0 )
+      DBInputFormat.setMaxReaders( conf, ( (JDBCTap) tap ).maxReaders, null, null );
+
+    if( ( (JDBCTap) tap ).readJitter != 0 )
+      DBInputFormat.setConnectJitter( conf, ( (JDBCTap) tap ).readJitter );
+
+    if( semiJoinPath != null )
+      DBInputFormat.setSemiJoin( conf, semiJoinColumn, semiJoinPath );
+
     if( inputFormatClass != null )
       conf.setInputFormat( inputFormatClass );
     }
 
   public void sinkInit( Tap tap, JobConf conf ) throws IOException
     {
-    if( selectQuery != null )
+    if( selectQuery != null || aggregates != null )
       throw new TapException( "cannot sink to this Scheme" );
 
-    String tableName = ( (JDBCTap) tap ).getTableName();
+    String tableName = ( (JDBCTap) tap ).getSinkTableName();
     int batchSize = ( (JDBCTap) tap ).getBatchSize();
-    DBOutputFormat.setOutput( conf, DBOutputFormat.class, tableName, columns, updateBy, batchSize );
+
+    if( upsert )
+      {
+      DBOutputFormat.setOutput( conf, DBOutputFormat.class, tableName, columns, null, batchSize );
+      DBOutputFormat.setUpsert( conf, getKeyNames( (JDBCTap) tap, "upsert" ) );
+      }
+    else
+      {
+      DBOutputFormat.setOutput( conf, DBOutputFormat.class, tableName, columns, updateBy, batchSize );
+      }
+
+    DBOutputFormat.setWriterConnections( conf, ( (JDBCTap) tap ).writerConnections );
+    DBOutputFormat.setRowsPerInsert( conf, ( (JDBCTap) tap ).rowsPerInsert );
+
+    if( ( (JDBCTap) tap ).batchLatencyTarget != 0 )
+      DBOutputFormat.setAdaptiveBatchSize( conf, Math.max( 1, batchSize / 10 ), batchSize * 10, ( (JDBCTap) tap ).batchLatencyTarget );
+
+    if( ( (JDBCTap) tap ).sortBuffer != 0 )
+      DBOutputFormat.setSortedOutput( conf, ( (JDBCTap) tap ).sortBuffer, getKeyNames( (JDBCTap) tap, "sorted output" ) );
+
+    if( ( (JDBCTap) tap ).writeRetries != 0 )
+      {
+      // a batch is only retried while its transaction holds no rows of earlier batches
+      DBOutputFormat.setCommitPolicy( conf, 1, 0, false );
+      DBOutputFormat.setRetryPolicy( conf, ( (JDBCTap) tap ).writeRetries, ( (JDBCTap) tap ).writeRetryBackoff );
+      }
+
+    if( ( (JDBCTap) tap ).deadLetterPath != null )
+      DBOutputFormat.setDeadLetterPath( conf, ( (JDBCTap) tap ).deadLetterPath );
+
+    if( ( (JDBCTap) tap ).maxWriters != 0 )
+      DBOutputFormat.setMaxWriters( conf, ( (JDBCTap) tap ).maxWriters, null );
+
+    if( ( (JDBCTap) tap ).writeRate != 0 )
+      DBOutputFormat.setRateLimit( conf, ( (JDBCTap) tap ).writeRate );
+
+    if( ( (JDBCTap) tap ).dedupWindow != 0 )
+      DBOutputFormat.setDeduplicated( conf, ( (JDBCTap) tap ).dedupWindow, getKeyNames( (JDBCTap) tap, "deduplication" ) );
+
+    if( ( (JDBCTap) tap ).stagedWrite )
+      {
+      // staging is done by DBOutputFormat itself, which a custom output format may not do
+      if( outputFormatClass != null )
+        throw new TapException( "staged writes require the default output format" );
+
+      if( upsert )
+        throw new TapException( "staged writes cannot upsert rows" );
+
+      if( updateBy != null )
+        DBOutputFormat.setStagedUpdate( conf );
+      else
+        DBOutputFormat.setStaged( conf );
+      }
+
+    if( partitionReducers )
+      JDBCPartitioner.setPartitionSpec( conf, getPartitionSpec( (JDBCTap) tap ) );
 
     if( outputFormatClass != null )
       conf.setOutputFormat( outputFormatClass );
     }
 
+  private PartitionSpec getPartitionSpec( JDBCTap tap )
+    {
+    if( tap.tableDesc != null && tap.tableDesc.getPartitionSpec() != null )
+      return tap.tableDesc.getPartitionSpec();
+
+    return PartitionSpec.read( tap );
+    }
+
+  /** Returns true if the rows may be streamed from the select query, as no input format settings would be bypassed. */
+  boolean isStreamable()
+    {
+    return inputFormatClass == null && semiJoinPath == null;
+    }
+
   public Tuple source( Object key, Object value )
     {
     return ( (TupleRecord) value ).getTuple();
     }
 
-  public void sink( TupleEntry tupleEntry, OutputCollector outputCollector ) throws IOException
+  private String[] getKeyNames( JDBCTap tap, String purpose )
     {
     if( updateBy != null )
+      return updateBy;
+
+    String[] primaryKeys = tap.tableDesc != null ? tap.tableDesc.getPrimaryKeys() : null;
+
+    if( primaryKeys == null || primaryKeys.length == 0 )
+      throw new TapException( purpose + " requires updateBy columns or a TableDesc with primary keys" );
+
+    return primaryKeys;
+    }
+
+  public void sink( TupleEntry tupleEntry, OutputCollector outputCollector ) throws IOException
+    {
+    if( updateBy != null && !upsert )
       {
       Tuple allValues = tupleEntry.selectTuple( updateValueFields );
       Tuple updateValues = tupleEntry.selectTuple( updateByFields );
@@ -602,6 +1037,10 @@ public class JDBCScheme extends Scheme
       return false;
     if( countQuery != null ? !countQuery.equals( that.countQuery ) : that.countQuery != null )
       return false;
+    if( !Arrays.equals( groupBy, that.groupBy ) )
+      return false;
+    if( !Arrays.equals( aggregates, that.aggregates ) )
+      return false;
     if( inputFormatClass != null ? !inputFormatClass.equals( that.inputFormatClass ) : that.inputFormatClass != null )
       return false;
     if( !Arrays.equals( orderBy, that.orderBy ) )
@@ -638,6 +1077,8 @@ public class JDBCScheme extends Scheme
     result = 31 * result + ( updateIfTuple != null ? updateIfTuple.hashCode() : 0 );
     result = 31 * result + ( selectQuery != null ? selectQuery.hashCode() : 0 );
     result = 31 * result + ( countQuery != null ? countQuery.hashCode() : 0 );
+    result = 31 * result + ( groupBy != null ? Arrays.hashCode( groupBy ) : 0 );
+    result = 31 * result + ( aggregates != null ? Arrays.hashCode( aggregates ) : 0 );
     result = 31 * result + (int) ( limit ^ ( limit >>> 32 ) );
     return result;
     }
@@ -22,7 +22,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import cascading.jdbc.db.ConnectionPool;
 import cascading.jdbc.db.DBConfiguration;
+import cascading.jdbc.db.Dialect;
 import cascading.tap.SinkMode;
 import cascading.tap.Tap;
 import cascading.tap.TapException;
@@ -53,8 +55,12 @@ import org.slf4j.LoggerFactory;
  * Use {@link #setBatchSize(int)} to set the number of INSERT/UPDATES should be grouped together before being
  * executed. The default vaue is 1,000.
  * <p/>
- * Use {@link #executeQuery(String, int)} or {@link #executeUpdate(String)} to invoke SQL statements against
- * the underlying Table.
+ * Reading this Tap directly, for example through {@link cascading.flow.Flow#openSink()}, reads through the
+ * Scheme's input format. Use {@link #setStreamingRead(boolean)} to stream the rows of the Scheme's query over a
+ * pooled connection instead.
+ * <p/>
+ * Use {@link #executeQuery(String, int)}, {@link #executeQuery(String, int, RowHandler)} or
+ * {@link #executeUpdate(String)} to invoke SQL statements against the underlying Table.
  * <p/>
  * Note that all classes under the {@link cascading.jdbc.db} package originated from the Hadoop project and
  * retain their Apache 2.0 license though they have been heavily modified to support INSERT/UPDATE and
@@ -69,6 +75,9 @@ public class JDBCTap extends Tap
   /** Field LOG */
   private static final Logger LOG = LoggerFactory.getLogger( JDBCTap.class );
 
+  /** The suffix of the table loaded with deferred indexes, and of its indexes until it is published */
+  static final String LOAD_SUFFIX = "_load";
+
   /** Field connectionUrl */
   String connectionUrl;
   /** Field username */
@@ -83,6 +92,42 @@ public class JDBCTap extends Tap
   int batchSize = 1000;
   /** Field concurrentReads */
   int concurrentReads = 0;
+  /** Field readerConnections */
+  int readerConnections = 1;
+  /** Field fetchSize */
+  int fetchSize = 1000;
+  /** Field queryTimeout */
+  int queryTimeout = 0;
+  /** Field maxReaders */
+  int maxReaders = 0;
+  /** Field readJitter */
+  long readJitter = 0;
+  /** Field streamingRead */
+  boolean streamingRead = false;
+  /** Field writerConnections */
+  int writerConnections = 1;
+  /** Field rowsPerInsert */
+  int rowsPerInsert = 1;
+  /** Field stagedWrite */
+  boolean stagedWrite = false;
+  /** Field batchLatencyTarget */
+  long batchLatencyTarget = 0;
+  /** Field sortBuffer */
+  long sortBuffer = 0;
+  /** Field writeRetries */
+  int writeRetries = 0;
+  /** Field writeRetryBackoff */
+  long writeRetryBackoff = 1000;
+  /** Field deadLetterPath */
+  String deadLetterPath;
+  /** Field maxWriters */
+  int maxWriters = 0;
+  /** Field deferIndexes */
+  boolean deferIndexes = false;
+  /** Field writeRate */
+  double writeRate = 0;
+  /** Field dedupWindow */
+  int dedupWindow = 0;
 
   /**
    * Constructor JDBCTap creates a new JDBCTap instance.
@@ -217,6 +262,17 @@ public class JDBCTap extends Tap
     return tableDesc.tableName;
     }
 
+  /** Returns the table the sink writes into, which is not this Tap's table until published if indexes are deferred. */
+  String getSinkTableName()
+    {
+    return isDeferredIndexes() ? tableDesc.tableName + LOAD_SUFFIX : tableDesc.tableName;
+    }
+
+  private boolean isDeferredIndexes()
+    {
+    return deferIndexes && isReplace();
+    }
+
   /**
    * Method setBatchSize sets the batchSize of this JDBCTap object.
    *
@@ -263,6 +319,503 @@ public class JDBCTap extends Tap
     this.concurrentReads = concurrentReads;
     }
 
+  /**
+   * Method getReaderConnections returns the readerConnections of this JDBCTap object.
+   * <p/>
+   * This value specifies the number of connections each mapper uses to select sub-ranges of its split
+   * concurrently. If concurrentReads is also set, fewer splits are created so that no more than concurrentReads
+   * connections read from the database at once. As each connection selects its sub-range with LIMIT and
+   * OFFSET, more than one connection requires the Scheme to order its rows, ideally by the primary key.
+   *
+   * @return the readerConnections (type int) of this JDBCTap object.
+   */
+  public int getReaderConnections()
+    {
+    return readerConnections;
+    }
+
+  /**
+   * Method setReaderConnections sets the readerConnections of this JDBCTap object.
+   * <p/>
+   * This value specifies the number of connections each mapper uses to select sub-ranges of its split
+   * concurrently. If concurrentReads is also set, fewer splits are created so that no more than concurrentReads
+   * connections read from the database at once. As each connection selects its sub-range with LIMIT and
+   * OFFSET, more than one connection requires the Scheme to order its rows, ideally by the primary key.
+   *
+   * @param readerConnections the readerConnections of this JDBCTap object.
+   */
+  public void setReaderConnections( int readerConnections )
+    {
+    this.readerConnections = readerConnections;
+    }
+
+  /**
+   * Method getFetchSize returns the fetchSize of this JDBCTap object.
+   * <p/>
+   * This value is passed to the driver as a hint for the number of rows to fetch per round-trip while reading.
+   * A value of 0 uses the driver default.
+   *
+   * @return the fetchSize (type int) of this JDBCTap object.
+   */
+  public int getFetchSize()
+    {
+    return fetchSize;
+    }
+
+  /**
+   * Method setFetchSize sets the fetchSize of this JDBCTap object.
+   * <p/>
+   * This value is passed to the driver as a hint for the number of rows to fetch per round-trip while reading.
+   * A value of 0 uses the driver default.
+   *
+   * @param fetchSize the fetchSize of this JDBCTap object.
+   */
+  public void setFetchSize( int fetchSize )
+    {
+    this.fetchSize = fetchSize;
+    }
+
+  /**
+   * Method getWriterConnections returns the writerConnections of this JDBCTap object.
+   * <p/>
+   * This value specifies the number of connections each task writes its batches over. With more than one, batches
+   * are executed on background threads while the task produces the next batch.
+   *
+   * @return the writerConnections (type int) of this JDBCTap object.
+   */
+  public int getWriterConnections()
+    {
+    return writerConnections;
+    }
+
+  /**
+   * Method setWriterConnections sets the writerConnections of this JDBCTap object.
+   * <p/>
+   * This value specifies the number of connections each task writes its batches over. With more than one, batches
+   * are executed on background threads while the task produces the next batch.
+   *
+   * @param writerConnections the writerConnections of this JDBCTap object.
+   */
+  public void setWriterConnections( int writerConnections )
+    {
+    this.writerConnections = writerConnections;
+    }
+
+  /**
+   * Method getRowsPerInsert returns the rowsPerInsert of this JDBCTap object.
+   * <p/>
+   * This value specifies the number of rows each INSERT statement inserts with a multi-row VALUES list. Values
+   * greater than one require a database supporting multi-row VALUES.
+   *
+   * @return the rowsPerInsert (type int) of this JDBCTap object.
+   */
+  public int getRowsPerInsert()
+    {
+    return rowsPerInsert;
+    }
+
+  /**
+   * Method setRowsPerInsert sets the rowsPerInsert of this JDBCTap object.
+   * <p/>
+   * This value specifies the number of rows each INSERT statement inserts with a multi-row VALUES list. Values
+   * greater than one require a database supporting multi-row VALUES.
+   *
+   * @param rowsPerInsert the rowsPerInsert of this JDBCTap object.
+   */
+  public void setRowsPerInsert( int rowsPerInsert )
+    {
+    this.rowsPerInsert = rowsPerInsert;
+    }
+
+  /**
+   * Method isStagedWrite returns the stagedWrite of this JDBCTap object.
+   * <p/>
+   * If true, each task attempt inserts into its own staging table, which is copied into this Tap's table only
+   * when the attempt commits. Failed and speculative attempts then leave no rows behind, so speculative execution
+   * stays enabled. If the Scheme updates rows, the staged rows update this Tap's table with a single statement
+   * joining it to the staging table, see {@link cascading.jdbc.db.DBOutputFormat#setStagedUpdate}. Rows cannot be
+   * upserted.
+   *
+   * @return the stagedWrite (type boolean) of this JDBCTap object.
+   */
+  public boolean isStagedWrite()
+    {
+    return stagedWrite;
+    }
+
+  /**
+   * Method setStagedWrite sets the stagedWrite of this JDBCTap object.
+   * <p/>
+   * If true, each task attempt inserts into its own staging table, which is copied into this Tap's table only
+   * when the attempt commits. Failed and speculative attempts then leave no rows behind, so speculative execution
+   * stays enabled. If the Scheme updates rows, the staged rows update this Tap's table with a single statement
+   * joining it to the staging table, see {@link cascading.jdbc.db.DBOutputFormat#setStagedUpdate}. Rows cannot be
+   * upserted.
+   *
+   * @param stagedWrite the stagedWrite of this JDBCTap object.
+   */
+  public void setStagedWrite( boolean stagedWrite )
+    {
+    this.stagedWrite = stagedWrite;
+    }
+
+  /**
+   * Method getBatchLatencyTarget returns the batchLatencyTarget of this JDBCTap object.
+   * <p/>
+   * If not 0, this value specifies the longest time in milliseconds a batch should take, and the batch size adapts
+   * to it within a tenth and ten times the batch size set on this Tap, growing while batches are fast and throughput
+   * improves, and halving when a batch is too slow.
+   *
+   * @return the batchLatencyTarget (type long) of this JDBCTap object.
+   */
+  public long getBatchLatencyTarget()
+    {
+    return batchLatencyTarget;
+    }
+
+  /**
+   * Method setBatchLatencyTarget sets the batchLatencyTarget of this JDBCTap object.
+   * <p/>
+   * If not 0, this value specifies the longest time in milliseconds a batch should take, and the batch size adapts
+   * to it within a tenth and ten times the batch size set on this Tap, growing while batches are fast and throughput
+   * improves, and halving when a batch is too slow.
+   *
+   * @param batchLatencyTarget the batchLatencyTarget of this JDBCTap object.
+   */
+  public void setBatchLatencyTarget( long batchLatencyTarget )
+    {
+    this.batchLatencyTarget = batchLatencyTarget;
+    }
+
+  /**
+   * Method getSortBuffer returns the sortBuffer of this JDBCTap object.
+   * <p/>
+   * If not 0, this value specifies the estimated number of bytes of rows each task buffers in memory before
+   * spilling them to local disk, and the rows are written ordered by the updateBy columns, or else the primary
+   * keys of the {@link TableDesc}, once the task has produced all of them.
+   *
+   * @return the sortBuffer (type long) of this JDBCTap object.
+   */
+  public long getSortBuffer()
+    {
+    return sortBuffer;
+    }
+
+  /**
+   * Method setSortBuffer sets the sortBuffer of this JDBCTap object.
+   * <p/>
+   * If not 0, this value specifies the estimated number of bytes of rows each task buffers in memory before
+   * spilling them to local disk, and the rows are written ordered by the updateBy columns, or else the primary
+   * keys of the {@link TableDesc}, once the task has produced all of them.
+   *
+   * @param sortBuffer the sortBuffer of this JDBCTap object.
+   */
+  public void setSortBuffer( long sortBuffer )
+    {
+    this.sortBuffer = sortBuffer;
+    }
+
+  /**
+   * Method getWriteRetries returns the writeRetries of this JDBCTap object.
+   * <p/>
+   * This value specifies how many times a batch failing with a transient error, like a deadlock or a
+   * timeout, is retried before the task fails, waiting longer before each retry.
+   *
+   * @return the writeRetries (type int) of this JDBCTap object.
+   */
+  public int getWriteRetries()
+    {
+    return writeRetries;
+    }
+
+  /**
+   * Method setWriteRetries sets the writeRetries of this JDBCTap object.
+   * <p/>
+   * This value specifies how many times a batch failing with a transient error, like a deadlock or a
+   * timeout, is retried before the task fails, waiting longer before each retry. As a transient error may roll
+   * back the whole transaction, each batch is then committed on its own.
+   *
+   * @param writeRetries the writeRetries of this JDBCTap object.
+   */
+  public void setWriteRetries( int writeRetries )
+    {
+    this.writeRetries = writeRetries;
+    }
+
+  /**
+   * Method getWriteRetryBackoff returns the writeRetryBackoff of this JDBCTap object.
+   * <p/>
+   * This value specifies the number of milliseconds to wait before the first retry of a batch, doubled before
+   * each further retry.
+   *
+   * @return the writeRetryBackoff (type long) of this JDBCTap object.
+   */
+  public long getWriteRetryBackoff()
+    {
+    return writeRetryBackoff;
+    }
+
+  /**
+   * Method setWriteRetryBackoff sets the writeRetryBackoff of this JDBCTap object.
+   * <p/>
+   * This value specifies the number of milliseconds to wait before the first retry of a batch, doubled before
+   * each further retry.
+   *
+   * @param writeRetryBackoff the writeRetryBackoff of this JDBCTap object.
+   */
+  public void setWriteRetryBackoff( long writeRetryBackoff )
+    {
+    this.writeRetryBackoff = writeRetryBackoff;
+    }
+
+  /**
+   * Method getDeadLetterPath returns the deadLetterPath of this JDBCTap object.
+   * <p/>
+   * If set, records the database rejects are isolated from their batch and written, with their SQLState and
+   * error message, as tab separated text lines below this directory, instead of failing the task. The files can
+   * be read with a {@link cascading.scheme.TextLine} Scheme.
+   *
+   * @return the deadLetterPath (type String) of this JDBCTap object.
+   */
+  public String getDeadLetterPath()
+    {
+    return deadLetterPath;
+    }
+
+  /**
+   * Method setDeadLetterPath sets the deadLetterPath of this JDBCTap object.
+   * <p/>
+   * If set, records the database rejects are isolated from their batch and written, with their SQLState and
+   * error message, as tab separated text lines below this directory, instead of failing the task. The files can
+   * be read with a {@link cascading.scheme.TextLine} Scheme.
+   *
+   * @param deadLetterPath the deadLetterPath of this JDBCTap object.
+   */
+  public void setDeadLetterPath( String deadLetterPath )
+    {
+    this.deadLetterPath = deadLetterPath;
+    }
+
+  /**
+   * Method getMaxWriters returns the maxWriters of this JDBCTap object.
+   * <p/>
+   * If not 0, at most this many tasks write into the table at once, the others wait for one of them to finish
+   * before they open their connections. The permits are PostgreSQL advisory locks, use
+   * {@link cascading.jdbc.db.DBOutputFormat#setMaxWriters} to keep them in a table on other databases.
+   *
+   * @return the maxWriters (type int) of this JDBCTap object.
+   */
+  public int getMaxWriters()
+    {
+    return maxWriters;
+    }
+
+  /**
+   * Method setMaxWriters sets the maxWriters of this JDBCTap object.
+   * <p/>
+   * If not 0, at most this many tasks write into the table at once, the others wait for one of them to finish
+   * before they open their connections. The permits are PostgreSQL advisory locks, use
+   * {@link cascading.jdbc.db.DBOutputFormat#setMaxWriters} to keep them in a table on other databases.
+   *
+   * @param maxWriters the maxWriters of this JDBCTap object.
+   */
+  public void setMaxWriters( int maxWriters )
+    {
+    this.maxWriters = maxWriters;
+    }
+
+  /**
+   * Method getWriteRate returns the writeRate of this JDBCTap object.
+   * <p/>
+   * If not 0, each task writes at most this many rows per second, over all of its writer connections.
+   *
+   * @return the writeRate (type double) of this JDBCTap object.
+   */
+  public double getWriteRate()
+    {
+    return writeRate;
+    }
+
+  /**
+   * Method setWriteRate sets the writeRate of this JDBCTap object.
+   * <p/>
+   * If not 0, each task writes at most this many rows per second, over all of its writer connections.
+   *
+   * @param writeRate the writeRate of this JDBCTap object.
+   */
+  public void setWriteRate( double writeRate )
+    {
+    this.writeRate = writeRate;
+    }
+
+  /**
+   * Method getMaxReaders returns the maxReaders of this JDBCTap object.
+   * <p/>
+   * If not 0, at most this many tasks read from the table at once, however many splits concurrentReads creates,
+   * the others wait for one of them to finish before they execute their queries. The permits are PostgreSQL
+   * advisory locks, use {@link cascading.jdbc.db.DBInputFormat#setMaxReaders} to keep them elsewhere. Requires a
+   * single reader connection.
+   *
+   * @return the maxReaders (type int) of this JDBCTap object.
+   */
+  public int getMaxReaders()
+    {
+    return maxReaders;
+    }
+
+  /**
+   * Method setMaxReaders sets the maxReaders of this JDBCTap object.
+   * <p/>
+   * If not 0, at most this many tasks read from the table at once, however many splits concurrentReads creates,
+   * the others wait for one of them to finish before they execute their queries. The permits are PostgreSQL
+   * advisory locks, use {@link cascading.jdbc.db.DBInputFormat#setMaxReaders} to keep them elsewhere. Requires a
+   * single reader connection.
+   *
+   * @param maxReaders the maxReaders of this JDBCTap object.
+   */
+  public void setMaxReaders( int maxReaders )
+    {
+    this.maxReaders = maxReaders;
+    }
+
+  /**
+   * Method getReadJitter returns the readJitter of this JDBCTap object.
+   * <p/>
+   * If not 0, each task waits a random number of milliseconds, up to this value, before it executes its queries,
+   * so tasks started at once do not all begin their scans at the same moment.
+   *
+   * @return the readJitter (type long) of this JDBCTap object.
+   */
+  public long getReadJitter()
+    {
+    return readJitter;
+    }
+
+  /**
+   * Method setReadJitter sets the readJitter of this JDBCTap object.
+   * <p/>
+   * If not 0, each task waits a random number of milliseconds, up to this value, before it executes its queries,
+   * so tasks started at once do not all begin their scans at the same moment.
+   *
+   * @param readJitter the readJitter of this JDBCTap object.
+   */
+  public void setReadJitter( long readJitter )
+    {
+    this.readJitter = readJitter;
+    }
+
+  /**
+   * Method isDeferIndexes returns the deferIndexes of this JDBCTap object.
+   * <p/>
+   * If true, and the sink mode is {@link SinkMode#REPLACE}, the rows are loaded into a new table without primary key,
+   * secondary indexes and constraints, which are built in bulk by {@link #publishTable()} once the Flow completed,
+   * before the new table replaces this Tap's table. Add a {@link TablePublisher} to the Flow to publish its tables.
+   *
+   * @return the deferIndexes (type boolean) of this JDBCTap object.
+   */
+  public boolean isDeferIndexes()
+    {
+    return deferIndexes;
+    }
+
+  /**
+   * Method setDeferIndexes sets the deferIndexes of this JDBCTap object.
+   * <p/>
+   * If true, and the sink mode is {@link SinkMode#REPLACE}, the rows are loaded into a new table without primary key,
+   * secondary indexes and constraints, which are built in bulk by {@link #publishTable()} once the Flow completed,
+   * before the new table replaces this Tap's table. Add a {@link TablePublisher} to the Flow to publish its tables.
+   *
+   * @param deferIndexes the deferIndexes of this JDBCTap object.
+   */
+  public void setDeferIndexes( boolean deferIndexes )
+    {
+    this.deferIndexes = deferIndexes;
+    }
+
+  /**
+   * Method getDedupWindow returns the dedupWindow of this JDBCTap object.
+   * <p/>
+   * If not 0, the records of each task are collapsed by their updateBy columns, or else by the primary keys of the
+   * TableDesc, within windows of this many distinct keys, so only the last record written for a key in a window reaches the table. This keeps a batch from updating
+   * the same row more than once.
+   *
+   * @return the dedupWindow (type int) of this JDBCTap object.
+   */
+  public int getDedupWindow()
+    {
+    return dedupWindow;
+    }
+
+  /**
+   * Method setDedupWindow sets the dedupWindow of this JDBCTap object.
+   * <p/>
+   * If not 0, the records of each task are collapsed by their updateBy columns, or else by the primary keys of the
+   * TableDesc, within windows of this many distinct keys, so only the last record written for a key in a window reaches the table. This keeps a batch from updating
+   * the same row more than once.
+   *
+   * @param dedupWindow the dedupWindow of this JDBCTap object.
+   */
+  public void setDedupWindow( int dedupWindow )
+    {
+    this.dedupWindow = dedupWindow;
+    }
+
+  /**
+   * Method isStreamingRead returns the streamingRead of this JDBCTap object.
+   * <p/>
+   * If true, {@link #openForRead(org.apache.hadoop.mapred.JobConf)} executes the Scheme's query once over a
+   * pooled connection and streams its rows, instead of counting, planning and reading input splits through the
+   * Scheme's {@link cascading.jdbc.db.DBInputFormat}. Streaming bypasses the input format, so a Scheme with an
+   * input format class of its own or a semi-join, or a Tap limiting its readers, is still read through it.
+   *
+   * @return the streamingRead (type boolean) of this JDBCTap object.
+   */
+  public boolean isStreamingRead()
+    {
+    return streamingRead;
+    }
+
+  /**
+   * Method setStreamingRead sets the streamingRead of this JDBCTap object.
+   * <p/>
+   * If true, {@link #openForRead(org.apache.hadoop.mapred.JobConf)} executes the Scheme's query once over a
+   * pooled connection and streams its rows, instead of counting, planning and reading input splits through the
+   * Scheme's {@link cascading.jdbc.db.DBInputFormat}. Streaming bypasses the input format, so a Scheme with an
+   * input format class of its own or a semi-join, or a Tap limiting its readers, is still read through it.
+   *
+   * @param streamingRead the streamingRead of this JDBCTap object.
+   */
+  public void setStreamingRead( boolean streamingRead )
+    {
+    this.streamingRead = streamingRead;
+    }
+
+  /**
+   * Method getQueryTimeout returns the queryTimeout of this JDBCTap object.
+   * <p/>
+   * This value specifies the number of seconds each select may execute before it is cancelled
+   * by the driver. A value of 0 disables the timeout.
+   *
+   * @return the queryTimeout (type int) of this JDBCTap object.
+   */
+  public int getQueryTimeout()
+    {
+    return queryTimeout;
+    }
+
+  /**
+   * Method setQueryTimeout sets the queryTimeout of this JDBCTap object.
+   * <p/>
+   * This value specifies the number of seconds each select may execute before it is cancelled
+   * by the driver. A value of 0 disables the timeout.
+   *
+   * @param queryTimeout the queryTimeout of this JDBCTap object.
+   */
+  public void setQueryTimeout( int queryTimeout )
+    {
+    this.queryTimeout = queryTimeout;
+    }
+
   /**
    * Method getPath returns the path of this JDBCTap object.
    *
@@ -281,7 +834,17 @@ public class JDBCTap extends Tap
 
   public TupleEntryIterator openForRead( JobConf conf ) throws IOException
     {
-    return new TupleEntryIterator( getSourceFields(), new TapIterator( this, conf ) );
+    JDBCScheme scheme = (JDBCScheme) getScheme();
+
+    if( !streamingRead || !scheme.isStreamable() || maxReaders != 0 )
+      return new TupleEntryIterator( getSourceFields(), new TapIterator( this, conf ) );
+
+    ConnectionPool pool = ConnectionPool.getPool( driverClassName, connectionUrl, username, password );
+    String query = scheme.getSelectQuery( this );
+    long limit = scheme.getLimit();
+    int maxRows = limit == -1 ? 0 : (int) Math.min( limit, Integer.MAX_VALUE );
+
+    return new TupleEntryIterator( getSourceFields(), new JDBCIterator( scheme, pool, query, fetchSize, maxRows, queryTimeout ) );
     }
 
   public TupleEntryCollector openForWrite( JobConf conf ) throws IOException
@@ -414,15 +977,58 @@ public class JDBCTap extends Tap
   /**
    * Method executeQuery allows for ad-hoc queries to be sent to the remove RDBMS. A value
    * of -1 for returnResults will return a List of all results from the query, a value of 0 will return an empty List.
+   * <p/>
+   * Use {@link #executeQuery(String, int, RowHandler)} to read large results without holding them in memory.
    *
    * @param queryString   of type String
    * @param returnResults of type int
    * @return List
    */
-  public List<Object[]> executeQuery( String queryString, int returnResults )
+  public List<Object[]> executeQuery( String queryString, final int returnResults )
+    {
+    if( returnResults == 0 )
+      {
+      executeQuery( queryString, 0, 0, null );
+
+      return Collections.emptyList();
+      }
+
+    final List<Object[]> result = new ArrayList<Object[]>();
+
+    RowHandler handler = new RowHandler()
+    {
+    public boolean handleRow( Object[] row )
+      {
+      result.add( row );
+
+      return returnResults == -1 || result.size() < returnResults;
+      }
+    };
+
+    executeQuery( queryString, fetchSize, Math.max( returnResults, 0 ), handler );
+
+    return result;
+    }
+
+  /**
+   * Method executeQuery allows for ad-hoc queries to be sent to the remove RDBMS, passing each row
+   * to the given handler as it is read. Rows are fetched fetchSize at a time, so memory use does not
+   * grow with the size of the result.
+   *
+   * @param queryString of type String
+   * @param fetchSize   of type int, 0 uses the driver default
+   * @param handler     of type RowHandler
+   * @return the number of rows passed to the handler
+   */
+  public long executeQuery( String queryString, int fetchSize, RowHandler handler )
+    {
+    return executeQuery( queryString, fetchSize, 0, handler );
+    }
+
+  private long executeQuery( String queryString, int fetchSize, int maxRows, RowHandler handler )
     {
     Connection connection = null;
-    List<Object[]> result = Collections.emptyList();
+    long count = 0;
 
     try
       {
@@ -432,13 +1038,20 @@ public class JDBCTap extends Tap
         {
         LOG.info( "executing query: {}", queryString );
 
-        Statement statement = connection.createStatement();
+        Statement statement = connection.createStatement( ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY );
+
+        if( fetchSize > 0 )
+          statement.setFetchSize( fetchSize );
+
+        if( maxRows > 0 )
+          statement.setMaxRows( maxRows );
 
-        ResultSet resultSet = statement.executeQuery( queryString ); // we don't care about results
+        ResultSet resultSet = statement.executeQuery( queryString );
 
-        if( returnResults != 0 )
-          result = copyResultSet( resultSet, returnResults == -1 ? Integer.MAX_VALUE : returnResults );
+        if( handler != null ) // otherwise we don't care about results
+          count = readResultSet( resultSet, handler );
 
+        resultSet.close();
         connection.commit();
         statement.close();
         }
@@ -461,51 +1074,67 @@ public class JDBCTap extends Tap
         }
       }
 
-    return result;
+    return count;
     }
 
-  private List<Object[]> copyResultSet( ResultSet resultSet, int length ) throws SQLException
+  private long readResultSet( ResultSet resultSet, RowHandler handler ) throws SQLException
     {
-    List<Object[]> results = new ArrayList<Object[]>( length );
     int size = resultSet.getMetaData().getColumnCount();
+    long count = 0;
 
-    int count = 0;
-
-    while( resultSet.next() && count < length )
+    while( resultSet.next() )
       {
-      count++;
-
       Object[] row = new Object[size];
 
       for( int i = 0; i < row.length; i++ )
         row[ i ] = resultSet.getObject( i + 1 );
 
-      results.add( row );
+      count++;
+
+      if( !handler.handleRow( row ) )
+        break;
       }
 
-    return results;
+    return count;
     }
 
   public boolean makeDirs( JobConf conf ) throws IOException
     {
-    if( pathExists( conf ) )
+    if( !isSink() )
+      return true;
+
+    String tableName = getSinkTableName();
+
+    if( tableExists( tableName ) )
       return true;
 
     try
       {
-      LOG.info( "creating table: {}", tableDesc.tableName );
+      LOG.info( "creating table: {}", tableName );
+
+      Dialect dialect = getDialect();
 
-      executeUpdate( tableDesc.getCreateTableStatement() );
+      if( isDeferredIndexes() )
+        {
+        // the primary key, indexes and constraints are added by publishTable()
+        executeUpdates( tableDesc.getCreateTableStatements( dialect, tableName, false ) );
+        }
+      else
+        {
+        executeUpdates( tableDesc.getCreateTableStatements( dialect, tableName, true ) );
+        executeUpdates( tableDesc.getCreateIndexStatements( tableName, "" ) );
+        executeUpdates( tableDesc.getAddConstraintStatements( tableName ) );
+        }
       }
     catch( TapException exception )
       {
-      LOG.warn( "unable to create table: {}", tableDesc.tableName );
+      LOG.warn( "unable to create table: {}", tableName );
       LOG.warn( "sql failure", exception.getCause() );
 
       return false;
       }
 
-    return pathExists( conf );
+    return tableExists( tableName );
     }
 
   public boolean deletePath( JobConf conf ) throws IOException
@@ -513,24 +1142,27 @@ public class JDBCTap extends Tap
     if( !isSink() )
       return false;
 
-    if( !pathExists( conf ) )
+    // with deferred indexes, this Tap's table is only replaced once the new one is published
+    String tableName = getSinkTableName();
+
+    if( !tableExists( tableName ) )
       return true;
 
     try
       {
-      LOG.info( "deleting table: {}", tableDesc.tableName );
+      LOG.info( "deleting table: {}", tableName );
 
-      executeUpdate( tableDesc.getTableDropStatement() );
+      executeUpdate( tableDesc.getTableDropStatement( tableName ) );
       }
     catch( TapException exception )
       {
-      LOG.warn( "unable to drop table: {}", tableDesc.tableName );
+      LOG.warn( "unable to drop table: {}", tableName );
       LOG.warn( "sql failure", exception.getCause() );
 
       return false;
       }
 
-    return !pathExists( conf );
+    return !tableExists( tableName );
     }
 
   public boolean pathExists( JobConf conf ) throws IOException
@@ -538,11 +1170,16 @@ public class JDBCTap extends Tap
     if( !isSink() )
       return true;
 
+    return tableExists( tableDesc.tableName );
+    }
+
+  private boolean tableExists( String tableName )
+    {
     try
       {
-      LOG.info( "test table exists: {}", tableDesc.tableName );
+      LOG.info( "test table exists: {}", tableName );
 
-      executeQuery( tableDesc.getTableExistsQuery(), 0 );
+      executeQuery( tableDesc.getTableExistsQuery( tableName ), 0 );
       }
     catch( TapException exception )
       {
@@ -552,6 +1189,172 @@ public class JDBCTap extends Tap
     return true;
     }
 
+  private Dialect getDialect()
+    {
+    Connection connection = createConnection();
+
+    try
+      {
+      return Dialect.detect( connection );
+      }
+    catch( SQLException exception )
+      {
+      throw new TapException( "unable to detect the database dialect: " + connectionUrl, exception );
+      }
+    finally
+      {
+      try
+        {
+        connection.close();
+        }
+      catch( SQLException exception )
+        {
+        LOG.warn( "ignoring connection close exception", exception );
+        }
+      }
+    }
+
+  private void executeUpdates( List<String> updateStrings )
+    {
+    for( String updateString : updateStrings )
+      executeUpdate( updateString );
+    }
+
+  /**
+   * Method publishTable builds the primary key and secondary indexes of the table loaded with deferred indexes, see
+   * {@link #setDeferIndexes(boolean)}, and then replaces this Tap's table with it and adds the constraints. Indexes
+   * are built concurrently, over a connection each, if the database allows it. Where DDL is transactional, like on
+   * PostgreSQL, the table is replaced in a single transaction, so readers never see it without its indexes.
+   * <p/>
+   * Does nothing unless indexes are deferred. Call it once every Flow writing into this Tap completed, or add a
+   * {@link TablePublisher} to the Flow.
+   */
+  public void publishTable()
+    {
+    if( !isDeferredIndexes() )
+      return;
+
+    String tableName = tableDesc.tableName;
+    String loadTableName = getSinkTableName();
+
+    if( !tableExists( loadTableName ) )
+      throw new TapException( "no table loaded to publish: " + loadTableName );
+
+    boolean replace = tableExists( tableName );
+    Connection connection = createConnection();
+
+    try
+      {
+      Dialect dialect = Dialect.detect( connection );
+
+      buildIndexes( loadTableName, dialect.supportsConcurrentIndexBuilds() );
+
+      LOG.info( "publishing table: {}, from: {}", tableName, loadTableName );
+
+      Statement statement = connection.createStatement();
+
+      try
+        {
+        if( replace )
+          statement.executeUpdate( tableDesc.getTableDropStatement() );
+
+        statement.executeUpdate( dialect.constructRenameQuery( loadTableName, tableName ) );
+
+        // index names may be unique per schema, so the indexes were built under the load table's suffix
+        for( String indexName : tableDesc.getIndexNames() )
+          statement.executeUpdate( dialect.constructRenameIndexQuery( tableName, indexName + LOAD_SUFFIX, indexName ) );
+
+        for( String constraint : tableDesc.getAddConstraintStatements( tableName ) )
+          statement.executeUpdate( constraint );
+
+        connection.commit();
+        }
+      finally
+        {
+        statement.close();
+        }
+      }
+    catch( SQLException exception )
+      {
+      try
+        {
+        connection.rollback();
+        }
+      catch( SQLException rollbackException )
+        {
+        LOG.warn( "ignoring rollback exception", rollbackException );
+        }
+
+      throw new TapException( "unable to publish table: " + tableName, exception );
+      }
+    finally
+      {
+      try
+        {
+        connection.close();
+        }
+      catch( SQLException exception )
+        {
+        LOG.warn( "ignoring connection close exception", exception );
+        }
+      }
+    }
+
+  private void buildIndexes( String loadTableName, boolean concurrent )
+    {
+    String primaryKey = tableDesc.getAddPrimaryKeyStatement( loadTableName );
+
+    // the primary key changes the table, so it is added before any index is built
+    if( primaryKey != null )
+      executeUpdate( primaryKey );
+
+    List<String> statements = tableDesc.getCreateIndexStatements( loadTableName, LOAD_SUFFIX );
+
+    if( !concurrent || statements.size() < 2 )
+      {
+      executeUpdates( statements );
+      return;
+      }
+
+    final List<TapException> failures = Collections.synchronizedList( new ArrayList<TapException>() );
+    List<Thread> builders = new ArrayList<Thread>();
+
+    for( final String statement : statements )
+      {
+      Thread builder = new Thread( "index builder " + builders.size() )
+      {
+      @Override
+      public void run()
+        {
+        try
+          {
+          executeUpdate( statement );
+          }
+        catch( TapException exception )
+          {
+          failures.add( exception );
+          }
+        }
+      };
+
+      builder.start();
+      builders.add( builder );
+      }
+
+    try
+      {
+      for( Thread builder : builders )
+        builder.join();
+      }
+    catch( InterruptedException exception )
+      {
+      throw new TapException( "interrupted while building indexes of: " + loadTableName );
+      }
+
+    if( !failures.isEmpty() )
+      throw failures.get( 0 );
+    }
+
   public long getPathModified( JobConf conf ) throws IOException
     {
     return System.currentTimeMillis();
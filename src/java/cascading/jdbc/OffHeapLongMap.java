@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class OffHeapLongMap is an open addressing hash map from primitive long keys to byte array values, where both
+ * the index and the values live in direct {@link ByteBuffer}s outside of the Java heap.
+ * <p/>
+ * The map only grows. Putting an existing key again replaces its value, but the space of the previous value is
+ * not reclaimed. If growing would allocate more than the given number of bytes, an {@link IllegalStateException}
+ * is thrown and the map is left unchanged.
+ * <p/>
+ * Concurrent calls to {@link #get(long)} are safe once all values have been put.
+ */
+class OffHeapLongMap
+  {
+  /** Each slot holds the key, and the offset of its value plus one, zero marking an empty slot */
+  private static final int SLOT_SIZE = 16;
+  /** The largest power of two number of slots addressable by a single buffer */
+  private static final int MAX_SLOTS = 1 << 26;
+
+  private final long maxBytes;
+  private ByteBuffer slots;
+  private int capacity;
+  private int size = 0;
+  private ByteBuffer data;
+  private int dataSize = 0;
+
+  OffHeapLongMap( long maxBytes )
+    {
+    this.maxBytes = maxBytes;
+    this.capacity = 1024;
+
+    checkLimit( (long) capacity * SLOT_SIZE + 64 * 1024 );
+
+    this.slots = ByteBuffer.allocateDirect( capacity * SLOT_SIZE );
+    this.data = ByteBuffer.allocateDirect( 64 * 1024 );
+    }
+
+  /** @return the number of keys in this map */
+  int size()
+    {
+    return size;
+    }
+
+  /** @return the number of off-heap bytes allocated by this map */
+  long getAllocatedBytes()
+    {
+    return (long) slots.capacity() + data.capacity();
+    }
+
+  void put( long key, byte[] value )
+    {
+    if( ( size + 1 ) * 2L > capacity )
+      resizeSlots();
+
+    int offset = append( value );
+    int slot = find( slots, capacity, key );
+
+    if( slots.getLong( slot * SLOT_SIZE + 8 ) == 0 )
+      size++;
+
+    slots.putLong( slot * SLOT_SIZE, key );
+    slots.putLong( slot * SLOT_SIZE + 8, offset + 1L );
+    }
+
+  byte[] get( long key )
+    {
+    int slot = find( slots, capacity, key );
+    long reference = slots.getLong( slot * SLOT_SIZE + 8 );
+
+    if( reference == 0 )
+      return null;
+
+    int offset = (int) ( reference - 1 );
+    byte[] value = new byte[data.getInt( offset )];
+    ByteBuffer view = data.duplicate();
+
+    view.position( offset + 4 );
+    view.get( value );
+
+    return value;
+    }
+
+  private static int find( ByteBuffer slots, int capacity, long key )
+    {
+    int mask = capacity - 1;
+    int slot = hash( key ) & mask;
+
+    while( true )
+      {
+      if( slots.getLong( slot * SLOT_SIZE + 8 ) == 0 || slots.getLong( slot * SLOT_SIZE ) == key )
+        return slot;
+
+      slot = ( slot + 1 ) & mask;
+      }
+    }
+
+  private static int hash( long key )
+    {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+
+    return (int) key;
+    }
+
+  private int append( byte[] value )
+    {
+    ensureData( (long) dataSize + 4 + value.length );
+
+    int offset = dataSize;
+    ByteBuffer view = data.duplicate();
+
+    view.position( offset );
+    view.putInt( value.length );
+    view.put( value );
+
+    dataSize += 4 + value.length;
+
+    return offset;
+    }
+
+  private void ensureData( long required )
+    {
+    if( required <= data.capacity() )
+      return;
+
+    if( required > Integer.MAX_VALUE )
+      throw new IllegalStateException( "off-heap map values exceed " + Integer.MAX_VALUE + " bytes" );
+
+    long grown = Math.min( Math.max( required, data.capacity() * 2L ), Integer.MAX_VALUE );
+    long available = maxBytes - slots.capacity();
+
+    if( grown > available && required <= available )
+      grown = available;
+
+    checkLimit( slots.capacity() + grown );
+
+    ByteBuffer copy = ByteBuffer.allocateDirect( (int) grown );
+    ByteBuffer view = data.duplicate();
+
+    view.position( 0 );
+    view.limit( dataSize );
+    copy.put( view );
+
+    data = copy;
+    }
+
+  private void resizeSlots()
+    {
+    if( capacity >= MAX_SLOTS )
+      throw new IllegalStateException( "off-heap map cannot hold more than " + MAX_SLOTS / 2 + " keys" );
+
+    int grown = capacity * 2;
+
+    checkLimit( (long) grown * SLOT_SIZE + data.capacity() );
+
+    ByteBuffer copy = ByteBuffer.allocateDirect( grown * SLOT_SIZE );
+
+    for( int i = 0; i < capacity; i++ )
+      {
+      long reference = slots.getLong( i * SLOT_SIZE + 8 );
+
+      if( reference == 0 )
+        continue;
+
+      long key = slots.getLong( i * SLOT_SIZE );
+      int slot = find( copy, grown, key );
+
+      copy.putLong( slot * SLOT_SIZE, key );
+      copy.putLong( slot * SLOT_SIZE + 8, reference );
+      }
+
+    slots = copy;
+    capacity = grown;
+    }
+
+  private void checkLimit( long bytes )
+    {
+    if( bytes > maxBytes )
+      throw new IllegalStateException( "off-heap map requires " + bytes + " bytes, more than its limit of " + maxBytes + " bytes" );
+    }
+  }
@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import cascading.jdbc.db.HashShardResolver;
+import cascading.jdbc.db.LookupShardResolver;
+import cascading.jdbc.db.RangeShardResolver;
+import cascading.jdbc.db.ShardResolver;
+import cascading.tap.TapException;
+
+/**
+ * Class PartitionSpec describes how a table is partitioned by the values of a single column, either by ranges,
+ * by lists of values, or by hash. Partitions are numbered in the order they are declared.
+ * <p/>
+ * A spec is declared on the {@link TableDesc} of a table, or read from the catalog of the database with
+ * {@link #read(JDBCTap)}, and used by {@link JDBCPartitioner} to send the rows of each partition to the same reducers.
+ * When a {@link JDBCTap} creates the table, the partitions are created too if the database supports it.
+ * <p/>
+ * Rows are assigned to hash partitions by their Java hash code, which does not match the hash function of any
+ * database, so reducers are only aligned with range and list partitions.
+ *
+ * @see JDBCScheme#setPartitionReducers(boolean)
+ */
+public class PartitionSpec implements Serializable
+  {
+  private static final long serialVersionUID = 1L;
+
+  /** The partitioning methods */
+  public enum Type
+    {
+      RANGE, LIST, HASH
+    }
+
+  /** Field type */
+  Type type;
+  /** Field column */
+  String column;
+  /** Field values, the upper bound of each range partition, or the values of each list partition */
+  Object[][] values;
+
+  /** Field resolver */
+  private transient ShardResolver resolver;
+
+  PartitionSpec( Type type, String column, Object[][] values )
+    {
+    this.type = type;
+    this.column = column;
+    this.values = values;
+    }
+
+  /**
+   * Method range returns a spec partitioning the given column by ranges. Each value belongs to the first partition
+   * whose bound it is below, values not below any bound belong to a last partition.
+   *
+   * @param column      of type String
+   * @param upperBounds of type Comparable..., the exclusive upper bound of each partition but the last, ascending
+   * @return PartitionSpec
+   */
+  public static PartitionSpec range( String column, Comparable<?>... upperBounds )
+    {
+    Object[][] values = new Object[ upperBounds.length ][];
+
+    for( int i = 0; i < upperBounds.length; i++ )
+      values[ i ] = new Object[]{upperBounds[ i ]};
+
+    return new PartitionSpec( Type.RANGE, column, values );
+    }
+
+  /**
+   * Method list returns a spec partitioning the given column by lists of values.
+   *
+   * @param column of type String
+   * @param values of type Object[]..., the values of each partition
+   * @return PartitionSpec
+   */
+  public static PartitionSpec list( String column, Object[]... values )
+    {
+    return new PartitionSpec( Type.LIST, column, values );
+    }
+
+  /**
+   * Method hash returns a spec partitioning the given column by hash into the given number of partitions.
+   *
+   * @param column     of type String
+   * @param partitions of type int
+   * @return PartitionSpec
+   */
+  public static PartitionSpec hash( String column, int partitions )
+    {
+    if( partitions < 1 )
+      throw new IllegalArgumentException( "partitions must be a positive value" );
+
+    return new PartitionSpec( Type.HASH, column, new Object[ partitions ][ 0 ] );
+    }
+
+  public Type getType()
+    {
+    return type;
+    }
+
+  public String getColumn()
+    {
+    return column;
+    }
+
+  /**
+   * Method getNumPartitions returns the number of partitions of this PartitionSpec object.
+   *
+   * @return the numPartitions (type int) of this PartitionSpec object.
+   */
+  public int getNumPartitions()
+    {
+    return type == Type.RANGE ? values.length + 1 : values.length;
+    }
+
+  /**
+   * Method getPartition returns the index of the partition the given value belongs to, or -1 if it belongs to none.
+   *
+   * @param value of type Object
+   * @return int
+   */
+  public int getPartition( Object value )
+    {
+    if( resolver == null )
+      resolver = createResolver();
+
+    return resolver.getShard( value, getNumPartitions() );
+    }
+
+  private ShardResolver createResolver()
+    {
+    if( type == Type.HASH )
+      return new HashShardResolver();
+
+    if( type == Type.RANGE )
+      {
+      Comparable<?>[] upperBounds = new Comparable<?>[ values.length ];
+
+      for( int i = 0; i < values.length; i++ )
+        upperBounds[ i ] = (Comparable<?>) values[ i ][ 0 ];
+
+      return new RangeShardResolver( upperBounds );
+      }
+
+    Map<Object, Integer> partitions = new HashMap<Object, Integer>();
+
+    for( int i = 0; i < values.length; i++ )
+      {
+      for( Object value : values[ i ] )
+        partitions.put( value, i );
+      }
+
+    return new LookupShardResolver( partitions, -1 );
+    }
+
+  /**
+   * Method read reads the partitioning of the table of the given Tap from the catalog of its database. Only
+   * PostgreSQL declarative partitioning by range, list or hash of a single column is supported, declare the spec on the
+   * {@link TableDesc} for other databases.
+   *
+   * @param tap of type JDBCTap
+   * @return PartitionSpec
+   */
+  public static PartitionSpec read( JDBCTap tap )
+    {
+    if( !tap.connectionUrl.startsWith( "jdbc:postgresql:" ) )
+      throw new TapException( "partitioning can only be read from PostgreSQL, declare it on the TableDesc of: " + tap.getTableName() );
+
+    String table = tap.getTableName();
+    List<Object[]> keys = tap.executeQuery( "SELECT pg_get_partkeydef( '" + table + "'::regclass )", 1 );
+    Matcher keyMatcher = Pattern.compile( "(RANGE|LIST|HASH) \\((\\w+)\\)", Pattern.CASE_INSENSITIVE ).matcher( keys.isEmpty() ? "" : String.valueOf( keys.get( 0 )[ 0 ] ) );
+
+    if( !keyMatcher.matches() )
+      throw new TapException( "table is not partitioned by range, list or hash of a single column: " + table );
+
+    Type type = Type.valueOf( keyMatcher.group( 1 ).toUpperCase() );
+    String query = "SELECT pg_get_expr( c.relpartbound, c.oid ) FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = '" + table + "'::regclass";
+    List<Object[]> bounds = tap.executeQuery( query, -1 );
+
+    if( type == Type.RANGE )
+      return range( keyMatcher.group( 2 ), readUpperBounds( bounds ) );
+
+    if( type == Type.HASH )
+      return hash( keyMatcher.group( 2 ), bounds.size() );
+
+    return list( keyMatcher.group( 2 ), readLists( bounds ) );
+    }
+
+  private static Comparable<?>[] readUpperBounds( List<Object[]> bounds )
+    {
+    Pattern pattern = Pattern.compile( "FOR VALUES FROM \\((.+)\\) TO \\((.+)\\)" );
+    List<Comparable<?>> upperBounds = new ArrayList<Comparable<?>>();
+
+    for( Object[] bound : bounds )
+      {
+      Matcher matcher = pattern.matcher( String.valueOf( bound[ 0 ] ) );
+
+      // the default partition and an unbounded last partition fall into the last partition
+      if( matcher.matches() && !matcher.group( 2 ).equalsIgnoreCase( "MAXVALUE" ) )
+        upperBounds.add( toBound( matcher.group( 2 ) ) );
+      }
+
+    Comparable<?>[] sorted = upperBounds.toArray( new Comparable<?>[ upperBounds.size() ] );
+
+    Arrays.sort( sorted );
+
+    return sorted;
+    }
+
+  /** Returns the given literal as a number, if it is an unquoted number, so it compares numerically. */
+  private static Comparable<?> toBound( String literal )
+    {
+    String value = literal.trim();
+
+    if( value.startsWith( "'" ) )
+      return unquote( value );
+
+    try
+      {
+      return Double.valueOf( value );
+      }
+    catch( NumberFormatException exception )
+      {
+      return value;
+      }
+    }
+
+  private static Object[][] readLists( List<Object[]> bounds )
+    {
+    Pattern pattern = Pattern.compile( "FOR VALUES IN \\((.+)\\)" );
+    List<Object[]> lists = new ArrayList<Object[]>();
+
+    for( Object[] bound : bounds )
+      {
+      Matcher matcher = pattern.matcher( String.valueOf( bound[ 0 ] ) );
+
+      if( !matcher.matches() )
+        continue;
+
+      String[] values = matcher.group( 1 ).split( ",\\s*" );
+
+      for( int i = 0; i < values.length; i++ )
+        values[ i ] = unquote( values[ i ] );
+
+      lists.add( values );
+      }
+
+    return lists.toArray( new Object[ lists.size() ][] );
+    }
+
+  private static String unquote( String value )
+    {
+    value = value.trim();
+
+    if( value.startsWith( "'" ) && value.endsWith( "'" ) )
+      return value.substring( 1, value.length() - 1 ).replace( "''", "'" );
+
+    return value;
+    }
+
+  @Override
+  public String toString()
+    {
+    return "PartitionSpec{" + "type=" + type + ", column='" + column + '\'' + ", values=" + Arrays.deepToString( values ) + '}';
+    }
+
+  @Override
+  public boolean equals( Object object )
+    {
+    if( this == object )
+      return true;
+    if( !( object instanceof PartitionSpec ) )
+      return false;
+
+    PartitionSpec partitionSpec = (PartitionSpec) object;
+
+    if( type != partitionSpec.type )
+      return false;
+    if( column != null ? !column.equals( partitionSpec.column ) : partitionSpec.column != null )
+      return false;
+
+    return Arrays.deepEquals( values, partitionSpec.values );
+    }
+
+  @Override
+  public int hashCode()
+    {
+    int result = type != null ? type.hashCode() : 0;
+    result = 31 * result + ( column != null ? column.hashCode() : 0 );
+    result = 31 * result + Arrays.deepHashCode( values );
+    return result;
+    }
+  }
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.sql.SQLException;
+
+/**
+ * Interface RowHandler receives each row of an ad-hoc query executed through
+ * {@link JDBCTap#executeQuery(String, int, RowHandler)}, one at a time, as the rows are fetched.
+ */
+public interface RowHandler
+  {
+  /**
+   * Method handleRow is called once per row, in result order.
+   *
+   * @param row the column values of the current row, a new array is passed for every row
+   * @return true to continue reading rows, false to stop and close the query
+   * @throws SQLException
+   */
+  boolean handleRow( Object[] row ) throws SQLException;
+  }
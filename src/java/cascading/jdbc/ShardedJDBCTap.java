@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import cascading.jdbc.db.DBOutputFormat;
+import cascading.jdbc.db.ShardResolver;
+import cascading.tap.SinkMode;
+import cascading.tap.TapException;
+import cascading.tuple.TupleEntryIterator;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Class ShardedJDBCTap is a sink {@link JDBCTap} for a table split across several databases with the same
+ * schema. Each tuple is written to the shard a {@link ShardResolver}, like
+ * {@link cascading.jdbc.db.HashShardResolver}, {@link cascading.jdbc.db.RangeShardResolver} or
+ * {@link cascading.jdbc.db.LookupShardResolver}, chooses from the value of the shard column.
+ * <p/>
+ * Every task keeps a connection and a batch per shard, and executes the batches of all shards in parallel, so a
+ * single pass fills all shards. The table is created, dropped and tested for on every shard. This Tap cannot be
+ * used as a source, nor with staged writes or deferred indexes.
+ */
+public class ShardedJDBCTap extends JDBCTap
+  {
+  private static final long serialVersionUID = 1L;
+
+  /** Field connectionUrls */
+  String[] connectionUrls;
+  /** Field shardColumn */
+  String shardColumn;
+  /** Field shardResolver */
+  ShardResolver shardResolver;
+
+  /**
+   * Constructor ShardedJDBCTap creates a new ShardedJDBCTap instance.
+   *
+   * @param connectionUrls  of type String[], the connection URL of each shard, by shard index
+   * @param username        of type String
+   * @param password        of type String
+   * @param driverClassName of type String
+   * @param tableDesc       of type TableDesc
+   * @param scheme          of type JDBCScheme
+   * @param sinkMode        of type SinkMode
+   * @param shardColumn     of type String, the column whose value chooses the shard
+   * @param shardResolver   of type ShardResolver
+   */
+  public ShardedJDBCTap( String[] connectionUrls, String username, String password, String driverClassName, TableDesc tableDesc, JDBCScheme scheme, SinkMode sinkMode, String shardColumn, ShardResolver shardResolver )
+    {
+    super( connectionUrls[ 0 ], username, password, driverClassName, tableDesc, scheme, sinkMode );
+    this.connectionUrls = connectionUrls;
+    this.shardColumn = shardColumn;
+    this.shardResolver = shardResolver;
+    }
+
+  /**
+   * Constructor ShardedJDBCTap creates a new ShardedJDBCTap instance.
+   *
+   * @param connectionUrls  of type String[], the connection URL of each shard, by shard index
+   * @param driverClassName of type String
+   * @param tableDesc       of type TableDesc
+   * @param scheme          of type JDBCScheme
+   * @param sinkMode        of type SinkMode
+   * @param shardColumn     of type String, the column whose value chooses the shard
+   * @param shardResolver   of type ShardResolver
+   */
+  public ShardedJDBCTap( String[] connectionUrls, String driverClassName, TableDesc tableDesc, JDBCScheme scheme, SinkMode sinkMode, String shardColumn, ShardResolver shardResolver )
+    {
+    this( connectionUrls, null, null, driverClassName, tableDesc, scheme, sinkMode, shardColumn, shardResolver );
+    }
+
+  /**
+   * Method getConnectionUrls returns the connectionUrls of this ShardedJDBCTap object.
+   *
+   * @return the connectionUrls (type String[]) of this ShardedJDBCTap object.
+   */
+  public String[] getConnectionUrls()
+    {
+    return connectionUrls;
+    }
+
+  /** Returns a Tap over the table of the given shard. */
+  private JDBCTap getShardTap( int shard )
+    {
+    return new JDBCTap( connectionUrls[ shard ], username, password, driverClassName, tableDesc, (JDBCScheme) getScheme() );
+    }
+
+  @Override
+  public boolean isSource()
+    {
+    return false;
+    }
+
+  @Override
+  public TupleEntryIterator openForRead( JobConf conf ) throws IOException
+    {
+    throw new TapException( "sharded taps can only be used as sinks" );
+    }
+
+  @Override
+  public void sourceInit( JobConf conf ) throws IOException
+    {
+    throw new TapException( "sharded taps can only be used as sinks" );
+    }
+
+  @Override
+  public void sinkInit( JobConf conf ) throws IOException
+    {
+    if( stagedWrite )
+      throw new TapException( "sharded taps cannot stage writes" );
+
+    if( deferIndexes )
+      throw new TapException( "sharded taps cannot defer indexes" );
+
+    super.sinkInit( conf );
+
+    DBOutputFormat.setSharded( conf, shardColumn, shardResolver, connectionUrls );
+    }
+
+  @Override
+  public boolean makeDirs( JobConf conf ) throws IOException
+    {
+    for( int i = 0; i < connectionUrls.length; i++ )
+      {
+      if( !getShardTap( i ).makeDirs( conf ) )
+        return false;
+      }
+
+    return true;
+    }
+
+  @Override
+  public boolean deletePath( JobConf conf ) throws IOException
+    {
+    for( int i = 0; i < connectionUrls.length; i++ )
+      {
+      if( !getShardTap( i ).deletePath( conf ) )
+        return false;
+      }
+
+    return true;
+    }
+
+  @Override
+  public boolean pathExists( JobConf conf ) throws IOException
+    {
+    for( int i = 0; i < connectionUrls.length; i++ )
+      {
+      if( !getShardTap( i ).pathExists( conf ) )
+        return false;
+      }
+
+    return true;
+    }
+
+  @Override
+  public String toString()
+    {
+    return "ShardedJDBCTap{" + "connectionUrls=" + Arrays.toString( connectionUrls ) + ", shardColumn='" + shardColumn + '\'' + ", tableDesc=" + tableDesc + '}';
+    }
+
+  @Override
+  public boolean equals( Object object )
+    {
+    if( this == object )
+      return true;
+    if( !( object instanceof ShardedJDBCTap ) )
+      return false;
+    if( !super.equals( object ) )
+      return false;
+
+    ShardedJDBCTap shardedTap = (ShardedJDBCTap) object;
+
+    if( !Arrays.equals( connectionUrls, shardedTap.connectionUrls ) )
+      return false;
+    if( shardColumn != null ? !shardColumn.equals( shardedTap.shardColumn ) : shardedTap.shardColumn != null )
+      return false;
+
+    return true;
+    }
+
+  @Override
+  public int hashCode()
+    {
+    int result = super.hashCode();
+    result = 31 * result + Arrays.hashCode( connectionUrls );
+    result = 31 * result + ( shardColumn != null ? shardColumn.hashCode() : 0 );
+    return result;
+    }
+  }
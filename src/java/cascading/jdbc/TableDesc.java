@@ -17,11 +17,17 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import cascading.jdbc.db.Dialect;
+import cascading.jdbc.db.TableOptions;
 import cascading.util.Util;
 
 /**
  * Class TableDesc describes a SQL based table, this description is used by the {@link JDBCTap} when
  * creating a missing table.
+ * <p/>
+ * Besides its columns and primary key, a table may declare secondary indexes and constraints, a
+ * {@link PartitionSpec}, and write-optimized storage options, like unlogged tables and fill factors, which
+ * are rendered by the {@link Dialect} of the database.
  *
  * @see JDBCTap
  * @see JDBCScheme
@@ -36,6 +42,18 @@ public class TableDesc implements Serializable
   String[] columnDefs;
   /** Field primaryKeys */
   String[] primaryKeys;
+  /** Field partitionSpec */
+  PartitionSpec partitionSpec;
+  /** Field indexNames */
+  ArrayList<String> indexNames = new ArrayList<String>();
+  /** Field indexDefs */
+  ArrayList<String> indexDefs = new ArrayList<String>();
+  /** Field constraintNames */
+  ArrayList<String> constraintNames = new ArrayList<String>();
+  /** Field constraintDefs */
+  ArrayList<String> constraintDefs = new ArrayList<String>();
+  /** Field tableOptions */
+  TableOptions tableOptions = new TableOptions();
 
   /**
    * Constructor TableDesc creates a new TableDesc instance.
@@ -83,20 +101,226 @@ public class TableDesc implements Serializable
     return primaryKeys;
     }
 
+  /**
+   * Method getPartitionSpec returns the partitionSpec of this TableDesc object.
+   *
+   * @return the partitionSpec (type PartitionSpec) of this TableDesc object, null if not declared.
+   */
+  public PartitionSpec getPartitionSpec()
+    {
+    return partitionSpec;
+    }
+
+  /**
+   * Method setPartitionSpec sets the partitionSpec of this TableDesc object, describing how the table is partitioned.
+   *
+   * @param partitionSpec the partitionSpec of this TableDesc object.
+   */
+  public void setPartitionSpec( PartitionSpec partitionSpec )
+    {
+    this.partitionSpec = partitionSpec;
+
+    if( partitionSpec == null )
+      tableOptions.setPartitioning( null, null, null );
+    else
+      tableOptions.setPartitioning( partitionSpec.type.name(), partitionSpec.column, partitionSpec.values );
+    }
+
+  /**
+   * Method setUnlogged makes the table created skip the write-ahead or redo log where the database supports it,
+   * for fast staging loads of data that can be loaded again after a crash.
+   *
+   * @param unlogged of type boolean
+   * @see TableOptions#setUnlogged(boolean)
+   */
+  public void setUnlogged( boolean unlogged )
+    {
+    tableOptions.setUnlogged( unlogged );
+    }
+
+  /**
+   * Method setFillFactor sets the percentage of each page of the table created filled by inserts.
+   *
+   * @param fillFactor of type int
+   * @see TableOptions#setFillFactor(int)
+   */
+  public void setFillFactor( int fillFactor )
+    {
+    tableOptions.setFillFactor( fillFactor );
+    }
+
+  /**
+   * Method addStorageOption adds a dialect specific storage option of the table created.
+   *
+   * @param name  of type String
+   * @param value of type String
+   * @see TableOptions#addStorageOption(String, String)
+   */
+  public void addStorageOption( String name, String value )
+    {
+    tableOptions.addStorageOption( name, value );
+    }
+
+  /**
+   * Method getTableOptions returns the storage options and partitioning of this TableDesc object.
+   *
+   * @return the tableOptions (type TableOptions) of this TableDesc object.
+   */
+  public TableOptions getTableOptions()
+    {
+    return tableOptions;
+    }
+
+  /**
+   * Method addIndex declares a secondary index on the given columns, created after the table.
+   *
+   * @param indexName   of type String
+   * @param columnNames of type String...
+   */
+  public void addIndex( String indexName, String... columnNames )
+    {
+    indexNames.add( indexName );
+    indexDefs.add( String.format( "CREATE INDEX %%s ON %%s ( %s )", Util.join( columnNames, ", " ) ) );
+    }
+
+  /**
+   * Method addUniqueIndex declares a unique secondary index on the given columns, created after the table.
+   *
+   * @param indexName   of type String
+   * @param columnNames of type String...
+   */
+  public void addUniqueIndex( String indexName, String... columnNames )
+    {
+    indexNames.add( indexName );
+    indexDefs.add( String.format( "CREATE UNIQUE INDEX %%s ON %%s ( %s )", Util.join( columnNames, ", " ) ) );
+    }
+
+  /**
+   * Method addConstraint declares a table constraint, like {@code CHECK ( num > 0 )} or
+   * {@code FOREIGN KEY ( id ) REFERENCES other ( id )}, added after the table is created.
+   *
+   * @param constraintName of type String
+   * @param constraintDef  of type String
+   */
+  public void addConstraint( String constraintName, String constraintDef )
+    {
+    constraintNames.add( constraintName );
+    constraintDefs.add( constraintDef );
+    }
+
+  /**
+   * Method hasIndexes returns true if this TableDesc declares secondary indexes or constraints.
+   *
+   * @return boolean
+   */
+  public boolean hasIndexes()
+    {
+    return !indexNames.isEmpty() || !constraintNames.isEmpty();
+    }
+
   /**
    * Method getTableCreateStatement returns the tableCreateStatement of this TableDesc object.
    *
    * @return the tableCreateStatement (type String) of this TableDesc object.
    */
   public String getCreateTableStatement()
+    {
+    return getCreateTableStatement( tableName, true );
+    }
+
+  /**
+   * Method getCreateTableStatement returns a statement creating a table with the columns of this TableDesc
+   * under the given name, with or without the primary key, so it can be added in bulk once the table is loaded.
+   *
+   * @param tableName  of type String
+   * @param primaryKey true to declare the primary key
+   * @return String
+   */
+  public String getCreateTableStatement( String tableName, boolean primaryKey )
     {
     List<String> createTableStatement = new ArrayList<String>();
 
     createTableStatement = addCreateTableBodyTo( createTableStatement );
 
+    if( !primaryKey )
+      createTableStatement.remove( getPrimaryKeyDef() );
+
     return String.format( getCreateTableFormat(), tableName, Util.join( createTableStatement, ", " ) );
     }
 
+  /**
+   * Method getCreateTableStatements returns the statements creating the given table with the storage options and
+   * partitions of this TableDesc, rendered by the given dialect, see
+   * {@link Dialect#constructCreateTableQueries(String, String, TableOptions)}.
+   *
+   * @param dialect    of type Dialect
+   * @param tableName  of type String
+   * @param primaryKey true to declare the primary key
+   * @return List<String>
+   */
+  public List<String> getCreateTableStatements( Dialect dialect, String tableName, boolean primaryKey )
+    {
+    return dialect.constructCreateTableQueries( getCreateTableStatement( tableName, primaryKey ), tableName, tableOptions );
+    }
+
+  /**
+   * Method getAddPrimaryKeyStatement returns a statement adding the primary key to the given table.
+   *
+   * @param tableName of type String
+   * @return String, null if no primary key is declared
+   */
+  public String getAddPrimaryKeyStatement( String tableName )
+    {
+    if( !hasPrimaryKey() )
+      return null;
+
+    return String.format( "ALTER TABLE %s ADD %s", tableName, getPrimaryKeyDef() );
+    }
+
+  /**
+   * Method getCreateIndexStatements returns the statements creating the secondary indexes on the given table,
+   * each index name followed by the given suffix.
+   *
+   * @param tableName   of type String
+   * @param indexSuffix of type String
+   * @return List<String>
+   */
+  public List<String> getCreateIndexStatements( String tableName, String indexSuffix )
+    {
+    List<String> statements = new ArrayList<String>();
+
+    for( int i = 0; i < indexNames.size(); i++ )
+      statements.add( String.format( indexDefs.get( i ), indexNames.get( i ) + indexSuffix, tableName ) );
+
+    return statements;
+    }
+
+  /**
+   * Method getAddConstraintStatements returns the statements adding the constraints to the given table.
+   *
+   * @param tableName of type String
+   * @return List<String>
+   */
+  public List<String> getAddConstraintStatements( String tableName )
+    {
+    List<String> statements = new ArrayList<String>();
+
+    for( int i = 0; i < constraintNames.size(); i++ )
+      statements.add( String.format( "ALTER TABLE %s ADD CONSTRAINT %s %s", tableName, constraintNames.get( i ), constraintDefs.get( i ) ) );
+
+    return statements;
+    }
+
+  /**
+   * Method getIndexNames returns the names of the secondary indexes of this TableDesc object.
+   *
+   * @return List<String>
+   */
+  public List<String> getIndexNames()
+    {
+    return indexNames;
+    }
+
   protected List<String> addCreateTableBodyTo( List<String> createTableStatement )
     {
     createTableStatement = addDefinitionsTo( createTableStatement );
@@ -126,17 +350,33 @@ public class TableDesc implements Serializable
   protected List<String> addPrimaryKeyTo( List<String> createTableStatement )
     {
     if( hasPrimaryKey() )
-      createTableStatement.add( String.format( "PRIMARY KEY( %s )", Util.join( primaryKeys, ", " ) ) );
+      createTableStatement.add( getPrimaryKeyDef() );
 
     return createTableStatement;
     }
 
+  private String getPrimaryKeyDef()
+    {
+    return String.format( "PRIMARY KEY( %s )", Util.join( primaryKeys, ", " ) );
+    }
+
   /**
    * Method getTableDropStatement returns the tableDropStatement of this TableDesc object.
    *
    * @return the tableDropStatement (type String) of this TableDesc object.
    */
   public String getTableDropStatement()
+    {
+    return getTableDropStatement( tableName );
+    }
+
+  /**
+   * Method getTableDropStatement returns a statement dropping the given table.
+   *
+   * @param tableName of type String
+   * @return String
+   */
+  public String getTableDropStatement( String tableName )
     {
     return String.format( getDropTableFormat(), tableName );
     }
@@ -152,6 +392,17 @@ public class TableDesc implements Serializable
    * @return the tableExistsQuery (type String) of this TableDesc object.
    */
   public String getTableExistsQuery()
+    {
+    return getTableExistsQuery( tableName );
+    }
+
+  /**
+   * Method getTableExistsQuery returns a query failing if the given table does not exist.
+   *
+   * @param tableName of type String
+   * @return String
+   */
+  public String getTableExistsQuery( String tableName )
     {
     return String.format( "select 1 from %s where 1 = 0", tableName );
     }
@@ -164,7 +415,7 @@ public class TableDesc implements Serializable
   @Override
   public String toString()
     {
-    return "TableDesc{" + "tableName='" + tableName + '\'' + ", columnNames=" + ( columnNames == null ? null : Arrays.asList( columnNames ) ) + ", columnDefs=" + ( columnDefs == null ? null : Arrays.asList( columnDefs ) ) + ", primaryKeys=" + ( primaryKeys == null ? null : Arrays.asList( primaryKeys ) ) + '}';
+    return "TableDesc{" + "tableName='" + tableName + '\'' + ", columnNames=" + ( columnNames == null ? null : Arrays.asList( columnNames ) ) + ", columnDefs=" + ( columnDefs == null ? null : Arrays.asList( columnDefs ) ) + ", primaryKeys=" + ( primaryKeys == null ? null : Arrays.asList( primaryKeys ) ) + ", partitionSpec=" + partitionSpec + ", indexNames=" + indexNames + ", constraintNames=" + constraintNames + ", tableOptions=" + tableOptions + '}';
     }
 
   @Override
@@ -185,6 +436,14 @@ public class TableDesc implements Serializable
       return false;
     if( tableName != null ? !tableName.equals( tableDesc.tableName ) : tableDesc.tableName != null )
       return false;
+    if( partitionSpec != null ? !partitionSpec.equals( tableDesc.partitionSpec ) : tableDesc.partitionSpec != null )
+      return false;
+    if( !indexDefs.equals( tableDesc.indexDefs ) || !indexNames.equals( tableDesc.indexNames ) )
+      return false;
+    if( !constraintDefs.equals( tableDesc.constraintDefs ) || !constraintNames.equals( tableDesc.constraintNames ) )
+      return false;
+    if( !tableOptions.equals( tableDesc.tableOptions ) )
+      return false;
 
     return true;
     }
@@ -196,6 +455,10 @@ public class TableDesc implements Serializable
     result = 31 * result + ( columnNames != null ? Arrays.hashCode( columnNames ) : 0 );
     result = 31 * result + ( columnDefs != null ? Arrays.hashCode( columnDefs ) : 0 );
     result = 31 * result + ( primaryKeys != null ? Arrays.hashCode( primaryKeys ) : 0 );
+    result = 31 * result + ( partitionSpec != null ? partitionSpec.hashCode() : 0 );
+    result = 31 * result + indexDefs.hashCode();
+    result = 31 * result + constraintDefs.hashCode();
+    result = 31 * result + tableOptions.hashCode();
     return result;
     }
   }
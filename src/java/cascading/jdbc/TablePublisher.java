@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import cascading.flow.Flow;
+import cascading.flow.FlowListener;
+import cascading.tap.Tap;
+
+/**
+ * Class TablePublisher is a {@link FlowListener} publishing the tables of a Flow's {@link JDBCTap} sinks that were
+ * loaded with deferred indexes, see {@link JDBCTap#setDeferIndexes(boolean)}, once the Flow completed successfully.
+ * <p/>
+ * <pre>
+ * flow.addListener( new TablePublisher() );
+ * </pre>
+ * If the Flow fails or is stopped, the loaded tables are left unpublished, and dropped by the next load.
+ */
+public class TablePublisher implements FlowListener
+  {
+  /** Field unsuccessful */
+  private final Set<Flow> unsuccessful = Collections.synchronizedSet( new HashSet<Flow>() );
+
+  public void onStarting( Flow flow )
+    {
+    unsuccessful.remove( flow );
+    }
+
+  public void onStopping( Flow flow )
+    {
+    unsuccessful.add( flow );
+    }
+
+  public void onCompleted( Flow flow )
+    {
+    if( unsuccessful.remove( flow ) )
+      return;
+
+    for( Tap sink : flow.getSinks().values() )
+      {
+      if( sink instanceof JDBCTap )
+        ( (JDBCTap) sink ).publishTable();
+      }
+    }
+
+  public boolean onThrowable( Flow flow, Throwable throwable )
+    {
+    unsuccessful.add( flow );
+
+    return false;
+    }
+  }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Class BatchSizeController adapts the number of statements a record writer executes per batch to the latency of
+ * the batches it executed, additive-increase, multiplicative-decrease style.
+ * <p/>
+ * After each full batch the size grows by the minimum size, as long as the batch took no longer than the target
+ * latency and the throughput did not drop by more than a tenth since the last increase. A batch exceeding the target
+ * halves the size, a throughput drop after an increase takes the increase back. The size always stays within the
+ * minimum and maximum sizes.
+ */
+public class BatchSizeController
+  {
+  /** Counters reported by BatchSizeController */
+  public enum Counters
+    {
+      Batches, BatchRows, BatchMillis, Increases, Decreases
+    }
+
+  private final int minSize;
+  private final int maxSize;
+  private final long targetLatency;
+  private final Reporter reporter;
+
+  private int size;
+  private double lastThroughput = 0;
+  private boolean increased = false;
+
+  /**
+   * @param initialSize   the size of the first batch
+   * @param minSize       the smallest size, also the size of each increase
+   * @param maxSize       the largest size
+   * @param targetLatency the longest time in milliseconds a batch should take
+   * @param reporter      the reporter to report the counters to
+   */
+  BatchSizeController( int initialSize, int minSize, int maxSize, long targetLatency, Reporter reporter )
+    {
+    if( minSize < 1 || maxSize < minSize )
+      throw new IllegalArgumentException( "batch size bounds must be positive and ordered, min: " + minSize + " max: " + maxSize );
+
+    this.minSize = minSize;
+    this.maxSize = maxSize;
+    this.targetLatency = targetLatency;
+    this.reporter = reporter != null ? reporter : Reporter.NULL;
+    this.size = Math.max( minSize, Math.min( maxSize, initialSize ) );
+    }
+
+  int getSize()
+    {
+    return size;
+    }
+
+  /**
+   * Records a batch of the given number of rows that took the given number of nanoseconds, and returns the size of
+   * the next batch. Batches smaller than the current size, like the last one before a commit, only count.
+   */
+  int update( long rows, long nanos )
+    {
+    long millis = nanos / 1000000;
+
+    reporter.incrCounter( Counters.Batches, 1 );
+    reporter.incrCounter( Counters.BatchRows, rows );
+    reporter.incrCounter( Counters.BatchMillis, millis );
+
+    if( rows < size )
+      return size;
+
+    double throughput = rows / Math.max( nanos, 1.0 );
+
+    if( millis > targetLatency )
+      {
+      resize( Math.max( minSize, size / 2 ) );
+      }
+    else if( increased && throughput < lastThroughput * 0.9 )
+      {
+      resize( Math.max( minSize, size - minSize ) );
+      }
+    else if( size < maxSize )
+      {
+      resize( Math.min( maxSize, size + minSize ) );
+      }
+
+    lastThroughput = throughput;
+
+    return size;
+    }
+
+  private void resize( int newSize )
+    {
+    if( newSize > size )
+      reporter.incrCounter( Counters.Increases, 1 );
+    else if( newSize < size )
+      reporter.incrCounter( Counters.Decreases, 1 );
+
+    increased = newSize > size;
+    size = newSize;
+    }
+  }
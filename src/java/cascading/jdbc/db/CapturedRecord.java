@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class CapturedRecord holds the values another {@link DBWritable} binds to a statement, by parameter index, so
+ * they can be inspected, kept apart from the original record, and bound again later with setObject.
+ */
+class CapturedRecord implements DBWritable
+  {
+  private final Object[] values;
+
+  CapturedRecord( Object[] values )
+    {
+    this.values = values;
+    }
+
+  Object[] getValues()
+    {
+    return values;
+    }
+
+  public void write( PreparedStatement statement ) throws SQLException
+    {
+    for( int i = 0; i < values.length; i++ )
+      statement.setObject( i + 1, values[ i ] );
+    }
+
+  public void readFields( ResultSet resultSet ) throws SQLException
+    {
+    throw new UnsupportedOperationException( "captured records cannot be read" );
+    }
+
+  /** Returns the values the given record binds, by parameter index. */
+  static CapturedRecord capture( DBWritable record ) throws IOException
+    {
+    final List<Object> values = new ArrayList<Object>();
+
+    InvocationHandler recorder = new InvocationHandler()
+    {
+    public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable
+      {
+      Class<?>[] types = method.getParameterTypes();
+
+      if( types.length >= 2 && types[ 0 ] == int.class && method.getName().startsWith( "set" ) )
+        {
+        int index = (Integer) args[ 0 ] - 1;
+
+        while( values.size() <= index )
+          values.add( null );
+
+        values.set( index, method.getName().equals( "setNull" ) ? null : args[ 1 ] );
+        }
+
+      return null;
+      }
+    };
+
+    PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance( PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, recorder );
+
+    try
+      {
+      record.write( statement );
+      }
+    catch( SQLException exception )
+      {
+      throw new IOException( "unable to capture record values", exception );
+      }
+
+    return new CapturedRecord( values.toArray() );
+    }
+
+  /**
+   * Returns the positions of the given key fields among the parameters of the records written, which bind the
+   * given fields in order, or, if update fields are given, the other fields followed by the update fields.
+   */
+  static int[] getParameterPositions( String[] fieldNames, String[] updateNames, String[] keyNames ) throws IOException
+    {
+    List<String> parameterNames = new ArrayList<String>( Arrays.asList( fieldNames ) );
+
+    if( updateNames != null )
+      {
+      parameterNames.removeAll( Arrays.asList( updateNames ) );
+      parameterNames.addAll( Arrays.asList( updateNames ) );
+      }
+
+    int[] positions = new int[ keyNames.length ];
+
+    for( int i = 0; i < keyNames.length; i++ )
+      {
+      positions[ i ] = parameterNames.indexOf( keyNames[ i ] );
+
+      if( positions[ i ] == -1 )
+        throw new IOException( "key is not a written field: " + keyNames[ i ] );
+      }
+
+    return positions;
+    }
+
+  /**
+   * Compares two bound values, nulls first, by their natural order if they have the same type, numerically if both
+   * are numbers, or one is a number and the other a numeric string, and by their string form otherwise.
+   */
+  @SuppressWarnings("unchecked")
+  static int compareValues( Object lhs, Object rhs )
+    {
+    if( lhs == null || rhs == null )
+      return lhs == null ? ( rhs == null ? 0 : -1 ) : 1;
+
+    if( lhs.getClass() == rhs.getClass() && lhs instanceof Comparable )
+      return ( (Comparable<Object>) lhs ).compareTo( rhs );
+
+    if( lhs instanceof Number || rhs instanceof Number )
+      {
+      Double lhsNumber = toDouble( lhs );
+      Double rhsNumber = toDouble( rhs );
+
+      if( lhsNumber != null && rhsNumber != null )
+        return lhsNumber.compareTo( rhsNumber );
+      }
+
+    return lhs.toString().compareTo( rhs.toString() );
+    }
+
+  private static Double toDouble( Object value )
+    {
+    if( value instanceof Number )
+      return ( (Number) value ).doubleValue();
+
+    try
+      {
+      return Double.valueOf( value.toString().trim() );
+      }
+    catch( NumberFormatException exception )
+      {
+      return null;
+      }
+    }
+  }
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class ConnectionPool keeps a small number of idle connections per database and user so that
+ * short lived reads and lookups issued from client or task code do not pay for a new connection
+ * on every call.
+ * <p/>
+ * Connections handed out by {@link #acquire()} have auto commit disabled, and must be given back with
+ * {@link #release(java.sql.Connection)} or, if they may be broken, {@link #discard(java.sql.Connection)}.
+ */
+public class ConnectionPool
+  {
+  /** Field LOG */
+  private static final Logger LOG = LoggerFactory.getLogger( ConnectionPool.class );
+
+  /** Field DEFAULT_MAX_IDLE */
+  public static final int DEFAULT_MAX_IDLE = 4;
+
+  /** Field pools */
+  private static final Map<String, ConnectionPool> pools = new HashMap<String, ConnectionPool>();
+
+  private final String driverClassName;
+  private final String connectionUrl;
+  private final String username;
+  private final String password;
+  private final LinkedList<Connection> idle = new LinkedList<Connection>();
+  private int maxIdle = DEFAULT_MAX_IDLE;
+
+  /**
+   * Method getPool returns the pool shared by all callers in this JVM for the given database and user.
+   *
+   * @param driverClassName of type String
+   * @param connectionUrl   of type String
+   * @param username        of type String, may be null
+   * @param password        of type String, may be null
+   * @return ConnectionPool
+   */
+  public static synchronized ConnectionPool getPool( String driverClassName, String connectionUrl, String username, String password )
+    {
+    String key = driverClassName + "|" + connectionUrl + "|" + username + "|" + password;
+    ConnectionPool pool = pools.get( key );
+
+    if( pool == null )
+      {
+      pool = new ConnectionPool( driverClassName, connectionUrl, username, password );
+      pools.put( key, pool );
+      }
+
+    return pool;
+    }
+
+  ConnectionPool( String driverClassName, String connectionUrl, String username, String password )
+    {
+    this.driverClassName = driverClassName;
+    this.connectionUrl = connectionUrl;
+    this.username = username;
+    this.password = password;
+    }
+
+  /**
+   * Method setMaxIdle sets the number of connections kept open while unused.
+   *
+   * @param maxIdle of type int
+   */
+  public void setMaxIdle( int maxIdle )
+    {
+    synchronized( idle )
+      {
+      this.maxIdle = maxIdle;
+      }
+    }
+
+  /**
+   * Method acquire returns an idle connection, or a new one if none are available.
+   *
+   * @return Connection
+   * @throws IOException when a new connection cannot be created
+   */
+  public Connection acquire() throws IOException
+    {
+    synchronized( idle )
+      {
+      while( !idle.isEmpty() )
+        {
+        Connection connection = idle.removeFirst();
+
+        if( !isClosed( connection ) )
+          return connection;
+        }
+      }
+
+    return open();
+    }
+
+  /**
+   * Method release rolls back any open transaction on the given connection and returns it to the pool.
+   *
+   * @param connection of type Connection
+   */
+  public void release( Connection connection )
+    {
+    try
+      {
+      connection.rollback();
+      }
+    catch( SQLException exception )
+      {
+      discard( connection );
+      return;
+      }
+
+    synchronized( idle )
+      {
+      if( idle.size() < maxIdle )
+        {
+        idle.addFirst( connection );
+        return;
+        }
+      }
+
+    discard( connection );
+    }
+
+  /**
+   * Method discard closes the given connection instead of returning it to the pool.
+   *
+   * @param connection of type Connection
+   */
+  public void discard( Connection connection )
+    {
+    try
+      {
+      connection.close();
+      }
+    catch( SQLException exception )
+      {
+      LOG.warn( "ignoring connection close exception", exception );
+      }
+    }
+
+  private Connection open() throws IOException
+    {
+    try
+      {
+      Class.forName( driverClassName );
+      }
+    catch( ClassNotFoundException exception )
+      {
+      throw new IOException( "unable to load conection driver", exception );
+      }
+
+    try
+      {
+      LOG.info( "creating pooled connection: {}", connectionUrl );
+
+      Connection connection;
+
+      if( username == null )
+        connection = DriverManager.getConnection( connectionUrl );
+      else
+        connection = DriverManager.getConnection( connectionUrl, username, password );
+
+      connection.setAutoCommit( false );
+
+      return connection;
+      }
+    catch( SQLException exception )
+      {
+      throw new IOException( "unable to create connection", exception );
+      }
+    }
+
+  private boolean isClosed( Connection connection )
+    {
+    try
+      {
+      return connection.isClosed();
+      }
+    catch( SQLException exception )
+      {
+      return true;
+      }
+    }
+  }
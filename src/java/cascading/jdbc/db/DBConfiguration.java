@@ -29,11 +29,16 @@
 
 package cascading.jdbc.db;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 
+import org.apache.commons.codec.binary.Base64;
 import org.apache.hadoop.mapred.JobConf;
 
 /**
@@ -96,9 +101,123 @@ public class DBConfiguration
   /** The number of statements to batch before executing */
   public static final String BATCH_STATEMENTS_PROPERTY = "mapred.jdbc.batch.statements.num";
 
+  /** The number of connections each record writer executes its batches over concurrently */
+  public static final String OUTPUT_WRITER_CONNECTIONS_PROPERTY = "mapred.jdbc.output.writer.connections.num";
+
+  /** The number of rows each insert statement inserts with a multi-row VALUES list */
+  public static final String OUTPUT_ROWS_PER_INSERT_PROPERTY = "mapred.jdbc.output.insert.rows.num";
+
+  /** The key field names of the rows upserted instead of inserted or updated */
+  public static final String OUTPUT_UPSERT_KEY_NAMES_PROPERTY = "mapred.jdbc.output.upsert.key.names";
+
+  /** The name of the {@link Dialect} of the database, detected from the connection if not set */
+  public static final String DIALECT_PROPERTY = "mapred.jdbc.dialect";
+
+  /** If true, each task attempt writes into its own staging table, published by {@link DBOutputCommitter} */
+  public static final String OUTPUT_STAGED_PROPERTY = "mapred.jdbc.output.staged";
+
+  /** If true, the staged rows update the output table with a single statement joining it to each staging table */
+  public static final String OUTPUT_STAGED_UPDATE_PROPERTY = "mapred.jdbc.output.staged.update";
+
+  /** The number of distinct keys within which records are collapsed to the last one written, 0 to write all records */
+  public static final String OUTPUT_DEDUP_WINDOW_PROPERTY = "mapred.jdbc.output.dedup.window";
+
+  /** The key field names records are collapsed by, instead of the update or upsert keys */
+  public static final String OUTPUT_DEDUP_KEY_NAMES_PROPERTY = "mapred.jdbc.output.dedup.key.names";
+
+  /** The number of rows after which a record writer commits, 0 commits only when the writer is closed */
+  public static final String OUTPUT_COMMIT_ROWS_PROPERTY = "mapred.jdbc.output.commit.rows";
+
+  /** The number of milliseconds after which a record writer commits, 0 commits only when the writer is closed */
+  public static final String OUTPUT_COMMIT_INTERVAL_PROPERTY = "mapred.jdbc.output.commit.interval";
+
+  /** If true, a failed batch only rolls back to its start and the rows before it are committed */
+  public static final String OUTPUT_SAVEPOINTS_PROPERTY = "mapred.jdbc.output.savepoints";
+
+  /** The table recording the rows committed by each task, so retried attempts can skip them */
+  public static final String OUTPUT_PROGRESS_TABLE_PROPERTY = "mapred.jdbc.output.progress.table";
+
+  /** The smallest number of statements per batch when the batch size adapts to the batch latency */
+  public static final String OUTPUT_BATCH_MIN_PROPERTY = "mapred.jdbc.output.batch.min";
+
+  /** The largest number of statements per batch when the batch size adapts to the batch latency */
+  public static final String OUTPUT_BATCH_MAX_PROPERTY = "mapred.jdbc.output.batch.max";
+
+  /** The longest time in milliseconds a batch should take, 0 keeps the batch size fixed */
+  public static final String OUTPUT_BATCH_LATENCY_TARGET_PROPERTY = "mapred.jdbc.output.batch.latency.target";
+
+  /** The field names the records are ordered by before they are written */
+  public static final String OUTPUT_SORT_KEY_NAMES_PROPERTY = "mapred.jdbc.output.sort.key.names";
+
+  /** The estimated number of bytes of records buffered in memory before they are sorted and spilled to disk */
+  public static final String OUTPUT_SORT_BUFFER_PROPERTY = "mapred.jdbc.output.sort.buffer";
+
+  /** The number of shards written to, each shard URL is set with {@link #OUTPUT_SHARD_URL_PROPERTY} and its index */
+  public static final String OUTPUT_SHARDS_PROPERTY = "mapred.jdbc.output.shards.num";
+
+  /** The prefix of the property holding the URL of each shard, followed by the shard index */
+  public static final String OUTPUT_SHARD_URL_PROPERTY = "mapred.jdbc.output.shard.url.";
+
+  /** The field name whose value chooses the shard of a record */
+  public static final String OUTPUT_SHARD_FIELD_NAME_PROPERTY = "mapred.jdbc.output.shard.field.name";
+
+  /** The serialized {@link ShardResolver} choosing the shard of a record */
+  public static final String OUTPUT_SHARD_RESOLVER_PROPERTY = "mapred.jdbc.output.shard.resolver";
+
+  /** The table holding the permits of semaphores limiting concurrent tasks, PostgreSQL advisory locks are used if not set */
+  public static final String SEMAPHORE_TABLE_PROPERTY = "mapred.jdbc.semaphore.table";
+
+  /** A local directory holding lock files as the permits of semaphores, for tests and local mode */
+  public static final String SEMAPHORE_LOCK_DIR_PROPERTY = "mapred.jdbc.semaphore.lock.dir";
+
+  /** The number of tasks that may read at once across the cluster, 0 for no limit */
+  public static final String INPUT_MAX_READERS_PROPERTY = "mapred.jdbc.input.readers.max";
+
+  /** The upper bound of the random number of milliseconds each task waits before it executes its select queries */
+  public static final String INPUT_CONNECT_JITTER_PROPERTY = "mapred.jdbc.input.connect.jitter";
+
+  /** The number of tasks that may write at once across the cluster, 0 for no limit */
+  public static final String OUTPUT_MAX_WRITERS_PROPERTY = "mapred.jdbc.output.writers.max";
+
+  /** The number of rows each task may write per second, 0 for no limit */
+  public static final String OUTPUT_RATE_PROPERTY = "mapred.jdbc.output.rate";
+
+  /** The query whose result lowers the write rate as it approaches {@link #OUTPUT_RATE_FEEDBACK_LIMIT_PROPERTY} */
+  public static final String OUTPUT_RATE_FEEDBACK_QUERY_PROPERTY = "mapred.jdbc.output.rate.feedback.query";
+
+  /** The result of the feedback query at which the write rate is lowest */
+  public static final String OUTPUT_RATE_FEEDBACK_LIMIT_PROPERTY = "mapred.jdbc.output.rate.feedback.limit";
+
+  /** The number of times a batch failing with a transient error is retried */
+  public static final String OUTPUT_RETRIES_PROPERTY = "mapred.jdbc.output.retries";
+
+  /** The number of milliseconds to wait before the first retry of a batch, doubled for each further retry */
+  public static final String OUTPUT_RETRY_BACKOFF_PROPERTY = "mapred.jdbc.output.retry.backoff";
+
+  /** The directory rejected records are written to, isolated from their batch by bisection */
+  public static final String OUTPUT_DEAD_LETTER_PATH_PROPERTY = "mapred.jdbc.output.dead.letter.path";
+
   /** The number of splits allowed, becomes max concurrent reads. */
   public static final String CONCURRENT_READS_PROPERTY = "mapred.jdbc.concurrent.reads.num";
 
+  /** The number of connections each record reader uses to select sub-ranges of its split concurrently */
+  public static final String INPUT_READER_CONNECTIONS_PROPERTY = "mapred.jdbc.input.reader.connections.num";
+
+  /** The number of rows fetched from the database per round-trip while reading, 0 uses the driver default */
+  public static final String INPUT_FETCH_SIZE_PROPERTY = "mapred.jdbc.input.fetch.size";
+
+  /** The number of seconds a select statement may execute before being cancelled, 0 means no limit */
+  public static final String INPUT_QUERY_TIMEOUT_PROPERTY = "mapred.jdbc.input.query.timeout";
+
+  /** The number of milliseconds between progress reports while a statement is blocked in the database */
+  public static final String PROGRESS_INTERVAL_PROPERTY = "mapred.jdbc.progress.interval";
+
+  /** The column matched against the keys of a semi-join */
+  public static final String INPUT_SEMIJOIN_COLUMN_PROPERTY = "mapred.jdbc.input.semijoin.column";
+
+  /** The path of the {@link SemiJoinFilter} holding the keys of a semi-join */
+  public static final String INPUT_SEMIJOIN_PATH_PROPERTY = "mapred.jdbc.input.semijoin.path";
+
   /**
    * Sets the DB access related fields in the JobConf.
    *
@@ -293,6 +412,423 @@ public class DBConfiguration
     job.setInt( DBConfiguration.BATCH_STATEMENTS_PROPERTY, batchStatementsNum );
     }
 
+  long getOutputCommitRows()
+    {
+    return job.getLong( DBConfiguration.OUTPUT_COMMIT_ROWS_PROPERTY, 0 );
+    }
+
+  void setOutputCommitRows( long commitRows )
+    {
+    if( commitRows < 0 )
+      throw new IllegalArgumentException( "commitRows must be a positive value" );
+
+    job.setLong( DBConfiguration.OUTPUT_COMMIT_ROWS_PROPERTY, commitRows );
+    }
+
+  long getOutputCommitInterval()
+    {
+    return job.getLong( DBConfiguration.OUTPUT_COMMIT_INTERVAL_PROPERTY, 0 );
+    }
+
+  void setOutputCommitInterval( long commitInterval )
+    {
+    if( commitInterval < 0 )
+      throw new IllegalArgumentException( "commitInterval must be a positive value" );
+
+    job.setLong( DBConfiguration.OUTPUT_COMMIT_INTERVAL_PROPERTY, commitInterval );
+    }
+
+  boolean isOutputSavepoints()
+    {
+    return job.getBoolean( DBConfiguration.OUTPUT_SAVEPOINTS_PROPERTY, false );
+    }
+
+  void setOutputSavepoints( boolean savepoints )
+    {
+    job.setBoolean( DBConfiguration.OUTPUT_SAVEPOINTS_PROPERTY, savepoints );
+    }
+
+  String getOutputProgressTable()
+    {
+    return job.get( DBConfiguration.OUTPUT_PROGRESS_TABLE_PROPERTY );
+    }
+
+  void setOutputProgressTable( String progressTableName )
+    {
+    job.set( DBConfiguration.OUTPUT_PROGRESS_TABLE_PROPERTY, progressTableName );
+    }
+
+  int getOutputBatchMin()
+    {
+    return job.getInt( DBConfiguration.OUTPUT_BATCH_MIN_PROPERTY, 100 );
+    }
+
+  int getOutputBatchMax()
+    {
+    return job.getInt( DBConfiguration.OUTPUT_BATCH_MAX_PROPERTY, 10000 );
+    }
+
+  void setOutputBatchBounds( int minBatchSize, int maxBatchSize )
+    {
+    if( minBatchSize < 1 || maxBatchSize < minBatchSize )
+      throw new IllegalArgumentException( "batch size bounds must be positive values, with min not above max" );
+
+    job.setInt( DBConfiguration.OUTPUT_BATCH_MIN_PROPERTY, minBatchSize );
+    job.setInt( DBConfiguration.OUTPUT_BATCH_MAX_PROPERTY, maxBatchSize );
+    }
+
+  long getOutputBatchLatencyTarget()
+    {
+    return job.getLong( DBConfiguration.OUTPUT_BATCH_LATENCY_TARGET_PROPERTY, 0 );
+    }
+
+  void setOutputBatchLatencyTarget( long targetLatency )
+    {
+    if( targetLatency < 0 )
+      throw new IllegalArgumentException( "targetLatency must be a positive value" );
+
+    job.setLong( DBConfiguration.OUTPUT_BATCH_LATENCY_TARGET_PROPERTY, targetLatency );
+    }
+
+  String[] getOutputSortKeyNames()
+    {
+    return job.getStrings( DBConfiguration.OUTPUT_SORT_KEY_NAMES_PROPERTY );
+    }
+
+  void setOutputSortKeyNames( String... sortKeyNames )
+    {
+    job.setStrings( DBConfiguration.OUTPUT_SORT_KEY_NAMES_PROPERTY, sortKeyNames );
+    }
+
+  long getOutputSortBuffer()
+    {
+    return job.getLong( DBConfiguration.OUTPUT_SORT_BUFFER_PROPERTY, 64L * 1024 * 1024 );
+    }
+
+  void setOutputSortBuffer( long sortBuffer )
+    {
+    if( sortBuffer <= 0 )
+      throw new IllegalArgumentException( "sortBuffer must be a positive value" );
+
+    job.setLong( DBConfiguration.OUTPUT_SORT_BUFFER_PROPERTY, sortBuffer );
+    }
+
+  String[] getOutputShardUrls()
+    {
+    int shards = job.getInt( DBConfiguration.OUTPUT_SHARDS_PROPERTY, 0 );
+
+    if( shards == 0 )
+      return null;
+
+    String[] urls = new String[ shards ];
+
+    for( int i = 0; i < shards; i++ )
+      urls[ i ] = job.get( DBConfiguration.OUTPUT_SHARD_URL_PROPERTY + i );
+
+    return urls;
+    }
+
+  void setOutputShardUrls( String... urls )
+    {
+    if( urls.length == 0 )
+      throw new IllegalArgumentException( "at least one shard url is required" );
+
+    // urls may contain commas, so each gets a property of its own
+    job.setInt( DBConfiguration.OUTPUT_SHARDS_PROPERTY, urls.length );
+
+    for( int i = 0; i < urls.length; i++ )
+      job.set( DBConfiguration.OUTPUT_SHARD_URL_PROPERTY + i, urls[ i ] );
+    }
+
+  String getOutputShardFieldName()
+    {
+    return job.get( DBConfiguration.OUTPUT_SHARD_FIELD_NAME_PROPERTY );
+    }
+
+  void setOutputShardFieldName( String shardFieldName )
+    {
+    job.set( DBConfiguration.OUTPUT_SHARD_FIELD_NAME_PROPERTY, shardFieldName );
+    }
+
+  ShardResolver getOutputShardResolver() throws IOException
+    {
+    String serialized = job.get( DBConfiguration.OUTPUT_SHARD_RESOLVER_PROPERTY );
+
+    if( serialized == null )
+      return null;
+
+    try
+      {
+      ObjectInputStream input = new ObjectInputStream( new ByteArrayInputStream( Base64.decodeBase64( serialized.getBytes( "US-ASCII" ) ) ) );
+
+      try
+        {
+        return (ShardResolver) input.readObject();
+        }
+      finally
+        {
+        input.close();
+        }
+      }
+    catch( ClassNotFoundException exception )
+      {
+      throw new IOException( "unable to deserialize shard resolver", exception );
+      }
+    }
+
+  void setOutputShardResolver( ShardResolver resolver )
+    {
+    try
+      {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream output = new ObjectOutputStream( bytes );
+
+      output.writeObject( resolver );
+      output.close();
+
+      job.set( DBConfiguration.OUTPUT_SHARD_RESOLVER_PROPERTY, new String( Base64.encodeBase64( bytes.toByteArray() ), "US-ASCII" ) );
+      }
+    catch( IOException exception )
+      {
+      throw new IllegalArgumentException( "unable to serialize shard resolver", exception );
+      }
+    }
+
+  String getSemaphoreTable()
+    {
+    return job.get( DBConfiguration.SEMAPHORE_TABLE_PROPERTY );
+    }
+
+  void setSemaphoreTable( String semaphoreTable )
+    {
+    job.set( DBConfiguration.SEMAPHORE_TABLE_PROPERTY, semaphoreTable );
+    }
+
+  String getSemaphoreLockDir()
+    {
+    return job.get( DBConfiguration.SEMAPHORE_LOCK_DIR_PROPERTY );
+    }
+
+  void setSemaphoreLockDir( String lockDir )
+    {
+    job.set( DBConfiguration.SEMAPHORE_LOCK_DIR_PROPERTY, lockDir );
+    }
+
+  int getInputMaxReaders()
+    {
+    return job.getInt( DBConfiguration.INPUT_MAX_READERS_PROPERTY, 0 );
+    }
+
+  void setInputMaxReaders( int maxReaders )
+    {
+    if( maxReaders < 0 )
+      throw new IllegalArgumentException( "maxReaders must be a positive value" );
+
+    job.setInt( DBConfiguration.INPUT_MAX_READERS_PROPERTY, maxReaders );
+    }
+
+  long getInputConnectJitter()
+    {
+    return job.getLong( DBConfiguration.INPUT_CONNECT_JITTER_PROPERTY, 0 );
+    }
+
+  void setInputConnectJitter( long connectJitter )
+    {
+    if( connectJitter < 0 )
+      throw new IllegalArgumentException( "connectJitter must be a positive value" );
+
+    job.setLong( DBConfiguration.INPUT_CONNECT_JITTER_PROPERTY, connectJitter );
+    }
+
+  int getOutputMaxWriters()
+    {
+    return job.getInt( DBConfiguration.OUTPUT_MAX_WRITERS_PROPERTY, 0 );
+    }
+
+  void setOutputMaxWriters( int maxWriters )
+    {
+    if( maxWriters < 0 )
+      throw new IllegalArgumentException( "maxWriters must be a positive value" );
+
+    job.setInt( DBConfiguration.OUTPUT_MAX_WRITERS_PROPERTY, maxWriters );
+    }
+
+  double getOutputRate()
+    {
+    return Double.parseDouble( job.get( DBConfiguration.OUTPUT_RATE_PROPERTY, "0" ) );
+    }
+
+  void setOutputRate( double rowsPerSecond )
+    {
+    if( rowsPerSecond < 0 )
+      throw new IllegalArgumentException( "rowsPerSecond must be a positive value" );
+
+    job.set( DBConfiguration.OUTPUT_RATE_PROPERTY, Double.toString( rowsPerSecond ) );
+    }
+
+  String getOutputRateFeedbackQuery()
+    {
+    return job.get( DBConfiguration.OUTPUT_RATE_FEEDBACK_QUERY_PROPERTY );
+    }
+
+  void setOutputRateFeedbackQuery( String feedbackQuery )
+    {
+    job.set( DBConfiguration.OUTPUT_RATE_FEEDBACK_QUERY_PROPERTY, feedbackQuery );
+    }
+
+  double getOutputRateFeedbackLimit()
+    {
+    return Double.parseDouble( job.get( DBConfiguration.OUTPUT_RATE_FEEDBACK_LIMIT_PROPERTY, "1" ) );
+    }
+
+  void setOutputRateFeedbackLimit( double feedbackLimit )
+    {
+    if( feedbackLimit <= 0 )
+      throw new IllegalArgumentException( "feedbackLimit must be a positive value" );
+
+    job.set( DBConfiguration.OUTPUT_RATE_FEEDBACK_LIMIT_PROPERTY, Double.toString( feedbackLimit ) );
+    }
+
+  int getOutputRetries()
+    {
+    return job.getInt( DBConfiguration.OUTPUT_RETRIES_PROPERTY, 0 );
+    }
+
+  void setOutputRetries( int retries )
+    {
+    if( retries < 0 )
+      throw new IllegalArgumentException( "retries must be a positive value" );
+
+    job.setInt( DBConfiguration.OUTPUT_RETRIES_PROPERTY, retries );
+    }
+
+  long getOutputRetryBackoff()
+    {
+    return job.getLong( DBConfiguration.OUTPUT_RETRY_BACKOFF_PROPERTY, 1000 );
+    }
+
+  void setOutputRetryBackoff( long retryBackoff )
+    {
+    if( retryBackoff < 0 )
+      throw new IllegalArgumentException( "retryBackoff must be a positive value" );
+
+    job.setLong( DBConfiguration.OUTPUT_RETRY_BACKOFF_PROPERTY, retryBackoff );
+    }
+
+  String getOutputDeadLetterPath()
+    {
+    return job.get( DBConfiguration.OUTPUT_DEAD_LETTER_PATH_PROPERTY );
+    }
+
+  void setOutputDeadLetterPath( String deadLetterPath )
+    {
+    job.set( DBConfiguration.OUTPUT_DEAD_LETTER_PATH_PROPERTY, deadLetterPath );
+    }
+
+  boolean isOutputStaged()
+    {
+    return job.getBoolean( DBConfiguration.OUTPUT_STAGED_PROPERTY, false );
+    }
+
+  void setOutputStaged( boolean staged )
+    {
+    job.setBoolean( DBConfiguration.OUTPUT_STAGED_PROPERTY, staged );
+    }
+
+  boolean isOutputStagedUpdate()
+    {
+    return job.getBoolean( DBConfiguration.OUTPUT_STAGED_UPDATE_PROPERTY, false );
+    }
+
+  void setOutputStagedUpdate( boolean stagedUpdate )
+    {
+    job.setBoolean( DBConfiguration.OUTPUT_STAGED_UPDATE_PROPERTY, stagedUpdate );
+    }
+
+  int getOutputDedupWindow()
+    {
+    return job.getInt( DBConfiguration.OUTPUT_DEDUP_WINDOW_PROPERTY, 0 );
+    }
+
+  void setOutputDedupWindow( int window )
+    {
+    if( window < 0 )
+      throw new IllegalArgumentException( "window must be a positive value" );
+
+    job.setInt( DBConfiguration.OUTPUT_DEDUP_WINDOW_PROPERTY, window );
+    }
+
+  String[] getOutputDedupKeyNames()
+    {
+    return job.getStrings( DBConfiguration.OUTPUT_DEDUP_KEY_NAMES_PROPERTY );
+    }
+
+  void setOutputDedupKeyNames( String... dedupKeyNames )
+    {
+    job.setStrings( DBConfiguration.OUTPUT_DEDUP_KEY_NAMES_PROPERTY, dedupKeyNames );
+    }
+
+  String[] getOutputUpsertKeyNames()
+    {
+    return job.getStrings( DBConfiguration.OUTPUT_UPSERT_KEY_NAMES_PROPERTY );
+    }
+
+  void setOutputUpsertKeyNames( String... keyNames )
+    {
+    if( keyNames == null || keyNames.length == 0 )
+      throw new IllegalArgumentException( "keyNames may not be empty" );
+
+    job.setStrings( DBConfiguration.OUTPUT_UPSERT_KEY_NAMES_PROPERTY, keyNames );
+    }
+
+  Dialect getDialect( Connection connection ) throws IOException
+    {
+    String dialect = job.get( DBConfiguration.DIALECT_PROPERTY );
+
+    if( dialect != null )
+      return Dialect.valueOf( dialect );
+
+    try
+      {
+      return Dialect.detect( connection );
+      }
+    catch( SQLException exception )
+      {
+      throw new IOException( "unable to detect database dialect", exception );
+      }
+    }
+
+  void setDialect( Dialect dialect )
+    {
+    job.set( DBConfiguration.DIALECT_PROPERTY, dialect.name() );
+    }
+
+  int getOutputRowsPerInsert()
+    {
+    return job.getInt( DBConfiguration.OUTPUT_ROWS_PER_INSERT_PROPERTY, 1 );
+    }
+
+  void setOutputRowsPerInsert( int rowsPerInsert )
+    {
+    if( rowsPerInsert < 1 )
+      throw new IllegalArgumentException( "rowsPerInsert must be greater than zero" );
+
+    job.setInt( DBConfiguration.OUTPUT_ROWS_PER_INSERT_PROPERTY, rowsPerInsert );
+    }
+
+  int getOutputWriterConnections()
+    {
+    return job.getInt( DBConfiguration.OUTPUT_WRITER_CONNECTIONS_PROPERTY, 1 );
+    }
+
+  void setOutputWriterConnections( int writerConnections )
+    {
+    if( writerConnections < 1 )
+      throw new IllegalArgumentException( "writerConnections must be greater than zero" );
+
+    job.setInt( DBConfiguration.OUTPUT_WRITER_CONNECTIONS_PROPERTY, writerConnections );
+    }
+
   int getMaxConcurrentReadsNum()
     {
     return job.getInt( DBConfiguration.CONCURRENT_READS_PROPERTY, 0 );
@@ -306,5 +842,68 @@ public class DBConfiguration
     job.setInt( DBConfiguration.CONCURRENT_READS_PROPERTY, maxConcurrentReads );
     }
 
-  }
+  int getInputReaderConnections()
+    {
+    return job.getInt( DBConfiguration.INPUT_READER_CONNECTIONS_PROPERTY, 1 );
+    }
+
+  void setInputReaderConnections( int readerConnections )
+    {
+    if( readerConnections < 1 )
+      throw new IllegalArgumentException( "readerConnections must be greater than zero" );
+
+    job.setInt( DBConfiguration.INPUT_READER_CONNECTIONS_PROPERTY, readerConnections );
+    }
+
+  int getInputFetchSize()
+    {
+    return job.getInt( DBConfiguration.INPUT_FETCH_SIZE_PROPERTY, 0 );
+    }
+
+  void setInputFetchSize( int fetchSize )
+    {
+    if( fetchSize < 0 )
+      throw new IllegalArgumentException( "fetchSize must be a positive value" );
+
+    job.setInt( DBConfiguration.INPUT_FETCH_SIZE_PROPERTY, fetchSize );
+    }
+
+  int getInputQueryTimeout()
+    {
+    return job.getInt( DBConfiguration.INPUT_QUERY_TIMEOUT_PROPERTY, 0 );
+    }
+
+  void setInputQueryTimeout( int queryTimeout )
+    {
+    if( queryTimeout < 0 )
+      throw new IllegalArgumentException( "queryTimeout must be a positive value" );
 
+    job.setInt( DBConfiguration.INPUT_QUERY_TIMEOUT_PROPERTY, queryTimeout );
+    }
+
+  long getProgressInterval()
+    {
+    return job.getLong( DBConfiguration.PROGRESS_INTERVAL_PROPERTY, 10 * 1000 );
+    }
+
+  String getInputSemiJoinColumn()
+    {
+    return job.get( DBConfiguration.INPUT_SEMIJOIN_COLUMN_PROPERTY );
+    }
+
+  void setInputSemiJoinColumn( String column )
+    {
+    job.set( DBConfiguration.INPUT_SEMIJOIN_COLUMN_PROPERTY, column );
+    }
+
+  String getInputSemiJoinPath()
+    {
+    return job.get( DBConfiguration.INPUT_SEMIJOIN_PATH_PROPERTY );
+    }
+
+  void setInputSemiJoinPath( String path )
+    {
+    job.set( DBConfiguration.INPUT_SEMIJOIN_PATH_PROPERTY, path );
+    }
+
+  }
@@ -37,7 +37,12 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
 
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapred.InputFormat;
@@ -64,18 +69,31 @@ public class DBInputFormat<T extends DBWritable> implements InputFormat<LongWrit
   /** Field LOG */
   private static final Logger LOG = LoggerFactory.getLogger( DBInputFormat.class );
 
+  /** Matches an ORDER BY clause in a custom select query */
+  private static final Pattern ORDER_BY_PATTERN = Pattern.compile( "\\border\\s+by\\b", Pattern.CASE_INSENSITIVE );
+
   /**
    * A RecordReader that reads records from a SQL table.
    * Emits LongWritables containing the record number as
    * key and DBWritables as value.
+   * <p/>
+   * If more than one reader connection is configured, the split is divided into that many sub-ranges
+   * that are selected concurrently over their own connections, and their rows are emitted one sub-range after
+   * the other, in the order of the split. As the sub-ranges are paged with LIMIT and OFFSET, this requires an
+   * ordered query, so every row falls into exactly one of them.
    */
   protected class DBRecordReader implements RecordReader<LongWritable, T>
     {
-    private ResultSet results;
-    private Statement statement;
+    private Connection[] connections;
+    private Statement[] statements;
+    private ResultSet[] results;
+    private StatementCanceller[] cancellers;
+    private boolean[] exhausted;
+    private int current = 0;
     private Class<T> inputClass;
     private JobConf job;
     private DBInputSplit split;
+    private DBSemaphore semaphore;
     private long pos = 0;
 
     /**
@@ -83,23 +101,217 @@ public class DBInputFormat<T extends DBWritable> implements InputFormat<LongWrit
      * @throws SQLException
      */
     protected DBRecordReader( DBInputSplit split, Class<T> inputClass, JobConf job ) throws SQLException, IOException
+      {
+      this( split, inputClass, job, Reporter.NULL );
+      }
+
+    /**
+     * @param split    The InputSplit to read data for
+     * @param reporter The Reporter notified while the select query executes
+     * @throws SQLException
+     */
+    protected DBRecordReader( DBInputSplit split, Class<T> inputClass, JobConf job, Reporter reporter ) throws SQLException, IOException
       {
       this.inputClass = inputClass;
       this.split = split;
       this.job = job;
 
-      statement = connection.createStatement( ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY );
+      if( dbConf.getInputReaderConnections() != 1 && !isOrdered() )
+        throw new IOException( "reading over more than one reader connection requires an ordered query" );
+
+      int readers = (int) Math.max( 1, Math.min( dbConf.getInputReaderConnections(), split.getLength() ) );
+
+      // a split never reads over more connections than the job may read over at once
+      if( maxConcurrentReads != 0 )
+        readers = Math.min( readers, maxConcurrentReads );
+
+      connections = new Connection[readers];
+      statements = new Statement[readers];
+      results = new ResultSet[readers];
+      cancellers = new StatementCanceller[readers];
+      exhausted = new boolean[readers];
+
+      String[] queries = new String[readers];
+      boolean opened = false;
+
+      try
+        {
+        if( readers == 1 )
+          {
+          queries[ 0 ] = getSelectQuery();
+          connections[ 0 ] = connection;
+          }
+        else
+          {
+          DBInputSplit[] ranges = split.divide( readers );
+
+          for( int i = 0; i < readers; i++ )
+            {
+            queries[ i ] = getSelectQuery( ranges[ i ] );
+            connections[ i ] = i == 0 ? connection : createReaderConnection();
+            }
+          }
+
+        for( int i = 0; i < readers; i++ )
+          {
+          statements[ i ] = createStatement( connections[ i ] );
+
+          // cancel the query if the task is killed, until the results are closed
+          cancellers[ i ] = new StatementCanceller( statements[ i ] );
+          cancellers[ i ].register();
+          }
+
+        opened = true;
+        }
+      finally
+        {
+        if( !opened )
+          abandonAll();
+        }
+
+      ProgressHeartbeat heartbeat = new ProgressHeartbeat( "jdbc select heartbeat", reporter, dbConf.getProgressInterval() );
+      heartbeat.start();
 
-      //statement.setFetchSize(Integer.MIN_VALUE);
-      String query = getSelectQuery();
       try
         {
-        results = statement.executeQuery( query );
+        executeQueries( queries );
         }
-      catch( SQLException exception )
+      finally
         {
-        LOG.error( "unable to execute select query: " + query, exception );
-        throw new IOException( "unable to execute select query: " + query, exception );
+        heartbeat.halt();
+        }
+      }
+
+    /** Returns true if the select query orders its rows, by the input order by or in the custom query. */
+    private boolean isOrdered()
+      {
+      String orderBy = dbConf.getInputOrderBy();
+
+      if( dbConf.getInputQuery() == null )
+        return orderBy != null && orderBy.length() > 0;
+
+      return ORDER_BY_PATTERN.matcher( dbConf.getInputQuery() ).find();
+      }
+
+    /** Releases whatever was opened before the reader failed to open all of its connections and statements. */
+    private void abandonAll()
+      {
+      for( int i = 0; i < connections.length; i++ )
+        {
+        if( cancellers[ i ] != null )
+          cancellers[ i ].unregister();
+
+        try
+          {
+          if( statements[ i ] != null )
+            statements[ i ].close();
+          }
+        catch( SQLException exception )
+          {
+          LOG.warn( "ignoring statement close exception", exception );
+          }
+
+        if( i != 0 && connections[ i ] != null )
+          closeReaderConnection( connections[ i ] );
+        }
+      }
+
+    private Connection createReaderConnection() throws IOException
+      {
+      Connection readerConnection = dbConf.getConnection();
+
+      configureConnection( readerConnection );
+
+      return readerConnection;
+      }
+
+    private Statement createStatement( Connection connection ) throws SQLException
+      {
+      Statement statement = connection.createStatement( ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY );
+
+      int queryTimeout = dbConf.getInputQueryTimeout();
+
+      if( queryTimeout > 0 )
+        statement.setQueryTimeout( queryTimeout );
+
+      int fetchSize = dbConf.getInputFetchSize();
+
+      if( fetchSize > 0 )
+        statement.setFetchSize( fetchSize );
+
+      return statement;
+      }
+
+    private void executeQueries( String[] queries ) throws IOException
+      {
+      List<QueryExecutor> executors = new ArrayList<QueryExecutor>( queries.length );
+
+      for( int i = 0; i < queries.length; i++ )
+        executors.add( new QueryExecutor( i, queries[ i ] ) );
+
+      if( executors.size() == 1 )
+        {
+        executors.get( 0 ).run();
+        }
+      else
+        {
+        for( QueryExecutor executor : executors )
+          executor.start();
+
+        for( QueryExecutor executor : executors )
+          {
+          try
+            {
+            executor.join();
+            }
+          catch( InterruptedException exception )
+            {
+            cancelAll();
+            throw new IOException( "interrupted while executing select queries" );
+            }
+          }
+        }
+
+      for( QueryExecutor executor : executors )
+        {
+        if( executor.failure == null )
+          continue;
+
+        cancelAll();
+        closeAll();
+
+        LOG.error( "unable to execute select query: " + executor.query, executor.failure );
+        throw new IOException( "unable to execute select query: " + executor.query, executor.failure );
+        }
+      }
+
+    /** Executes one of the select queries, possibly concurrently with the others. */
+    private class QueryExecutor extends Thread
+      {
+      private final int index;
+      private final String query;
+      private SQLException failure;
+
+      private QueryExecutor( int index, String query )
+        {
+        super( "jdbc select " + index );
+        this.index = index;
+        this.query = query;
+
+        setDaemon( true );
+        }
+
+      @Override
+      public void run()
+        {
+        try
+          {
+          results[ index ] = statements[ index ].executeQuery( query );
+          }
+        catch( SQLException exception )
+          {
+          failure = exception;
+          }
         }
       }
 
@@ -108,6 +320,15 @@ public class DBInputFormat<T extends DBWritable> implements InputFormat<LongWrit
      * subclasses can override this for custom behaviour.
      */
     protected String getSelectQuery()
+      {
+      return getSelectQuery( split );
+      }
+
+    /**
+     * Returns the query for selecting the records in the given range of the split,
+     * subclasses can override this for custom behaviour.
+     */
+    protected String getSelectQuery( DBInputSplit range )
       {
       StringBuilder query = new StringBuilder();
 
@@ -141,8 +362,8 @@ public class DBInputFormat<T extends DBWritable> implements InputFormat<LongWrit
 
       try
         {
-        query.append( " LIMIT " ).append( split.getLength() );
-        query.append( " OFFSET " ).append( split.getStart() );
+        query.append( " LIMIT " ).append( range.getLength() );
+        query.append( " OFFSET " ).append( range.getStart() );
         }
       catch( IOException ex )
         {
@@ -152,18 +373,77 @@ public class DBInputFormat<T extends DBWritable> implements InputFormat<LongWrit
       return query.toString();
       }
 
+    private void cancelAll()
+      {
+      for( int i = 0; i < cancellers.length; i++ )
+        {
+        if( cancellers[ i ] == null )
+          continue;
+
+        cancellers[ i ].unregister();
+
+        // free the server side cursor before draining any remaining rows
+        if( !exhausted[ i ] )
+          cancellers[ i ].cancel();
+        }
+      }
+
+    private void closeAll() throws IOException
+      {
+      SQLException failure = null;
+
+      for( int i = 0; i < connections.length; i++ )
+        {
+        try
+          {
+          connections[ i ].commit();
+
+          if( results[ i ] != null )
+            results[ i ].close();
+
+          if( statements[ i ] != null )
+            statements[ i ].close();
+          }
+        catch( SQLException exception )
+          {
+          if( failure == null )
+            failure = exception;
+          }
+        finally
+          {
+          if( i != 0 )
+            closeReaderConnection( connections[ i ] );
+          }
+        }
+
+      if( failure != null )
+        throw new IOException( "unable to commit and close", failure );
+      }
+
+    private void closeReaderConnection( Connection readerConnection )
+      {
+      try
+        {
+        readerConnection.close();
+        }
+      catch( SQLException exception )
+        {
+        LOG.warn( "ignoring connection close exception", exception );
+        }
+      }
+
     /** {@inheritDoc} */
     public void close() throws IOException
       {
       try
         {
-        connection.commit();
-        results.close();
-        statement.close();
+        cancelAll();
+        closeAll();
         }
-      catch( SQLException exception )
+      finally
         {
-        throw new IOException( "unable to commit and close", exception );
+        if( semaphore != null )
+          semaphore.release();
         }
       }
 
@@ -196,22 +476,38 @@ public class DBInputFormat<T extends DBWritable> implements InputFormat<LongWrit
       {
       try
         {
-        if( !results.next() )
-          return false;
+        // the sub-ranges were selected concurrently, but their rows are emitted in order
+        while( current < results.length )
+          {
+          int index = current;
+
+          if( !results[ index ].next() )
+            {
+            exhausted[ index ] = true;
+            current++;
+            continue;
+            }
+
+          // Set the key field value as the output key value
+          key.set( pos + split.getStart() );
 
-        // Set the key field value as the output key value
-        key.set( pos + split.getStart() );
+          // rows the semi-join filter could not push into the query are dropped here
+          if( semiJoinFilter != null && !semiJoinFilter.mightContain( SemiJoinFilter.normalize( results[ index ].getObject( semiJoinColumn ) ) ) )
+            continue;
 
-        value.readFields( results );
+          value.readFields( results[ index ] );
 
-        pos++;
+          pos++;
+
+          return true;
+          }
         }
       catch( SQLException exception )
         {
         throw new IOException( "unable to get next value", exception );
         }
 
-      return true;
+      return false;
       }
     }
 
@@ -287,6 +583,29 @@ public class DBInputFormat<T extends DBWritable> implements InputFormat<LongWrit
       return end - start;
       }
 
+    /**
+     * Divides this split into the given number of contiguous ranges, the last range
+     * receives any remaining rows.
+     *
+     * @param count the number of ranges to create
+     * @return the ranges covering this split
+     */
+    DBInputSplit[] divide( int count )
+      {
+      DBInputSplit[] ranges = new DBInputSplit[count];
+      long rangeSize = ( end - start ) / count;
+
+      for( int i = 0; i < count; i++ )
+        {
+        long rangeStart = start + i * rangeSize;
+        long rangeEnd = i + 1 == count ? end : rangeStart + rangeSize;
+
+        ranges[ i ] = new DBInputSplit( rangeStart, rangeEnd );
+        }
+
+      return ranges;
+      }
+
     /** {@inheritDoc} */
     public void readFields( DataInput input ) throws IOException
       {
@@ -310,6 +629,8 @@ public class DBInputFormat<T extends DBWritable> implements InputFormat<LongWrit
   protected String conditions;
   protected long limit;
   protected int maxConcurrentReads;
+  protected String semiJoinColumn;
+  protected SemiJoinFilter semiJoinFilter;
 
 
   /** {@inheritDoc} */
@@ -323,6 +644,15 @@ public class DBInputFormat<T extends DBWritable> implements InputFormat<LongWrit
     limit = dbConf.getInputLimit();
     maxConcurrentReads = dbConf.getMaxConcurrentReadsNum();
 
+    try
+      {
+      configureSemiJoin( job );
+      }
+    catch( IOException exception )
+      {
+      throw new RuntimeException( "unable to read semi-join keys", exception );
+      }
+
     try
       {
       connection = dbConf.getConnection();
@@ -335,6 +665,35 @@ public class DBInputFormat<T extends DBWritable> implements InputFormat<LongWrit
     configureConnection( connection );
     }
 
+  /**
+   * Reads the semi-join keys, if any. Exact keys are added to the conditions, so they restrict both the
+   * count and the select queries, otherwise the record reader filters the selected rows.
+   */
+  protected void configureSemiJoin( JobConf job ) throws IOException
+    {
+    String path = dbConf.getInputSemiJoinPath();
+
+    if( path == null )
+      return;
+
+    semiJoinColumn = dbConf.getInputSemiJoinColumn();
+
+    SemiJoinFilter filter = SemiJoinFilter.read( job, new Path( path ) );
+
+    if( !filter.isExact() || dbConf.getInputQuery() != null )
+      {
+      semiJoinFilter = filter;
+      return;
+      }
+
+    String condition = filter.getCondition( semiJoinColumn );
+
+    if( conditions != null && conditions.length() > 0 )
+      conditions = "(" + conditions + ") AND (" + condition + ")";
+    else
+      conditions = condition;
+    }
+
   protected void configureConnection( Connection connection )
     {
     setTransactionIsolationLevel( connection );
@@ -365,27 +724,106 @@ public class DBInputFormat<T extends DBWritable> implements InputFormat<LongWrit
       }
     }
 
+  /**
+   * Closes the connection opened by {@link #configure}, shared by {@link #getSplits} and the first connection of
+   * each record reader. Within a task it lives as long as the task, but code reading splits outside of MapReduce
+   * should close it once its record readers are closed.
+   */
+  public void closeConnection()
+    {
+    try
+      {
+      if( connection != null )
+        connection.close();
+      }
+    catch( SQLException exception )
+      {
+      LOG.warn( "ignoring connection close exception", exception );
+      }
+
+    connection = null;
+    }
+
   /** {@inheritDoc} */
   @SuppressWarnings("unchecked")
   public RecordReader<LongWritable, T> getRecordReader( InputSplit split, JobConf job, Reporter reporter ) throws IOException
     {
 
     Class inputClass = dbConf.getInputClass();
+    DBSemaphore semaphore = acquireReader( reporter );
+
     try
       {
-      return new DBRecordReader( (DBInputSplit) split, inputClass, job );
+      DBRecordReader reader = new DBRecordReader( (DBInputSplit) split, inputClass, job, reporter );
+
+      reader.semaphore = semaphore;
+
+      return reader;
       }
     catch( SQLException exception )
       {
+      if( semaphore != null )
+        semaphore.release();
+
       throw new IOException( exception.getMessage(), exception );
       }
+    catch( IOException exception )
+      {
+      if( semaphore != null )
+        semaphore.release();
+
+      throw exception;
+      }
+    }
+
+  /**
+   * Acquires a permit of the readers semaphore, if the number of readers is limited, and then waits a random
+   * part of the connect jitter, so the tasks admitted at once do not all start their scans at the same moment.
+   *
+   * @return the semaphore holding the permit, or null
+   */
+  private DBSemaphore acquireReader( Reporter reporter ) throws IOException
+    {
+    DBSemaphore semaphore = null;
+    int maxReaders = dbConf.getInputMaxReaders();
+
+    if( maxReaders != 0 )
+      {
+      // a permit stands for one scan, so a reader may not run several
+      if( dbConf.getInputReaderConnections() != 1 )
+        throw new IOException( "limiting the number of readers requires a single reader connection" );
+
+      String name = "readers:" + ( tableName != null ? tableName : Integer.toHexString( dbConf.getInputQuery().hashCode() ) );
+
+      semaphore = DBSemaphore.create( dbConf, name, maxReaders );
+      semaphore.acquire( reporter );
+      }
+
+    long jitter = dbConf.getInputConnectJitter();
+
+    if( jitter == 0 )
+      return semaphore;
+
+    try
+      {
+      Thread.sleep( (long) ( new Random().nextDouble() * jitter ) );
+      }
+    catch( InterruptedException exception )
+      {
+      if( semaphore != null )
+        semaphore.release();
+
+      throw new IOException( "interrupted while delaying the select query" );
+      }
+
+    return semaphore;
     }
 
   /** {@inheritDoc} */
   public InputSplit[] getSplits( JobConf job, int chunks ) throws IOException
     {
-    // use the configured value if avail
-    chunks = maxConcurrentReads == 0 ? chunks : maxConcurrentReads;
+    // use the configured value if avail, each split may open several reader connections
+    chunks = maxConcurrentReads == 0 ? chunks : Math.max( 1, maxConcurrentReads / dbConf.getInputReaderConnections() );
 
     try
       {
@@ -511,4 +949,102 @@ public class DBInputFormat<T extends DBWritable> implements InputFormat<LongWrit
 
     dbConf.setMaxConcurrentReadsNum( concurrentReads );
     }
+
+  /**
+   * Sets the number of connections each split's record reader uses to select its rows concurrently.
+   * <p/>
+   * When the number of concurrent reads is also set, the number of splits is reduced so that no more than
+   * that many connections are reading from the database at once across the whole job, and no split reads
+   * over more connections than that.
+   * <p/>
+   * Each connection selects a sub-range of the split with LIMIT and OFFSET, so reading over more than one
+   * connection requires an order by clause, whether set with {@link #setInput} or part of the custom query,
+   * ideally on the primary key. The rows of the sub-ranges are emitted one after the other, in that order.
+   *
+   * @param job               The job
+   * @param readerConnections the number of connections per record reader
+   */
+  public static void setReaderConnections( JobConf job, int readerConnections )
+    {
+    new DBConfiguration( job ).setInputReaderConnections( readerConnections );
+    }
+
+  /**
+   * Sets the number of rows each record reader fetches from the database per round-trip.
+   *
+   * @param job       The job
+   * @param fetchSize the fetch size, 0 uses the driver default
+   */
+  public static void setFetchSize( JobConf job, int fetchSize )
+    {
+    new DBConfiguration( job ).setInputFetchSize( fetchSize );
+    }
+
+  /**
+   * Sets the number of seconds each split's select query may execute before it is cancelled by the driver.
+   *
+   * @param job          The job
+   * @param queryTimeout the query timeout in seconds, 0 disables the timeout
+   */
+  public static void setQueryTimeout( JobConf job, int queryTimeout )
+    {
+    new DBConfiguration( job ).setInputQueryTimeout( queryTimeout );
+    }
+
+  /**
+   * Limits the number of tasks reading at once across the cluster, so a source can be divided into many small splits
+   * for load balancing while at most maxReaders scans are active on the database. Each task acquires one of the
+   * permits before it executes its select queries and releases it when its record reader is closed. As a permit
+   * stands for a single scan, this cannot be combined with more than one reader connection.
+   * <p/>
+   * The permits are PostgreSQL advisory locks, leased rows of the semaphore table if one is given, or, if a lock
+   * directory is given, local lock files, which only limit the tasks of one machine, like in local mode.
+   *
+   * @param job            The job
+   * @param maxReaders     the number of tasks that may read at once
+   * @param semaphoreTable the table holding the permits, created if it does not exist, or null
+   * @param lockDir        the local directory holding lock files instead, or null
+   */
+  public static void setMaxReaders( JobConf job, int maxReaders, String semaphoreTable, String lockDir )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setInputMaxReaders( maxReaders );
+
+    if( semaphoreTable != null )
+      dbConf.setSemaphoreTable( semaphoreTable );
+
+    if( lockDir != null )
+      dbConf.setSemaphoreLockDir( lockDir );
+    }
+
+  /**
+   * Makes each task wait a random number of milliseconds, up to the given jitter, before it executes its select
+   * queries, spreading the scans of tasks started, or admitted, at once.
+   *
+   * @param job           The job
+   * @param connectJitter the upper bound of the delay in milliseconds
+   */
+  public static void setConnectJitter( JobConf job, long connectJitter )
+    {
+    new DBConfiguration( job ).setInputConnectJitter( connectJitter );
+    }
+
+  /**
+   * Restricts the rows read to those whose key column matches one of the keys of the given
+   * {@link SemiJoinFilter}, see {@link SemiJoinFilter#write(JobConf, Path)}.
+   * <p/>
+   * The key column must be one of the selected columns.
+   *
+   * @param job    The job
+   * @param column the key column name
+   * @param path   the path of the SemiJoinFilter
+   */
+  public static void setSemiJoin( JobConf job, String column, String path )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setInputSemiJoinColumn( column );
+    dbConf.setInputSemiJoinPath( path );
+    }
   }
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.JobContext;
+import org.apache.hadoop.mapred.OutputCommitter;
+import org.apache.hadoop.mapred.TaskAttemptContext;
+import org.apache.hadoop.mapred.TaskAttemptID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class DBOutputCommitter publishes the rows each task attempt wrote into its own staging table, see
+ * {@link DBOutputFormat#setStaged(JobConf)}.
+ * <p/>
+ * Only the attempt allowed to commit its task copies its staging table into the output table, with a single
+ * {@code INSERT INTO ... SELECT} transaction, so failed and speculative attempts never touch the output table.
+ * Staging tables are dropped once published or aborted, and any left behind by killed attempts are dropped
+ * when the job is cleaned up.
+ * <p/>
+ * With {@link DBOutputFormat#setStagedUpdate(JobConf)}, the staged rows instead update the rows of the output table
+ * with the same update key values, with a single {@link Dialect#constructUpdateFromQuery} statement, and only the
+ * staged rows whose keys are all null are inserted, in the same transaction.
+ */
+public class DBOutputCommitter extends OutputCommitter
+  {
+  /** Field LOG */
+  private static final Logger LOG = LoggerFactory.getLogger( DBOutputCommitter.class );
+
+  /**
+   * Method getStagingTableName returns the name of the staging table of the given task attempt.
+   *
+   * @param tableName the output table
+   * @param attemptID the task attempt
+   * @return String
+   */
+  public static String getStagingTableName( String tableName, TaskAttemptID attemptID )
+    {
+    String task = ( attemptID.isMap() ? "m" : "r" ) + attemptID.getTaskID().getId() + "_" + attemptID.getId();
+
+    return getStagingTablePrefix( tableName, attemptID.getJobID().toString() ) + task;
+    }
+
+  private static String getStagingTablePrefix( String tableName, String jobID )
+    {
+    return tableName + "_stg_" + Integer.toHexString( jobID.hashCode() ) + "_";
+    }
+
+  @Override
+  public void setupJob( JobContext jobContext ) throws IOException
+    {
+    }
+
+  @Override
+  public void setupTask( TaskAttemptContext taskContext ) throws IOException
+    {
+    // the record writer creates the staging table
+    }
+
+  @Override
+  public boolean needsTaskCommit( TaskAttemptContext taskContext ) throws IOException
+    {
+    return true;
+    }
+
+  @Override
+  public void commitTask( TaskAttemptContext taskContext ) throws IOException
+    {
+    JobConf job = taskContext.getJobConf();
+    DBConfiguration dbConf = new DBConfiguration( job );
+    String tableName = dbConf.getOutputTableName();
+    String stagingTableName = getStagingTableName( tableName, taskContext.getTaskAttemptID() );
+    String[] fieldNames = dbConf.getOutputFieldNames();
+    String columns = Dialect.join( fieldNames );
+    String publish = "INSERT INTO " + tableName + " (" + columns + ") SELECT " + columns + " FROM " + stagingTableName;
+
+    Connection connection = openConnection( dbConf );
+
+    try
+      {
+      Statement statement = connection.createStatement();
+
+      try
+        {
+        if( dbConf.isOutputStagedUpdate() )
+          {
+          String[] keyNames = dbConf.getOutputUpdateFieldNames();
+          String update = dbConf.getDialect( connection ).constructUpdateFromQuery( tableName, stagingTableName, fieldNames, keyNames );
+
+          if( update != null )
+            LOG.info( "updated {} rows from {}", statement.executeUpdate( update ), stagingTableName );
+
+          // rows without key values were collected as inserts
+          for( int i = 0; i < keyNames.length; i++ )
+            publish += ( i == 0 ? " WHERE " : " AND " ) + keyNames[ i ] + " IS NULL";
+          }
+
+        int rows = statement.executeUpdate( publish );
+
+        connection.commit();
+
+        LOG.info( "published {} rows from {}", rows, stagingTableName );
+        }
+      catch( SQLException exception )
+        {
+        connection.rollback();
+        throw exception;
+        }
+      finally
+        {
+        statement.close();
+        }
+
+      dropTable( connection, dbConf.getDialect( connection ), stagingTableName );
+      }
+    catch( SQLException exception )
+      {
+      throw new IOException( "unable to publish staging table: " + stagingTableName, exception );
+      }
+    finally
+      {
+      closeConnection( connection );
+      }
+    }
+
+  @Override
+  public void abortTask( TaskAttemptContext taskContext ) throws IOException
+    {
+    DBConfiguration dbConf = new DBConfiguration( taskContext.getJobConf() );
+    String stagingTableName = getStagingTableName( dbConf.getOutputTableName(), taskContext.getTaskAttemptID() );
+
+    Connection connection = openConnection( dbConf );
+
+    try
+      {
+      dropTable( connection, dbConf.getDialect( connection ), stagingTableName );
+      }
+    finally
+      {
+      closeConnection( connection );
+      }
+    }
+
+  @Override
+  public void cleanupJob( JobContext jobContext ) throws IOException
+    {
+    DBConfiguration dbConf = new DBConfiguration( jobContext.getJobConf() );
+    String prefix = getStagingTablePrefix( dbConf.getOutputTableName(), jobContext.getJobID().toString() );
+
+    Connection connection = openConnection( dbConf );
+
+    try
+      {
+      Dialect dialect = dbConf.getDialect( connection );
+
+      for( String stagingTableName : findTables( connection, prefix ) )
+        dropTable( connection, dialect, stagingTableName );
+      }
+    catch( SQLException exception )
+      {
+      LOG.warn( "unable to find staging tables to drop: " + prefix, exception );
+      }
+    finally
+      {
+      closeConnection( connection );
+      }
+    }
+
+  private List<String> findTables( Connection connection, String prefix ) throws SQLException
+    {
+    DatabaseMetaData metaData = connection.getMetaData();
+    String escape = metaData.getSearchStringEscape();
+    String pattern = prefix.replace( escape, escape + escape ).replace( "_", escape + "_" ) + "%";
+
+    // unquoted names may have been folded to either case
+    List<String> tables = new ArrayList<String>();
+    String[] patterns = {pattern, pattern.toUpperCase(), pattern.toLowerCase()};
+
+    for( String tablePattern : patterns )
+      {
+      ResultSet results = metaData.getTables( null, null, tablePattern, new String[]{"TABLE"} );
+
+      try
+        {
+        while( results.next() )
+          {
+          String table = results.getString( "TABLE_NAME" );
+
+          if( !tables.contains( table ) )
+            tables.add( table );
+          }
+        }
+      finally
+        {
+        results.close();
+        }
+      }
+
+    return tables;
+    }
+
+  private void dropTable( Connection connection, Dialect dialect, String tableName )
+    {
+    try
+      {
+      Statement statement = connection.createStatement();
+
+      try
+        {
+        statement.executeUpdate( dialect.constructDropQuery( tableName ) );
+        connection.commit();
+        }
+      finally
+        {
+        statement.close();
+        }
+      }
+    catch( SQLException exception )
+      {
+      LOG.warn( "unable to drop staging table: " + tableName, exception );
+      rollBack( connection );
+      }
+    }
+
+  private void rollBack( Connection connection )
+    {
+    try
+      {
+      connection.rollback();
+      }
+    catch( SQLException exception )
+      {
+      LOG.warn( "ignoring rollback exception", exception );
+      }
+    }
+
+  private Connection openConnection( DBConfiguration dbConf ) throws IOException
+    {
+    Connection connection = dbConf.getConnection();
+
+    try
+      {
+      connection.setAutoCommit( false );
+      }
+    catch( SQLException exception )
+      {
+      closeConnection( connection );
+      throw new IOException( "unable to set auto commit", exception );
+      }
+
+    return connection;
+    }
+
+  private void closeConnection( Connection connection )
+    {
+    try
+      {
+      connection.close();
+      }
+    catch( SQLException exception )
+      {
+      LOG.warn( "ignoring connection close exception", exception );
+      }
+    }
+  }
@@ -33,9 +33,23 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLTransientException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -44,6 +58,7 @@ import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.OutputFormat;
 import org.apache.hadoop.mapred.RecordWriter;
 import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.TaskAttemptID;
 import org.apache.hadoop.util.Progressable;
 import org.apache.hadoop.util.StringUtils;
 
@@ -64,56 +79,348 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
     private Connection connection;
     private PreparedStatement insertStatement;
     private PreparedStatement updateStatement;
-    private final int statementsBeforeExecute;
+    private int statementsBeforeExecute;
+    private BatchSizeController batchSizeController;
+    private RateLimiter rateLimiter;
+
+    private final String tableName;
+    private final String[] fieldNames;
+    private final int rowsPerInsert;
+    private final List<K> pendingInserts;
+    private ParameterOffsetHandler insertHandler;
+    private PreparedStatement insertProxy;
+
+    private long commitRows = 0;
+    private long commitInterval = 0;
+    private boolean savepoints = false;
+    private TaskProgressTable progressTable;
+    private Savepoint savepoint;
+
+    private int retries = 0;
+    private long retryBackoff = 0;
+    private DeadLetterWriter deadLetters;
+    private List<K> batchKeys;
+    private List<V> batchValues;
+    private List<K> rejectedKeys;
+    private List<SQLException> rejections;
+    private Random random;
 
     private long statementsAdded = 0;
+    private long statementsInBatch = 0;
     private long insertStatementsCurrent = 0;
     private long updateStatementsCurrent = 0;
+    private long rowsToSkip = 0;
+    private long rowsSkipped = 0;
+    private long rowsExecuted = 0;
+    private long rowsAtLastCommit = 0;
+    private long timeAtLastCommit = System.currentTimeMillis();
 
     protected DBRecordWriter( Connection connection, PreparedStatement insertStatement, PreparedStatement updateStatement, int statementsBeforeExecute )
+      {
+      this( connection, insertStatement, updateStatement, statementsBeforeExecute, null, null, 1 );
+      }
+
+    /**
+     * @param insertStatement the insert statement for rowsPerInsert rows, see
+     *                        {@link DBOutputFormat#constructInsertQuery(String, String[], int)}
+     * @param tableName       the table, used to prepare the statement inserting the last rows
+     * @param fieldNames      the fields, used to prepare the statement inserting the last rows
+     * @param rowsPerInsert   the number of rows each insert statement inserts
+     */
+    protected DBRecordWriter( Connection connection, PreparedStatement insertStatement, PreparedStatement updateStatement, int statementsBeforeExecute, String tableName, String[] fieldNames, int rowsPerInsert )
       {
       this.connection = connection;
       this.insertStatement = insertStatement;
       this.updateStatement = updateStatement;
       this.statementsBeforeExecute = statementsBeforeExecute;
+      this.tableName = tableName;
+      this.fieldNames = fieldNames;
+      this.rowsPerInsert = rowsPerInsert;
+      this.pendingInserts = rowsPerInsert > 1 ? new ArrayList<K>( rowsPerInsert ) : null;
+
+      if( pendingInserts != null )
+        {
+        insertHandler = new ParameterOffsetHandler( insertStatement );
+        insertProxy = ParameterOffsetHandler.wrap( insertHandler );
+        }
       }
 
-    /** {@inheritDoc} */
-    public void close( Reporter reporter ) throws IOException
+    /**
+     * Commits every commitRows rows, or once commitInterval milliseconds have passed since the last commit,
+     * in addition to committing on close. A value of 0 disables either bound.
+     * <p/>
+     * If savepoints is true, a failed batch is rolled back only to the start of that batch, and the rows
+     * executed before it are committed before the failure is thrown, which requires a progress table.
+     */
+    protected void setCommitPolicy( long commitRows, long commitInterval, boolean savepoints )
       {
-      executeBatch();
+      this.commitRows = commitRows;
+      this.commitInterval = commitInterval;
+      this.savepoints = savepoints;
+      }
+
+    /**
+     * Records the number of rows committed in the given progress table with every commit, and skips the rows
+     * earlier attempts of the task committed. This relies on every attempt writing the same rows in the same
+     * order, and on one row per insert statement.
+     */
+    protected void setProgressTable( String progressTableName, String taskID ) throws IOException
+      {
+      if( rowsPerInsert != 1 )
+        throw new IOException( "progress tracking requires one row per insert statement" );
+
+      progressTable = new TaskProgressTable( progressTableName, taskID );
 
       try
         {
-        if( insertStatement != null )
-          insertStatement.close();
+        rowsToSkip = progressTable.read( connection );
+        }
+      catch( SQLException exception )
+        {
+        throw new IOException( "unable to read progress table: " + progressTableName, exception );
+        }
 
-        if( updateStatement != null )
-          updateStatement.close();
+      if( rowsToSkip != 0 )
+        LOG.info( "skipping " + rowsToSkip + " rows committed by earlier attempts of task: " + taskID );
+      }
+
+    /**
+     * Makes the given controller choose the number of statements of each batch, from the time the batches took.
+     */
+    protected void setBatchSizeController( BatchSizeController batchSizeController )
+      {
+      this.batchSizeController = batchSizeController;
+      this.statementsBeforeExecute = batchSizeController.getSize();
+      }
+
+    /** Makes the writer wait for the given rate limiter before it executes a batch. */
+    protected void setRateLimiter( RateLimiter rateLimiter )
+      {
+      this.rateLimiter = rateLimiter;
+      }
+
+    /**
+     * Makes the writer keep the records of the current batch, so a failed batch can be executed again.
+     * <p/>
+     * Batches failing with a transient error, like a deadlock, a serialization failure or a timeout, are
+     * retried up to retries times, sleeping retryBackoff milliseconds before the first retry and doubling the sleep,
+     * plus some jitter, before each further one. If deadLetters is not null, batches failing with any other error are
+     * split in halves which are executed on their own, recursively, until the failing records are isolated. These
+     * are written to deadLetters with their SQLState and message, and the remaining records are kept.
+     * <p/>
+     * As a transient error may roll back the whole transaction, a batch failing with one, even while it is being
+     * split, is rolled back and executed again from its start. This is only possible while the transaction holds no
+     * rows of earlier batches, so a transient error fails the writer unless the commit policy commits every batch
+     * on its own, see {@link #setCommitPolicy(long, long, boolean)}.
+     */
+    protected void setRetryPolicy( int retries, long retryBackoff, DeadLetterWriter deadLetters ) throws IOException
+      {
+      if( rowsPerInsert != 1 )
+        throw new IOException( "retrying batches requires one row per insert statement" );
+
+      this.retries = retries;
+      this.retryBackoff = retryBackoff;
+      this.deadLetters = deadLetters;
+      this.batchKeys = new ArrayList<K>( statementsBeforeExecute );
+      this.batchValues = new ArrayList<V>( statementsBeforeExecute );
+      this.rejectedKeys = new ArrayList<K>();
+      this.rejections = new ArrayList<SQLException>();
+      this.random = new Random();
+      }
+
+    /** Executes all pending statements and commits them, with the progress made. */
+    private void commit() throws IOException
+      {
+      executeBatch();
+      executePendingInserts();
+
+      try
+        {
+        if( progressTable != null )
+          progressTable.write( connection, rowsSkipped + rowsExecuted );
 
         connection.commit();
         }
       catch( SQLException exception )
         {
+        savepoint = null;
         rollBack();
 
         createThrowMessage( "unable to commit batch", 0, exception );
         }
-      finally
+
+      savepoint = null;
+      rowsAtLastCommit = rowsExecuted;
+      timeAtLastCommit = System.currentTimeMillis();
+      }
+
+    private boolean isCommitDue()
+      {
+      if( commitRows != 0 && rowsExecuted - rowsAtLastCommit >= commitRows )
+        return true;
+
+      return commitInterval != 0 && System.currentTimeMillis() - timeAtLastCommit >= commitInterval;
+      }
+
+    /** {@inheritDoc} */
+    public void close( Reporter reporter ) throws IOException
+      {
+      boolean closed = false;
+
+      try
         {
+        commit();
+
         try
           {
-          connection.close();
+          if( insertStatement != null )
+            insertStatement.close();
+
+          if( updateStatement != null )
+            updateStatement.close();
           }
         catch( SQLException exception )
           {
-          throw new IOException( "unable to close connection", exception );
+          rollBack();
+
+          createThrowMessage( "unable to commit batch", 0, exception );
+          }
+        finally
+          {
+          try
+            {
+            connection.close();
+            }
+          catch( SQLException exception )
+            {
+            throw new IOException( "unable to close connection", exception );
+            }
+          }
+
+        closed = true;
+        }
+      finally
+        {
+        closeDeadLetters( closed );
+        }
+      }
+
+    /** Keeps the dead letters of a writer that committed its rows, and discards them otherwise. */
+    private void closeDeadLetters( boolean keep ) throws IOException
+      {
+      if( deadLetters == null )
+        return;
+
+      if( !keep )
+        {
+        deadLetters.abort();
+        return;
+        }
+
+      if( deadLetters.getCount() != 0 )
+        LOG.warn( "wrote " + deadLetters.getCount() + " rejected records to dead letters" );
+
+      deadLetters.close();
+      }
+
+    /** Rolls back everything not yet committed and closes the connection, without executing pending batches. */
+    protected void abort()
+      {
+      savepoint = null;
+      rollBack();
+
+      try
+        {
+        connection.close();
+        }
+      catch( SQLException exception )
+        {
+        LOG.warn( "ignoring connection close exception", exception );
+        }
+
+      try
+        {
+        closeDeadLetters( false );
+        }
+      catch( IOException exception )
+        {
+        LOG.warn( "ignoring dead letter abort exception", exception );
+        }
+      }
+
+    /** Inserts the rows that did not fill a whole multi-row statement, with a statement for just those rows. */
+    private void executePendingInserts() throws IOException
+      {
+      if( pendingInserts == null || pendingInserts.isEmpty() )
+        return;
+
+      int rows = pendingInserts.size();
+      String sqlInsert = constructInsertQuery( tableName, fieldNames, rows );
+
+      try
+        {
+        PreparedStatement remainderStatement = connection.prepareStatement( sqlInsert );
+
+        try
+          {
+          ParameterOffsetHandler handler = new ParameterOffsetHandler( remainderStatement );
+
+          bindRows( handler, ParameterOffsetHandler.wrap( handler ) );
+
+          remainderStatement.executeUpdate();
+          rowsExecuted += rows;
+          }
+        finally
+          {
+          remainderStatement.close();
           }
         }
+      catch( SQLException exception )
+        {
+        rollBack();
+
+        createThrowMessage( "unable to execute insert of remaining rows", rows, exception );
+        }
+      }
+
+    private void bindRows( ParameterOffsetHandler handler, PreparedStatement proxy ) throws SQLException
+      {
+      for( int i = 0; i < pendingInserts.size(); i++ )
+        {
+        handler.setOffset( i * fieldNames.length );
+        pendingInserts.get( i ).write( proxy );
+        }
+
+      pendingInserts.clear();
       }
 
     private void executeBatch() throws IOException
       {
+      long statements = statementsInBatch;
+
+      statementsInBatch = 0;
+
+      // wait before timing, the batch size controller only measures the database
+      if( rateLimiter != null && statements != 0 )
+        rateLimiter.acquire( statements );
+
+      long start = System.nanoTime();
+
+      if( batchKeys != null )
+        executeRetryableBatch();
+      else
+        executeStatementBatch();
+
+      if( batchSizeController != null && statements != 0 )
+        statementsBeforeExecute = batchSizeController.update( statements, System.nanoTime() - start );
+      }
+
+    private void executeStatementBatch() throws IOException
+      {
+      setSavepoint();
+
+      long rowsInBatch = insertStatementsCurrent * rowsPerInsert + updateStatementsCurrent;
+
       try
         {
         if( insertStatementsCurrent != 0 )
@@ -132,6 +439,10 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
         createThrowMessage( "unable to execute insert batch", insertStatementsCurrent, exception );
         }
 
+      // an update may target a row whose insert waits for a multi-row statement to fill
+      if( updateStatementsCurrent != 0 )
+        executePendingInserts();
+
       try
         {
         if( updateStatementsCurrent != 0 )
@@ -157,190 +468,1235 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
 
         createThrowMessage( "unable to execute update batch", updateStatementsCurrent, exception );
         }
+
+      rowsExecuted += rowsInBatch;
       }
 
-    private void rollBack()
+    private void executeRetryableBatch() throws IOException
       {
-      try
-        {
-        connection.rollback();
-        }
-      catch( SQLException sqlException )
+      if( batchKeys.isEmpty() )
+        return;
+
+      LOG.info( "executing batch " + createBatchMessage( batchKeys.size() ) );
+
+      // the records of the first attempt were bound as they were written
+      boolean bound = true;
+
+      for( int attempt = 0; ; attempt++ )
         {
-        LOG.warn( StringUtils.stringifyException( sqlException ) );
+        try
+          {
+          executeRecords( 0, batchKeys.size(), bound );
+          break;
+          }
+        catch( SQLException exception )
+          {
+          // the whole transaction may be rolled back, so make sure it is, and execute the batch again from its start
+          rollBack();
+          rejectedKeys.clear();
+          rejections.clear();
+          bound = false;
+
+          if( rowsExecuted != rowsAtLastCommit )
+            createThrowMessage( "unable to retry batch, its transaction holds uncommitted rows of earlier batches", batchKeys.size(), exception );
+
+          if( attempt == retries )
+            createThrowMessage( "unable to execute batch after " + retries + " retries", batchKeys.size(), exception );
+
+          LOG.warn( "retrying batch after transient error, SQLState: " + exception.getSQLState() + ", " + exception.getMessage() );
+
+          sleep( attempt );
+          }
         }
-      }
 
-    private String createBatchMessage( long currentStatements )
-      {
-      return String.format( "[totstmts: %d][crntstmts: %d][batch: %d]", statementsAdded, currentStatements, statementsBeforeExecute );
+      // rejected only once the batch succeeded, so an attempt rolled back does not reject its records twice
+      for( int i = 0; i < rejectedKeys.size(); i++ )
+        deadLetters.write( rejectedKeys.get( i ), rejections.get( i ) );
+
+      rowsExecuted += batchKeys.size();
+      batchKeys.clear();
+      batchValues.clear();
+      rejectedKeys.clear();
+      rejections.clear();
       }
 
-    private void createThrowMessage( String stateMessage, long currentStatements, SQLException exception ) throws IOException
+    /**
+     * Executes the records from index from up to index to of the current batch, binding them again unless they are
+     * bound already, and bisects them down to the records to reject if they fail. Transient errors are thrown, as
+     * they may have rolled back the records executed before.
+     */
+    private void executeRecords( int from, int to, boolean bound ) throws IOException, SQLException
       {
-      String message = exception.getMessage();
+      try
+        {
+        if( bound )
+          executeStatements();
+        else
+          bindAndExecute( from, to );
 
-      message = message.substring( 0, Math.min( 75, message.length() ) );
+        return;
+        }
+      catch( SQLException exception )
+        {
+        if( isTransient( exception ) )
+          throw exception;
 
-      int messageLength = exception.getMessage().length();
-      String batchMessage = createBatchMessage( currentStatements );
-      String template = "%s [msglength: %d]%s %s";
-      String errorMessage = String.format( template, stateMessage, messageLength, batchMessage, message );
+        // records are only rejected for errors of their own, not for a broken connection
+        if( deadLetters == null || isConnectionLost( exception ) )
+          {
+          rollBack();
+          createThrowMessage( "unable to execute batch", to - from, exception );
+          }
 
-      LOG.error( errorMessage, exception.getNextException() );
+        if( to - from == 1 )
+          {
+          rejectedKeys.add( batchKeys.get( from ) );
+          rejections.add( exception );
+          return;
+          }
+        }
 
-      throw new IOException( errorMessage, exception.getNextException() );
+      int middle = ( from + to ) >>> 1;
+
+      executeRecords( from, middle, false );
+      executeRecords( middle, to, false );
       }
 
-    /** {@inheritDoc} */
-    public synchronized void write( K key, V value ) throws IOException
+    private void bindAndExecute( int from, int to ) throws SQLException
       {
       try
         {
-        if( value == null )
-          {
-          key.write( insertStatement );
-          insertStatement.addBatch();
-          insertStatementsCurrent++;
-          }
-        else
+        for( int i = from; i < to; i++ )
           {
-          key.write( updateStatement );
-          updateStatement.addBatch();
-          updateStatementsCurrent++;
+          if( batchValues.get( i ) == null )
+            {
+            batchKeys.get( i ).write( insertStatement );
+            insertStatement.addBatch();
+            insertStatementsCurrent++;
+            }
+          else
+            {
+            batchKeys.get( i ).write( updateStatement );
+            updateStatement.addBatch();
+            updateStatementsCurrent++;
+            }
           }
         }
       catch( SQLException exception )
         {
-        throw new IOException( "unable to add batch statement", exception );
+        clearStatements();
+        throw exception;
         }
 
-      statementsAdded++;
-
-      if( statementsAdded % statementsBeforeExecute == 0 )
-        executeBatch();
+      executeStatements();
       }
-    }
 
-  /**
-   * Constructs the query used as the prepared statement to insert data.
-   *
-   * @param table      the table to insert into
-   * @param fieldNames the fields to insert into. If field names are unknown, supply an
-   *                   array of nulls.
-   */
-  protected String constructInsertQuery( String table, String[] fieldNames )
-    {
-    if( fieldNames == null )
-      throw new IllegalArgumentException( "Field names may not be null" );
+    /**
+     * Executes the statements added to the insert and update batches within a savepoint of their own, and rolls
+     * back to it if they fail.
+     */
+    private void executeStatements() throws SQLException
+      {
+      Savepoint batchSavepoint = connection.setSavepoint( "records" );
 
-    StringBuilder query = new StringBuilder();
+      try
+        {
+        if( insertStatementsCurrent != 0 )
+          insertStatement.executeBatch();
 
-    query.append( "INSERT INTO " ).append( table );
+        if( updateStatementsCurrent != 0 )
+          {
+          int count = 0;
 
-    if( fieldNames.length > 0 && fieldNames[ 0 ] != null )
-      {
-      query.append( " (" );
+          for( int value : updateStatement.executeBatch() )
+            count += value;
 
-      for( int i = 0; i < fieldNames.length; i++ )
+          // a missing row to update is a data error of the record, rejected like a constraint violation
+          if( count != updateStatementsCurrent )
+            throw new SQLException( "update did not update same number of statements executed in batch, batch: " + updateStatementsCurrent + " updated: " + count, "02000" );
+          }
+        }
+      catch( SQLException exception )
         {
-        query.append( fieldNames[ i ] );
+        try
+          {
+          connection.rollback( batchSavepoint );
+          }
+        catch( SQLException rollbackException )
+          {
+          // the database may have rolled back the whole transaction already
+          LOG.debug( "ignoring savepoint rollback exception", rollbackException );
+          }
 
-        if( i != fieldNames.length - 1 )
-          query.append( "," );
+        clearStatements();
+
+        throw exception;
         }
 
-      query.append( ")" );
+      insertStatementsCurrent = 0;
+      updateStatementsCurrent = 0;
 
+      try
+        {
+        connection.releaseSavepoint( batchSavepoint );
+        }
+      catch( SQLException exception )
+        {
+        LOG.debug( "ignoring savepoint release exception", exception );
+        }
       }
 
-    query.append( " VALUES (" );
-
-    for( int i = 0; i < fieldNames.length; i++ )
+    private void clearStatements()
       {
-      query.append( "?" );
+      try
+        {
+        insertStatement.clearBatch();
 
-      if( i != fieldNames.length - 1 )
-        query.append( "," );
+        if( updateStatement != null )
+          updateStatement.clearBatch();
+        }
+      catch( SQLException exception )
+        {
+        LOG.debug( "ignoring clear batch exception", exception );
+        }
+
+      insertStatementsCurrent = 0;
+      updateStatementsCurrent = 0;
       }
 
-    query.append( ");" );
+    private void sleep( int attempt ) throws IOException
+      {
+      long backoff = retryBackoff << Math.min( attempt, 20 );
 
-    return query.toString();
-    }
+      try
+        {
+        Thread.sleep( backoff + (long) ( random.nextDouble() * retryBackoff ) );
+        }
+      catch( InterruptedException exception )
+        {
+        rollBack();
 
-  protected String constructUpdateQuery( String table, String[] fieldNames, String[] updateNames )
-    {
-    if( fieldNames == null )
-      throw new IllegalArgumentException( "field names may not be null" );
+        throw new IOException( "interrupted while waiting to retry batch" );
+        }
+      }
 
-    Set<String> updateNamesSet = new HashSet<String>();
-    Collections.addAll( updateNamesSet, updateNames );
+    /**
+     * Returns true if the given exception, or one chained to it, signals an error that may not happen again on
+     * the same connection, like a deadlock or serialization failure (SQLState class 40), insufficient resources
+     * (class 53) or a timeout (HYT00). A lost connection (class 08) is not retried, as the batch would be executed
+     * on the same broken connection.
+     */
+    protected boolean isTransient( SQLException exception )
+      {
+      for( SQLException current = exception; current != null; current = current.getNextException() )
+        {
+        if( current instanceof SQLTransientException && !( current instanceof SQLTransientConnectionException ) )
+          return true;
 
-    StringBuilder query = new StringBuilder();
+        String state = current.getSQLState();
 
-    query.append( "UPDATE " ).append( table );
+        if( state == null )
+          continue;
+
+        if( state.startsWith( "40" ) || state.startsWith( "53" ) || state.equals( "HYT00" ) )
+          return true;
+        }
+
+      return false;
+      }
+
+    /** Returns true if the given exception, or one chained to it, signals a lost connection. */
+    protected boolean isConnectionLost( SQLException exception )
+      {
+      for( SQLException current = exception; current != null; current = current.getNextException() )
+        {
+        if( current instanceof SQLRecoverableException || current instanceof SQLNonTransientConnectionException || current instanceof SQLTransientConnectionException )
+          return true;
+
+        if( current.getSQLState() != null && current.getSQLState().startsWith( "08" ) )
+          return true;
+        }
+
+      return false;
+      }
+
+    private void setSavepoint() throws IOException
+      {
+      if( !savepoints || insertStatementsCurrent + updateStatementsCurrent == 0 )
+        return;
+
+      try
+        {
+        if( savepoint != null )
+          releaseSavepoint();
+
+        // named, as some drivers, like HSQLDB 1.8, only support named savepoints
+        savepoint = connection.setSavepoint( "batch" );
+        }
+      catch( SQLException exception )
+        {
+        throw new IOException( "unable to set savepoint", exception );
+        }
+      }
+
+    private void releaseSavepoint()
+      {
+      try
+        {
+        connection.releaseSavepoint( savepoint );
+        }
+      catch( SQLException exception )
+        {
+        // not supported by all drivers, the savepoint is released on commit anyway
+        LOG.debug( "ignoring savepoint release exception", exception );
+        }
+      }
+
+    private void rollBack()
+      {
+      try
+        {
+        // committed rows are only safe from a retried attempt if their progress is committed with them
+        if( savepoint == null || progressTable == null )
+          {
+          savepoint = null;
+          connection.rollback();
+          return;
+          }
+
+        // keep, and commit, the rows executed before the failed batch
+        connection.rollback( savepoint );
+        savepoint = null;
+
+        progressTable.write( connection, rowsSkipped + rowsExecuted );
+
+        connection.commit();
+        }
+      catch( SQLException sqlException )
+        {
+        LOG.warn( StringUtils.stringifyException( sqlException ) );
+        }
+      }
+
+    private String createBatchMessage( long currentStatements )
+      {
+      return String.format( "[totstmts: %d][crntstmts: %d][batch: %d]", statementsAdded, currentStatements, statementsBeforeExecute );
+      }
+
+    private void createThrowMessage( String stateMessage, long currentStatements, SQLException exception ) throws IOException
+      {
+      String message = exception.getMessage();
+
+      message = message.substring( 0, Math.min( 75, message.length() ) );
+
+      int messageLength = exception.getMessage().length();
+      String batchMessage = createBatchMessage( currentStatements );
+      String template = "%s [msglength: %d]%s %s";
+      String errorMessage = String.format( template, stateMessage, messageLength, batchMessage, message );
+
+      LOG.error( errorMessage, exception.getNextException() );
+
+      throw new IOException( errorMessage, exception.getNextException() );
+      }
+
+    /** {@inheritDoc} */
+    public synchronized void write( K key, V value ) throws IOException
+      {
+      if( rowsToSkip != 0 )
+        {
+        rowsToSkip--;
+        rowsSkipped++;
+        return;
+        }
+
+      try
+        {
+        if( value == null && pendingInserts != null )
+          {
+          pendingInserts.add( key );
+
+          if( pendingInserts.size() == rowsPerInsert )
+            {
+            bindRows( insertHandler, insertProxy );
+            insertStatement.addBatch();
+            insertStatementsCurrent++;
+            }
+          }
+        else if( value == null )
+          {
+          key.write( insertStatement );
+          insertStatement.addBatch();
+          insertStatementsCurrent++;
+          }
+        else
+          {
+          key.write( updateStatement );
+          updateStatement.addBatch();
+          updateStatementsCurrent++;
+          }
+        }
+      catch( SQLException exception )
+        {
+        throw new IOException( "unable to add batch statement", exception );
+        }
+
+      if( batchKeys != null )
+        {
+        batchKeys.add( key );
+        batchValues.add( value );
+        }
+
+      statementsAdded++;
+      statementsInBatch++;
+
+      if( statementsInBatch >= statementsBeforeExecute )
+        executeBatch();
+
+      if( isCommitDue() )
+        commit();
+      }
+    }
+
+  /**
+   * A RecordWriter that hands batches of records to several {@link DBRecordWriter}s, each executing its
+   * batches over its own connection on its own thread, so the caller keeps producing records while
+   * earlier batches are in flight.
+   * <p/>
+   * Each record is routed to a writer by the hash of its upsert or update keys, or of all its values if there are
+   * none, so every record of a key is executed over the same connection in the order it was written. Each writer
+   * has a queue of its own, holding at most two batches while the next one is being filled, and write blocks while
+   * the queue of the writer is full. Once a batch fails, no further batches are executed and the failure of the earliest failed
+   * batch is rethrown by the next call to write, or by close. On close, the remaining records are flushed, and
+   * only if every writer flushed successfully does each writer commit its own connection, otherwise all are rolled
+   * back. The commits themselves are not atomic across connections.
+   * <p/>
+   * Records are held by reference until their batch is executed, so keys and values must not be reused by the caller.
+   */
+  protected class AsyncDBRecordWriter implements RecordWriter<K, V>
+    {
+    private final List<BatchWorker> workers;
+    private final List<Batch> batches;
+    private final CountDownLatch flushed;
+    private final Progressable progress;
+    private final int batchSize;
+    private final int[] keyPositions;
+
+    private long sequence = 0;
+    private long failedSequence = Long.MAX_VALUE;
+    private IOException failure;
+
+    /**
+     * Constructor AsyncDBRecordWriter creates a new AsyncDBRecordWriter instance.
+     *
+     * @param writers      the writers, each executing its batches over its own connection
+     * @param batchSize    the number of records per batch
+     * @param keyPositions the parameter positions of the key values records are routed by, null to route by all values
+     * @param progress     reported to while write or close wait for the writers
+     */
+    protected AsyncDBRecordWriter( List<DBRecordWriter> writers, int batchSize, int[] keyPositions, Progressable progress )
+      {
+      this.batchSize = batchSize;
+      this.keyPositions = keyPositions;
+      this.progress = progress != null ? progress : Reporter.NULL;
+      this.flushed = new CountDownLatch( writers.size() );
+      this.workers = new ArrayList<BatchWorker>( writers.size() );
+      this.batches = new ArrayList<Batch>( writers.size() );
+
+      for( int i = 0; i < writers.size(); i++ )
+        {
+        workers.add( new BatchWorker( i, writers.get( i ) ) );
+        batches.add( new Batch( sequence++ ) );
+        }
+
+      for( BatchWorker worker : workers )
+        worker.start();
+      }
+
+    /** {@inheritDoc} */
+    public void write( K key, V value ) throws IOException
+      {
+      throwFailure();
+
+      int index = route( key );
+      Batch batch = batches.get( index );
+
+      batch.keys.add( key );
+      batch.values.add( value );
+
+      if( batch.keys.size() >= batchSize )
+        {
+        enqueue( workers.get( index ), batch );
+        batches.set( index, new Batch( sequence++ ) );
+        }
+      }
+
+    /** Returns the index of the writer executing the given record, the same for every record with the same key. */
+    private int route( K key ) throws IOException
+      {
+      if( workers.size() == 1 )
+        return 0;
+
+      Object[] values = CapturedRecord.capture( key ).getValues();
+      int hash = 1;
+
+      if( keyPositions == null )
+        hash = Arrays.hashCode( values );
+      else
+        {
+        for( int position : keyPositions )
+          hash = 31 * hash + ( position < values.length && values[ position ] != null ? values[ position ].hashCode() : 0 );
+        }
+
+      return ( hash & Integer.MAX_VALUE ) % workers.size();
+      }
+
+    /** {@inheritDoc} */
+    public void close( Reporter reporter ) throws IOException
+      {
+      for( int i = 0; i < workers.size(); i++ )
+        {
+        BatchWorker worker = workers.get( i );
+
+        try
+          {
+          if( !batches.get( i ).keys.isEmpty() && !hasFailed() )
+            enqueue( worker, batches.get( i ) );
+
+          // an empty batch tells the worker to flush and commit
+          enqueue( worker, new Batch( -1 ) );
+          }
+        catch( IOException exception )
+          {
+          // a worker that never takes its empty batch would keep every other worker from committing
+          worker.interrupt();
+          }
+        }
+
+      for( BatchWorker worker : workers )
+        join( worker );
+
+      throwFailure();
+      }
+
+    private void enqueue( BatchWorker worker, Batch next ) throws IOException
+      {
+      try
+        {
+        // report progress while the writer is busy, so a slow database does not time out the task
+        while( !worker.queue.offer( next, 1, TimeUnit.SECONDS ) )
+          {
+          progress.progress();
+
+          if( !worker.isAlive() )
+            throw new IOException( "writer has stopped: " + worker.getName() );
+          }
+        }
+      catch( InterruptedException exception )
+        {
+        fail( -1, new IOException( "interrupted while queueing batch" ) );
+        throwFailure();
+        }
+      }
+
+    private void join( BatchWorker worker )
+      {
+      try
+        {
+        while( worker.isAlive() )
+          {
+          worker.join( 1000 );
+          progress.progress();
+          }
+        }
+      catch( InterruptedException exception )
+        {
+        worker.interrupt();
+        fail( -1, new IOException( "interrupted while closing writers" ) );
+        }
+      }
+
+    private synchronized boolean hasFailed()
+      {
+      return failure != null;
+      }
+
+    private synchronized void fail( long batchSequence, IOException exception )
+      {
+      if( batchSequence >= failedSequence )
+        return;
+
+      failedSequence = batchSequence;
+      failure = exception;
+      }
+
+    private synchronized void throwFailure() throws IOException
+      {
+      if( failure != null )
+        throw failure;
+      }
+
+    /** A batch of records, numbered in the order they were written. */
+    private class Batch
+      {
+      private final long sequence;
+      private final List<K> keys = new ArrayList<K>();
+      private final List<V> values = new ArrayList<V>();
+
+      private Batch( long sequence )
+        {
+        this.sequence = sequence;
+        }
+      }
+
+    /** Executes the batches of its queue over a single DBRecordWriter until it takes an empty batch. */
+    private class BatchWorker extends Thread
+      {
+      private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>( 2 );
+      private final DBRecordWriter writer;
+
+      private BatchWorker( int index, DBRecordWriter writer )
+        {
+        super( "jdbc writer " + index );
+        this.writer = writer;
+
+        setDaemon( true );
+        }
+
+      @Override
+      public void run()
+        {
+        try
+          {
+          executeBatches();
+          }
+        catch( InterruptedException exception )
+          {
+          fail( -1, new IOException( "interrupted while executing batches" ) );
+          }
+        finally
+          {
+          flushed.countDown();
+          }
+
+        try
+          {
+          // commit only once every writer has flushed all of its batches
+          flushed.await();
+          }
+        catch( InterruptedException exception )
+          {
+          fail( -1, new IOException( "interrupted while waiting for writers to flush" ) );
+          }
+
+        if( hasFailed() )
+          {
+          writer.abort();
+          return;
+          }
+
+        try
+          {
+          writer.close( Reporter.NULL );
+          }
+        catch( IOException exception )
+          {
+          fail( Long.MAX_VALUE - 1, exception ); // ranks after any failed batch
+          }
+        }
+
+      private void executeBatches() throws InterruptedException
+        {
+        while( true )
+          {
+          Batch next = queue.take();
+
+          if( next.keys.isEmpty() )
+            break;
+
+          // keep draining the queue so the caller never blocks on a failed writer
+          if( hasFailed() )
+            continue;
+
+          try
+            {
+            for( int i = 0; i < next.keys.size(); i++ )
+              writer.write( next.keys.get( i ), next.values.get( i ) );
+            }
+          catch( IOException exception )
+            {
+            fail( next.sequence, exception );
+            }
+          catch( RuntimeException exception )
+            {
+            fail( next.sequence, new IOException( "unable to execute batch", exception ) );
+            }
+          }
+
+        if( hasFailed() )
+          return;
+
+        try
+          {
+          writer.executeBatch();
+          }
+        catch( IOException exception )
+          {
+          fail( Long.MAX_VALUE - 1, exception );
+          }
+        }
+      }
+    }
+
+  /**
+   * Constructs the query used as the prepared statement to insert data.
+   *
+   * @param table      the table to insert into
+   * @param fieldNames the fields to insert into. If field names are unknown, supply an
+   *                   array of nulls.
+   */
+  protected String constructInsertQuery( String table, String[] fieldNames )
+    {
+    return constructInsertQuery( table, fieldNames, 1 );
+    }
+
+  /**
+   * Constructs the query used as the prepared statement to insert several rows at once, with a
+   * multi-row VALUES list.
+   *
+   * @param table      the table to insert into
+   * @param fieldNames the fields to insert into. If field names are unknown, supply an
+   *                   array of nulls.
+   * @param rows       the number of rows inserted by the statement
+   */
+  protected String constructInsertQuery( String table, String[] fieldNames, int rows )
+    {
+    if( fieldNames == null )
+      throw new IllegalArgumentException( "Field names may not be null" );
+
+    StringBuilder query = new StringBuilder();
+
+    query.append( "INSERT INTO " ).append( table );
+
+    if( fieldNames.length > 0 && fieldNames[ 0 ] != null )
+      {
+      query.append( " (" );
+
+      for( int i = 0; i < fieldNames.length; i++ )
+        {
+        query.append( fieldNames[ i ] );
+
+        if( i != fieldNames.length - 1 )
+          query.append( "," );
+        }
+
+      query.append( ")" );
+
+      }
+
+    query.append( " VALUES " );
+
+    for( int row = 0; row < rows; row++ )
+      {
+      if( row != 0 )
+        query.append( "," );
+
+      query.append( "(" );
+
+      for( int i = 0; i < fieldNames.length; i++ )
+        {
+        query.append( "?" );
+
+        if( i != fieldNames.length - 1 )
+          query.append( "," );
+        }
+
+      query.append( ")" );
+      }
+
+    query.append( ";" );
+
+    return query.toString();
+    }
+
+  protected String constructUpdateQuery( String table, String[] fieldNames, String[] updateNames )
+    {
+    if( fieldNames == null )
+      throw new IllegalArgumentException( "field names may not be null" );
+
+    Set<String> updateNamesSet = new HashSet<String>();
+    Collections.addAll( updateNamesSet, updateNames );
+
+    StringBuilder query = new StringBuilder();
+
+    query.append( "UPDATE " ).append( table );
+
+    query.append( " SET " );
+
+    if( fieldNames.length > 0 && fieldNames[ 0 ] != null )
+      {
+      int count = 0;
+
+      for( int i = 0; i < fieldNames.length; i++ )
+        {
+        if( updateNamesSet.contains( fieldNames[ i ] ) )
+          continue;
+
+        if( count != 0 )
+          query.append( "," );
+
+        query.append( fieldNames[ i ] );
+        query.append( " = ?" );
+
+        count++;
+        }
+      }
+
+    query.append( " WHERE " );
+
+    if( updateNames.length > 0 && updateNames[ 0 ] != null )
+      {
+      for( int i = 0; i < updateNames.length; i++ )
+        {
+        query.append( updateNames[ i ] );
+        query.append( " = ?" );
+
+        if( i != updateNames.length - 1 )
+          query.append( " and " );
+        }
+      }
+
+    query.append( ";" );
+
+    return query.toString();
+    }
+
+  /**
+   * Constructs the query used as the prepared statement to insert or update data, with the given dialect.
+   *
+   * @param dialect    the dialect of the output database
+   * @param table      the table to insert into or update
+   * @param fieldNames the fields to insert
+   * @param keyNames   the fields identifying the row to update
+   * @throws IOException when the dialect has no upsert statement
+   */
+  protected String constructUpsertQuery( Dialect dialect, String table, String[] fieldNames, String[] keyNames ) throws IOException
+    {
+    try
+      {
+      return dialect.constructUpsertQuery( table, fieldNames, keyNames );
+      }
+    catch( UnsupportedOperationException exception )
+      {
+      throw new IOException( exception.getMessage() + ", set " + DBConfiguration.DIALECT_PROPERTY + " if the database was not detected" );
+      }
+    }
+
+  /** {@inheritDoc} */
+  public void checkOutputSpecs( FileSystem filesystem, JobConf job ) throws IOException
+    {
+    }
+
+  /** {@inheritDoc} */
+  public RecordWriter<K, V> getRecordWriter( FileSystem filesystem, JobConf job, String name, Progressable progress ) throws IOException
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    int writerConnections = dbConf.getOutputWriterConnections();
+
+    boolean sharded = dbConf.getOutputShardUrls() != null;
+
+    if( dbConf.getOutputProgressTable() != null && ( writerConnections != 1 || dbConf.isOutputStaged() || sharded ) )
+      throw new IOException( "progress tracking requires a single writer connection, no staging and no shards" );
+
+    if( dbConf.isOutputStaged() && sharded )
+      throw new IOException( "staged output cannot be sharded" );
+
+    // the rows kept by a savepoint are committed, so without progress a retried attempt would insert them again
+    if( dbConf.isOutputSavepoints() && dbConf.getOutputProgressTable() == null )
+      throw new IOException( "savepoints require a progress table" );
+
+    // named before staging renames the output table
+    String semaphoreName = "writers:" + dbConf.getOutputTableName();
+
+    // resolved before staging, which moves the update keys of a staged update among the inserted fields
+    String[] dedupKeyNames = dbConf.getOutputDedupWindow() != 0 ? getDedupKeyNames( dbConf ) : null;
+
+    if( dbConf.isOutputStaged() )
+      {
+      job = createStagingTable( job );
+      dbConf = new DBConfiguration( job );
+      }
+
+    RecordWriter<K, V> writer;
+    int maxWriters = dbConf.getOutputMaxWriters();
+
+    if( maxWriters != 0 )
+      writer = new AdmittedRecordWriter( DBSemaphore.create( dbConf, semaphoreName, maxWriters ), job, progress );
+    else
+      writer = openRecordWriter( job, progress );
+
+    if( dbConf.isOutputStagedUpdate() )
+      writer = new InsertingRecordWriter<K, V>( writer );
+
+    if( dedupKeyNames != null )
+      writer = createDedupingRecordWriter( writer, dbConf, dedupKeyNames );
+
+    if( dbConf.getOutputSortKeyNames() != null )
+      return createSortingRecordWriter( writer, dbConf );
+
+    return writer;
+    }
+
+  private RecordWriter<K, V> openRecordWriter( JobConf job, Progressable progress ) throws IOException
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+    Reporter reporter = progress instanceof Reporter ? (Reporter) progress : Reporter.NULL;
+    RateLimiter rateLimiter = null;
+
+    if( dbConf.getOutputRate() != 0 )
+      rateLimiter = new RateLimiter( dbConf.getOutputRate(), dbConf, dbConf.getOutputRateFeedbackQuery(), dbConf.getOutputRateFeedbackLimit() );
+
+    if( dbConf.getOutputShardUrls() != null )
+      return createShardedRecordWriter( job, dbConf, reporter, rateLimiter, progress );
+
+    return createUnsortedRecordWriter( job, dbConf, reporter, rateLimiter, progress );
+    }
+
+  /**
+   * A RecordWriter that inserts every record, including updates, into the staging table of a staged update, which
+   * {@link DBOutputCommitter} then applies with a single statement.
+   */
+  private static class InsertingRecordWriter<K extends DBWritable, V> implements RecordWriter<K, V>
+    {
+    private final RecordWriter<K, V> writer;
+
+    private InsertingRecordWriter( RecordWriter<K, V> writer )
+      {
+      this.writer = writer;
+      }
+
+    /** {@inheritDoc} */
+    public void write( K key, V value ) throws IOException
+      {
+      writer.write( key, null );
+      }
+
+    /** {@inheritDoc} */
+    public void close( Reporter reporter ) throws IOException
+      {
+      writer.close( reporter );
+      }
+    }
+
+  /**
+   * A RecordWriter that acquires a permit of a {@link DBSemaphore} before it opens the connections of its writers,
+   * on the first record written, and releases the permit once they are closed.
+   */
+  protected class AdmittedRecordWriter implements RecordWriter<K, V>
+    {
+    private final DBSemaphore semaphore;
+    private final JobConf job;
+    private final Progressable progress;
+    private RecordWriter<K, V> writer;
+
+    protected AdmittedRecordWriter( DBSemaphore semaphore, JobConf job, Progressable progress )
+      {
+      this.semaphore = semaphore;
+      this.job = job;
+      this.progress = progress;
+      }
+
+    /** {@inheritDoc} */
+    public void write( K key, V value ) throws IOException
+      {
+      if( writer == null )
+        {
+        semaphore.acquire( progress );
+
+        try
+          {
+          writer = openRecordWriter( job, progress );
+          }
+        catch( IOException exception )
+          {
+          semaphore.release();
+          throw exception;
+          }
+        }
+
+      writer.write( key, value );
+      }
+
+    /** {@inheritDoc} */
+    public void close( Reporter reporter ) throws IOException
+      {
+      if( writer == null )
+        return;
+
+      try
+        {
+        writer.close( reporter );
+        }
+      finally
+        {
+        semaphore.release();
+        }
+      }
+    }
+
+  /** Creates a writer per shard, each executing its batches on threads of its own, so all shards fill in parallel. */
+  private RecordWriter<K, V> createShardedRecordWriter( JobConf job, DBConfiguration dbConf, Reporter reporter, RateLimiter rateLimiter, Progressable progress ) throws IOException
+    {
+    String[] urls = dbConf.getOutputShardUrls();
+    String[] updateNames = dbConf.getOutputUpsertKeyNames() == null ? dbConf.getOutputUpdateFieldNames() : null;
+    String[] shardFieldNames = {dbConf.getOutputShardFieldName()};
+    int shardPosition = CapturedRecord.getParameterPositions( dbConf.getOutputFieldNames(), updateNames, shardFieldNames )[ 0 ];
+    ShardResolver resolver = dbConf.getOutputShardResolver();
+
+    List<RecordWriter<K, V>> shards = new ArrayList<RecordWriter<K, V>>( urls.length );
+
+    try
+      {
+      for( String url : urls )
+        {
+        JobConf shardJob = new JobConf( job );
+
+        shardJob.set( DBConfiguration.URL_PROPERTY, url );
+
+        List<DBRecordWriter> writers = createRecordWriters( shardJob, dbConf, reporter, rateLimiter );
+
+        shards.add( new AsyncDBRecordWriter( writers, dbConf.getBatchStatementsNum(), getRoutingKeyPositions( dbConf ), progress ) );
+        }
+      }
+    catch( IOException exception )
+      {
+      // nothing was written yet, so closing only commits empty transactions
+      new ShardedRecordWriter<K, V>( shards, resolver, shardPosition ).close( reporter );
+
+      throw exception;
+      }
+
+    return new ShardedRecordWriter<K, V>( shards, resolver, shardPosition );
+    }
+
+  @SuppressWarnings("unchecked")
+  private RecordWriter<K, V> createSortingRecordWriter( RecordWriter<K, V> writer, DBConfiguration dbConf ) throws IOException
+    {
+    String[] updateNames = dbConf.getOutputUpsertKeyNames() == null ? dbConf.getOutputUpdateFieldNames() : null;
+
+    // the sorting writer hands captured records on, which the record writers only bind to their statements
+    return new SortingRecordWriter<K, V>( (RecordWriter) writer, dbConf.getOutputFieldNames(), updateNames, dbConf.getOutputSortKeyNames(), dbConf.getOutputSortBuffer() );
+    }
+
+  private static String[] getDedupKeyNames( DBConfiguration dbConf ) throws IOException
+    {
+    if( dbConf.getOutputDedupKeyNames() != null )
+      return dbConf.getOutputDedupKeyNames();
+
+    if( dbConf.getOutputUpsertKeyNames() != null )
+      return dbConf.getOutputUpsertKeyNames();
+
+    if( dbConf.getOutputUpdateFieldNames() != null )
+      return dbConf.getOutputUpdateFieldNames();
+
+    throw new IOException( "deduplication requires dedup, update or upsert keys" );
+    }
 
-    query.append( " SET " );
+  @SuppressWarnings("unchecked")
+  private RecordWriter<K, V> createDedupingRecordWriter( RecordWriter<K, V> writer, DBConfiguration dbConf, String[] keyNames ) throws IOException
+    {
+    String[] updateNames = dbConf.getOutputUpsertKeyNames() == null ? dbConf.getOutputUpdateFieldNames() : null;
 
-    if( fieldNames.length > 0 && fieldNames[ 0 ] != null )
-      {
-      int count = 0;
+    return new DedupingRecordWriter<K, V>( (RecordWriter) writer, dbConf.getOutputFieldNames(), updateNames, keyNames, dbConf.getOutputDedupWindow() );
+    }
 
-      for( int i = 0; i < fieldNames.length; i++ )
-        {
-        if( updateNamesSet.contains( fieldNames[ i ] ) )
-          continue;
+  private RecordWriter<K, V> createUnsortedRecordWriter( JobConf job, DBConfiguration dbConf, Reporter reporter, RateLimiter rateLimiter, Progressable progress ) throws IOException
+    {
+    int writerConnections = dbConf.getOutputWriterConnections();
 
-        if( count != 0 )
-          query.append( "," );
+    if( writerConnections == 1 )
+      return configureWriter( createRecordWriter( job ), dbConf, reporter, rateLimiter );
 
-        query.append( fieldNames[ i ] );
-        query.append( " = ?" );
+    return new AsyncDBRecordWriter( createRecordWriters( job, dbConf, reporter, rateLimiter ), dbConf.getBatchStatementsNum(), getRoutingKeyPositions( dbConf ), progress );
+    }
 
-        count++;
-        }
+  /** Returns the parameter positions of the upsert or update keys, or null if records have neither. */
+  private static int[] getRoutingKeyPositions( DBConfiguration dbConf ) throws IOException
+    {
+    String[] upsertNames = dbConf.getOutputUpsertKeyNames();
+    String[] updateNames = dbConf.getOutputUpdateFieldNames();
+
+    if( upsertNames != null )
+      return CapturedRecord.getParameterPositions( dbConf.getOutputFieldNames(), null, upsertNames );
+
+    if( updateNames != null )
+      return CapturedRecord.getParameterPositions( dbConf.getOutputFieldNames(), updateNames, updateNames );
+
+    return null;
+    }
+
+  private List<DBRecordWriter> createRecordWriters( JobConf job, DBConfiguration dbConf, Reporter reporter, RateLimiter rateLimiter ) throws IOException
+    {
+    int writerConnections = dbConf.getOutputWriterConnections();
+    List<DBRecordWriter> writers = new ArrayList<DBRecordWriter>( writerConnections );
+
+    try
+      {
+      for( int i = 0; i < writerConnections; i++ )
+        writers.add( configureWriter( createRecordWriter( job ), dbConf, reporter, rateLimiter ) );
       }
+    catch( IOException exception )
+      {
+      for( DBRecordWriter writer : writers )
+        writer.abort();
 
-    query.append( " WHERE " );
+      throw exception;
+      }
 
-    if( updateNames.length > 0 && updateNames[ 0 ] != null )
+    return writers;
+    }
+
+  private DBRecordWriter configureWriter( DBRecordWriter writer, DBConfiguration dbConf, Reporter reporter, RateLimiter rateLimiter )
+    {
+    long targetLatency = dbConf.getOutputBatchLatencyTarget();
+
+    if( targetLatency != 0 )
+      writer.setBatchSizeController( new BatchSizeController( dbConf.getBatchStatementsNum(), dbConf.getOutputBatchMin(), dbConf.getOutputBatchMax(), targetLatency, reporter ) );
+
+    if( rateLimiter != null )
+      writer.setRateLimiter( rateLimiter );
+
+    return writer;
+    }
+
+  /**
+   * Creates the staging table of the current task attempt, and returns a copy of the given job writing into it.
+   *
+   * @param job The job
+   * @return JobConf
+   * @throws IOException when the staging table cannot be created
+   */
+  protected JobConf createStagingTable( JobConf job ) throws IOException
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    if( dbConf.getOutputUpsertKeyNames() != null )
+      throw new IOException( "staged output cannot upsert rows" );
+
+    if( dbConf.getOutputUpdateFieldNames() != null && !dbConf.isOutputStagedUpdate() )
+      throw new IOException( "staged output can only update rows with a staged update" );
+
+    TaskAttemptID attemptID = TaskAttemptID.forName( job.get( "mapred.task.id" ) );
+
+    if( attemptID == null )
+      throw new IOException( "staged output requires a task attempt id" );
+
+    String tableName = dbConf.getOutputTableName();
+    String stagingTableName = DBOutputCommitter.getStagingTableName( tableName, attemptID );
+    Connection connection = createConnection( job );
+
+    try
       {
-      for( int i = 0; i < updateNames.length; i++ )
-        {
-        query.append( updateNames[ i ] );
-        query.append( " = ?" );
+      Dialect dialect = dbConf.getDialect( connection );
+      Statement statement = connection.createStatement();
 
-        if( i != updateNames.length - 1 )
-          query.append( " and " );
+      try
+        {
+        statement.executeUpdate( dialect.constructCreateLikeQuery( stagingTableName, tableName ) );
+        connection.commit();
+        }
+      finally
+        {
+        statement.close();
+        }
+      }
+    catch( SQLException exception )
+      {
+      throw new IOException( "unable to create staging table: " + stagingTableName, exception );
+      }
+    finally
+      {
+      try
+        {
+        connection.close();
+        }
+      catch( SQLException exception )
+        {
+        LOG.warn( "ignoring connection close exception", exception );
         }
       }
 
-    query.append( ";" );
+    JobConf stagingJob = new JobConf( job );
+    DBConfiguration stagingConf = new DBConfiguration( stagingJob );
 
-    return query.toString();
+    stagingConf.setOutputTableName( stagingTableName );
+
+    // updates are applied when the task commits, so every row is inserted into the staging table, in the
+    // order update records bind their values, the other fields and then the keys
+    if( dbConf.isOutputStagedUpdate() )
+      {
+      String[] keyNames = dbConf.getOutputUpdateFieldNames();
+      String[] valueNames = Dialect.getValueNames( dbConf.getOutputFieldNames(), keyNames );
+      String[] stagingNames = Arrays.copyOf( valueNames, valueNames.length + keyNames.length );
+
+      System.arraycopy( keyNames, 0, stagingNames, valueNames.length, keyNames.length );
+
+      stagingConf.setOutputFieldNames( stagingNames );
+      stagingConf.setOutputUpdateFieldNames( new String[0] );
+      }
+
+    return stagingJob;
     }
 
-  /** {@inheritDoc} */
-  public void checkOutputSpecs( FileSystem filesystem, JobConf job ) throws IOException
+  /** Returns the number of rows per insert statement that stays within the bind parameter limit of the dialect. */
+  static int limitRowsPerInsert( Dialect dialect, int fields, int rowsPerInsert )
     {
+    int maxRows = Math.max( 1, dialect.getMaxParameters() / Math.max( 1, fields ) );
+
+    if( rowsPerInsert <= maxRows )
+      return rowsPerInsert;
+
+    LOG.warn( "lowering rows per insert from " + rowsPerInsert + " to " + maxRows + ", the " + dialect + " limit of " + dialect.getMaxParameters() + " parameters per statement" );
+
+    return maxRows;
     }
 
-  /** {@inheritDoc} */
-  public RecordWriter<K, V> getRecordWriter( FileSystem filesystem, JobConf job, String name, Progressable progress ) throws IOException
+  /**
+   * Creates a {@link DBRecordWriter} over a new connection, subclasses can override this for custom behaviour.
+   *
+   * @param job The job
+   * @return DBRecordWriter
+   * @throws IOException when the connection or statements cannot be created
+   */
+  protected DBRecordWriter createRecordWriter( JobConf job ) throws IOException
     {
     DBConfiguration dbConf = new DBConfiguration( job );
 
     String tableName = dbConf.getOutputTableName();
     String[] fieldNames = dbConf.getOutputFieldNames();
     String[] updateNames = dbConf.getOutputUpdateFieldNames();
+    String[] upsertKeyNames = dbConf.getOutputUpsertKeyNames();
     int batchStatements = dbConf.getBatchStatementsNum();
+    int rowsPerInsert = upsertKeyNames != null ? 1 : dbConf.getOutputRowsPerInsert();
 
-    Connection connection = dbConf.getConnection();
+    Connection connection = createConnection( job );
 
-    configureConnection( connection );
+    String sqlInsert;
+
+    if( upsertKeyNames != null )
+      {
+      // every row is inserted or updated by the same statement
+      sqlInsert = constructUpsertQuery( dbConf.getDialect( connection ), tableName, fieldNames, upsertKeyNames );
+      updateNames = null;
+      }
+    else
+      {
+      if( rowsPerInsert > 1 )
+        rowsPerInsert = limitRowsPerInsert( dbConf.getDialect( connection ), fieldNames.length, rowsPerInsert );
+
+      sqlInsert = constructInsertQuery( tableName, fieldNames, rowsPerInsert );
+      }
 
-    String sqlInsert = constructInsertQuery( tableName, fieldNames );
     PreparedStatement insertPreparedStatement;
 
     try
@@ -365,7 +1721,52 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
       throw new IOException( "unable to create statement for: " + sqlUpdate, exception );
       }
 
-    return new DBRecordWriter( connection, insertPreparedStatement, updatePreparedStatement, batchStatements );
+    DBRecordWriter writer = new DBRecordWriter( connection, insertPreparedStatement, updatePreparedStatement, batchStatements, tableName, fieldNames, rowsPerInsert );
+
+    writer.setCommitPolicy( dbConf.getOutputCommitRows(), dbConf.getOutputCommitInterval(), dbConf.isOutputSavepoints() );
+
+    String progressTableName = dbConf.getOutputProgressTable();
+
+    if( progressTableName != null )
+      {
+      TaskAttemptID attemptID = TaskAttemptID.forName( job.get( "mapred.task.id" ) );
+
+      if( attemptID == null )
+        throw new IOException( "progress tracking requires a task attempt id" );
+
+      writer.setProgressTable( progressTableName, attemptID.getTaskID().toString() );
+      }
+
+    int retries = dbConf.getOutputRetries();
+    String deadLetterPath = dbConf.getOutputDeadLetterPath();
+
+    if( retries != 0 || deadLetterPath != null )
+      {
+      DeadLetterWriter deadLetters = null;
+
+      if( deadLetterPath != null )
+        deadLetters = new DeadLetterWriter( job, deadLetterPath );
+
+      writer.setRetryPolicy( retries, dbConf.getOutputRetryBackoff(), deadLetters );
+      }
+
+    return writer;
+    }
+
+  /**
+   * Opens and configures a new connection to the output database.
+   *
+   * @param job The job
+   * @return Connection
+   * @throws IOException when the connection cannot be opened
+   */
+  protected Connection createConnection( JobConf job ) throws IOException
+    {
+    Connection connection = new DBConfiguration( job ).getConnection();
+
+    configureConnection( connection );
+
+    return connection;
     }
 
   protected void configureConnection( Connection connection )
@@ -415,4 +1816,303 @@ public class DBOutputFormat<K extends DBWritable, V> implements OutputFormat<K,
     if( batchSize != -1 )
       dbConf.setBatchStatementsNum( batchSize );
     }
+
+  /**
+   * Sets the number of connections each record writer executes its batches over. With more than one, batches
+   * are executed on background threads while the next batch is being filled. Records with the same upsert or update
+   * keys are always executed over the same connection, in the order they were written.
+   *
+   * @param job               The job
+   * @param writerConnections the number of connections per record writer
+   */
+  public static void setWriterConnections( JobConf job, int writerConnections )
+    {
+    new DBConfiguration( job ).setOutputWriterConnections( writerConnections );
+    }
+
+  /**
+   * Sets the number of rows each insert statement inserts with a multi-row VALUES list, which cuts the
+   * number of round-trips on drivers that execute a batch one statement at a time. The database must
+   * support multi-row VALUES if this is greater than one. The number is lowered if the statement would bind more
+   * parameters than the {@link Dialect#getMaxParameters() database allows}. Rows waiting for a statement to fill
+   * are inserted before any batch of updates is executed.
+   *
+   * @param job           The job
+   * @param rowsPerInsert the number of rows per insert statement
+   */
+  public static void setRowsPerInsert( JobConf job, int rowsPerInsert )
+    {
+    new DBConfiguration( job ).setOutputRowsPerInsert( rowsPerInsert );
+    }
+
+  /**
+   * Makes every record an upsert: a single statement, generated for the database's {@link Dialect}, that
+   * inserts the record or updates the row with the same key values. Upserts cannot be combined with
+   * multi-row inserts.
+   *
+   * @param job      The job
+   * @param keyNames the fields identifying a row, usually the primary key
+   */
+  public static void setUpsert( JobConf job, String... keyNames )
+    {
+    new DBConfiguration( job ).setOutputUpsertKeyNames( keyNames );
+    }
+
+  /**
+   * Sets the dialect of the database, instead of detecting it from the connection.
+   *
+   * @param job     The job
+   * @param dialect the dialect
+   */
+  public static void setDialect( JobConf job, Dialect dialect )
+    {
+    new DBConfiguration( job ).setDialect( dialect );
+    }
+
+  /**
+   * Makes each task attempt write into its own staging table, which {@link DBOutputCommitter} copies into the
+   * output table only if the attempt commits. Failed or speculative attempts then never write into the output table,
+   * so speculative execution is enabled again. Staged output can only insert rows, see {@link #setStagedUpdate}.
+   *
+   * @param job The job
+   */
+  public static void setStaged( JobConf job )
+    {
+    new DBConfiguration( job ).setOutputStaged( true );
+
+    job.setOutputCommitter( DBOutputCommitter.class );
+    job.setReduceSpeculativeExecution( true );
+    job.setMapSpeculativeExecution( true );
+    }
+
+  /**
+   * Makes each task attempt bulk insert its rows into its own staging table, like {@link #setStaged}, and then,
+   * when the attempt commits, update the output table with a single statement joining it to the staging table,
+   * instead of executing an update statement per row. Records whose update key values are all null are inserted.
+   * <p/>
+   * The update fields must have been set with {@link #setOutput}, and each key should be written only once
+   * per task, as it is undefined which of several staged rows with the same key is applied.
+   *
+   * @param job The job
+   */
+  public static void setStagedUpdate( JobConf job )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    if( dbConf.getOutputUpdateFieldNames() == null )
+      throw new IllegalArgumentException( "staged updates require update fields" );
+
+    dbConf.setOutputStagedUpdate( true );
+
+    setStaged( job );
+    }
+
+  /**
+   * Collapses the records written by each task by their update or upsert keys, within windows of the given number
+   * of distinct keys, so only the last record written for a key in a window reaches the database. Each key keeps
+   * the position of its first record, and records with a null key value are all written.
+   * <p/>
+   * This keeps batches from updating the same row more than once, which wastes round trips and fails some upserts
+   * and staged updates outright.
+   *
+   * @param job    The job
+   * @param window the number of distinct keys to collect before they are written
+   */
+  public static void setDeduplicated( JobConf job, int window )
+    {
+    new DBConfiguration( job ).setOutputDedupWindow( window );
+    }
+
+  /**
+   * Collapses the records written by each task by the given key fields, like {@link #setDeduplicated(JobConf, int)},
+   * for instance by the primary key of the inserted rows.
+   *
+   * @param job           The job
+   * @param window        the number of distinct keys to collect before they are written
+   * @param dedupKeyNames the fields to collapse the records by
+   */
+  public static void setDeduplicated( JobConf job, int window, String... dedupKeyNames )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setOutputDedupWindow( window );
+    dbConf.setOutputDedupKeyNames( dedupKeyNames );
+    }
+
+  /**
+   * Bounds the size of each record writer's transactions. Rows are committed every commitRows rows, or
+   * once commitInterval milliseconds have passed since the last commit, and on close.
+   * <p/>
+   * If savepoints is true, a failed batch only rolls back to its start, and the rows executed before it are
+   * committed before the task fails. This requires a {@link #setProgressTable progress table}, so the next attempt
+   * skips the committed rows.
+   *
+   * @param job            The job
+   * @param commitRows     the number of rows per transaction, 0 for no bound
+   * @param commitInterval the number of milliseconds per transaction, 0 for no bound
+   * @param savepoints     true to keep the rows executed before a failed batch
+   */
+  public static void setCommitPolicy( JobConf job, long commitRows, long commitInterval, boolean savepoints )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setOutputCommitRows( commitRows );
+    dbConf.setOutputCommitInterval( commitInterval );
+    dbConf.setOutputSavepoints( savepoints );
+    }
+
+  /**
+   * Records the number of rows each task has committed in the given table, so a retried task attempt skips the
+   * rows already committed by earlier attempts. Every attempt must write the same rows in the same order, which
+   * holds for reducers and for mappers over the same split. Requires a single writer connection, one row per insert
+   * statement and no staging.
+   *
+   * @param job               The job
+   * @param progressTableName the progress table, created if it does not exist
+   */
+  public static void setProgressTable( JobConf job, String progressTableName )
+    {
+    new DBConfiguration( job ).setOutputProgressTable( progressTableName );
+    }
+
+  /**
+   * Retries batches failing with a transient error, like a deadlock, a serialization failure or a timeout, up
+   * to retries times. The record writer waits retryBackoff milliseconds before the first retry, and
+   * doubles the wait, plus some jitter, before each further one. As a transient error may roll back the whole
+   * transaction, a batch is only retried while its transaction holds no rows of earlier batches, which requires a
+   * commit policy committing every batch, see {@link #setCommitPolicy(JobConf, long, long, boolean)}. Requires one
+   * row per insert statement.
+   *
+   * @param job          The job
+   * @param retries      the number of retries per batch
+   * @param retryBackoff the number of milliseconds to wait before the first retry
+   */
+  public static void setRetryPolicy( JobConf job, int retries, long retryBackoff )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setOutputRetries( retries );
+    dbConf.setOutputRetryBackoff( retryBackoff );
+    }
+
+  /**
+   * Rejects records the database refuses, instead of failing the task. A batch failing with an error that is not
+   * transient is split in halves which are executed on their own, recursively, until the failing records are
+   * isolated. These are written as text lines, holding their SQLState, the error message and their values, tab
+   * separated, into a file per record writer below the given directory, while the other records are kept. Each batch
+   * is then committed on its own. Requires one row per insert statement.
+   *
+   * @param job            The job
+   * @param deadLetterPath the directory the rejected records are written to
+   */
+  public static void setDeadLetterPath( JobConf job, String deadLetterPath )
+    {
+    new DBConfiguration( job ).setOutputDeadLetterPath( deadLetterPath );
+    }
+
+  /**
+   * Makes each record writer adapt the number of statements per batch, starting from the batch size set with
+   * {@link #setOutput}. After each batch taking less than targetLatency milliseconds the size grows by minBatchSize,
+   * after one taking longer it is halved, and an increase lowering the throughput is taken back. The decisions are
+   * reported as {@link BatchSizeController.Counters}. With several writer connections, records are still handed to
+   * the writers in batches of the initial size.
+   *
+   * @param job           The job
+   * @param minBatchSize  the smallest number of statements per batch
+   * @param maxBatchSize  the largest number of statements per batch
+   * @param targetLatency the longest time in milliseconds a batch should take
+   */
+  public static void setAdaptiveBatchSize( JobConf job, int minBatchSize, int maxBatchSize, long targetLatency )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setOutputBatchBounds( minBatchSize, maxBatchSize );
+    dbConf.setOutputBatchLatencyTarget( targetLatency );
+    }
+
+  /**
+   * Buffers the records of each record writer and writes them ordered by the given fields, usually the primary key,
+   * so inserts into a B-tree index become near-sequential and concurrent writers contend less for the same pages.
+   * Once the buffered records exceed sortBuffer bytes, estimated, they are sorted and spilled to a local temporary
+   * file, and all spilled runs are merged when the writer is closed, so no record is written before then.
+   *
+   * @param job          The job
+   * @param sortBuffer   the estimated number of bytes of records to buffer in memory
+   * @param sortKeyNames the fields to order the records by
+   */
+  public static void setSortedOutput( JobConf job, long sortBuffer, String... sortKeyNames )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setOutputSortBuffer( sortBuffer );
+    dbConf.setOutputSortKeyNames( sortKeyNames );
+    }
+
+  /**
+   * Writes each record to one of several databases holding shards of the output table, chosen by the given
+   * resolver from the value of the given field. Each task keeps a connection, or writerConnections connections,
+   * and a batch per shard, and executes the batches of all shards in parallel on threads of their own. Sharded
+   * output cannot be combined with staging or progress tracking.
+   *
+   * @param job            The job
+   * @param shardFieldName the field whose value chooses the shard
+   * @param resolver       the resolver choosing the shard of a value
+   * @param urls           the connection URL of each shard, by shard index
+   */
+  public static void setSharded( JobConf job, String shardFieldName, ShardResolver resolver, String... urls )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setOutputShardFieldName( shardFieldName );
+    dbConf.setOutputShardResolver( resolver );
+    dbConf.setOutputShardUrls( urls );
+    }
+
+  /**
+   * Limits the number of tasks writing at once across the cluster. Each task acquires one of maxWriters permits
+   * before it opens its connections, on its first record, and releases it once its writer is closed, waiting while
+   * all permits are held. The permits are PostgreSQL advisory locks, or, if a semaphore table is given, leased rows
+   * of that table, which works on any database.
+   *
+   * @param job            The job
+   * @param maxWriters     the number of tasks that may write at once
+   * @param semaphoreTable the table holding the permits, created if it does not exist, or null for advisory locks
+   */
+  public static void setMaxWriters( JobConf job, int maxWriters, String semaphoreTable )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setOutputMaxWriters( maxWriters );
+
+    if( semaphoreTable != null )
+      dbConf.setSemaphoreTable( semaphoreTable );
+    }
+
+  /**
+   * Limits the rows each task writes per second, over all of its connections, with a token bucket.
+   *
+   * @param job           The job
+   * @param rowsPerSecond the number of rows per second
+   */
+  public static void setRateLimit( JobConf job, double rowsPerSecond )
+    {
+    new DBConfiguration( job ).setOutputRate( rowsPerSecond );
+    }
+
+  /**
+   * Lowers the rate set with {@link #setRateLimit} as the result of the given query, like the replication lag in
+   * seconds, approaches the given limit, down to a tenth of the rate once the limit is reached. The query must return
+   * a single number and is executed at most every ten seconds per task.
+   *
+   * @param job           The job
+   * @param feedbackQuery the query returning the feedback value
+   * @param feedbackLimit the feedback value at which the rate is lowest
+   */
+  public static void setRateFeedback( JobConf job, String feedbackQuery, double feedbackLimit )
+    {
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setOutputRateFeedbackQuery( feedbackQuery );
+    dbConf.setOutputRateFeedbackLimit( feedbackLimit );
+    }
   }
@@ -0,0 +1,551 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+import org.apache.hadoop.util.Progressable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class DBSemaphore limits how many tasks across the cluster hold one of a fixed number of permits with the same
+ * name at once, coordinated through the database.
+ * <p/>
+ * On PostgreSQL, each permit is a session advisory lock, held by a connection of its own and released when that
+ * connection closes, even if the task dies. Elsewhere, each permit is a row of a semaphore table, leased for a
+ * limited time and renewed while held, so the permits of dead tasks become free once their leases expire. For tests
+ * and single machine jobs, each permit may instead be a lock of a file in a local directory.
+ */
+abstract class DBSemaphore
+  {
+  private static final Logger LOG = LoggerFactory.getLogger( DBSemaphore.class );
+
+  /** The number of milliseconds between attempts to acquire a permit, before jitter */
+  static final long RETRY_INTERVAL = 1000;
+
+  final String name;
+  final int permits;
+  private final Random random = new Random();
+
+  DBSemaphore( String name, int permits )
+    {
+    this.name = name;
+    this.permits = permits;
+    }
+
+  /**
+   * Returns a semaphore with the given name and number of permits, backed by the configured lock directory or
+   * semaphore table, or by advisory locks if neither is configured.
+   *
+   * @param dbConf the configuration to open connections with
+   */
+  static DBSemaphore create( DBConfiguration dbConf, String name, int permits ) throws IOException
+    {
+    if( dbConf.getSemaphoreLockDir() != null )
+      return new FileLockSemaphore( name, permits, new File( dbConf.getSemaphoreLockDir() ) );
+
+    String tableName = dbConf.getSemaphoreTable();
+
+    if( tableName != null )
+      return new LeaseTableSemaphore( dbConf, name, permits, tableName );
+
+    Connection connection = dbConf.getConnection();
+
+    try
+      {
+      if( dbConf.getDialect( connection ) != Dialect.POSTGRESQL )
+        throw new IOException( "advisory locks require PostgreSQL, set " + DBConfiguration.SEMAPHORE_TABLE_PROPERTY + " to use a semaphore table" );
+      }
+    finally
+      {
+      close( connection );
+      }
+
+    return new AdvisoryLockSemaphore( dbConf, name, permits );
+    }
+
+  /**
+   * Blocks until a permit is acquired, trying again after a jittered interval and reporting progress meanwhile.
+   */
+  void acquire( Progressable progress ) throws IOException
+    {
+    long start = System.currentTimeMillis();
+
+    while( !tryAcquire() )
+      {
+      if( progress != null )
+        progress.progress();
+
+      try
+        {
+        Thread.sleep( RETRY_INTERVAL / 2 + (long) ( random.nextDouble() * RETRY_INTERVAL ) );
+        }
+      catch( InterruptedException exception )
+        {
+        throw new IOException( "interrupted while waiting for a permit of: " + name );
+        }
+      }
+
+    long waited = System.currentTimeMillis() - start;
+
+    if( waited > RETRY_INTERVAL )
+      LOG.info( "acquired a permit of: {}, after waiting {} ms", name, waited );
+    }
+
+  /** Tries each permit once, and returns true if one was acquired. */
+  abstract boolean tryAcquire() throws IOException;
+
+  /** Releases the permit held, if any. */
+  abstract void release();
+
+  static void close( Connection connection )
+    {
+    try
+      {
+      connection.close();
+      }
+    catch( SQLException exception )
+      {
+      LOG.warn( "ignoring connection close exception", exception );
+      }
+    }
+
+  /** Holds a PostgreSQL session advisory lock per permit, keyed by the name and the permit index. */
+  static class AdvisoryLockSemaphore extends DBSemaphore
+    {
+    private final DBConfiguration dbConf;
+    private Connection connection;
+    private int permit = -1;
+
+    AdvisoryLockSemaphore( DBConfiguration dbConf, String name, int permits )
+      {
+      super( name, permits );
+      this.dbConf = dbConf;
+      }
+
+    /** Holds a connection only while it holds a lock, so waiting tasks do not take up connections. */
+    boolean tryAcquire() throws IOException
+      {
+      connection = dbConf.getConnection();
+
+      try
+        {
+        connection.setAutoCommit( true );
+
+        for( int i = 0; i < permits; i++ )
+          {
+          if( lock( "SELECT pg_try_advisory_lock( ?, ? )", i ) )
+            {
+            permit = i;
+            return true;
+            }
+          }
+        }
+      catch( SQLException exception )
+        {
+        close( connection );
+        connection = null;
+
+        throw new IOException( "unable to acquire advisory lock of: " + name, exception );
+        }
+
+      close( connection );
+      connection = null;
+
+      return false;
+      }
+
+    private boolean lock( String query, int index ) throws SQLException
+      {
+      PreparedStatement statement = connection.prepareStatement( query );
+
+      try
+        {
+        statement.setInt( 1, name.hashCode() );
+        statement.setInt( 2, index );
+
+        ResultSet results = statement.executeQuery();
+
+        try
+          {
+          return results.next() && results.getBoolean( 1 );
+          }
+        finally
+          {
+          results.close();
+          }
+        }
+      finally
+        {
+        statement.close();
+        }
+      }
+
+    void release()
+      {
+      if( connection == null )
+        return;
+
+      try
+        {
+        if( permit != -1 )
+          lock( "SELECT pg_advisory_unlock( ?, ? )", permit );
+        }
+      catch( SQLException exception )
+        {
+        LOG.warn( "unable to unlock advisory lock, closing the connection releases it", exception );
+        }
+      finally
+        {
+        // closing the session releases any lock left
+        close( connection );
+        connection = null;
+        permit = -1;
+        }
+      }
+    }
+
+  /**
+   * Leases a row per permit of a table with the columns {@code name}, {@code permit}, {@code holder} and
+   * {@code expires}. A lease lasts {@link #LEASE_DURATION} milliseconds and is renewed by a daemon thread while held.
+   */
+  static class LeaseTableSemaphore extends DBSemaphore
+    {
+    /** The number of milliseconds a lease lasts without being renewed */
+    static final long LEASE_DURATION = 5 * 60 * 1000;
+
+    private final DBConfiguration dbConf;
+    private final String tableName;
+    private final String holder;
+    private volatile int permit = -1;
+    private Thread renewer;
+
+    LeaseTableSemaphore( DBConfiguration dbConf, String name, int permits, String tableName )
+      {
+      super( name, permits );
+      this.dbConf = dbConf;
+      this.tableName = tableName;
+      this.holder = getHolderName();
+      }
+
+    private static String getHolderName()
+      {
+      String host;
+
+      try
+        {
+        host = InetAddress.getLocalHost().getHostName();
+        }
+      catch( IOException exception )
+        {
+        host = "unknown";
+        }
+
+      return host + ":" + Long.toHexString( new Random().nextLong() );
+      }
+
+    boolean tryAcquire() throws IOException
+      {
+      Connection connection = dbConf.getConnection();
+
+      try
+        {
+        connection.setAutoCommit( true );
+
+        createPermits( connection );
+
+        for( int i = 0; i < permits; i++ )
+          {
+          long now = System.currentTimeMillis();
+
+          if( update( connection, "UPDATE " + tableName + " SET holder = ?, expires = ? WHERE name = ? AND permit = ? AND ( holder IS NULL OR expires < ? )", i, now + LEASE_DURATION, now ) )
+            {
+            permit = i;
+            startRenewer();
+            return true;
+            }
+          }
+
+        return false;
+        }
+      catch( SQLException exception )
+        {
+        throw new IOException( "unable to lease a permit of: " + name + " from: " + tableName, exception );
+        }
+      finally
+        {
+        close( connection );
+        }
+      }
+
+    private boolean update( Connection connection, String query, int index, long expires, long now ) throws SQLException
+      {
+      PreparedStatement statement = connection.prepareStatement( query );
+
+      try
+        {
+        statement.setString( 1, holder );
+        statement.setLong( 2, expires );
+        statement.setString( 3, name );
+        statement.setInt( 4, index );
+        statement.setLong( 5, now );
+
+        return statement.executeUpdate() == 1;
+        }
+      finally
+        {
+        statement.close();
+        }
+      }
+
+    /** Creates the table and the rows of the permits, if missing, ignoring failures caused by concurrent tasks. */
+    private void createPermits( Connection connection ) throws SQLException
+      {
+      Statement statement = connection.createStatement();
+
+      try
+        {
+        statement.executeQuery( "SELECT 1 FROM " + tableName + " WHERE 1 = 0" ).close();
+        }
+      catch( SQLException exception )
+        {
+        try
+          {
+          statement.executeUpdate( "CREATE TABLE " + tableName + " ( name VARCHAR(255) NOT NULL, permit INT NOT NULL, holder VARCHAR(255), expires BIGINT, PRIMARY KEY( name, permit ) )" );
+          }
+        catch( SQLException createException )
+          {
+          LOG.debug( "ignoring create table exception, assuming a concurrent create", createException );
+          }
+        }
+      finally
+        {
+        statement.close();
+        }
+
+      PreparedStatement insert = connection.prepareStatement( "INSERT INTO " + tableName + " ( name, permit ) VALUES ( ?, ? )" );
+
+      try
+        {
+        for( int i = 0; i < permits; i++ )
+          {
+          try
+            {
+            insert.setString( 1, name );
+            insert.setInt( 2, i );
+            insert.executeUpdate();
+            }
+          catch( SQLException exception )
+            {
+            // the row exists already
+            }
+          }
+        }
+      finally
+        {
+        insert.close();
+        }
+      }
+
+    private void startRenewer()
+      {
+      renewer = new Thread( "lease renewer " + name )
+      {
+      @Override
+      public void run()
+        {
+        while( !isInterrupted() )
+          {
+          try
+            {
+            sleep( LEASE_DURATION / 3 );
+            renew();
+            }
+          catch( InterruptedException exception )
+            {
+            return;
+            }
+          }
+        }
+      };
+
+      renewer.setDaemon( true );
+      renewer.start();
+      }
+
+    private void renew()
+      {
+      try
+        {
+        Connection connection = dbConf.getConnection();
+
+        try
+          {
+          connection.setAutoCommit( true );
+
+          PreparedStatement statement = connection.prepareStatement( "UPDATE " + tableName + " SET expires = ? WHERE name = ? AND permit = ? AND holder = ?" );
+
+          try
+            {
+            statement.setLong( 1, System.currentTimeMillis() + LEASE_DURATION );
+            statement.setString( 2, name );
+            statement.setInt( 3, permit );
+            statement.setString( 4, holder );
+
+            if( statement.executeUpdate() != 1 )
+              LOG.warn( "lost the lease of permit {} of: {}", permit, name );
+            }
+          finally
+            {
+            statement.close();
+            }
+          }
+        finally
+          {
+          close( connection );
+          }
+        }
+      catch( Exception exception )
+        {
+        LOG.warn( "unable to renew the lease of permit " + permit + " of: " + name, exception );
+        }
+      }
+
+    void release()
+      {
+      if( permit == -1 )
+        return;
+
+      renewer.interrupt();
+
+      try
+        {
+        Connection connection = dbConf.getConnection();
+
+        try
+          {
+          connection.setAutoCommit( true );
+
+          PreparedStatement statement = connection.prepareStatement( "UPDATE " + tableName + " SET holder = NULL, expires = NULL WHERE name = ? AND permit = ? AND holder = ?" );
+
+          try
+            {
+            statement.setString( 1, name );
+            statement.setInt( 2, permit );
+            statement.setString( 3, holder );
+            statement.executeUpdate();
+            }
+          finally
+            {
+            statement.close();
+            }
+          }
+        finally
+          {
+          close( connection );
+          }
+        }
+      catch( Exception exception )
+        {
+        LOG.warn( "unable to release permit, the lease expires instead", exception );
+        }
+      finally
+        {
+        permit = -1;
+        }
+      }
+    }
+
+  /**
+   * Locks a file per permit in a local directory, so it only limits the tasks of a single machine, like those of a
+   * job run in local mode.
+   */
+  static class FileLockSemaphore extends DBSemaphore
+    {
+    private final File directory;
+    private RandomAccessFile file;
+    private FileLock lock;
+
+    FileLockSemaphore( String name, int permits, File directory )
+      {
+      super( name, permits );
+      this.directory = directory;
+      }
+
+    boolean tryAcquire() throws IOException
+      {
+      if( !directory.exists() && !directory.mkdirs() && !directory.exists() )
+        throw new IOException( "unable to create lock directory: " + directory );
+
+      String prefix = name.replaceAll( "[^A-Za-z0-9_.-]", "_" );
+
+      for( int i = 0; i < permits; i++ )
+        {
+        RandomAccessFile candidate = new RandomAccessFile( new File( directory, prefix + "." + i + ".lock" ), "rw" );
+
+        try
+          {
+          lock = candidate.getChannel().tryLock();
+          }
+        catch( OverlappingFileLockException exception )
+          {
+          // held by another task of this process
+          lock = null;
+          }
+
+        if( lock != null )
+          {
+          file = candidate;
+          return true;
+          }
+
+        candidate.close();
+        }
+
+      return false;
+      }
+
+    void release()
+      {
+      if( file == null )
+        return;
+
+      try
+        {
+        lock.release();
+        file.close();
+        }
+      catch( IOException exception )
+        {
+        LOG.warn( "ignoring lock file close exception", exception );
+        }
+      finally
+        {
+        file = null;
+        lock = null;
+        }
+      }
+    }
+  }
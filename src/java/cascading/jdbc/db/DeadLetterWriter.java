@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.TaskAttemptID;
+
+/**
+ * Class DeadLetterWriter writes the records a database rejected, one per line, into a file of its own under a
+ * dead-letter directory. Each line holds the SQLState, the error message and the bound values, tab separated,
+ * with tabs, newlines and backslashes escaped, so the files can be read back with a TextLine Scheme.
+ * <p/>
+ * The records are written into a hidden file of the task attempt, which is renamed to a file named after the task
+ * once the attempt closed its writer, and deleted if it aborted, so failed attempts leave no dead letters behind.
+ */
+class DeadLetterWriter
+  {
+  private static final AtomicInteger sequence = new AtomicInteger();
+
+  private final JobConf job;
+  private final Path attemptPath;
+  private final Path path;
+  private FSDataOutputStream output;
+  private long count = 0;
+
+  DeadLetterWriter( JobConf job, String directory )
+    {
+    TaskAttemptID attemptID = TaskAttemptID.forName( job.get( "mapred.task.id" ) );
+    String attemptName = attemptID == null ? "local" : attemptID.toString();
+    String name = attemptID == null ? "local" : attemptID.getTaskID().toString();
+    int number = sequence.getAndIncrement();
+
+    this.job = job;
+    this.attemptPath = new Path( directory, "_" + attemptName + "-" + number );
+    this.path = new Path( directory, "part-" + name + "-" + number );
+    }
+
+  long getCount()
+    {
+    return count;
+    }
+
+  void write( DBWritable record, SQLException exception ) throws IOException
+    {
+    StringBuilder line = new StringBuilder();
+
+    append( line, exception.getSQLState() );
+    line.append( '\t' );
+    append( line, exception.getMessage() );
+
+    for( Object value : CapturedRecord.capture( record ).getValues() )
+      {
+      line.append( '\t' );
+      append( line, value == null ? "\\N" : value.toString() );
+      }
+
+    line.append( '\n' );
+
+    if( output == null )
+      output = attemptPath.getFileSystem( job ).create( attemptPath, true );
+
+    output.write( line.toString().getBytes( "UTF-8" ) );
+    count++;
+    }
+
+  /** Closes the attempt file and renames it to the task file, replacing the file of an earlier attempt. */
+  void close() throws IOException
+    {
+    if( output == null )
+      return;
+
+    output.close();
+    output = null;
+
+    FileSystem fileSystem = path.getFileSystem( job );
+
+    if( fileSystem.exists( path ) )
+      fileSystem.delete( path, false );
+
+    if( !fileSystem.rename( attemptPath, path ) )
+      throw new IOException( "unable to rename dead letters: " + attemptPath + " to: " + path );
+    }
+
+  /** Closes and deletes the attempt file, as its records may be written again by another attempt. */
+  void abort() throws IOException
+    {
+    if( output == null )
+      return;
+
+    output.close();
+    output = null;
+
+    attemptPath.getFileSystem( job ).delete( attemptPath, false );
+    }
+
+  private static void append( StringBuilder line, String value )
+    {
+    if( value == null )
+      return;
+
+    for( int i = 0; i < value.length(); i++ )
+      {
+      char c = value.charAt( i );
+
+      if( c == '\t' )
+        line.append( "\\t" );
+      else if( c == '\n' )
+        line.append( "\\n" );
+      else if( c == '\r' )
+        line.append( "\\r" );
+      else if( c == '\\' )
+        line.append( "\\\\" );
+      else
+        line.append( c );
+      }
+    }
+  }
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class DedupingRecordWriter collapses the records written to it by their key columns within a window of records,
+ * the last record written for a key replacing the earlier ones, before handing them to another RecordWriter. Each
+ * key keeps the position of its first record in the window, so the database sees every key once per batch.
+ * <p/>
+ * Single integral keys are looked up in a {@link LongIndexMap} without boxing, all others in an {@link ObjectIndexMap}.
+ * Records with a null key value are passed on as written, as null never equals a key in the database either.
+ * <p/>
+ * If update fields are given, every record is expected to bind its values like the update statement, the SET
+ * values before the update key values, as {@link cascading.jdbc.JDBCScheme} binds inserts and updates alike.
+ */
+class DedupingRecordWriter<K extends DBWritable, V> implements RecordWriter<K, V>
+  {
+  private static final Logger LOG = LoggerFactory.getLogger( DedupingRecordWriter.class );
+
+  private final RecordWriter<DBWritable, Object> writer;
+  private final int[] keyPositions;
+
+  private final CapturedRecord[] records;
+  private final boolean[] updates;
+  private final LongIndexMap longKeys;
+  private final ObjectIndexMap objectKeys;
+  private int count = 0;
+  private long collapsed = 0;
+
+  /**
+   * @param writer      the writer receiving the collapsed records, with a non null value for updates
+   * @param fieldNames  the fields written by inserts
+   * @param updateNames the fields identifying the rows to update, or null
+   * @param keyNames    the fields to collapse the records by
+   * @param window      the number of distinct records to collect before handing them on
+   */
+  DedupingRecordWriter( RecordWriter<DBWritable, Object> writer, String[] fieldNames, String[] updateNames, String[] keyNames, int window ) throws IOException
+    {
+    this.writer = writer;
+    this.keyPositions = CapturedRecord.getParameterPositions( fieldNames, updateNames, keyNames );
+    this.records = new CapturedRecord[ window ];
+    this.updates = new boolean[ window ];
+    this.longKeys = new LongIndexMap( keyPositions.length == 1 ? window : 0 );
+    this.objectKeys = new ObjectIndexMap( keyPositions.length == 1 ? 0 : window );
+    }
+
+  /** {@inheritDoc} */
+  public void write( K key, V value ) throws IOException
+    {
+    CapturedRecord record = CapturedRecord.capture( key );
+    int index = indexOf( record.getValues() );
+
+    if( index < 0 )
+      {
+      records[ count ] = record;
+      updates[ count ] = value != null;
+      count++;
+      }
+    else
+      {
+      records[ index ] = record;
+      updates[ index ] = value != null;
+      collapsed++;
+      }
+
+    if( count == records.length )
+      flush( null );
+    }
+
+  /** Returns the window position of the record with the same key, or -1 after adding the key at the next position. */
+  private int indexOf( Object[] values )
+    {
+    if( keyPositions.length == 1 )
+      {
+      Object keyValue = getKey( values, 0 );
+
+      if( keyValue == null )
+        return -1;
+
+      if( isIntegral( keyValue ) )
+        {
+        long longKey = ( (Number) keyValue ).longValue();
+        int index = longKeys.get( longKey );
+
+        if( index < 0 )
+          longKeys.put( longKey, count );
+
+        return index;
+        }
+
+      return indexOf( keyValue );
+      }
+
+    Object[] keyValues = new Object[ keyPositions.length ];
+
+    for( int i = 0; i < keyPositions.length; i++ )
+      {
+      keyValues[ i ] = getKey( values, i );
+
+      if( keyValues[ i ] == null )
+        return -1;
+      }
+
+    return indexOf( Arrays.asList( keyValues ) );
+    }
+
+  private int indexOf( Object keyValue )
+    {
+    int index = objectKeys.get( keyValue );
+
+    if( index < 0 )
+      objectKeys.put( keyValue, count );
+
+    return index;
+    }
+
+  private Object getKey( Object[] values, int index )
+    {
+    int position = keyPositions[ index ];
+
+    return position < values.length ? values[ position ] : null;
+    }
+
+  private static boolean isIntegral( Object value )
+    {
+    return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+  private void flush( Reporter reporter ) throws IOException
+    {
+    for( int i = 0; i < count; i++ )
+      {
+      writer.write( records[ i ], updates[ i ] ? Boolean.TRUE : null );
+      records[ i ] = null;
+      }
+
+    count = 0;
+    longKeys.clear();
+    objectKeys.clear();
+
+    if( reporter != null )
+      reporter.progress();
+    }
+
+  /** {@inheritDoc} */
+  public void close( Reporter reporter ) throws IOException
+    {
+    flush( reporter );
+
+    LOG.info( "collapsed {} records with duplicate keys", collapsed );
+
+    writer.close( reporter );
+    }
+  }
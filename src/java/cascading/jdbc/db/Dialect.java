@@ -0,0 +1,648 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Enum Dialect generates the SQL statements whose syntax differs between databases.
+ * <p/>
+ * The dialect is detected from the product name reported by a connection's {@link DatabaseMetaData}, or set with
+ * {@link DBConfiguration#DIALECT_PROPERTY}. Statements a dialect cannot express throw
+ * {@link UnsupportedOperationException}.
+ */
+public enum Dialect
+  {
+    HSQLDB
+      {
+      @Override
+      public String constructUpsertQuery( String table, String[] fieldNames, String[] keyNames )
+        {
+        return constructMergeQuery( table, fieldNames, keyNames, "(VALUES (" + parameters( fieldNames.length ) + ")) AS src (" + join( fieldNames ) + ")", "" );
+        }
+
+      @Override
+      public String constructUpdateFromQuery( String table, String source, String[] fieldNames, String[] keyNames )
+        {
+        return constructMergeUpdateQuery( table, source, fieldNames, keyNames );
+        }
+
+      @Override
+      public String constructCreateLikeQuery( String table, String likeTable )
+        {
+        return "CREATE TABLE " + table + " AS (SELECT * FROM " + likeTable + ") WITH NO DATA";
+        }
+      },
+    /** HSQLDB before 2.0, which has no MERGE and no CREATE TABLE AS */
+    HSQLDB18
+      {
+      @Override
+      public String constructCreateLikeQuery( String table, String likeTable )
+        {
+        return "SELECT * INTO " + table + " FROM " + likeTable + " WHERE 1 = 0";
+        }
+      },
+    H2
+      {
+      @Override
+      public String constructUpsertQuery( String table, String[] fieldNames, String[] keyNames )
+        {
+        return "MERGE INTO " + table + " (" + join( fieldNames ) + ") KEY (" + join( keyNames ) + ") VALUES (" + parameters( fieldNames.length ) + ")";
+        }
+      },
+    ORACLE
+      {
+      @Override
+      public String constructUpsertQuery( String table, String[] fieldNames, String[] keyNames )
+        {
+        StringBuilder select = new StringBuilder( "(SELECT " );
+
+        for( int i = 0; i < fieldNames.length; i++ )
+          select.append( i == 0 ? "" : ", " ).append( "? AS " ).append( fieldNames[ i ] );
+
+        return constructMergeQuery( table, fieldNames, keyNames, select.append( " FROM dual) src" ).toString(), "" );
+        }
+
+      @Override
+      public List<String> constructCreateTableQueries( String createQuery, String table, TableOptions options )
+        {
+        StringBuilder query = new StringBuilder( createQuery );
+
+        if( options.isUnlogged() )
+          query.append( " NOLOGGING" );
+
+        if( options.getFillFactor() != 0 )
+          query.append( " PCTFREE " ).append( 100 - options.getFillFactor() );
+
+        for( Map.Entry<String, String> option : options.getStorageOptions().entrySet() )
+          query.append( " " ).append( option.getKey() ).append( " " ).append( option.getValue() );
+
+        if( options.getPartitionType() != null )
+          appendPartitions( query, options, "RANGE", "LIST", "HASH", "(MAXVALUE)", "" );
+
+        return Collections.singletonList( query.toString() );
+        }
+
+      @Override
+      public String constructUpdateFromQuery( String table, String source, String[] fieldNames, String[] keyNames )
+        {
+        return constructMergeUpdateQuery( table, source, fieldNames, keyNames );
+        }
+      },
+    SQLSERVER
+      {
+      @Override
+      public String constructUpsertQuery( String table, String[] fieldNames, String[] keyNames )
+        {
+        return constructMergeQuery( table, fieldNames, keyNames, "(VALUES (" + parameters( fieldNames.length ) + ")) AS src (" + join( fieldNames ) + ")", ";" );
+        }
+
+      @Override
+      public String constructUpdateFromQuery( String table, String source, String[] fieldNames, String[] keyNames )
+        {
+        if( getValueNames( fieldNames, keyNames ).length == 0 )
+          return null;
+
+        StringBuilder query = new StringBuilder( "UPDATE " ).append( table ).append( " SET " );
+
+        appendAssignments( query, "", getValueNames( fieldNames, keyNames ) );
+        query.append( " FROM " ).append( table ).append( " JOIN " ).append( source ).append( " src ON " );
+
+        return appendKeyMatch( query, table, keyNames ).toString();
+        }
+
+      @Override
+      public String constructCreateLikeQuery( String table, String likeTable )
+        {
+        return "SELECT * INTO " + table + " FROM " + likeTable + " WHERE 1 = 0";
+        }
+
+      @Override
+      public String constructRenameQuery( String table, String newTable )
+        {
+        return "EXEC sp_rename '" + table + "', '" + newTable + "'";
+        }
+
+      @Override
+      public String constructRenameIndexQuery( String table, String index, String newIndex )
+        {
+        return "EXEC sp_rename '" + table + "." + index + "', '" + newIndex + "', 'INDEX'";
+        }
+
+      @Override
+      public int getMaxParameters()
+        {
+        return 2100;
+        }
+      },
+    POSTGRESQL
+      {
+      @Override
+      public String constructUpsertQuery( String table, String[] fieldNames, String[] keyNames )
+        {
+        StringBuilder query = new StringBuilder( constructInsertQuery( table, fieldNames ) );
+        String[] valueNames = getValueNames( fieldNames, keyNames );
+
+        query.append( " ON CONFLICT (" ).append( join( keyNames ) ).append( ")" );
+
+        if( valueNames.length == 0 )
+          return query.append( " DO NOTHING" ).toString();
+
+        query.append( " DO UPDATE SET " );
+
+        for( int i = 0; i < valueNames.length; i++ )
+          query.append( i == 0 ? "" : ", " ).append( valueNames[ i ] ).append( " = EXCLUDED." ).append( valueNames[ i ] );
+
+        return query.toString();
+        }
+
+      @Override
+      public String constructUpdateFromQuery( String table, String source, String[] fieldNames, String[] keyNames )
+        {
+        if( getValueNames( fieldNames, keyNames ).length == 0 )
+          return null;
+
+        StringBuilder query = new StringBuilder( "UPDATE " ).append( table ).append( " SET " );
+
+        appendAssignments( query, "", getValueNames( fieldNames, keyNames ) );
+        query.append( " FROM " ).append( source ).append( " src WHERE " );
+
+        return appendKeyMatch( query, table, keyNames ).toString();
+        }
+
+      @Override
+      public String constructCreateLikeQuery( String table, String likeTable )
+        {
+        // staging data need not survive a crash, so skip the write-ahead log
+        return "CREATE UNLOGGED TABLE " + table + " (LIKE " + likeTable + " INCLUDING DEFAULTS)";
+        }
+
+      @Override
+      public boolean supportsConcurrentIndexBuilds()
+        {
+        // CREATE INDEX only takes a SHARE lock, which does not conflict with itself
+        return true;
+        }
+
+      @Override
+      public List<String> constructCreateTableQueries( String createQuery, String table, TableOptions options )
+        {
+        String type = options.getPartitionType();
+
+        if( type == null )
+          return Collections.singletonList( withStorage( createQuery, options ) );
+
+        // a partitioned table holds no rows, so its partitions take the storage options
+        List<String> queries = new ArrayList<String>();
+        Object[][] values = options.getPartitionValues();
+        int partitions = options.getNumPartitions();
+
+        queries.add( createQuery + " PARTITION BY " + type + " (" + options.getPartitionColumn() + ")" );
+
+        for( int i = 0; i < partitions; i++ )
+          {
+          String bound;
+
+          if( type.equals( "RANGE" ) )
+            bound = "FROM (" + ( i == 0 ? "MINVALUE" : literal( values[ i - 1 ][ 0 ] ) ) + ") TO (" + ( i == partitions - 1 ? "MAXVALUE" : literal( values[ i ][ 0 ] ) ) + ")";
+          else if( type.equals( "LIST" ) )
+            bound = "IN (" + literals( values[ i ] ) + ")";
+          else
+            bound = "WITH (MODULUS " + partitions + ", REMAINDER " + i + ")";
+
+          queries.add( withStorage( "CREATE TABLE " + table + "_p" + i + " PARTITION OF " + table + " FOR VALUES " + bound, options ) );
+          }
+
+        return queries;
+        }
+
+      private String withStorage( String createQuery, TableOptions options )
+        {
+        StringBuilder query = new StringBuilder( createQuery );
+
+        if( options.isUnlogged() && createQuery.startsWith( "CREATE TABLE" ) )
+          query.replace( 0, "CREATE TABLE".length(), "CREATE UNLOGGED TABLE" );
+
+        Map<String, String> parameters = new LinkedHashMap<String, String>();
+
+        if( options.getFillFactor() != 0 )
+          parameters.put( "fillfactor", Integer.toString( options.getFillFactor() ) );
+
+        parameters.putAll( options.getStorageOptions() );
+
+        int count = 0;
+
+        for( Map.Entry<String, String> parameter : parameters.entrySet() )
+          query.append( count++ == 0 ? " WITH (" : ", " ).append( parameter.getKey() ).append( " = " ).append( parameter.getValue() );
+
+        return count == 0 ? query.toString() : query.append( ")" ).toString();
+        }
+      },
+    MYSQL
+      {
+      @Override
+      public String constructUpsertQuery( String table, String[] fieldNames, String[] keyNames )
+        {
+        StringBuilder query = new StringBuilder( constructInsertQuery( table, fieldNames ) );
+        String[] valueNames = getValueNames( fieldNames, keyNames );
+
+        // with only key columns there is nothing to update, assigning a key to itself keeps the row
+        if( valueNames.length == 0 )
+          valueNames = new String[]{keyNames[ 0 ]};
+
+        query.append( " ON DUPLICATE KEY UPDATE " );
+
+        for( int i = 0; i < valueNames.length; i++ )
+          query.append( i == 0 ? "" : ", " ).append( valueNames[ i ] ).append( " = VALUES(" ).append( valueNames[ i ] ).append( ")" );
+
+        return query.toString();
+        }
+
+      @Override
+      public String constructUpdateFromQuery( String table, String source, String[] fieldNames, String[] keyNames )
+        {
+        if( getValueNames( fieldNames, keyNames ).length == 0 )
+          return null;
+
+        StringBuilder query = new StringBuilder( "UPDATE " ).append( table ).append( " JOIN " ).append( source ).append( " src ON " );
+
+        appendKeyMatch( query, table, keyNames ).append( " SET " );
+
+        return appendAssignments( query, table + ".", getValueNames( fieldNames, keyNames ) ).toString();
+        }
+
+      @Override
+      public String constructCreateLikeQuery( String table, String likeTable )
+        {
+        return "CREATE TABLE " + table + " LIKE " + likeTable;
+        }
+
+      @Override
+      public String constructRenameQuery( String table, String newTable )
+        {
+        return "RENAME TABLE " + table + " TO " + newTable;
+        }
+
+      @Override
+      public String constructRenameIndexQuery( String table, String index, String newIndex )
+        {
+        return "ALTER TABLE " + table + " RENAME INDEX " + index + " TO " + newIndex;
+        }
+
+      @Override
+      public int getMaxParameters()
+        {
+        return 65535;
+        }
+
+      @Override
+      public List<String> constructCreateTableQueries( String createQuery, String table, TableOptions options )
+        {
+        StringBuilder query = new StringBuilder( createQuery );
+
+        for( Map.Entry<String, String> option : options.getStorageOptions().entrySet() )
+          query.append( " " ).append( option.getKey() ).append( "=" ).append( option.getValue() );
+
+        // the COLUMNS forms accept any column type, KEY hashes any column type
+        if( options.getPartitionType() != null )
+          appendPartitions( query, options, "RANGE COLUMNS", "LIST COLUMNS", "KEY", "(MAXVALUE)", "IN " );
+
+        return Collections.singletonList( query.toString() );
+        }
+      },
+    GENERIC;
+
+  /**
+   * Method detect returns the Dialect of the database the given connection is connected to.
+   *
+   * @param connection of type Connection
+   * @return Dialect, GENERIC if the database is not known
+   * @throws SQLException when the database metadata cannot be read
+   */
+  public static Dialect detect( Connection connection ) throws SQLException
+    {
+    DatabaseMetaData metaData = connection.getMetaData();
+    String product = metaData.getDatabaseProductName().toLowerCase();
+
+    if( product.contains( "hsql" ) )
+      return metaData.getDatabaseMajorVersion() >= 2 ? HSQLDB : HSQLDB18;
+    if( product.contains( "h2" ) )
+      return H2;
+    if( product.contains( "oracle" ) )
+      return ORACLE;
+    if( product.contains( "microsoft sql server" ) )
+      return SQLSERVER;
+    if( product.contains( "postgresql" ) )
+      return POSTGRESQL;
+    if( product.contains( "mysql" ) || product.contains( "mariadb" ) )
+      return MYSQL;
+
+    return GENERIC;
+    }
+
+  /**
+   * Method constructUpsertQuery returns a statement inserting a row, or updating the row with the same key
+   * values if one exists. Its parameters are the values of fieldNames, in order.
+   *
+   * @param table      the table to insert into or update
+   * @param fieldNames all the fields of a row
+   * @param keyNames   the fields identifying a row, a subset of fieldNames
+   * @return String
+   */
+  public String constructUpsertQuery( String table, String[] fieldNames, String[] keyNames )
+    {
+    throw new UnsupportedOperationException( "upsert is not supported by the " + this + " dialect" );
+    }
+
+  /**
+   * Method constructUpdateFromQuery returns a single statement updating the rows of a table from the rows of another
+   * table with the same key values, so the database joins both tables instead of executing one update per row.
+   * Rows of the source without a match are ignored, and if several rows of the source have the same key values
+   * it is undefined which of them is applied, or the statement may fail.
+   * <p/>
+   * The default uses a correlated subquery per column, which any database supports, dialects use their
+   * {@code UPDATE ... FROM} or {@code MERGE} syntax.
+   *
+   * @param table      the table to update
+   * @param source     the table holding the new values
+   * @param fieldNames all the fields of a row
+   * @param keyNames   the fields identifying a row, a subset of fieldNames
+   * @return String, or null if there are no fields besides the keys to update
+   */
+  public String constructUpdateFromQuery( String table, String source, String[] fieldNames, String[] keyNames )
+    {
+    String[] valueNames = getValueNames( fieldNames, keyNames );
+
+    if( valueNames.length == 0 )
+      return null;
+
+    StringBuilder match = appendKeyMatch( new StringBuilder( " FROM " ).append( source ).append( " src WHERE " ), table, keyNames );
+    StringBuilder query = new StringBuilder( "UPDATE " ).append( table ).append( " SET " );
+
+    for( int i = 0; i < valueNames.length; i++ )
+      query.append( i == 0 ? "" : ", " ).append( valueNames[ i ] ).append( " = (SELECT src." ).append( valueNames[ i ] ).append( match ).append( ")" );
+
+    return query.append( " WHERE EXISTS (SELECT 1" ).append( match ).append( ")" ).toString();
+    }
+
+  /**
+   * Method constructCreateLikeQuery returns a statement creating an empty table with the columns of another table.
+   *
+   * @param table     the table to create
+   * @param likeTable the table whose columns are copied
+   * @return String
+   */
+  public String constructCreateLikeQuery( String table, String likeTable )
+    {
+    return "CREATE TABLE " + table + " AS SELECT * FROM " + likeTable + " WHERE 1 = 0";
+    }
+
+  /**
+   * Method constructDropQuery returns a statement dropping the given table.
+   *
+   * @param table the table to drop
+   * @return String
+   */
+  public String constructDropQuery( String table )
+    {
+    return "DROP TABLE " + table;
+    }
+
+  /**
+   * Method constructCreateTableQueries returns the statements creating a table with the given storage options and
+   * partitioning, starting from the plain create statement of the table. Options the dialect has no syntax for are
+   * ignored, so the default returns the plain statement.
+   *
+   * @param createQuery the create statement without any options, starting with {@code CREATE TABLE}
+   * @param table       the table to create
+   * @param options     the storage options and partitioning
+   * @return List<String>, executed in order
+   */
+  public List<String> constructCreateTableQueries( String createQuery, String table, TableOptions options )
+    {
+    return Collections.singletonList( createQuery );
+    }
+
+  /**
+   * Method constructRenameQuery returns a statement renaming the given table.
+   *
+   * @param table    the table to rename
+   * @param newTable the new name of the table
+   * @return String
+   */
+  public String constructRenameQuery( String table, String newTable )
+    {
+    return "ALTER TABLE " + table + " RENAME TO " + newTable;
+    }
+
+  /**
+   * Method constructRenameIndexQuery returns a statement renaming an index of the given table.
+   *
+   * @param table    the table of the index
+   * @param index    the index to rename
+   * @param newIndex the new name of the index
+   * @return String
+   */
+  public String constructRenameIndexQuery( String table, String index, String newIndex )
+    {
+    return "ALTER INDEX " + index + " RENAME TO " + newIndex;
+    }
+
+  /**
+   * Method supportsConcurrentIndexBuilds returns true if several indexes of the same table can be built at once
+   * over different connections, instead of waiting on each other's table locks.
+   *
+   * @return boolean
+   */
+  public boolean supportsConcurrentIndexBuilds()
+    {
+    return false;
+    }
+
+  /**
+   * Method getMaxParameters returns the number of bind parameters a single statement may have, which limits the
+   * rows of a multi-row insert. The default is the limit of older PostgreSQL drivers, the lowest common one.
+   *
+   * @return int
+   */
+  public int getMaxParameters()
+    {
+    return 32767;
+    }
+
+  /**
+   * Appends an inline partition clause, {@code PARTITION BY type (column) (PARTITION p0 VALUES ..., ...)}, with
+   * the given keywords for each partitioning method, or {@code PARTITIONS n} for hash partitioning.
+   */
+  static void appendPartitions( StringBuilder query, TableOptions options, String range, String list, String hash, String maxValue, String in )
+    {
+    String type = options.getPartitionType();
+    Object[][] values = options.getPartitionValues();
+    int partitions = options.getNumPartitions();
+    String method = type.equals( "RANGE" ) ? range : type.equals( "LIST" ) ? list : hash;
+
+    query.append( " PARTITION BY " ).append( method ).append( " (" ).append( options.getPartitionColumn() ).append( ")" );
+
+    if( type.equals( "HASH" ) )
+      {
+      query.append( " PARTITIONS " ).append( partitions );
+      return;
+      }
+
+    for( int i = 0; i < partitions; i++ )
+      {
+      query.append( i == 0 ? " (" : ", " ).append( "PARTITION p" ).append( i ).append( " VALUES " );
+
+      if( type.equals( "LIST" ) )
+        query.append( in ).append( "(" ).append( literals( values[ i ] ) ).append( ")" );
+      else
+        query.append( "LESS THAN " ).append( i == partitions - 1 ? maxValue : "(" + literal( values[ i ][ 0 ] ) + ")" );
+      }
+
+    query.append( ")" );
+    }
+
+  /** Returns the given value as a SQL literal, numbers as they are and anything else as a quoted string. */
+  static String literal( Object value )
+    {
+    if( value == null )
+      return "NULL";
+
+    if( value instanceof Double && (Double) value == Math.rint( (Double) value ) && !( (Double) value ).isInfinite() )
+      return Long.toString( ( (Double) value ).longValue() );
+
+    if( value instanceof Number )
+      return value.toString();
+
+    return "'" + value.toString().replace( "'", "''" ) + "'";
+    }
+
+  static String literals( Object[] values )
+    {
+    StringBuilder literals = new StringBuilder();
+
+    for( int i = 0; i < values.length; i++ )
+      literals.append( i == 0 ? "" : ", " ).append( literal( values[ i ] ) );
+
+    return literals.toString();
+    }
+
+  static String constructMergeQuery( String table, String[] fieldNames, String[] keyNames, String source, String terminator )
+    {
+    StringBuilder query = new StringBuilder();
+
+    query.append( "MERGE INTO " ).append( table ).append( " USING " ).append( source ).append( " ON (" );
+
+    for( int i = 0; i < keyNames.length; i++ )
+      query.append( i == 0 ? "" : " AND " ).append( table ).append( "." ).append( keyNames[ i ] ).append( " = src." ).append( keyNames[ i ] );
+
+    query.append( ")" );
+
+    String[] valueNames = getValueNames( fieldNames, keyNames );
+
+    if( valueNames.length != 0 )
+      {
+      query.append( " WHEN MATCHED THEN UPDATE SET " );
+
+      for( int i = 0; i < valueNames.length; i++ )
+        query.append( i == 0 ? "" : ", " ).append( valueNames[ i ] ).append( " = src." ).append( valueNames[ i ] );
+      }
+
+    query.append( " WHEN NOT MATCHED THEN INSERT (" ).append( join( fieldNames ) ).append( ") VALUES (" );
+
+    for( int i = 0; i < fieldNames.length; i++ )
+      query.append( i == 0 ? "" : ", " ).append( "src." ).append( fieldNames[ i ] );
+
+    return query.append( ")" ).append( terminator ).toString();
+    }
+
+  static String constructMergeUpdateQuery( String table, String source, String[] fieldNames, String[] keyNames )
+    {
+    String[] valueNames = getValueNames( fieldNames, keyNames );
+
+    if( valueNames.length == 0 )
+      return null;
+
+    StringBuilder query = new StringBuilder( "MERGE INTO " ).append( table ).append( " USING " ).append( source ).append( " src ON (" );
+
+    appendKeyMatch( query, table, keyNames ).append( ") WHEN MATCHED THEN UPDATE SET " );
+
+    return appendAssignments( query, "", valueNames ).toString();
+    }
+
+  static StringBuilder appendKeyMatch( StringBuilder query, String table, String[] keyNames )
+    {
+    for( int i = 0; i < keyNames.length; i++ )
+      query.append( i == 0 ? "" : " AND " ).append( table ).append( "." ).append( keyNames[ i ] ).append( " = src." ).append( keyNames[ i ] );
+
+    return query;
+    }
+
+  static StringBuilder appendAssignments( StringBuilder query, String prefix, String[] valueNames )
+    {
+    for( int i = 0; i < valueNames.length; i++ )
+      query.append( i == 0 ? "" : ", " ).append( prefix ).append( valueNames[ i ] ).append( " = src." ).append( valueNames[ i ] );
+
+    return query;
+    }
+
+  static String constructInsertQuery( String table, String[] fieldNames )
+    {
+    return "INSERT INTO " + table + " (" + join( fieldNames ) + ") VALUES (" + parameters( fieldNames.length ) + ")";
+    }
+
+  static String[] getValueNames( String[] fieldNames, String[] keyNames )
+    {
+    Set<String> keys = new HashSet<String>( Arrays.asList( keyNames ) );
+    String[] valueNames = new String[fieldNames.length];
+    int count = 0;
+
+    for( String fieldName : fieldNames )
+      {
+      if( !keys.contains( fieldName ) )
+        valueNames[ count++ ] = fieldName;
+      }
+
+    return Arrays.copyOf( valueNames, count );
+    }
+
+  static String join( String[] names )
+    {
+    StringBuilder joined = new StringBuilder();
+
+    for( int i = 0; i < names.length; i++ )
+      joined.append( i == 0 ? "" : ", " ).append( names[ i ] );
+
+    return joined.toString();
+    }
+
+  static String parameters( int count )
+    {
+    StringBuilder parameters = new StringBuilder();
+
+    for( int i = 0; i < count; i++ )
+      parameters.append( i == 0 ? "?" : ", ?" );
+
+    return parameters.toString();
+    }
+  }
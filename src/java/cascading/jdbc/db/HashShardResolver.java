@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+/**
+ * Class HashShardResolver spreads records over the shards by the hash code of their shard field value. The hash
+ * codes of the value types must not change between JVMs, as they do not for strings and numbers, and every writer
+ * must see the values with the same type.
+ */
+public class HashShardResolver implements ShardResolver
+  {
+  private static final long serialVersionUID = 1L;
+
+  public int getShard( Object value, int shards )
+    {
+    if( value == null )
+      return 0;
+
+    return ( value.hashCode() & Integer.MAX_VALUE ) % shards;
+    }
+  }
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.util.Arrays;
+
+/**
+ * Class LongIndexMap is an open addressing hash map from primitive long keys to non negative int values, so numeric
+ * keys are looked up without boxing. It doubles its capacity once half full, and {@link #clear()} keeps the capacity.
+ */
+class LongIndexMap
+  {
+  private long[] keys;
+  /** Each value plus one, zero marking an empty slot */
+  private int[] values;
+  private int size = 0;
+
+  LongIndexMap( int expectedSize )
+    {
+    int capacity = Integer.highestOneBit( Math.max( 8, expectedSize ) * 2 - 1 ) * 2;
+
+    keys = new long[ capacity ];
+    values = new int[ capacity ];
+    }
+
+  /** @return the number of keys in this map */
+  int size()
+    {
+    return size;
+    }
+
+  /** Returns the value of the given key, or -1 if the key is not in this map. */
+  int get( long key )
+    {
+    int slot = find( keys, values, key );
+
+    return values[ slot ] - 1;
+    }
+
+  /** Puts the given key and value, replacing the value of an existing key. */
+  void put( long key, int value )
+    {
+    int slot = find( keys, values, key );
+
+    if( values[ slot ] == 0 )
+      size++;
+
+    keys[ slot ] = key;
+    values[ slot ] = value + 1;
+
+    if( size * 2 > keys.length )
+      resize();
+    }
+
+  void clear()
+    {
+    if( size == 0 )
+      return;
+
+    Arrays.fill( values, 0 );
+    size = 0;
+    }
+
+  private static int find( long[] keys, int[] values, long key )
+    {
+    int mask = keys.length - 1;
+    int slot = hash( key ) & mask;
+
+    while( values[ slot ] != 0 && keys[ slot ] != key )
+      slot = ( slot + 1 ) & mask;
+
+    return slot;
+    }
+
+  private static int hash( long key )
+    {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+
+    return (int) key;
+    }
+
+  private void resize()
+    {
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+
+    keys = new long[ oldKeys.length * 2 ];
+    values = new int[ oldValues.length * 2 ];
+
+    for( int i = 0; i < oldKeys.length; i++ )
+      {
+      if( oldValues[ i ] == 0 )
+        continue;
+
+      int slot = find( keys, values, oldKeys[ i ] );
+
+      keys[ slot ] = oldKeys[ i ];
+      values[ slot ] = oldValues[ i ];
+      }
+    }
+  }
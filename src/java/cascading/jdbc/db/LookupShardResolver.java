@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class LookupShardResolver assigns records to shards with a map from shard field values to shard indexes,
+ * falling back to a default shard for values not in the map. Values are looked up by their string form, so the
+ * map does not depend on the type the values are written with.
+ */
+public class LookupShardResolver implements ShardResolver
+  {
+  private static final long serialVersionUID = 1L;
+
+  private final HashMap<String, Integer> shards;
+  private final int defaultShard;
+
+  /**
+   * @param shards       the shard index of each value
+   * @param defaultShard the shard of values not in the map, or -1 to reject them
+   */
+  public LookupShardResolver( Map<?, Integer> shards, int defaultShard )
+    {
+    this.shards = new HashMap<String, Integer>();
+    this.defaultShard = defaultShard;
+
+    for( Map.Entry<?, Integer> entry : shards.entrySet() )
+      this.shards.put( String.valueOf( entry.getKey() ), entry.getValue() );
+    }
+
+  public int getShard( Object value, int shards )
+    {
+    Integer shard = this.shards.get( String.valueOf( value ) );
+
+    return shard != null ? shard : defaultShard;
+    }
+  }
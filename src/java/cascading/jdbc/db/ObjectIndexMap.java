@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.util.Arrays;
+
+/**
+ * Class ObjectIndexMap is an open addressing hash map from object keys to non negative int values, the counterpart
+ * of {@link LongIndexMap} for keys that are not integral numbers. Keys must not be null.
+ */
+class ObjectIndexMap
+  {
+  private Object[] keys;
+  /** Each value plus one, zero marking an empty slot */
+  private int[] values;
+  private int size = 0;
+
+  ObjectIndexMap( int expectedSize )
+    {
+    int capacity = Integer.highestOneBit( Math.max( 8, expectedSize ) * 2 - 1 ) * 2;
+
+    keys = new Object[ capacity ];
+    values = new int[ capacity ];
+    }
+
+  /** @return the number of keys in this map */
+  int size()
+    {
+    return size;
+    }
+
+  /** Returns the value of the given key, or -1 if the key is not in this map. */
+  int get( Object key )
+    {
+    int slot = find( keys, values, key );
+
+    return values[ slot ] - 1;
+    }
+
+  /** Puts the given key and value, replacing the value of an existing key. */
+  void put( Object key, int value )
+    {
+    int slot = find( keys, values, key );
+
+    if( values[ slot ] == 0 )
+      size++;
+
+    keys[ slot ] = key;
+    values[ slot ] = value + 1;
+
+    if( size * 2 > keys.length )
+      resize();
+    }
+
+  void clear()
+    {
+    if( size == 0 )
+      return;
+
+    // release the keys as well, they may be large
+    Arrays.fill( keys, null );
+    Arrays.fill( values, 0 );
+    size = 0;
+    }
+
+  private static int find( Object[] keys, int[] values, Object key )
+    {
+    int mask = keys.length - 1;
+    int slot = hash( key ) & mask;
+
+    while( values[ slot ] != 0 && !keys[ slot ].equals( key ) )
+      slot = ( slot + 1 ) & mask;
+
+    return slot;
+    }
+
+  private static int hash( Object key )
+    {
+    int hash = key.hashCode();
+
+    // spread the high bits, hash codes of small numbers and short strings differ mostly in their low bits
+    return hash ^ ( hash >>> 16 );
+    }
+
+  private void resize()
+    {
+    Object[] oldKeys = keys;
+    int[] oldValues = values;
+
+    keys = new Object[ oldKeys.length * 2 ];
+    values = new int[ oldValues.length * 2 ];
+
+    for( int i = 0; i < oldKeys.length; i++ )
+      {
+      if( oldValues[ i ] == 0 )
+        continue;
+
+      int slot = find( keys, values, oldKeys[ i ] );
+
+      keys[ slot ] = oldKeys[ i ];
+      values[ slot ] = oldValues[ i ];
+      }
+    }
+  }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+
+/**
+ * Class ParameterOffsetHandler shifts the parameter index of every {@code setXXX( int parameterIndex, ... )} call
+ * on a {@link PreparedStatement} by a given offset, so that a {@link DBWritable} binding a single row starting at
+ * index 1 can bind any of the rows of a multi-row statement.
+ */
+class ParameterOffsetHandler implements InvocationHandler
+  {
+  private final PreparedStatement statement;
+  private int offset = 0;
+
+  /**
+   * Method wrap returns a PreparedStatement whose parameter indices are shifted by the handler's offset.
+   *
+   * @param handler of type ParameterOffsetHandler
+   * @return PreparedStatement
+   */
+  static PreparedStatement wrap( ParameterOffsetHandler handler )
+    {
+    return (PreparedStatement) Proxy.newProxyInstance( PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, handler );
+    }
+
+  ParameterOffsetHandler( PreparedStatement statement )
+    {
+    this.statement = statement;
+    }
+
+  void setOffset( int offset )
+    {
+    this.offset = offset;
+    }
+
+  public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable
+    {
+    Class<?>[] types = method.getParameterTypes();
+
+    if( offset != 0 && types.length >= 2 && types[ 0 ] == int.class && method.getName().startsWith( "set" ) )
+      args[ 0 ] = (Integer) args[ 0 ] + offset;
+
+    try
+      {
+      return method.invoke( statement, args );
+      }
+    catch( InvocationTargetException exception )
+      {
+      throw exception.getCause();
+      }
+    }
+  }
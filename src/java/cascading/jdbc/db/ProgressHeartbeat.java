@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import org.apache.hadoop.util.Progressable;
+
+/**
+ * Class ProgressHeartbeat is a daemon thread that periodically reports progress while the owning task
+ * is blocked inside the database, so long running statements do not trip {@code mapred.task.timeout}.
+ */
+class ProgressHeartbeat extends Thread
+  {
+  private final Progressable progressable;
+  private final long interval;
+  private volatile boolean running = true;
+
+  ProgressHeartbeat( String name, Progressable progressable, long interval )
+    {
+    super( name );
+    this.progressable = progressable;
+    this.interval = interval;
+
+    setDaemon( true );
+    }
+
+  @Override
+  public void run()
+    {
+    while( running )
+      {
+      try
+        {
+        sleep( interval );
+        }
+      catch( InterruptedException exception )
+        {
+        return;
+        }
+
+      if( running )
+        progressable.progress();
+      }
+    }
+
+  /** Stops the heartbeat, no progress will be reported after this method returns. */
+  void halt()
+    {
+    running = false;
+    interrupt();
+    }
+  }
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+/**
+ * Class RangeShardResolver assigns records to shards by ranges of their shard field value. Given the ascending
+ * exclusive upper bounds of all shards but the last, a value belongs to the first shard whose bound it is below,
+ * or to the last shard. Null values belong to the first shard.
+ */
+public class RangeShardResolver implements ShardResolver
+  {
+  private static final long serialVersionUID = 1L;
+
+  private final Comparable<?>[] upperBounds;
+
+  /**
+   * @param upperBounds the exclusive upper bound of each shard but the last, in ascending order
+   */
+  public RangeShardResolver( Comparable<?>... upperBounds )
+    {
+    for( int i = 1; i < upperBounds.length; i++ )
+      {
+      if( CapturedRecord.compareValues( upperBounds[ i - 1 ], upperBounds[ i ] ) >= 0 )
+        throw new IllegalArgumentException( "upper bounds must be ascending" );
+      }
+
+    this.upperBounds = upperBounds;
+    }
+
+  public int getShard( Object value, int shards )
+    {
+    if( upperBounds.length != shards - 1 )
+      throw new IllegalStateException( "expected " + ( shards - 1 ) + " upper bounds, got: " + upperBounds.length );
+
+    if( value == null )
+      return 0;
+
+    int low = 0;
+    int high = upperBounds.length;
+
+    // the first bound above the value
+    while( low < high )
+      {
+      int middle = ( low + high ) >>> 1;
+
+      if( CapturedRecord.compareValues( value, upperBounds[ middle ] ) < 0 )
+        high = middle;
+      else
+        low = middle + 1;
+      }
+
+    return low;
+    }
+  }
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class RateLimiter is a token bucket limiting the rows a task writes per second, shared by all connections of the
+ * task's record writer. The bucket holds at most a second's worth of rows.
+ * <p/>
+ * If a feedback query is given, like one returning the replication lag of the database in seconds, it is executed
+ * at most every {@link #FEEDBACK_INTERVAL} milliseconds, and the rate is lowered in proportion to how close its result
+ * comes to the given limit, down to a tenth of the rate once the limit is reached. The query runs over a connection
+ * of its own, so a failing query cannot abort the transaction of a writer.
+ */
+class RateLimiter
+  {
+  private static final Logger LOG = LoggerFactory.getLogger( RateLimiter.class );
+
+  /** The number of milliseconds between executions of the feedback query */
+  static final long FEEDBACK_INTERVAL = 10 * 1000;
+
+  private final double rowsPerSecond;
+  private final DBConfiguration dbConf;
+  private final String feedbackQuery;
+  private final double feedbackLimit;
+
+  private double factor = 1.0;
+  private double tokens;
+  private long lastRefill = System.nanoTime();
+  private long lastFeedback = 0;
+
+  RateLimiter( double rowsPerSecond, DBConfiguration dbConf, String feedbackQuery, double feedbackLimit )
+    {
+    this.rowsPerSecond = rowsPerSecond;
+    this.dbConf = dbConf;
+    this.feedbackQuery = feedbackQuery;
+    this.feedbackLimit = feedbackLimit;
+    this.tokens = rowsPerSecond;
+    }
+
+  /** Blocks until the given number of rows may be written, running the feedback query first when it is due. */
+  synchronized void acquire( long rows ) throws IOException
+    {
+    if( feedbackQuery != null && System.currentTimeMillis() - lastFeedback >= FEEDBACK_INTERVAL )
+      updateFactor();
+
+    double rate = rowsPerSecond * factor;
+
+    refill( rate );
+
+    tokens -= rows;
+
+    if( tokens >= 0 )
+      return;
+
+    // wait until the debt is paid back, so batches larger than the bucket still pass at the set rate
+    long waitMillis = (long) Math.ceil( -tokens / rate * 1000 );
+
+    try
+      {
+      Thread.sleep( waitMillis );
+      }
+    catch( InterruptedException exception )
+      {
+      throw new IOException( "interrupted while throttling writes" );
+      }
+
+    refill( rate );
+    }
+
+  private void refill( double rate )
+    {
+    long now = System.nanoTime();
+
+    tokens = Math.min( rate, tokens + ( now - lastRefill ) / 1e9 * rate );
+    lastRefill = now;
+    }
+
+  private void updateFactor() throws IOException
+    {
+    lastFeedback = System.currentTimeMillis();
+
+    Connection connection = dbConf.getConnection();
+
+    try
+      {
+      Statement statement = connection.createStatement();
+
+      try
+        {
+        ResultSet results = statement.executeQuery( feedbackQuery );
+
+        try
+          {
+          if( !results.next() )
+            return;
+
+          double value = results.getDouble( 1 );
+          double newFactor = Math.max( 0.1, 1.0 - 0.9 * Math.max( 0, value ) / feedbackLimit );
+
+          if( newFactor != factor )
+            LOG.info( "feedback value: {}, writing at {} of the rate limit", value, newFactor );
+
+          factor = newFactor;
+          }
+        finally
+          {
+          results.close();
+          }
+        }
+      finally
+        {
+        statement.close();
+        }
+      }
+    catch( SQLException exception )
+      {
+      LOG.warn( "unable to execute feedback query, keeping the current rate", exception );
+      }
+    finally
+      {
+      DBSemaphore.close( connection );
+      }
+    }
+  }
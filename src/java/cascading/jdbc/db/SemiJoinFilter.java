@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.SortedSet;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.util.bloom.BloomFilter;
+import org.apache.hadoop.util.bloom.Key;
+import org.apache.hadoop.util.hash.Hash;
+
+/**
+ * Class SemiJoinFilter holds the keys of the other side of a semi-join, so that a {@link DBInputFormat} only
+ * reads the rows whose key column matches one of them.
+ * <p/>
+ * A small key set is kept exactly, sorted, and pushed into the select and count queries as
+ * {@code key IN (...)} conditions of at most {@link #IN_LIST_SIZE} literals each, so non matching rows never
+ * leave the database. A larger key set is kept as a Bloom filter with the given false positive rate, which the
+ * record reader applies to each row's key before handing it on. The Bloom filter can also be built one key at a
+ * time, so the keys never have to be held in memory.
+ * <p/>
+ * Keys are compared by their normalized string form, see {@link #normalize(Object)}.
+ */
+public class SemiJoinFilter implements Writable
+  {
+  /** The maximum number of literals in each pushed down IN list */
+  public static final int IN_LIST_SIZE = 1000;
+
+  private String[] keys;
+  private BloomFilter bloomFilter;
+
+  public SemiJoinFilter()
+    {
+    }
+
+  /**
+   * Constructor SemiJoinFilter creates a new SemiJoinFilter instance.
+   *
+   * @param keys              the distinct keys of the other side
+   * @param maxExactKeys      the largest number of keys kept exactly and pushed into the queries
+   * @param falsePositiveRate the false positive rate of the Bloom filter used for more keys
+   */
+  public SemiJoinFilter( SortedSet<String> keys, int maxExactKeys, double falsePositiveRate )
+    {
+    if( keys.size() <= maxExactKeys )
+      {
+      this.keys = keys.toArray( new String[keys.size()] );
+      return;
+      }
+
+    bloomFilter = createBloomFilter( keys.size(), falsePositiveRate );
+
+    for( String key : keys )
+      bloomFilter.add( toKey( key ) );
+    }
+
+  /**
+   * Constructor SemiJoinFilter creates a new, empty, SemiJoinFilter instance keeping its keys as a Bloom filter,
+   * filled with {@link #add(String)}.
+   *
+   * @param expectedKeys      the number of keys the false positive rate is kept for
+   * @param falsePositiveRate the false positive rate of the Bloom filter
+   */
+  public SemiJoinFilter( long expectedKeys, double falsePositiveRate )
+    {
+    bloomFilter = createBloomFilter( expectedKeys, falsePositiveRate );
+    }
+
+  private static BloomFilter createBloomFilter( long expectedKeys, double falsePositiveRate )
+    {
+    if( falsePositiveRate <= 0 || falsePositiveRate >= 1 )
+      throw new IllegalArgumentException( "falsePositiveRate must be between 0 and 1" );
+
+    long count = Math.max( 1, expectedKeys );
+    double bits = Math.ceil( -count * Math.log( falsePositiveRate ) / ( Math.log( 2 ) * Math.log( 2 ) ) );
+    int vectorSize = (int) Math.min( Integer.MAX_VALUE, bits );
+    int hashes = Math.max( 1, (int) Math.round( (double) vectorSize / count * Math.log( 2 ) ) );
+
+    return new BloomFilter( vectorSize, hashes, Hash.MURMUR_HASH );
+    }
+
+  /**
+   * Method add adds the given key to the Bloom filter.
+   *
+   * @param key the normalized key
+   * @return true if the key was certainly not added before
+   */
+  public boolean add( String key )
+    {
+    if( isExact() )
+      throw new IllegalStateException( "exact keys cannot be added to" );
+
+    Key bloomKey = toKey( key );
+
+    if( bloomFilter.membershipTest( bloomKey ) )
+      return false;
+
+    bloomFilter.add( bloomKey );
+
+    return true;
+    }
+
+  /**
+   * Method normalize returns the string form keys are compared by. Numbers are written in plain notation without
+   * trailing zeros, so a NUMERIC 5.00 read from the database matches the key 5, other values by their string
+   * representation.
+   *
+   * @param value the key, or the value of the key column
+   * @return String, or null if the value is null
+   */
+  public static String normalize( Object value )
+    {
+    if( value == null )
+      return null;
+
+    if( !( value instanceof Number ) )
+      return value.toString();
+
+    try
+      {
+      BigDecimal number = new BigDecimal( value.toString() );
+
+      // stripTrailingZeros leaves the zeros of zero alone
+      if( number.signum() == 0 )
+        return "0";
+
+      return number.stripTrailingZeros().toPlainString();
+      }
+    catch( NumberFormatException exception )
+      {
+      return value.toString(); // NaN or infinity
+      }
+    }
+
+  /**
+   * Method isExact returns true if the keys are kept exactly and pushed into the queries.
+   *
+   * @return boolean
+   */
+  public boolean isExact()
+    {
+    return keys != null;
+    }
+
+  /**
+   * Method mightContain returns false if the given key is certainly not one of the keys.
+   *
+   * @param key of type String
+   * @return boolean
+   */
+  public boolean mightContain( String key )
+    {
+    if( key == null )
+      return false;
+
+    if( isExact() )
+      return Arrays.binarySearch( keys, key ) >= 0;
+
+    return bloomFilter.membershipTest( toKey( key ) );
+    }
+
+  /**
+   * Method getCondition returns the condition selecting the rows whose column matches one of the exact keys.
+   *
+   * @param column the key column name
+   * @return String
+   */
+  public String getCondition( String column )
+    {
+    if( !isExact() )
+      throw new IllegalStateException( "keys are not exact" );
+
+    if( keys.length == 0 )
+      return "1 = 0";
+
+    StringBuilder condition = new StringBuilder();
+
+    for( int i = 0; i < keys.length; i++ )
+      {
+      if( i % IN_LIST_SIZE == 0 )
+        {
+        if( i != 0 )
+          condition.append( ") OR " );
+
+        condition.append( column ).append( " IN (" );
+        }
+      else
+        {
+        condition.append( ", " );
+        }
+
+      condition.append( '\'' ).append( keys[ i ].replace( "'", "''" ) ).append( '\'' );
+      }
+
+    return condition.append( ")" ).toString();
+    }
+
+  private static Key toKey( String key )
+    {
+    try
+      {
+      return new Key( key.getBytes( "UTF-8" ) );
+      }
+    catch( UnsupportedEncodingException exception )
+      {
+      throw new RuntimeException( exception );
+      }
+    }
+
+  /**
+   * Method read reads a SemiJoinFilter from the given path.
+   *
+   * @param job  the job
+   * @param path the path written by {@link #write(JobConf, Path)}
+   * @return SemiJoinFilter
+   * @throws IOException when the path cannot be read
+   */
+  public static SemiJoinFilter read( JobConf job, Path path ) throws IOException
+    {
+    FSDataInputStream input = path.getFileSystem( job ).open( path );
+
+    try
+      {
+      SemiJoinFilter filter = new SemiJoinFilter();
+
+      filter.readFields( input );
+
+      return filter;
+      }
+    finally
+      {
+      input.close();
+      }
+    }
+
+  /**
+   * Method write writes this SemiJoinFilter to the given path, replacing any previous file.
+   *
+   * @param job  the job
+   * @param path the path to write to
+   * @throws IOException when the path cannot be written
+   */
+  public void write( JobConf job, Path path ) throws IOException
+    {
+    FileSystem fileSystem = path.getFileSystem( job );
+    FSDataOutputStream output = fileSystem.create( path, true );
+
+    try
+      {
+      write( output );
+      }
+    finally
+      {
+      output.close();
+      }
+    }
+
+  /** {@inheritDoc} */
+  public void readFields( DataInput input ) throws IOException
+    {
+    if( input.readBoolean() )
+      {
+      keys = new String[input.readInt()];
+      bloomFilter = null;
+
+      for( int i = 0; i < keys.length; i++ )
+        keys[ i ] = Text.readString( input );
+      }
+    else
+      {
+      keys = null;
+      bloomFilter = new BloomFilter();
+      bloomFilter.readFields( input );
+      }
+    }
+
+  /** {@inheritDoc} */
+  public void write( DataOutput output ) throws IOException
+    {
+    output.writeBoolean( isExact() );
+
+    if( isExact() )
+      {
+      output.writeInt( keys.length );
+
+      for( String key : keys )
+        Text.writeString( output, key );
+      }
+    else
+      {
+      bloomFilter.write( output );
+      }
+    }
+  }
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.Serializable;
+
+/**
+ * Interface ShardResolver chooses the shard, out of a given number of shards, a record is written to, from the
+ * value of its shard field. Resolvers are serialized into the job configuration.
+ *
+ * @see HashShardResolver
+ * @see RangeShardResolver
+ * @see LookupShardResolver
+ */
+public interface ShardResolver extends Serializable
+  {
+  /**
+   * Returns the index of the shard the record with the given shard field value belongs to.
+   *
+   * @param value  the value of the shard field, may be null
+   * @param shards the number of shards
+   * @return the shard index, from 0 to shards - 1, or -1 if the value belongs to no shard
+   */
+  int getShard( Object value, int shards );
+  }
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Class ShardedRecordWriter routes each record to the RecordWriter of the shard a {@link ShardResolver} chooses
+ * from the value the record binds for the shard field. Each shard writer batches and flushes on its own.
+ */
+class ShardedRecordWriter<K extends DBWritable, V> implements RecordWriter<K, V>
+  {
+  private final List<RecordWriter<K, V>> writers;
+  private final ShardResolver resolver;
+  private final int shardPosition;
+
+  /**
+   * @param writers       the writer of each shard, by shard index
+   * @param resolver      the resolver choosing the shard of each record
+   * @param shardPosition the parameter position of the shard field in the records written
+   */
+  ShardedRecordWriter( List<RecordWriter<K, V>> writers, ShardResolver resolver, int shardPosition )
+    {
+    this.writers = writers;
+    this.resolver = resolver;
+    this.shardPosition = shardPosition;
+    }
+
+  /** {@inheritDoc} */
+  public void write( K key, V value ) throws IOException
+    {
+    Object[] values = CapturedRecord.capture( key ).getValues();
+    Object shardValue = shardPosition < values.length ? values[ shardPosition ] : null;
+    int shard = resolver.getShard( shardValue, writers.size() );
+
+    if( shard < 0 || shard >= writers.size() )
+      throw new IOException( "no shard for value: " + shardValue + ", resolved to: " + shard );
+
+    writers.get( shard ).write( key, value );
+    }
+
+  /** {@inheritDoc} */
+  public void close( Reporter reporter ) throws IOException
+    {
+    IOException failure = null;
+
+    // close every shard, even if one fails, so no connection is left open
+    for( RecordWriter<K, V> writer : writers )
+      {
+      try
+        {
+        writer.close( reporter );
+        }
+      catch( IOException exception )
+        {
+        if( failure == null )
+          failure = exception;
+        }
+      }
+
+    if( failure != null )
+      throw failure;
+    }
+  }
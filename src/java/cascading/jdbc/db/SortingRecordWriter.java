@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class SortingRecordWriter buffers the records written to it and hands them to another RecordWriter ordered by
+ * the given key columns, so rows reach a B-tree index in key order instead of at random.
+ * <p/>
+ * The values of each record are captured when it is written. Once the estimated size of the buffered values
+ * exceeds the buffer size, the buffer is sorted and spilled to a local temporary file. On close, the spilled runs
+ * and the last buffer are merged. Records with equal keys keep the order they were written in.
+ * <p/>
+ * If update fields are given, every record is expected to bind its values like the update statement, the SET
+ * values before the update key values, as {@link cascading.jdbc.JDBCScheme} binds inserts and updates alike.
+ */
+class SortingRecordWriter<K extends DBWritable, V> implements RecordWriter<K, V>
+  {
+  private static final Logger LOG = LoggerFactory.getLogger( SortingRecordWriter.class );
+
+  private final RecordWriter<DBWritable, Object> writer;
+  private final int[] keyPositions;
+  private final long bufferSize;
+
+  private final List<SortRecord> buffer = new ArrayList<SortRecord>();
+  private final List<File> spills = new ArrayList<File>();
+  private long bufferedBytes = 0;
+  private long sequence = 0;
+
+  /**
+   * @param writer      the writer receiving the records in key order, with a non null value for updates
+   * @param fieldNames  the fields written by inserts
+   * @param updateNames the fields identifying the rows to update, or null
+   * @param keyNames    the fields to order the records by
+   * @param bufferSize  the estimated number of bytes of values to buffer before spilling
+   */
+  SortingRecordWriter( RecordWriter<DBWritable, Object> writer, String[] fieldNames, String[] updateNames, String[] keyNames, long bufferSize ) throws IOException
+    {
+    this.writer = writer;
+    this.bufferSize = bufferSize;
+    this.keyPositions = CapturedRecord.getParameterPositions( fieldNames, updateNames, keyNames );
+    }
+
+  /** {@inheritDoc} */
+  public void write( K key, V value ) throws IOException
+    {
+    SortRecord record = new SortRecord( CapturedRecord.capture( key ).getValues(), value != null, sequence++ );
+
+    buffer.add( record );
+    bufferedBytes += record.estimateSize();
+
+    if( bufferedBytes >= bufferSize )
+      spill();
+    }
+
+  private void spill() throws IOException
+    {
+    Collections.sort( buffer, new SortRecordComparator() );
+
+    File file = File.createTempFile( "jdbc-sort", ".spill" );
+
+    file.deleteOnExit();
+    spills.add( file );
+
+    LOG.info( "spilling {} records to {}", buffer.size(), file );
+
+    ObjectOutputStream output = new ObjectOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) );
+
+    try
+      {
+      for( int i = 0; i < buffer.size(); i++ )
+        {
+        output.writeObject( buffer.get( i ).values );
+        output.writeBoolean( buffer.get( i ).update );
+        output.writeLong( buffer.get( i ).sequence );
+
+        // keeps the stream from holding on to every value written
+        if( i % 1000 == 999 )
+          output.reset();
+        }
+      }
+    finally
+      {
+      output.close();
+      }
+
+    buffer.clear();
+    bufferedBytes = 0;
+    }
+
+  /** {@inheritDoc} */
+  public void close( Reporter reporter ) throws IOException
+    {
+    try
+      {
+      Collections.sort( buffer, new SortRecordComparator() );
+
+      List<SpillIterator> spillRuns = new ArrayList<SpillIterator>();
+      List<Iterator<SortRecord>> runs = new ArrayList<Iterator<SortRecord>>();
+
+      try
+        {
+        for( File spill : spills )
+          spillRuns.add( new SpillIterator( spill ) );
+
+        runs.addAll( spillRuns );
+        runs.add( buffer.iterator() );
+
+        writeMerged( runs, reporter );
+        }
+      finally
+        {
+        for( SpillIterator run : spillRuns )
+          run.close();
+        }
+      }
+    finally
+      {
+      for( File spill : spills )
+        {
+        if( !spill.delete() )
+          LOG.warn( "unable to delete spill file: {}", spill );
+        }
+      }
+
+    writer.close( reporter );
+    }
+
+  private void writeMerged( List<Iterator<SortRecord>> runs, Reporter reporter ) throws IOException
+    {
+    final Comparator<SortRecord> comparator = new SortRecordComparator();
+    PriorityQueue<RunHead> heads = new PriorityQueue<RunHead>( runs.size() + 1, new Comparator<RunHead>()
+    {
+    public int compare( RunHead lhs, RunHead rhs )
+      {
+      return comparator.compare( lhs.record, rhs.record );
+      }
+    } );
+
+    for( Iterator<SortRecord> run : runs )
+      {
+      if( run.hasNext() )
+        heads.add( new RunHead( run ) );
+      }
+
+    long written = 0;
+
+    while( !heads.isEmpty() )
+      {
+      RunHead head = heads.poll();
+
+      writer.write( new CapturedRecord( head.record.values ), head.record.update ? Boolean.TRUE : null );
+
+      if( ++written % 10000 == 0 && reporter != null )
+        reporter.progress();
+
+      if( head.run.hasNext() )
+        {
+        head.record = head.run.next();
+        heads.add( head );
+        }
+      }
+    }
+
+  private class SortRecord
+    {
+    private final Object[] values;
+    private final boolean update;
+    private final long sequence;
+
+    private SortRecord( Object[] values, boolean update, long sequence )
+      {
+      this.values = values;
+      this.update = update;
+      this.sequence = sequence;
+      }
+
+    private Object getKey( int index )
+      {
+      int position = keyPositions[ index ];
+
+      return position < values.length ? values[ position ] : null;
+      }
+
+    private long estimateSize()
+      {
+      long size = 48 + 8L * values.length;
+
+      for( Object value : values )
+        size += value instanceof String ? 40 + 2 * ( (String) value ).length() : 16;
+
+      return size;
+      }
+    }
+
+  private class SortRecordComparator implements Comparator<SortRecord>
+    {
+    public int compare( SortRecord lhs, SortRecord rhs )
+      {
+      for( int i = 0; i < keyPositions.length; i++ )
+        {
+        int result = CapturedRecord.compareValues( lhs.getKey( i ), rhs.getKey( i ) );
+
+        if( result != 0 )
+          return result;
+        }
+
+      return lhs.sequence < rhs.sequence ? -1 : ( lhs.sequence == rhs.sequence ? 0 : 1 );
+      }
+    }
+
+  private class RunHead
+    {
+    private final Iterator<SortRecord> run;
+    private SortRecord record;
+
+    private RunHead( Iterator<SortRecord> run )
+      {
+      this.run = run;
+      this.record = run.next();
+      }
+    }
+
+  /** Reads the records of a spill file back, in the order they were spilled. */
+  private class SpillIterator implements Iterator<SortRecord>
+    {
+    private final ObjectInputStream input;
+    private SortRecord next;
+
+    private SpillIterator( File file ) throws IOException
+      {
+      this.input = new ObjectInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+      this.next = read();
+      }
+
+    private SortRecord read() throws IOException
+      {
+      try
+        {
+        Object[] values = (Object[]) input.readObject();
+
+        return new SortRecord( values, input.readBoolean(), input.readLong() );
+        }
+      catch( EOFException exception )
+        {
+        return null;
+        }
+      catch( ClassNotFoundException exception )
+        {
+        throw new IOException( "unable to read spilled record", exception );
+        }
+      }
+
+    public boolean hasNext()
+      {
+      return next != null;
+      }
+
+    public SortRecord next()
+      {
+      if( next == null )
+        throw new NoSuchElementException();
+
+      SortRecord current = next;
+
+      try
+        {
+        next = read();
+        }
+      catch( IOException exception )
+        {
+        throw new RuntimeException( "unable to read spill file", exception );
+        }
+
+      return current;
+      }
+
+    public void remove()
+      {
+      throw new UnsupportedOperationException( "not supported" );
+      }
+
+    private void close() throws IOException
+      {
+      input.close();
+      }
+    }
+  }
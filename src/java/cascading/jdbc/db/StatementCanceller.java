@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class StatementCanceller is registered as a JVM shutdown hook while a statement is executing or
+ * its results are being read. When the task is killed or times out, the child JVM is shut down and
+ * the statement is cancelled so the database frees the resources held by the orphaned query.
+ */
+class StatementCanceller extends Thread
+  {
+  /** Field LOG */
+  private static final Logger LOG = LoggerFactory.getLogger( StatementCanceller.class );
+
+  private final Statement statement;
+  private boolean registered = false;
+
+  StatementCanceller( Statement statement )
+    {
+    super( "jdbc statement canceller" );
+    this.statement = statement;
+    }
+
+  @Override
+  public void run()
+    {
+    cancel();
+    }
+
+  /** Cancels the statement, ignoring any failures as the statement may already be closed. */
+  void cancel()
+    {
+    try
+      {
+      statement.cancel();
+      }
+    catch( SQLException exception )
+      {
+      LOG.warn( "unable to cancel statement", exception );
+      }
+    }
+
+  void register()
+    {
+    try
+      {
+      Runtime.getRuntime().addShutdownHook( this );
+      registered = true;
+      }
+    catch( IllegalStateException exception )
+      {
+      // jvm is already shutting down
+      }
+    }
+
+  void unregister()
+    {
+    if( !registered )
+      return;
+
+    try
+      {
+      Runtime.getRuntime().removeShutdownHook( this );
+      registered = false;
+      }
+    catch( IllegalStateException exception )
+      {
+      // jvm is already shutting down, the hook will run
+      }
+    }
+  }
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class TableOptions holds the storage options and partitioning of a table to be created, which each {@link Dialect}
+ * renders into its own syntax, see {@link Dialect#constructCreateTableQueries(String, String, TableOptions)}.
+ * Options a dialect has no syntax for are ignored.
+ */
+public class TableOptions implements Serializable
+  {
+  private static final long serialVersionUID = 1L;
+
+  /** Field unlogged */
+  boolean unlogged;
+  /** Field fillFactor */
+  int fillFactor;
+  /** Field storageOptions */
+  LinkedHashMap<String, String> storageOptions = new LinkedHashMap<String, String>();
+  /** Field partitionType */
+  String partitionType;
+  /** Field partitionColumn */
+  String partitionColumn;
+  /** Field partitionValues */
+  Object[][] partitionValues;
+
+  /**
+   * Method setUnlogged makes the table skip the write-ahead or redo log, an {@code UNLOGGED} table on PostgreSQL or a
+   * {@code NOLOGGING} table on Oracle, so loads are faster but the table is not crash safe nor replicated.
+   *
+   * @param unlogged of type boolean
+   */
+  public void setUnlogged( boolean unlogged )
+    {
+    this.unlogged = unlogged;
+    }
+
+  public boolean isUnlogged()
+    {
+    return unlogged;
+    }
+
+  /**
+   * Method setFillFactor sets the percentage of each page filled by inserts, leaving room for updates in place.
+   *
+   * @param fillFactor of type int, between 10 and 100, 0 for the database default
+   */
+  public void setFillFactor( int fillFactor )
+    {
+    if( fillFactor != 0 && ( fillFactor < 10 || fillFactor > 100 ) )
+      throw new IllegalArgumentException( "fillFactor must be between 10 and 100" );
+
+    this.fillFactor = fillFactor;
+    }
+
+  public int getFillFactor()
+    {
+    return fillFactor;
+    }
+
+  /**
+   * Method addStorageOption adds a dialect specific storage option, a storage parameter on PostgreSQL, a table option
+   * on MySQL, like {@code ENGINE}, or a physical attribute on Oracle, like {@code TABLESPACE}.
+   *
+   * @param name  of type String
+   * @param value of type String
+   */
+  public void addStorageOption( String name, String value )
+    {
+    storageOptions.put( name, value );
+    }
+
+  public Map<String, String> getStorageOptions()
+    {
+    return storageOptions;
+    }
+
+  /**
+   * Method setPartitioning declares how the table is partitioned.
+   *
+   * @param type   RANGE, LIST or HASH
+   * @param column the partition column
+   * @param values the exclusive upper bound of each range partition but the last, the values of each list
+   *               partition, or an empty array per hash partition
+   */
+  public void setPartitioning( String type, String column, Object[][] values )
+    {
+    this.partitionType = type;
+    this.partitionColumn = column;
+    this.partitionValues = values;
+    }
+
+  public String getPartitionType()
+    {
+    return partitionType;
+    }
+
+  public String getPartitionColumn()
+    {
+    return partitionColumn;
+    }
+
+  public Object[][] getPartitionValues()
+    {
+    return partitionValues;
+    }
+
+  /**
+   * Method getNumPartitions returns the number of partitions declared, 0 if the table is not partitioned.
+   *
+   * @return int
+   */
+  public int getNumPartitions()
+    {
+    if( partitionType == null )
+      return 0;
+
+    return partitionType.equals( "RANGE" ) ? partitionValues.length + 1 : partitionValues.length;
+    }
+
+  @Override
+  public String toString()
+    {
+    return "TableOptions{" + "unlogged=" + unlogged + ", fillFactor=" + fillFactor + ", storageOptions=" + storageOptions + ", partitionType=" + partitionType + ", partitionColumn='" + partitionColumn + '\'' + ", partitionValues=" + Arrays.deepToString( partitionValues ) + '}';
+    }
+
+  @Override
+  public boolean equals( Object object )
+    {
+    if( this == object )
+      return true;
+    if( !( object instanceof TableOptions ) )
+      return false;
+
+    TableOptions tableOptions = (TableOptions) object;
+
+    if( unlogged != tableOptions.unlogged || fillFactor != tableOptions.fillFactor )
+      return false;
+    if( !storageOptions.equals( tableOptions.storageOptions ) )
+      return false;
+    if( partitionType != null ? !partitionType.equals( tableOptions.partitionType ) : tableOptions.partitionType != null )
+      return false;
+    if( partitionColumn != null ? !partitionColumn.equals( tableOptions.partitionColumn ) : tableOptions.partitionColumn != null )
+      return false;
+
+    return Arrays.deepEquals( partitionValues, tableOptions.partitionValues );
+    }
+
+  @Override
+  public int hashCode()
+    {
+    int result = unlogged ? 1 : 0;
+    result = 31 * result + fillFactor;
+    result = 31 * result + storageOptions.hashCode();
+    result = 31 * result + ( partitionType != null ? partitionType.hashCode() : 0 );
+    result = 31 * result + ( partitionColumn != null ? partitionColumn.hashCode() : 0 );
+    result = 31 * result + Arrays.deepHashCode( partitionValues );
+    return result;
+    }
+  }
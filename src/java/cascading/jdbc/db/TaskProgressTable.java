@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Class TaskProgressTable records how many rows each task has committed, in the same transaction as the rows,
+ * so that a retried task attempt can skip the rows an earlier attempt already committed.
+ * <p/>
+ * The table has the columns {@code task_id} and {@code rows_committed}, and is created if it does not exist.
+ */
+class TaskProgressTable
+  {
+  private final String tableName;
+  private final String taskID;
+
+  TaskProgressTable( String tableName, String taskID )
+    {
+    this.tableName = tableName;
+    this.taskID = taskID;
+    }
+
+  /** Returns the number of rows committed by earlier attempts of the task, creating the table if needed. */
+  long read( Connection connection ) throws SQLException
+    {
+    try
+      {
+      return select( connection );
+      }
+    catch( SQLException exception )
+      {
+      // assume the table is missing, creating it fails if it is not
+      connection.rollback();
+      }
+
+    Statement statement = connection.createStatement();
+
+    try
+      {
+      statement.executeUpdate( "CREATE TABLE " + tableName + " ( task_id VARCHAR(255) NOT NULL, rows_committed BIGINT NOT NULL, PRIMARY KEY( task_id ) )" );
+      connection.commit();
+      }
+    finally
+      {
+      statement.close();
+      }
+
+    return 0;
+    }
+
+  private long select( Connection connection ) throws SQLException
+    {
+    PreparedStatement statement = connection.prepareStatement( "SELECT rows_committed FROM " + tableName + " WHERE task_id = ?" );
+
+    try
+      {
+      statement.setString( 1, taskID );
+
+      ResultSet results = statement.executeQuery();
+
+      try
+        {
+        return results.next() ? results.getLong( 1 ) : 0;
+        }
+      finally
+        {
+        results.close();
+        }
+      }
+    finally
+      {
+      statement.close();
+      }
+    }
+
+  /** Records the number of rows committed by the task, to be committed with the current transaction. */
+  void write( Connection connection, long rows ) throws SQLException
+    {
+    PreparedStatement update = connection.prepareStatement( "UPDATE " + tableName + " SET rows_committed = ? WHERE task_id = ?" );
+
+    try
+      {
+      update.setLong( 1, rows );
+      update.setString( 2, taskID );
+
+      if( update.executeUpdate() != 0 )
+        return;
+      }
+    finally
+      {
+      update.close();
+      }
+
+    PreparedStatement insert = connection.prepareStatement( "INSERT INTO " + tableName + " ( task_id, rows_committed ) VALUES ( ?, ? )" );
+
+    try
+      {
+      insert.setString( 1, taskID );
+      insert.setLong( 2, rows );
+      insert.executeUpdate();
+      }
+    finally
+      {
+      insert.close();
+      }
+    }
+  }
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.postgresql;
+
+import cascading.tuple.Tuple;
+
+/**
+ * Class CopyTextEncoder encodes rows in the PostgreSQL COPY text format into a reusable byte buffer.
+ * <p/>
+ * Values are tab separated and rows are newline terminated. {@code null} is written as {@code \N}, and backslashes,
+ * tabs, newlines and carriage returns in values are escaped. Strings, integral numbers and booleans are encoded
+ * straight into the buffer, other values through their string representation.
+ */
+class CopyTextEncoder
+  {
+  private static final byte[] NULL = {'\\', 'N'};
+  private static final byte[] LONG_MIN_VALUE = Long.toString( Long.MIN_VALUE ).getBytes();
+  private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+  private byte[] buffer;
+  private int length = 0;
+
+  CopyTextEncoder( int capacity )
+    {
+    this.buffer = new byte[Math.max( 16, capacity )];
+    }
+
+  byte[] getBuffer()
+    {
+    return buffer;
+    }
+
+  int getLength()
+    {
+    return length;
+    }
+
+  void reset()
+    {
+    length = 0;
+    }
+
+  void encodeRow( Tuple tuple )
+    {
+    for( int i = 0; i < tuple.size(); i++ )
+      {
+      if( i != 0 )
+        append( (byte) '\t' );
+
+      encodeValue( tuple.get( i ) );
+      }
+
+    append( (byte) '\n' );
+    }
+
+  void encodeValue( Object value )
+    {
+    if( value == null )
+      {
+      append( NULL );
+      }
+    else if( value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte )
+      {
+      encodeLong( ( (Number) value ).longValue() );
+      }
+    else if( value instanceof Boolean )
+      {
+      append( (byte) ( (Boolean) value ? 't' : 'f' ) );
+      }
+    else if( value instanceof byte[] )
+      {
+      encodeBytes( (byte[]) value );
+      }
+    else if( value instanceof CharSequence )
+      {
+      encodeChars( (CharSequence) value );
+      }
+    else
+      {
+      encodeChars( value.toString() );
+      }
+    }
+
+  private void encodeLong( long value )
+    {
+    if( value == Long.MIN_VALUE )
+      {
+      append( LONG_MIN_VALUE );
+      return;
+      }
+
+    if( value < 0 )
+      {
+      append( (byte) '-' );
+      value = -value;
+      }
+
+    int digits = 1;
+
+    for( long remaining = value / 10; remaining != 0; remaining /= 10 )
+      digits++;
+
+    ensure( digits );
+
+    for( int i = length + digits - 1; i >= length; i-- )
+      {
+      buffer[ i ] = (byte) ( '0' + value % 10 );
+      value /= 10;
+      }
+
+    length += digits;
+    }
+
+  private void encodeBytes( byte[] value )
+    {
+    // bytea hex format, its leading backslash escaped for the text format
+    ensure( 3 + value.length * 2 );
+
+    buffer[ length++ ] = '\\';
+    buffer[ length++ ] = '\\';
+    buffer[ length++ ] = 'x';
+
+    for( byte b : value )
+      {
+      buffer[ length++ ] = HEX[ ( b >> 4 ) & 0xf ];
+      buffer[ length++ ] = HEX[ b & 0xf ];
+      }
+    }
+
+  private void encodeChars( CharSequence value )
+    {
+    int size = value.length();
+
+    ensure( size * 4 );
+
+    for( int i = 0; i < size; i++ )
+      {
+      char c = value.charAt( i );
+
+      switch( c )
+        {
+        case '\\':
+          buffer[ length++ ] = '\\';
+          buffer[ length++ ] = '\\';
+          break;
+        case '\t':
+          buffer[ length++ ] = '\\';
+          buffer[ length++ ] = 't';
+          break;
+        case '\n':
+          buffer[ length++ ] = '\\';
+          buffer[ length++ ] = 'n';
+          break;
+        case '\r':
+          buffer[ length++ ] = '\\';
+          buffer[ length++ ] = 'r';
+          break;
+        default:
+          if( c < 0x80 )
+            {
+            buffer[ length++ ] = (byte) c;
+            }
+          else if( c < 0x800 )
+            {
+            buffer[ length++ ] = (byte) ( 0xc0 | ( c >> 6 ) );
+            buffer[ length++ ] = (byte) ( 0x80 | ( c & 0x3f ) );
+            }
+          else if( Character.isHighSurrogate( c ) && i + 1 < size && Character.isLowSurrogate( value.charAt( i + 1 ) ) )
+            {
+            int codePoint = Character.toCodePoint( c, value.charAt( ++i ) );
+
+            buffer[ length++ ] = (byte) ( 0xf0 | ( codePoint >> 18 ) );
+            buffer[ length++ ] = (byte) ( 0x80 | ( ( codePoint >> 12 ) & 0x3f ) );
+            buffer[ length++ ] = (byte) ( 0x80 | ( ( codePoint >> 6 ) & 0x3f ) );
+            buffer[ length++ ] = (byte) ( 0x80 | ( codePoint & 0x3f ) );
+            }
+          else if( c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE )
+            {
+            buffer[ length++ ] = '?'; // unpaired surrogate
+            }
+          else
+            {
+            buffer[ length++ ] = (byte) ( 0xe0 | ( c >> 12 ) );
+            buffer[ length++ ] = (byte) ( 0x80 | ( ( c >> 6 ) & 0x3f ) );
+            buffer[ length++ ] = (byte) ( 0x80 | ( c & 0x3f ) );
+            }
+        }
+      }
+    }
+
+  private void append( byte value )
+    {
+    ensure( 1 );
+    buffer[ length++ ] = value;
+    }
+
+  private void append( byte[] value )
+    {
+    ensure( value.length );
+    System.arraycopy( value, 0, buffer, length, value.length );
+    length += value.length;
+    }
+
+  private void ensure( int additional )
+    {
+    if( length + additional <= buffer.length )
+      return;
+
+    byte[] grown = new byte[Math.max( buffer.length * 2, length + additional )];
+    System.arraycopy( buffer, 0, grown, 0, length );
+    buffer = grown;
+    }
+  }
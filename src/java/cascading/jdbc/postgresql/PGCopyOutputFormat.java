@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.postgresql;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import cascading.jdbc.TupleRecord;
+import cascading.jdbc.db.DBConfiguration;
+import cascading.jdbc.db.DBOutputFormat;
+import cascading.jdbc.db.DBWritable;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.Progressable;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class PGCopyOutputFormat is a {@link DBOutputFormat} that bulk loads rows into a PostgreSQL table with
+ * {@code COPY table (columns) FROM STDIN}, instead of executing batches of INSERT statements.
+ * <p/>
+ * Rows are encoded in the COPY text format into a reusable buffer, which is sent to the server whenever it holds
+ * more than {@link #COPY_BUFFER_SIZE_PROPERTY} bytes. The rows are committed when the writer is closed.
+ * <p/>
+ * Rows can only be inserted, so updateBy columns are not supported, and keys must be {@link TupleRecord}s. Each
+ * writer copies over a single connection of its own, so staged writes, shards, and limits on the number of writers
+ * or on the write rate are refused.
+ *
+ * @see PGCopyScheme
+ */
+public class PGCopyOutputFormat<K extends DBWritable, V> extends DBOutputFormat<K, V>
+  {
+  /** Field LOG */
+  private static final Logger LOG = LoggerFactory.getLogger( PGCopyOutputFormat.class );
+
+  /** The number of encoded bytes buffered before they are sent to the server */
+  public static final String COPY_BUFFER_SIZE_PROPERTY = "mapred.jdbc.copy.buffer.size";
+
+  /** A RecordWriter that streams the reduce output into a COPY statement */
+  protected class PGCopyRecordWriter implements RecordWriter<K, V>
+    {
+    private final Connection connection;
+    private final CopyIn copyIn;
+    private final CopyTextEncoder encoder;
+    private final int bufferSize;
+
+    protected PGCopyRecordWriter( Connection connection, CopyIn copyIn, int bufferSize )
+      {
+      this.connection = connection;
+      this.copyIn = copyIn;
+      this.bufferSize = bufferSize;
+      this.encoder = new CopyTextEncoder( bufferSize + bufferSize / 4 );
+      }
+
+    /** {@inheritDoc} */
+    public void write( K key, V value ) throws IOException
+      {
+      if( value != null )
+        throw new IOException( "COPY cannot update rows" );
+
+      if( !( key instanceof TupleRecord ) )
+        throw new IOException( "COPY requires TupleRecord keys, got: " + key.getClass().getName() );
+
+      encoder.encodeRow( ( (TupleRecord) key ).getTuple() );
+
+      if( encoder.getLength() >= bufferSize )
+        flush();
+      }
+
+    private void flush() throws IOException
+      {
+      try
+        {
+        copyIn.writeToCopy( encoder.getBuffer(), 0, encoder.getLength() );
+        }
+      catch( SQLException exception )
+        {
+        abort();
+        throw new IOException( "unable to write to copy", exception );
+        }
+      finally
+        {
+        encoder.reset();
+        }
+      }
+
+    /** {@inheritDoc} */
+    public void close( Reporter reporter ) throws IOException
+      {
+      if( encoder.getLength() != 0 )
+        flush();
+
+      try
+        {
+        long rows = copyIn.endCopy();
+
+        connection.commit();
+
+        LOG.info( "copied {} rows", rows );
+        }
+      catch( SQLException exception )
+        {
+        abort();
+        throw new IOException( "unable to end copy", exception );
+        }
+      finally
+        {
+        closeConnection();
+        }
+      }
+
+    private void abort()
+      {
+      try
+        {
+        if( copyIn.isActive() )
+          copyIn.cancelCopy();
+
+        connection.rollback();
+        }
+      catch( SQLException exception )
+        {
+        LOG.warn( "ignoring copy cancel exception", exception );
+        }
+      }
+
+    private void closeConnection() throws IOException
+      {
+      try
+        {
+        connection.close();
+        }
+      catch( SQLException exception )
+        {
+        throw new IOException( "unable to close connection", exception );
+        }
+      }
+    }
+
+  /** {@inheritDoc} */
+  @Override
+  public RecordWriter<K, V> getRecordWriter( FileSystem filesystem, JobConf job, String name, Progressable progress ) throws IOException
+    {
+    if( job.getStrings( DBConfiguration.OUTPUT_UPDATE_FIELD_NAMES_PROPERTY ) != null )
+      throw new IOException( "COPY cannot update rows, remove the updateBy columns" );
+
+    // COPY streams every row over a single connection of its own, without staging, shards or limits
+    if( job.getBoolean( DBConfiguration.OUTPUT_STAGED_PROPERTY, false ) )
+      throw new IOException( "COPY cannot stage rows" );
+
+    if( job.getInt( DBConfiguration.OUTPUT_SHARDS_PROPERTY, 0 ) != 0 )
+      throw new IOException( "COPY cannot shard rows" );
+
+    if( job.getInt( DBConfiguration.OUTPUT_MAX_WRITERS_PROPERTY, 0 ) != 0 )
+      throw new IOException( "COPY cannot limit the number of writers" );
+
+    if( Double.parseDouble( job.get( DBConfiguration.OUTPUT_RATE_PROPERTY, "0" ) ) != 0 )
+      throw new IOException( "COPY cannot limit the write rate" );
+
+    String tableName = job.get( DBConfiguration.OUTPUT_TABLE_NAME_PROPERTY );
+    String[] fieldNames = job.getStrings( DBConfiguration.OUTPUT_FIELD_NAMES_PROPERTY );
+    String sqlCopy = constructCopyQuery( tableName, fieldNames );
+
+    Connection connection = createConnection( job );
+
+    try
+      {
+      PGConnection pgConnection = connection instanceof PGConnection ? (PGConnection) connection : connection.unwrap( PGConnection.class );
+      CopyIn copyIn = pgConnection.getCopyAPI().copyIn( sqlCopy );
+
+      return new PGCopyRecordWriter( connection, copyIn, job.getInt( COPY_BUFFER_SIZE_PROPERTY, 64 * 1024 ) );
+      }
+    catch( SQLException exception )
+      {
+      try
+        {
+        connection.close();
+        }
+      catch( SQLException closeException )
+        {
+        LOG.warn( "ignoring connection close exception", closeException );
+        }
+
+      throw new IOException( "unable to start copy: " + sqlCopy, exception );
+      }
+    }
+
+  /**
+   * Constructs the COPY statement used to load data.
+   *
+   * @param table      the table to load into
+   * @param fieldNames the columns to load
+   */
+  protected String constructCopyQuery( String table, String[] fieldNames )
+    {
+    if( fieldNames == null )
+      throw new IllegalArgumentException( "field names may not be null" );
+
+    StringBuilder query = new StringBuilder();
+
+    query.append( "COPY " ).append( table ).append( " (" );
+
+    for( int i = 0; i < fieldNames.length; i++ )
+      {
+      query.append( fieldNames[ i ] );
+
+      if( i != fieldNames.length - 1 )
+        query.append( "," );
+      }
+
+    query.append( ") FROM STDIN" );
+
+    return query.toString();
+    }
+  }
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.postgresql;
+
+import java.io.IOException;
+
+import cascading.jdbc.JDBCScheme;
+import cascading.jdbc.JDBCTap;
+import cascading.jdbc.ShardedJDBCTap;
+import cascading.tap.Tap;
+import cascading.tap.TapException;
+import cascading.tuple.Fields;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Class PGCopyScheme is a {@link JDBCScheme} that sinks into PostgreSQL tables with {@link PGCopyOutputFormat}.
+ * It can only insert rows, and cannot sink to a {@link ShardedJDBCTap}, nor limit the number of writers or their rate.
+ */
+public class PGCopyScheme extends JDBCScheme
+  {
+  private static final long serialVersionUID = 1L;
+
+  public PGCopyScheme( String[] columns, String[] orderBy )
+    {
+    super( null, PGCopyOutputFormat.class, columns, orderBy, null );
+    }
+
+  public PGCopyScheme( Fields columnFields, String[] columns, String[] orderBy )
+    {
+    super( null, PGCopyOutputFormat.class, columnFields, columns, orderBy, null, null );
+    }
+
+  public PGCopyScheme( String[] columns )
+    {
+    this( columns, null );
+    }
+
+  public PGCopyScheme( Fields columnFields, String[] columns )
+    {
+    this( columnFields, columns, null );
+    }
+
+  @Override
+  public void sinkInit( Tap tap, JobConf conf ) throws IOException
+    {
+    if( tap instanceof ShardedJDBCTap )
+      throw new TapException( "COPY cannot sink to sharded taps" );
+
+    if( ( (JDBCTap) tap ).getMaxWriters() != 0 || ( (JDBCTap) tap ).getWriteRate() != 0 )
+      throw new TapException( "COPY cannot limit the number of writers or their rate" );
+
+    super.sinkInit( tap, conf );
+    }
+  }
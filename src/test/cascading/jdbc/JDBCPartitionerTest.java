@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import cascading.tuple.Tuple;
+import junit.framework.TestCase;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ *
+ */
+public class JDBCPartitionerTest extends TestCase
+  {
+  public void testRangeWithAsManyReducersAsPartitions() throws IOException
+    {
+    JDBCPartitioner partitioner = createPartitioner( PartitionSpec.range( "num", 10, 20 ) );
+
+    assertEquals( 0, partitioner.getPartition( key( 5, "a" ), null, 3 ) );
+    assertEquals( 1, partitioner.getPartition( key( 10, "a" ), null, 3 ) );
+    assertEquals( 1, partitioner.getPartition( key( 15, "a" ), null, 3 ) );
+    assertEquals( 2, partitioner.getPartition( key( 25, "a" ), null, 3 ) );
+
+    // below the first bound, and beyond the last, still belong to the first and the last partition
+    assertEquals( 0, partitioner.getPartition( key( -100, "a" ), null, 3 ) );
+    assertEquals( 2, partitioner.getPartition( key( 1000, "a" ), null, 3 ) );
+    }
+
+  public void testRangeWithFewerReducersThanPartitions() throws IOException
+    {
+    JDBCPartitioner partitioner = createPartitioner( PartitionSpec.range( "num", 10, 20 ) );
+
+    assertEquals( 0, partitioner.getPartition( key( 5, "a" ), null, 2 ) );
+    assertEquals( 1, partitioner.getPartition( key( 15, "a" ), null, 2 ) );
+    assertEquals( 0, partitioner.getPartition( key( 25, "a" ), null, 2 ) );
+
+    assertEquals( 0, partitioner.getPartition( key( 25, "a" ), null, 1 ) );
+    }
+
+  public void testRangeWithMoreReducersThanPartitions() throws IOException
+    {
+    JDBCPartitioner partitioner = createPartitioner( PartitionSpec.range( "num", 10, 20 ) );
+
+    // seven reducers for three partitions, the first partition gets reducers 0, 3 and 6
+    assertEquals( set( 0, 3, 6 ), reducers( partitioner, 5, 7 ) );
+    assertEquals( set( 1, 4 ), reducers( partitioner, 15, 7 ) );
+    assertEquals( set( 2, 5 ), reducers( partitioner, 25, 7 ) );
+    }
+
+  public void testList() throws IOException
+    {
+    JDBCPartitioner partitioner = createPartitioner( PartitionSpec.list( "region", new Object[]{"east", "west"}, new Object[]{"north"} ) );
+
+    assertEquals( 0, partitioner.getPartition( key( "east", 1 ), null, 2 ) );
+    assertEquals( 0, partitioner.getPartition( key( "west", 1 ), null, 2 ) );
+    assertEquals( 1, partitioner.getPartition( key( "north", 1 ), null, 2 ) );
+
+    assertEquals( 0, partitioner.getPartition( key( "north", 1 ), null, 1 ) );
+    assertEquals( set( 1, 3 ), reducers( partitioner, "north", 4 ) );
+    }
+
+  public void testValuesOutsideEveryPartition() throws IOException
+    {
+    JDBCPartitioner partitioner = createPartitioner( PartitionSpec.list( "region", new Object[]{"east"}, new Object[]{"west"} ) );
+
+    // spread by hash over all reducers
+    Set<Integer> reducers = new HashSet<Integer>();
+
+    for( int i = 0; i < 100; i++ )
+      {
+      int reducer = partitioner.getPartition( key( "south", i ), null, 5 );
+
+      assertTrue( "reducer out of range: " + reducer, reducer >= 0 && reducer < 5 );
+      reducers.add( reducer );
+      }
+
+    assertTrue( "keys of no partition must be spread", reducers.size() > 1 );
+    int reducer = partitioner.getPartition( key( null, 1 ), null, 5 );
+
+    assertTrue( "null belongs to no partition: " + reducer, reducer >= 0 && reducer < 5 );
+    }
+
+  private static JDBCPartitioner createPartitioner( PartitionSpec partitionSpec ) throws IOException
+    {
+    JobConf conf = new JobConf();
+
+    JDBCPartitioner.setPartitionSpec( conf, partitionSpec );
+
+    JDBCPartitioner partitioner = new JDBCPartitioner();
+
+    partitioner.configure( conf );
+
+    return partitioner;
+    }
+
+  /** Returns the reducers the keys with the given partition value are sent to. */
+  private static Set<Integer> reducers( JDBCPartitioner partitioner, Object partitionValue, int numReduceTasks )
+    {
+    Set<Integer> reducers = new HashSet<Integer>();
+
+    for( int i = 0; i < 100; i++ )
+      reducers.add( partitioner.getPartition( key( partitionValue, i ), null, numReduceTasks ) );
+
+    return reducers;
+    }
+
+  private static Tuple key( Object partitionValue, Object other )
+    {
+    Tuple key = new Tuple();
+
+    key.add( partitionValue );
+    key.add( other );
+
+    return key;
+    }
+
+  private static Set<Integer> set( Integer... values )
+    {
+    Set<Integer> set = new HashSet<Integer>();
+
+    for( Integer value : values )
+      set.add( value );
+
+    return set;
+    }
+  }
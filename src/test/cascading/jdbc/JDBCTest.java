@@ -13,20 +13,29 @@
 package cascading.jdbc;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import cascading.ClusterTestCase;
 import cascading.flow.Flow;
 import cascading.flow.FlowConnector;
+import cascading.jdbc.db.BatchSizeController;
+import cascading.jdbc.db.DBConfiguration;
+import cascading.jdbc.db.RangeShardResolver;
 import cascading.operation.Identity;
 import cascading.operation.regex.RegexSplitter;
 import cascading.pipe.Each;
+import cascading.pipe.GroupBy;
 import cascading.pipe.Pipe;
 import cascading.scheme.TextLine;
 import cascading.tap.Lfs;
 import cascading.tap.SinkMode;
 import cascading.tap.Tap;
+import cascading.tap.TapException;
 import cascading.tuple.Fields;
 import cascading.tuple.TupleEntryIterator;
+import org.apache.hadoop.mapred.JobConf;
 import org.hsqldb.Server;
 
 /**
@@ -86,6 +95,69 @@ public class JDBCTest extends ClusterTestCase
 
     verifySink( parseFlow, 13 );
 
+    // READ DATA FROM TABLE WITH AD-HOC QUERIES
+
+    verifyQuery( (JDBCTap) replaceTap, "select num, lower, upper from testingtable", 13 );
+
+    // READ AGGREGATES FROM TABLE INTO TEXT FILE
+
+    Aggregate[] aggregates = {Aggregate.count(), Aggregate.min( "lower" ), Aggregate.max( "upper" )};
+    JDBCScheme aggregateScheme = new JDBCScheme( new String[]{"num"}, new Fields( "count", "min", "max" ), aggregates );
+    Tap aggregateTap = new JDBCTap( url, driver, tableDesc, aggregateScheme );
+    Tap aggregateSink = new Lfs( new TextLine(), "build/test/jdbcaggregate", SinkMode.REPLACE );
+
+    Flow aggregateFlow = new FlowConnector( getProperties() ).connect( aggregateTap, aggregateSink, new Pipe( "aggregate" ) );
+
+    aggregateFlow.complete();
+
+    verifySink( aggregateFlow, 5 );
+
+    // JOIN TEXT FILE WITH TABLE ROWS
+
+    Fields lineFields = new Fields( "num", "lower", "upper" );
+    JDBCLookup lookup = new JDBCLookup( (JDBCTap) replaceTap, lineFields, new Fields( "num", "lower" ), new String[]{"num", "lower"}, new Fields( "db_upper" ), new String[]{"upper"}, false );
+
+    lookup.setBatchSize( 4 );
+
+    Pipe lookupPipe = new Each( parsePipe, lineFields, lookup, Fields.RESULTS );
+    Tap lookupSink = new Lfs( new TextLine(), "build/test/jdbclookup", SinkMode.REPLACE );
+
+    Flow lookupFlow = new FlowConnector( getProperties() ).connect( source, lookupSink, lookupPipe );
+
+    lookupFlow.complete();
+
+    verifySink( lookupFlow, 13 );
+
+    // JOIN TEXT FILE WITH CACHED AGGREGATES
+
+    Pipe dimensionPipe = new Each( parsePipe, new Fields( "num" ), new JDBCDimensionLookup( (JDBCTap) aggregateTap, "num", 1024 * 1024 ), Fields.ALL );
+    Tap dimensionSink = new Lfs( new TextLine(), "build/test/jdbcdimension", SinkMode.REPLACE );
+
+    Flow dimensionFlow = new FlowConnector( getProperties() ).connect( source, dimensionSink, dimensionPipe );
+
+    dimensionFlow.complete();
+
+    verifySink( dimensionFlow, 13 );
+
+    // READ ROWS MATCHING A SMALL KEY SET INTO TEXT FILE
+
+    Tap keyTap = new JDBCTap( url, driver, tableDesc, new JDBCScheme( new String[]{"num"}, "num < '3'" ) );
+    String keysPath = "build/test/jdbcsemijoin-keys";
+
+    assertEquals( "wrong number of keys", 2, JDBCScheme.writeSemiJoinKeys( new JobConf(), keyTap, "num", keysPath, 100, 0.01 ) );
+
+    JDBCScheme semiJoinScheme = new JDBCScheme( columnNames );
+    semiJoinScheme.setSemiJoin( "num", keysPath );
+
+    Tap semiJoinTap = new JDBCTap( url, driver, tableDesc, semiJoinScheme );
+    Tap semiJoinSink = new Lfs( new TextLine(), "build/test/jdbcsemijoin", SinkMode.REPLACE );
+
+    Flow semiJoinFlow = new FlowConnector( getProperties() ).connect( semiJoinTap, semiJoinSink, new Pipe( "semijoin" ) );
+
+    semiJoinFlow.complete();
+
+    verifySink( semiJoinFlow, 6 );
+
     // READ DATA FROM TABLE INTO TEXT FILE
 
     // create flow to read from hbase and save to local file
@@ -110,6 +182,65 @@ public class JDBCTest extends ClusterTestCase
 
     verifySink( updateFlow, 13 );
 
+    // UPDATE TABLE FROM TEXT FILE OVER SEVERAL CONNECTIONS
+
+    Tap updatedSource = new Lfs( new TextLine(), "src/test/data/small-updated.txt" );
+    JDBCTap pipelinedTap = new JDBCTap( url, driver, tableDesc, jdbcScheme, SinkMode.APPEND );
+
+    pipelinedTap.setBatchSize( 4 );
+    pipelinedTap.setWriterConnections( 2 );
+
+    Flow pipelinedFlow = new FlowConnector( getProperties() ).connect( updatedSource, pipelinedTap, parsePipe );
+
+    pipelinedFlow.complete();
+
+    verifyColumn( pipelinedTap, "select upper from testingtable order by num, lower", "AA", "BB", "CC", "BB", "CC", "DD", "CC", "BB", "CC", "DD", "AA", "BB", "EE" );
+
+    // UPDATE TABLE FROM TEXT FILE, ADAPTING THE BATCH SIZE TO THE BATCH LATENCY
+
+    JDBCTap adaptiveTap = new JDBCTap( url, driver, tableDesc, jdbcScheme, SinkMode.APPEND );
+
+    adaptiveTap.setBatchSize( 4 );
+    adaptiveTap.setBatchLatencyTarget( 10000 );
+
+    Flow adaptiveFlow = new FlowConnector( getProperties() ).connect( sink, adaptiveTap, parsePipe );
+
+    adaptiveFlow.complete();
+
+    verifyColumn( adaptiveTap, "select upper from testingtable order by num, lower", "A", "B", "C", "B", "C", "D", "C", "B", "C", "D", "A", "B", "E" );
+
+    assertTrue( "no batches counted", adaptiveFlow.getFlowStats().getCounterValue( BatchSizeController.Counters.Batches ) > 0 );
+    assertEquals( "wrong number of batch rows", 13, adaptiveFlow.getFlowStats().getCounterValue( BatchSizeController.Counters.BatchRows ) );
+
+    // INSERT DUPLICATE ROWS FROM TEXT FILE, REJECTING THEM INTO DEAD LETTERS
+
+    JDBCTap appendTap = new JDBCTap( url, driver, tableDesc, new JDBCScheme( columnNames ), SinkMode.APPEND );
+    Tap deadLetterTap = new Lfs( new TextLine(), "build/test/jdbcdeadletters" );
+
+    deadLetterTap.deletePath( new JobConf() );
+
+    appendTap.setBatchSize( 4 );
+    appendTap.setDeadLetterPath( deadLetterTap.getPath().toString() );
+
+    Flow appendFlow = new FlowConnector( getProperties() ).connect( sink, appendTap, parsePipe );
+
+    appendFlow.complete();
+
+    verifySink( appendFlow, 13 );
+
+    int deadLetters = 0;
+    TupleEntryIterator deadLetterIterator = deadLetterTap.openForRead( new JobConf() );
+
+    while( deadLetterIterator.hasNext() )
+      {
+      deadLetters++;
+      deadLetterIterator.next();
+      }
+
+    deadLetterIterator.close();
+
+    assertEquals( "wrong number of dead letters", 13, deadLetters );
+
     // READ DATA FROM TABLE INTO TEXT FILE, USING CUSTOM QUERY
 
     Tap sourceTap = new JDBCTap( url, driver, new JDBCScheme( columnNames, "select num, lower, upper from testingtable as testingtable", "select count(*) from testingtable" ) );
@@ -121,6 +252,176 @@ public class JDBCTest extends ClusterTestCase
     readFlow.complete();
 
     verifySink( readFlow, 13 );
+
+    // READ DATA FROM TABLE INTO TEXT FILE, USING CUSTOM QUERY, ONE READER AT A TIME
+
+    JDBCTap cappedTap = new JDBCTap( url, driver, new JDBCScheme( columnNames, "select num, lower, upper from testingtable as testingtable", "select count(*) from testingtable" ) );
+
+    cappedTap.setConcurrentReads( 4 );
+    cappedTap.setMaxReaders( 1 );
+    cappedTap.setReadJitter( 100 );
+
+    Map<Object, Object> cappedProperties = new HashMap<Object, Object>( getProperties() );
+
+    cappedProperties.put( DBConfiguration.SEMAPHORE_LOCK_DIR_PROPERTY, "build/test/jdbclocks" );
+
+    Flow cappedFlow = new FlowConnector( cappedProperties ).connect( cappedTap, sink, readPipe );
+
+    cappedFlow.complete();
+
+    verifySink( cappedFlow, 13 );
+
+    // GROUP ROWS BY TABLE PARTITION BEFORE WRITING THEM
+
+    TableDesc partitionedDesc = new TableDesc( "partitionedtable", columnNames, columnDefs, primaryKeys );
+
+    partitionedDesc.setPartitionSpec( PartitionSpec.range( "num", "3" ) );
+
+    JDBCScheme partitionedScheme = new JDBCScheme( columnNames );
+
+    partitionedScheme.setPartitionReducers( true );
+
+    Tap partitionedTap = new JDBCTap( url, driver, partitionedDesc, partitionedScheme, SinkMode.REPLACE );
+    Pipe partitionedPipe = new GroupBy( parsePipe, new Fields( "num" ) );
+
+    Flow partitionedFlow = new FlowConnector( getProperties() ).connect( source, partitionedTap, partitionedPipe );
+
+    partitionedFlow.complete();
+
+    verifySink( partitionedFlow, 13 );
+
+    // REPLACE TABLE, BUILDING ITS KEY AND INDEXES ONCE LOADED
+
+    TableDesc indexedDesc = new TableDesc( "indexedtable", columnNames, columnDefs, primaryKeys );
+
+    indexedDesc.addIndex( "indexedtable_upper", "upper" );
+
+    JDBCTap indexedTap = new JDBCTap( url, driver, indexedDesc, new JDBCScheme( columnNames ), SinkMode.REPLACE );
+
+    indexedTap.setDeferIndexes( true );
+
+    Flow indexedFlow = new FlowConnector( getProperties() ).connect( source, indexedTap, parsePipe );
+
+    indexedFlow.addListener( new TablePublisher() );
+    indexedFlow.complete();
+
+    assertEquals( "wrong number of rows", 13, indexedTap.executeQuery( "select num from indexedtable", -1 ).size() );
+
+    // INSERT ROWS FROM TEXT FILE THROUGH STAGING TABLES PUBLISHED ON COMMIT
+
+    TableDesc stagedDesc = new TableDesc( "stagedtable", columnNames, columnDefs, primaryKeys );
+    JDBCTap stagedTap = new JDBCTap( url, driver, stagedDesc, new JDBCScheme( columnNames ), SinkMode.REPLACE );
+
+    stagedTap.setStagedWrite( true );
+
+    Flow stagedFlow = new FlowConnector( getProperties() ).connect( source, stagedTap, parsePipe );
+
+    stagedFlow.complete();
+
+    verifyColumn( stagedTap, "select upper from stagedtable order by num, lower", "A", "B", "C", "B", "C", "D", "C", "B", "C", "D", "A", "B", "E" );
+    verifyNoStagingTables( stagedTap, "stagedtable" );
+
+    // UPDATE TABLE FROM TEXT FILE THROUGH STAGING TABLES APPLIED ON COMMIT
+
+    JDBCTap stagedUpdateTap = new JDBCTap( url, driver, stagedDesc, jdbcScheme, SinkMode.APPEND );
+
+    stagedUpdateTap.setStagedWrite( true );
+
+    Flow stagedUpdateFlow = new FlowConnector( getProperties() ).connect( updatedSource, stagedUpdateTap, parsePipe );
+
+    stagedUpdateFlow.complete();
+
+    verifyColumn( stagedUpdateTap, "select upper from stagedtable order by num, lower", "AA", "BB", "CC", "BB", "CC", "DD", "CC", "BB", "CC", "DD", "AA", "BB", "EE" );
+    verifyNoStagingTables( stagedUpdateTap, "stagedtable" );
+
+    // INSERT ROWS FROM TEXT FILE, COMMITTING THEM WITH THE TASK PROGRESS
+
+    TableDesc progressDesc = new TableDesc( "progressedtable", columnNames, columnDefs, primaryKeys );
+    JDBCTap progressTap = new JDBCTap( url, driver, progressDesc, new JDBCScheme( columnNames ), SinkMode.REPLACE );
+
+    progressTap.setBatchSize( 2 );
+
+    Map<Object, Object> progressProperties = new HashMap<Object, Object>( getProperties() );
+
+    progressProperties.put( DBConfiguration.OUTPUT_COMMIT_ROWS_PROPERTY, "4" );
+    progressProperties.put( DBConfiguration.OUTPUT_SAVEPOINTS_PROPERTY, "true" );
+    progressProperties.put( DBConfiguration.OUTPUT_PROGRESS_TABLE_PROPERTY, "taskprogress" );
+
+    Flow progressFlow = new FlowConnector( progressProperties ).connect( source, progressTap, parsePipe );
+
+    progressFlow.complete();
+
+    verifyColumn( progressTap, "select upper from progressedtable order by num, lower", "A", "B", "C", "B", "C", "D", "C", "B", "C", "D", "A", "B", "E" );
+    assertEquals( "wrong number of committed rows", 13, ( (Number) progressTap.executeQuery( "select sum(rows_committed) from taskprogress", -1 ).get( 0 )[ 0 ] ).intValue() );
+
+    // UPDATE TABLE FROM TEXT FILE WITH DUPLICATE KEYS, SORTED BY KEY THROUGH SPILL FILES
+
+    Tap duplicatesSource = new Lfs( new TextLine(), "src/test/data/small-duplicates.txt" );
+    TableDesc sortedDesc = new TableDesc( "sortedtable", columnNames, columnDefs, primaryKeys );
+    JDBCTap sortedTap = new JDBCTap( url, driver, sortedDesc, new JDBCScheme( columnNames ), SinkMode.REPLACE );
+
+    Flow sortedInsertFlow = new FlowConnector( getProperties() ).connect( source, sortedTap, parsePipe );
+
+    sortedInsertFlow.complete();
+
+    JDBCTap sortedUpdateTap = new JDBCTap( url, driver, sortedDesc, jdbcScheme, SinkMode.APPEND );
+
+    sortedUpdateTap.setSortBuffer( 256 );
+
+    Flow sortedFlow = new FlowConnector( getProperties() ).connect( duplicatesSource, sortedUpdateTap, parsePipe );
+
+    sortedFlow.complete();
+
+    // each key is updated twice, the later update of a key is written last
+    verifyColumn( sortedUpdateTap, "select upper from sortedtable order by num, lower", "AA", "BB", "CC", "BB", "CC", "DD", "CC", "BB", "CC", "DD", "AA", "BB", "EE" );
+
+    // UPDATE TABLE FROM TEXT FILE WITH DUPLICATE KEYS, COLLAPSING THEM TO THE LAST ROW OF EACH KEY
+
+    TableDesc dedupedDesc = new TableDesc( "dedupedtable", columnNames, columnDefs, primaryKeys );
+    JDBCTap dedupedTap = new JDBCTap( url, driver, dedupedDesc, new JDBCScheme( columnNames ), SinkMode.REPLACE );
+
+    Flow dedupedInsertFlow = new FlowConnector( getProperties() ).connect( source, dedupedTap, parsePipe );
+
+    dedupedInsertFlow.complete();
+
+    JDBCTap dedupedUpdateTap = new JDBCTap( url, driver, dedupedDesc, jdbcScheme, SinkMode.APPEND );
+
+    dedupedUpdateTap.setDedupWindow( 4 );
+
+    Flow dedupedFlow = new FlowConnector( getProperties() ).connect( duplicatesSource, dedupedUpdateTap, parsePipe );
+
+    dedupedFlow.complete();
+
+    verifyColumn( dedupedUpdateTap, "select upper from dedupedtable order by num, lower", "AA", "BB", "CC", "BB", "CC", "DD", "CC", "BB", "CC", "DD", "AA", "BB", "EE" );
+
+    // SPLIT TEXT FILE ACROSS SHARDED TABLES
+
+    String[] shardUrls = {"jdbc:hsqldb:mem:shard0", "jdbc:hsqldb:mem:shard1"};
+    Tap shardedTap = new ShardedJDBCTap( shardUrls, driver, tableDesc, new JDBCScheme( columnNames ), SinkMode.REPLACE, "num", new RangeShardResolver( "3" ) );
+
+    Flow shardedFlow = new FlowConnector( getProperties() ).connect( source, shardedTap, parsePipe );
+
+    shardedFlow.complete();
+
+    JDBCTap firstShard = new JDBCTap( shardUrls[ 0 ], driver, tableDesc, new JDBCScheme( columnNames ) );
+    JDBCTap secondShard = new JDBCTap( shardUrls[ 1 ], driver, tableDesc, new JDBCScheme( columnNames ) );
+
+    assertEquals( "wrong number of rows", 6, firstShard.executeQuery( "select num from testingtable", -1 ).size() );
+    assertEquals( "wrong number of rows", 7, secondShard.executeQuery( "select num from testingtable", -1 ).size() );
+
+    ShardedJDBCTap deferredShardedTap = new ShardedJDBCTap( shardUrls, driver, tableDesc, new JDBCScheme( columnNames ), SinkMode.REPLACE, "num", new RangeShardResolver( "3" ) );
+
+    deferredShardedTap.setDeferIndexes( true );
+
+    try
+      {
+      deferredShardedTap.sinkInit( new JobConf() );
+      fail( "sharded taps must not defer indexes" );
+      }
+    catch( TapException exception )
+      {
+      // expected
+      }
     }
 
   public void testJDBCAliased() throws IOException
@@ -188,6 +489,44 @@ public class JDBCTest extends ClusterTestCase
     verifySink( readFlow, 13 );
     }
 
+  private void verifyQuery( JDBCTap tap, String query, int expects )
+    {
+    assertEquals( "wrong number of rows", expects, tap.executeQuery( query, -1 ).size() );
+    assertEquals( "wrong number of rows", 5, tap.executeQuery( query, 5 ).size() );
+    assertEquals( "wrong number of rows", 0, tap.executeQuery( query, 0 ).size() );
+
+    final int[] count = {0};
+
+    long handled = tap.executeQuery( query, 2, new RowHandler()
+    {
+    public boolean handleRow( Object[] row )
+      {
+      assertEquals( "wrong number of columns", 3, row.length );
+
+      return ++count[ 0 ] < 10;
+      }
+    } );
+
+    assertEquals( "wrong number of rows", 10, handled );
+    }
+
+  private void verifyColumn( JDBCTap tap, String query, Object... expects )
+    {
+    List<Object[]> rows = tap.executeQuery( query, -1 );
+
+    assertEquals( "wrong number of rows", expects.length, rows.size() );
+
+    for( int i = 0; i < expects.length; i++ )
+      assertEquals( "wrong value in row: " + i, expects[ i ], rows.get( i )[ 0 ] );
+    }
+
+  private void verifyNoStagingTables( JDBCTap tap, String tableName )
+    {
+    String query = "select table_name from information_schema.system_tables where table_name like '" + tableName.toUpperCase() + "_STG_%'";
+
+    assertEquals( "staging tables left behind", 0, tap.executeQuery( query, -1 ).size() );
+    }
+
   private void verifySink( Flow flow, int expects ) throws IOException
     {
     int count = 0;
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc;
+
+import java.util.Arrays;
+
+import cascading.jdbc.db.Dialect;
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class TableDescTest extends TestCase
+  {
+  private TableDesc tableDesc;
+
+  @Override
+  public void setUp()
+    {
+    tableDesc = new TableDesc( "t", new String[]{"id", "name"}, new String[]{"INT NOT NULL", "VARCHAR(10)"}, new String[]{"id"} );
+
+    tableDesc.addIndex( "i_name", "name" );
+    tableDesc.addUniqueIndex( "u_name", "name", "id" );
+    tableDesc.addConstraint( "c_id", "CHECK (id > 0)" );
+    }
+
+  public void testCreateTableWithoutPrimaryKey()
+    {
+    assertEquals( "CREATE TABLE t ( id INT NOT NULL, name VARCHAR(10), PRIMARY KEY( id ) )", tableDesc.getCreateTableStatement() );
+    assertEquals( "CREATE TABLE t_load ( id INT NOT NULL, name VARCHAR(10) )", tableDesc.getCreateTableStatement( "t_load", false ) );
+    assertEquals( "ALTER TABLE t_load ADD PRIMARY KEY( id )", tableDesc.getAddPrimaryKeyStatement( "t_load" ) );
+    }
+
+  public void testIndexStatements()
+    {
+    assertTrue( tableDesc.hasIndexes() );
+    assertEquals( Arrays.asList( "i_name", "u_name" ), tableDesc.getIndexNames() );
+    assertEquals( Arrays.asList( "CREATE INDEX i_name_load ON t_load ( name )", "CREATE UNIQUE INDEX u_name_load ON t_load ( name, id )" ), tableDesc.getCreateIndexStatements( "t_load", "_load" ) );
+    assertEquals( Arrays.asList( "ALTER TABLE t ADD CONSTRAINT c_id CHECK (id > 0)" ), tableDesc.getAddConstraintStatements( "t" ) );
+    }
+
+  public void testCreateTablePartitions()
+    {
+    tableDesc.setPartitionSpec( PartitionSpec.range( "name", "m" ) );
+    tableDesc.setUnlogged( true );
+
+    assertEquals( Arrays.asList( "CREATE TABLE t ( id INT NOT NULL, name VARCHAR(10), PRIMARY KEY( id ) ) PARTITION BY RANGE (name)", "CREATE UNLOGGED TABLE t_p0 PARTITION OF t FOR VALUES FROM (MINVALUE) TO ('m')", "CREATE UNLOGGED TABLE t_p1 PARTITION OF t FOR VALUES FROM ('m') TO (MAXVALUE)" ), tableDesc.getCreateTableStatements( Dialect.POSTGRESQL, "t", true ) );
+    assertEquals( Arrays.asList( "CREATE TABLE t ( id INT NOT NULL, name VARCHAR(10), PRIMARY KEY( id ) )" ), tableDesc.getCreateTableStatements( Dialect.HSQLDB18, "t", true ) );
+    }
+
+  public void testNoKeyOrIndexes()
+    {
+    TableDesc plainDesc = new TableDesc( "t", new String[]{"id"}, new String[]{"INT"}, null );
+
+    assertNull( plainDesc.getAddPrimaryKeyStatement( "t" ) );
+    assertFalse( plainDesc.hasIndexes() );
+    assertTrue( plainDesc.getCreateIndexStatements( "t", "" ).isEmpty() );
+    }
+  }
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ *
+ */
+public class BatchSizeControllerTest extends TestCase
+  {
+  private static final long MILLIS = 1000000;
+
+  private CountingReporter reporter;
+
+  @Override
+  public void setUp()
+    {
+    reporter = new CountingReporter();
+    }
+
+  public void testIncreasesBelowTarget()
+    {
+    BatchSizeController controller = new BatchSizeController( 10, 10, 100, 100, reporter );
+
+    assertEquals( 20, controller.update( 10, 10 * MILLIS ) );
+    assertEquals( 30, controller.update( 20, 20 * MILLIS ) );
+    assertEquals( 40, controller.update( 30, 30 * MILLIS ) );
+
+    assertEquals( 3, reporter.get( BatchSizeController.Counters.Batches ) );
+    assertEquals( 60, reporter.get( BatchSizeController.Counters.BatchRows ) );
+    assertEquals( 60, reporter.get( BatchSizeController.Counters.BatchMillis ) );
+    assertEquals( 3, reporter.get( BatchSizeController.Counters.Increases ) );
+    assertEquals( 0, reporter.get( BatchSizeController.Counters.Decreases ) );
+    }
+
+  public void testHalvesAboveTarget()
+    {
+    BatchSizeController controller = new BatchSizeController( 80, 10, 100, 100, reporter );
+
+    assertEquals( 40, controller.update( 80, 200 * MILLIS ) );
+    assertEquals( 20, controller.update( 40, 150 * MILLIS ) );
+    assertEquals( 10, controller.update( 20, 150 * MILLIS ) );
+    assertEquals( 10, controller.update( 10, 150 * MILLIS ) );
+
+    assertEquals( 3, reporter.get( BatchSizeController.Counters.Decreases ) );
+    assertEquals( 0, reporter.get( BatchSizeController.Counters.Increases ) );
+    }
+
+  public void testRollsBackIncreaseOnThroughputDrop()
+    {
+    BatchSizeController controller = new BatchSizeController( 10, 10, 100, 100, reporter );
+
+    // one row per millisecond, then half of it after the increase
+    assertEquals( 20, controller.update( 10, 10 * MILLIS ) );
+    assertEquals( 10, controller.update( 20, 40 * MILLIS ) );
+
+    // a drop not following an increase grows the size again
+    assertEquals( 20, controller.update( 10, 40 * MILLIS ) );
+
+    assertEquals( 2, reporter.get( BatchSizeController.Counters.Increases ) );
+    assertEquals( 1, reporter.get( BatchSizeController.Counters.Decreases ) );
+    }
+
+  public void testKeepsWithinBounds()
+    {
+    BatchSizeController controller = new BatchSizeController( 1000, 10, 100, 100, reporter );
+
+    assertEquals( 100, controller.getSize() );
+    assertEquals( 100, controller.update( 100, 10 * MILLIS ) );
+
+    assertEquals( 10, new BatchSizeController( 1, 10, 100, 100, reporter ).getSize() );
+
+    try
+      {
+      new BatchSizeController( 10, 0, 100, 100, reporter );
+      fail( "a minimum size below one must be refused" );
+      }
+    catch( IllegalArgumentException exception )
+      {
+      // expected
+      }
+    }
+
+  public void testOnlyCountsPartialBatches()
+    {
+    BatchSizeController controller = new BatchSizeController( 10, 10, 100, 100, reporter );
+
+    assertEquals( 10, controller.update( 5, 500 * MILLIS ) );
+
+    assertEquals( 1, reporter.get( BatchSizeController.Counters.Batches ) );
+    assertEquals( 5, reporter.get( BatchSizeController.Counters.BatchRows ) );
+    assertEquals( 0, reporter.get( BatchSizeController.Counters.Decreases ) );
+    }
+
+  private static class CountingReporter implements Reporter
+    {
+    private final Map<Enum, Long> counters = new HashMap<Enum, Long>();
+
+    long get( Enum counter )
+      {
+      Long value = counters.get( counter );
+
+      return value == null ? 0 : value;
+      }
+
+    public void incrCounter( Enum counter, long amount )
+      {
+      counters.put( counter, get( counter ) + amount );
+      }
+
+    public void incrCounter( String group, String counter, long amount )
+      {
+      }
+
+    public Counters.Counter getCounter( Enum counter )
+      {
+      return null;
+      }
+
+    public Counters.Counter getCounter( String group, String name )
+      {
+      return null;
+      }
+
+    public InputSplit getInputSplit() throws UnsupportedOperationException
+      {
+      throw new UnsupportedOperationException();
+      }
+
+    public void setStatus( String status )
+      {
+      }
+
+    public void progress()
+      {
+      }
+    }
+  }
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+
+/** Class CollectingRecordWriter keeps the values of the records written, and whether they were updates. */
+class CollectingRecordWriter implements RecordWriter<DBWritable, Object>
+  {
+  final List<Object[]> values = new ArrayList<Object[]>();
+  final List<Boolean> updates = new ArrayList<Boolean>();
+  boolean closed = false;
+
+  public void write( DBWritable key, Object value ) throws IOException
+    {
+    values.add( CapturedRecord.capture( key ).getValues() );
+    updates.add( value != null );
+    }
+
+  public void close( Reporter reporter ) throws IOException
+    {
+    closed = true;
+    }
+
+  /** Returns the value at the given position of each record written. */
+  List<Object> column( int position )
+    {
+    List<Object> column = new ArrayList<Object>();
+
+    for( Object[] record : values )
+      column.add( record[ position ] );
+
+    return column;
+    }
+  }
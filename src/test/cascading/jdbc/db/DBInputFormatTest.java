@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ *
+ */
+public class DBInputFormatTest extends TestCase
+  {
+  private static final String URL = "jdbc:hsqldb:mem:dbinputformat";
+
+  private Connection connection;
+
+  @Override
+  public void setUp() throws Exception
+    {
+    Class.forName( "org.hsqldb.jdbcDriver" );
+
+    connection = DriverManager.getConnection( URL, "sa", "" );
+
+    execute( "CREATE TABLE numbers ( id INT NOT NULL PRIMARY KEY, amount NUMERIC(10,2) )" );
+
+    // inserted out of order, so only the order by makes the rows come back sorted
+    for( int id = 10; id >= 1; id-- )
+      execute( "INSERT INTO numbers VALUES ( " + ( id * 7 % 11 ) + ", " + ( id * 7 % 11 ) + " )" );
+    }
+
+  @Override
+  public void tearDown() throws Exception
+    {
+    execute( "DROP TABLE numbers" );
+
+    connection.close();
+    }
+
+  public void testReaderConnectionsEmitSubRangesInOrder() throws IOException
+    {
+    JobConf job = createJob( "id" );
+
+    // more reader connections than concurrent reads, which clamp the connections of the single split
+    DBInputFormat.setReaderConnections( job, 3 );
+
+    assertEquals( Arrays.asList( 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 ), read( job ) );
+    }
+
+  public void testReaderConnectionsRequireOrderedQuery() throws IOException
+    {
+    JobConf job = createJob( null );
+
+    DBInputFormat.setReaderConnections( job, 2 );
+
+    try
+      {
+      read( job );
+      fail( "an unordered query must not be read over more than one connection" );
+      }
+    catch( IOException exception )
+      {
+      // expected
+      }
+    }
+
+  public void testMaxReadersRequireSingleReaderConnection() throws IOException
+    {
+    JobConf job = createJob( "id" );
+
+    DBInputFormat.setReaderConnections( job, 2 );
+    DBInputFormat.setMaxReaders( job, 1, null, "build/test/locks/readers" );
+
+    try
+      {
+      read( job );
+      fail( "a reader permit must not cover several connections" );
+      }
+    catch( IOException exception )
+      {
+      // expected
+      }
+    }
+
+  public void testExactSemiJoinMatchesNumericColumn() throws IOException
+    {
+    SortedSet<String> keys = new TreeSet<String>( Arrays.asList( "2", "4", "6" ) );
+
+    assertEquals( Arrays.asList( 2, 4, 6 ), readSemiJoin( new SemiJoinFilter( keys, 100, 0.01 ), "exact" ) );
+    }
+
+  public void testBloomSemiJoinMatchesNumericColumn() throws IOException
+    {
+    SemiJoinFilter filter = new SemiJoinFilter( 3, 0.0001 );
+
+    // the NUMERIC amounts are read as 2.00, 4.00 and 6.00, and match once normalized
+    filter.add( SemiJoinFilter.normalize( 2 ) );
+    filter.add( SemiJoinFilter.normalize( 4L ) );
+    filter.add( SemiJoinFilter.normalize( new BigDecimal( "6.0" ) ) );
+
+    assertFalse( "bloom filter must not be exact", filter.isExact() );
+    assertEquals( Arrays.asList( 2, 4, 6 ), readSemiJoin( filter, "bloom" ) );
+    }
+
+  public void testNormalize()
+    {
+    assertEquals( "5", SemiJoinFilter.normalize( new BigDecimal( "5.00" ) ) );
+    assertEquals( "5", SemiJoinFilter.normalize( 5.0d ) );
+    assertEquals( "0", SemiJoinFilter.normalize( new BigDecimal( "0.00" ) ) );
+    assertEquals( "500", SemiJoinFilter.normalize( new BigDecimal( "5E+2" ) ) );
+    assertEquals( "5.00", SemiJoinFilter.normalize( "5.00" ) );
+    assertNull( SemiJoinFilter.normalize( null ) );
+    }
+
+  private List<Integer> readSemiJoin( SemiJoinFilter filter, String name ) throws IOException
+    {
+    JobConf job = createJob( "id", "id", "amount" );
+    Path path = new Path( "build/test/semijoin/" + name );
+
+    filter.write( job, path );
+    DBInputFormat.setSemiJoin( job, "amount", path.toString() );
+
+    return read( job );
+    }
+
+  private JobConf createJob( String orderBy, String... fieldNames )
+    {
+    JobConf job = new JobConf();
+
+    DBConfiguration.configureDB( job, "org.hsqldb.jdbcDriver", URL, "sa", "" );
+    DBInputFormat.setInput( job, IdRecord.class, "numbers", null, orderBy, -1, 2, fieldNames.length == 0 ? new String[]{"id"} : fieldNames );
+
+    return job;
+    }
+
+  private static List<Integer> read( JobConf job ) throws IOException
+    {
+    DBInputFormat<IdRecord> format = new DBInputFormat<IdRecord>();
+
+    format.configure( job );
+
+    try
+      {
+      List<Integer> ids = new ArrayList<Integer>();
+
+      for( InputSplit split : format.getSplits( job, 1 ) )
+        {
+        RecordReader<LongWritable, IdRecord> reader = format.getRecordReader( split, job, Reporter.NULL );
+
+        try
+          {
+          LongWritable key = reader.createKey();
+          IdRecord value = reader.createValue();
+
+          while( reader.next( key, value ) )
+            ids.add( value.id );
+          }
+        finally
+          {
+          reader.close();
+          }
+        }
+
+      return ids;
+      }
+    finally
+      {
+      format.closeConnection();
+      }
+    }
+
+  private void execute( String query ) throws SQLException
+    {
+    Statement statement = connection.createStatement();
+
+    try
+      {
+      statement.executeUpdate( query );
+      }
+    finally
+      {
+      statement.close();
+      }
+    }
+
+  public static class IdRecord implements DBWritable
+    {
+    private int id;
+
+    public void write( PreparedStatement statement ) throws SQLException
+      {
+      statement.setInt( 1, id );
+      }
+
+    public void readFields( ResultSet resultSet ) throws SQLException
+      {
+      id = resultSet.getInt( 1 );
+      }
+    }
+  }
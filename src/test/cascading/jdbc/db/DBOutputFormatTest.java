@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.Statement;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ *
+ */
+public class DBOutputFormatTest extends TestCase
+  {
+  private static final String URL = "jdbc:hsqldb:mem:dboutputformat";
+  private static final String TASK = "attempt_200707121733_0003_r_000005_";
+
+  private Connection connection;
+
+  @Override
+  public void setUp() throws Exception
+    {
+    Class.forName( "org.hsqldb.jdbcDriver" );
+
+    connection = DriverManager.getConnection( URL, "sa", "" );
+
+    execute( "CREATE TABLE progressed ( id INT NOT NULL, name VARCHAR(10) NOT NULL )" );
+    }
+
+  @Override
+  public void tearDown() throws Exception
+    {
+    execute( "DROP TABLE progressed" );
+    execute( "DROP TABLE progress IF EXISTS" );
+
+    connection.close();
+    }
+
+  public void testRetriedAttemptSkipsCommittedRows() throws IOException, SQLException
+    {
+    // the first attempt commits every two rows, and fails on its fifth row
+    RecordWriter<DBWritable, Object> first = getRecordWriter( 0 );
+
+    try
+      {
+      for( int i = 1; i <= 6; i++ )
+        first.write( record( i, i == 5 ? null : "name" + i ), null );
+
+      first.close( Reporter.NULL );
+      fail( "the null name must fail the first attempt" );
+      }
+    catch( IOException exception )
+      {
+      // expected
+      }
+
+    assertEquals( 4, count( "SELECT COUNT(*) FROM progressed" ) );
+
+    RecordWriter<DBWritable, Object> second = getRecordWriter( 1 );
+
+    for( int i = 1; i <= 6; i++ )
+      second.write( record( i, "name" + i ), null );
+
+    second.close( Reporter.NULL );
+
+    assertEquals( 6, count( "SELECT COUNT(*) FROM progressed" ) );
+    assertEquals( 6, count( "SELECT COUNT(DISTINCT id) FROM progressed" ) );
+    assertEquals( 6, count( "SELECT rows_committed FROM progress" ) );
+    }
+
+  public void testSavepointsRequireProgressTable() throws IOException
+    {
+    JobConf job = createJob( 0 );
+
+    DBOutputFormat.setCommitPolicy( job, 2, 0, true );
+
+    try
+      {
+      new DBOutputFormat<DBWritable, Object>().getRecordWriter( null, job, "progressed", Reporter.NULL );
+      fail( "savepoints without a progress table must be refused" );
+      }
+    catch( IOException exception )
+      {
+      // expected
+      }
+    }
+
+  public void testDeadLettersOfClosedAttempt() throws IOException
+    {
+    JobConf job = createJob( 0 );
+    Path directory = new Path( "build/test/deadletters/closed" );
+
+    FileSystem.getLocal( job ).delete( directory, true );
+    DBOutputFormat.setRetryPolicy( job, 1, 1 );
+    DBOutputFormat.setDeadLetterPath( job, directory.toString() );
+
+    RecordWriter<DBWritable, Object> writer = new DBOutputFormat<DBWritable, Object>().getRecordWriter( null, job, "progressed", Reporter.NULL );
+
+    for( int i = 1; i <= 4; i++ )
+      writer.write( record( i, i == 3 ? null : "name" + i ), null );
+
+    writer.close( Reporter.NULL );
+
+    FileStatus[] statuses = FileSystem.getLocal( job ).listStatus( directory );
+
+    assertEquals( "wrong number of dead letter files", 1, statuses.length );
+    assertTrue( "wrong dead letter file", statuses[ 0 ].getPath().getName().startsWith( "part-task_200707121733_0003_r_000005-" ) );
+    }
+
+  public void testDeadLettersOfAbortedAttempt() throws IOException
+    {
+    JobConf job = createJob( 0 );
+    Path directory = new Path( "build/test/deadletters/aborted" );
+
+    FileSystem.getLocal( job ).delete( directory, true );
+
+    DeadLetterWriter deadLetters = new DeadLetterWriter( job, directory.toString() );
+
+    deadLetters.write( record( 1, null ), new SQLException( "rejected", "23000" ) );
+    deadLetters.abort();
+
+    assertEquals( "wrong number of dead letter files", 0, FileSystem.getLocal( job ).listStatus( directory ).length );
+    }
+
+  public void testInsertsDeduplicatedByGivenKeys() throws IOException, SQLException
+    {
+    JobConf job = createJob( 0 );
+
+    DBOutputFormat.setDeduplicated( job, 10, "id" );
+
+    RecordWriter<DBWritable, Object> writer = new DBOutputFormat<DBWritable, Object>().getRecordWriter( null, job, "progressed", Reporter.NULL );
+
+    writer.write( record( 1, "first" ), null );
+    writer.write( record( 2, "second" ), null );
+    writer.write( record( 1, "last" ), null );
+    writer.close( Reporter.NULL );
+
+    assertEquals( 2, count( "SELECT COUNT(*) FROM progressed" ) );
+    assertEquals( 1, count( "SELECT COUNT(*) FROM progressed WHERE id = 1 AND name = 'last'" ) );
+    }
+
+  public void testTransientErrorWhileBisectingRetriesWholeBatch() throws IOException, SQLException
+    {
+    JobConf job = createJob( 0 );
+    Path directory = new Path( "build/test/deadletters/bisected" );
+
+    FileSystem.getLocal( job ).delete( directory, true );
+    DBOutputFormat.setOutput( job, DBOutputFormat.class, "progressed", new String[]{"id", "name"}, null, 4 );
+    DBOutputFormat.setCommitPolicy( job, 1, 0, false );
+    DBOutputFormat.setRetryPolicy( job, 1, 1 );
+    DBOutputFormat.setDeadLetterPath( job, directory.toString() );
+
+    RecordWriter<DBWritable, Object> writer = new DBOutputFormat<DBWritable, Object>().getRecordWriter( null, job, "progressed", Reporter.NULL );
+
+    // the null name splits the batch, and the last record deadlocks while its half is executed
+    writer.write( record( 1, "name1" ), null );
+    writer.write( record( 2, "name2" ), null );
+    writer.write( record( 3, null ), null );
+    writer.write( deadlockingRecord( 2, 4, "name4" ), null );
+    writer.close( Reporter.NULL );
+
+    assertEquals( 3, count( "SELECT COUNT(*) FROM progressed" ) );
+    assertEquals( 3, count( "SELECT COUNT(DISTINCT id) FROM progressed" ) );
+
+    FileStatus[] statuses = FileSystem.getLocal( job ).listStatus( directory );
+
+    assertEquals( "wrong number of dead letter files", 1, statuses.length );
+    assertEquals( "wrong number of dead letters", 1, countLines( FileSystem.getLocal( job ).open( statuses[ 0 ].getPath() ) ) );
+    }
+
+  public void testConnectionErrorsAreNotRetried() throws IOException
+    {
+    DBOutputFormat<DBWritable, Object>.DBRecordWriter writer = new DBOutputFormat<DBWritable, Object>().createRecordWriter( createJob( 0 ) );
+
+    try
+      {
+      assertFalse( writer.isTransient( new SQLException( "connection lost", "08S01" ) ) );
+      assertFalse( writer.isTransient( new SQLRecoverableException( "connection lost" ) ) );
+      assertTrue( writer.isTransient( new SQLException( "deadlock", "40001" ) ) );
+      assertTrue( writer.isTransient( new SQLTransactionRollbackException( "deadlock" ) ) );
+
+      assertTrue( writer.isConnectionLost( new SQLException( "connection lost", "08S01" ) ) );
+      assertTrue( writer.isConnectionLost( new SQLRecoverableException( "connection lost" ) ) );
+      assertFalse( writer.isConnectionLost( new SQLException( "rejected", "23000" ) ) );
+      }
+    finally
+      {
+      writer.abort();
+      }
+    }
+
+  public void testPipelinedUpdatesKeepTheirOrder() throws IOException, SQLException
+    {
+    for( int id = 1; id <= 4; id++ )
+      execute( "INSERT INTO progressed VALUES ( " + id + ", 'name' )" );
+
+    JobConf job = createJob( 0 );
+
+    DBOutputFormat.setOutput( job, DBOutputFormat.class, "progressed", new String[]{"id", "name"}, new String[]{"id"}, 2 );
+    DBOutputFormat.setWriterConnections( job, 2 );
+
+    RecordWriter<DBWritable, Object> writer = new DBOutputFormat<DBWritable, Object>().getRecordWriter( null, job, "progressed", Reporter.NULL );
+
+    // every key is updated in several batches, which must be executed in the order they were written
+    for( int round = 1; round <= 20; round++ )
+      {
+      for( int id = 1; id <= 4; id++ )
+        writer.write( record( "name" + round, id ), "update" );
+      }
+
+    writer.close( Reporter.NULL );
+
+    assertEquals( 4, count( "SELECT COUNT(*) FROM progressed WHERE name = 'name20'" ) );
+    }
+
+  private RecordWriter<DBWritable, Object> getRecordWriter( int attempt ) throws IOException
+    {
+    JobConf job = createJob( attempt );
+
+    DBOutputFormat.setCommitPolicy( job, 2, 0, true );
+    DBOutputFormat.setProgressTable( job, "progress" );
+
+    return new DBOutputFormat<DBWritable, Object>().getRecordWriter( null, job, "progressed", Reporter.NULL );
+    }
+
+  private JobConf createJob( int attempt )
+    {
+    JobConf job = new JobConf();
+
+    DBConfiguration.configureDB( job, "org.hsqldb.jdbcDriver", URL, "sa", "" );
+    DBOutputFormat.setOutput( job, DBOutputFormat.class, "progressed", new String[]{"id", "name"}, null, 2 );
+    job.set( "mapred.task.id", TASK + attempt );
+
+    return job;
+    }
+
+  private static DBWritable record( final Object... values )
+    {
+    return new DBWritable()
+    {
+    public void write( PreparedStatement statement ) throws SQLException
+      {
+      for( int i = 0; i < values.length; i++ )
+        statement.setObject( i + 1, values[ i ] );
+      }
+
+    public void readFields( ResultSet resultSet ) throws SQLException
+      {
+      }
+    };
+    }
+
+  /** Returns a record failing with a deadlock the given time it is bound. */
+  private static DBWritable deadlockingRecord( final int deadlockingWrite, final Object... values )
+    {
+    return new DBWritable()
+    {
+    private int writes = 0;
+
+    public void write( PreparedStatement statement ) throws SQLException
+      {
+      if( ++writes == deadlockingWrite )
+        throw new SQLTransactionRollbackException( "deadlock", "40001" );
+
+      for( int i = 0; i < values.length; i++ )
+        statement.setObject( i + 1, values[ i ] );
+      }
+
+    public void readFields( ResultSet resultSet ) throws SQLException
+      {
+      }
+    };
+    }
+
+  private static int countLines( InputStream stream ) throws IOException
+    {
+    BufferedReader reader = new BufferedReader( new InputStreamReader( stream, "UTF-8" ) );
+
+    try
+      {
+      int lines = 0;
+
+      while( reader.readLine() != null )
+        lines++;
+
+      return lines;
+      }
+    finally
+      {
+      reader.close();
+      }
+    }
+
+  private long count( String query ) throws SQLException
+    {
+    PreparedStatement statement = connection.prepareStatement( query );
+
+    try
+      {
+      ResultSet results = statement.executeQuery();
+
+      results.next();
+
+      return results.getLong( 1 );
+      }
+    finally
+      {
+      statement.close();
+      }
+    }
+
+  private void execute( String query ) throws SQLException
+    {
+    Statement statement = connection.createStatement();
+
+    try
+      {
+      statement.executeUpdate( query );
+      }
+    finally
+      {
+      statement.close();
+      }
+    }
+  }
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ *
+ */
+public class DBSemaphoreTest extends TestCase
+  {
+  private static final String URL = "jdbc:hsqldb:mem:semaphore";
+
+  @Override
+  public void tearDown()
+    {
+    File directory = new File( "build/test/semaphore/locks" );
+    File[] files = directory.listFiles();
+
+    if( files == null )
+      return;
+
+    for( File file : files )
+      file.delete();
+    }
+
+  public void testFileLockAdmission() throws IOException
+    {
+    JobConf job = new JobConf();
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setSemaphoreLockDir( "build/test/semaphore/locks" );
+
+    assertAdmission( dbConf );
+    }
+
+  public void testLeaseTableAdmission() throws IOException
+    {
+    JobConf job = new JobConf();
+
+    DBConfiguration.configureDB( job, "org.hsqldb.jdbcDriver", URL, "sa", "" );
+
+    DBConfiguration dbConf = new DBConfiguration( job );
+
+    dbConf.setSemaphoreTable( "semaphores" );
+
+    assertAdmission( dbConf );
+    }
+
+  public void testAdvisoryLocksRequirePostgreSQL()
+    {
+    JobConf job = new JobConf();
+
+    DBConfiguration.configureDB( job, "org.hsqldb.jdbcDriver", URL, "sa", "" );
+
+    try
+      {
+      DBSemaphore.create( new DBConfiguration( job ), "writers", 1 );
+      fail( "advisory locks must be refused on HSQLDB" );
+      }
+    catch( IOException exception )
+      {
+      // expected
+      }
+    }
+
+  /** Checks two permits admit two holders, turn away a third, and admit it once a permit is released. */
+  private void assertAdmission( DBConfiguration dbConf ) throws IOException
+    {
+    String name = "writers " + getName();
+    DBSemaphore first = DBSemaphore.create( dbConf, name, 2 );
+    DBSemaphore second = DBSemaphore.create( dbConf, name, 2 );
+    DBSemaphore third = DBSemaphore.create( dbConf, name, 2 );
+
+    try
+      {
+      assertTrue( "first holder not admitted", first.tryAcquire() );
+      assertTrue( "second holder not admitted", second.tryAcquire() );
+      assertFalse( "third holder admitted", third.tryAcquire() );
+
+      first.release();
+
+      assertTrue( "third holder not admitted after a release", third.tryAcquire() );
+      assertFalse( "first holder admitted again", first.tryAcquire() );
+      }
+    finally
+      {
+      first.release();
+      second.release();
+      third.release();
+      }
+
+    // the released permits are free again
+    assertTrue( first.tryAcquire() );
+    first.release();
+    }
+  }
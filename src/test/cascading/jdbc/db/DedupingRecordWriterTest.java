@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ *
+ */
+public class DedupingRecordWriterTest extends TestCase
+  {
+  private static final String[] FIELDS = {"id", "name", "total"};
+
+  public void testLastWriteWinsWithinWindow() throws IOException
+    {
+    CollectingRecordWriter collector = new CollectingRecordWriter();
+    DedupingRecordWriter<DBWritable, Object> writer = new DedupingRecordWriter<DBWritable, Object>( collector, FIELDS, null, new String[]{"id"}, 4 );
+
+    writer.write( record( 1, "first", 1 ), null );
+    writer.write( record( 2, "first", 1 ), null );
+    writer.write( record( 1, "second", 2 ), null );
+    writer.write( record( 1, "third", 3 ), Boolean.TRUE );
+    writer.close( Reporter.NULL );
+
+    // the surviving record keeps the window position of the key's first record
+    assertEquals( Arrays.<Object>asList( 1, 2 ), collector.column( 0 ) );
+    assertEquals( Arrays.<Object>asList( "third", "first" ), collector.column( 1 ) );
+    assertEquals( Arrays.asList( true, false ), collector.updates );
+    assertTrue( collector.closed );
+    }
+
+  public void testFlushesFullWindow() throws IOException
+    {
+    CollectingRecordWriter collector = new CollectingRecordWriter();
+    DedupingRecordWriter<DBWritable, Object> writer = new DedupingRecordWriter<DBWritable, Object>( collector, FIELDS, null, new String[]{"id"}, 2 );
+
+    writer.write( record( 1, "first", 1 ), null );
+    writer.write( record( 2, "first", 1 ), null );
+
+    assertEquals( "full window not flushed", 2, collector.values.size() );
+
+    // a key of a flushed window is not collapsed any more
+    writer.write( record( 1, "second", 2 ), null );
+    writer.close( Reporter.NULL );
+
+    assertEquals( Arrays.<Object>asList( 1, 2, 1 ), collector.column( 0 ) );
+    assertEquals( Arrays.<Object>asList( "first", "first", "second" ), collector.column( 1 ) );
+    }
+
+  public void testCollapsesCompositeAndStringKeys() throws IOException
+    {
+    CollectingRecordWriter collector = new CollectingRecordWriter();
+    DedupingRecordWriter<DBWritable, Object> writer = new DedupingRecordWriter<DBWritable, Object>( collector, FIELDS, null, new String[]{"id", "name"}, 8 );
+
+    writer.write( record( "1", "a", 1 ), null );
+    writer.write( record( "1", "b", 1 ), null );
+    writer.write( record( "1", "a", 2 ), null );
+    writer.write( record( "2", "a", 1 ), null );
+    writer.write( record( "1", "b", 2 ), null );
+    writer.close( Reporter.NULL );
+
+    assertEquals( Arrays.<Object>asList( "1", "1", "2" ), collector.column( 0 ) );
+    assertEquals( Arrays.<Object>asList( "a", "b", "a" ), collector.column( 1 ) );
+    assertEquals( Arrays.<Object>asList( 2, 2, 1 ), collector.column( 2 ) );
+    }
+
+  public void testKeepsRecordsWithoutKey() throws IOException
+    {
+    CollectingRecordWriter collector = new CollectingRecordWriter();
+    DedupingRecordWriter<DBWritable, Object> writer = new DedupingRecordWriter<DBWritable, Object>( collector, FIELDS, null, new String[]{"id"}, 4 );
+
+    writer.write( record( null, "first", 1 ), null );
+    writer.write( record( null, "second", 2 ), null );
+    writer.close( Reporter.NULL );
+
+    assertEquals( Arrays.<Object>asList( "first", "second" ), collector.column( 1 ) );
+    }
+
+  private static DBWritable record( Object... values )
+    {
+    return new CapturedRecord( values );
+    }
+  }
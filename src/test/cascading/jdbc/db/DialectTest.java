@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class DialectTest extends TestCase
+  {
+  private static final String[] FIELDS = {"id", "name", "total"};
+  private static final String[] KEYS = {"id"};
+  private static final String[] KEY_FIELDS = {"id", "x"};
+  private static final String CREATE = "CREATE TABLE t ( id INT )";
+
+  public void testDetect() throws SQLException, ClassNotFoundException
+    {
+    Class.forName( "org.hsqldb.jdbcDriver" );
+
+    Connection connection = DriverManager.getConnection( "jdbc:hsqldb:mem:dialect", "sa", "" );
+
+    try
+      {
+      assertEquals( Dialect.HSQLDB18, Dialect.detect( connection ) );
+      }
+    finally
+      {
+      connection.close();
+      }
+    }
+
+  public void testHsqldbUpsert()
+    {
+    assertEquals( "MERGE INTO t USING (VALUES (?, ?, ?)) AS src (id, name, total) ON (t.id = src.id) WHEN MATCHED THEN UPDATE SET name = src.name, total = src.total WHEN NOT MATCHED THEN INSERT (id, name, total) VALUES (src.id, src.name, src.total)", Dialect.HSQLDB.constructUpsertQuery( "t", FIELDS, KEYS ) );
+    assertEquals( "MERGE INTO t USING (VALUES (?, ?)) AS src (id, x) ON (t.id = src.id AND t.x = src.x) WHEN NOT MATCHED THEN INSERT (id, x) VALUES (src.id, src.x)", Dialect.HSQLDB.constructUpsertQuery( "t", KEY_FIELDS, KEY_FIELDS ) );
+    }
+
+  public void testH2Upsert()
+    {
+    assertEquals( "MERGE INTO t (id, name, total) KEY (id) VALUES (?, ?, ?)", Dialect.H2.constructUpsertQuery( "t", FIELDS, KEYS ) );
+    }
+
+  public void testOracleUpsert()
+    {
+    assertEquals( "MERGE INTO t USING (SELECT ? AS id, ? AS name, ? AS total FROM dual) src ON (t.id = src.id) WHEN MATCHED THEN UPDATE SET name = src.name, total = src.total WHEN NOT MATCHED THEN INSERT (id, name, total) VALUES (src.id, src.name, src.total)", Dialect.ORACLE.constructUpsertQuery( "t", FIELDS, KEYS ) );
+    }
+
+  public void testSqlServerUpsert()
+    {
+    assertEquals( "MERGE INTO t USING (VALUES (?, ?, ?)) AS src (id, name, total) ON (t.id = src.id) WHEN MATCHED THEN UPDATE SET name = src.name, total = src.total WHEN NOT MATCHED THEN INSERT (id, name, total) VALUES (src.id, src.name, src.total);", Dialect.SQLSERVER.constructUpsertQuery( "t", FIELDS, KEYS ) );
+    }
+
+  public void testPostgresqlUpsert()
+    {
+    assertEquals( "INSERT INTO t (id, name, total) VALUES (?, ?, ?) ON CONFLICT (id) DO UPDATE SET name = EXCLUDED.name, total = EXCLUDED.total", Dialect.POSTGRESQL.constructUpsertQuery( "t", FIELDS, KEYS ) );
+    assertEquals( "INSERT INTO t (id, x) VALUES (?, ?) ON CONFLICT (id, x) DO NOTHING", Dialect.POSTGRESQL.constructUpsertQuery( "t", KEY_FIELDS, KEY_FIELDS ) );
+    }
+
+  public void testMysqlUpsert()
+    {
+    assertEquals( "INSERT INTO t (id, name, total) VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE name = VALUES(name), total = VALUES(total)", Dialect.MYSQL.constructUpsertQuery( "t", FIELDS, KEYS ) );
+    assertEquals( "INSERT INTO t (id, x) VALUES (?, ?) ON DUPLICATE KEY UPDATE id = VALUES(id)", Dialect.MYSQL.constructUpsertQuery( "t", KEY_FIELDS, KEY_FIELDS ) );
+    }
+
+  public void testGenericUpsert()
+    {
+    try
+      {
+      Dialect.GENERIC.constructUpsertQuery( "t", FIELDS, KEYS );
+      fail( "generic dialect must not upsert" );
+      }
+    catch( UnsupportedOperationException exception )
+      {
+      // expected
+      }
+
+    try
+      {
+      Dialect.HSQLDB18.constructUpsertQuery( "t", FIELDS, KEYS );
+      fail( "hsqldb 1.8 dialect must not upsert" );
+      }
+    catch( UnsupportedOperationException exception )
+      {
+      // expected
+      }
+    }
+
+  public void testUpdateFrom()
+    {
+    assertEquals( "MERGE INTO t USING s src ON (t.id = src.id) WHEN MATCHED THEN UPDATE SET name = src.name, total = src.total", Dialect.HSQLDB.constructUpdateFromQuery( "t", "s", FIELDS, KEYS ) );
+    assertEquals( "MERGE INTO t USING s src ON (t.id = src.id) WHEN MATCHED THEN UPDATE SET name = src.name, total = src.total", Dialect.ORACLE.constructUpdateFromQuery( "t", "s", FIELDS, KEYS ) );
+    assertEquals( "UPDATE t SET name = src.name, total = src.total FROM t JOIN s src ON t.id = src.id", Dialect.SQLSERVER.constructUpdateFromQuery( "t", "s", FIELDS, KEYS ) );
+    assertEquals( "UPDATE t SET name = src.name, total = src.total FROM s src WHERE t.id = src.id", Dialect.POSTGRESQL.constructUpdateFromQuery( "t", "s", FIELDS, KEYS ) );
+    assertEquals( "UPDATE t JOIN s src ON t.id = src.id SET t.name = src.name, t.total = src.total", Dialect.MYSQL.constructUpdateFromQuery( "t", "s", FIELDS, KEYS ) );
+
+    String correlated = "UPDATE t SET name = (SELECT src.name FROM s src WHERE t.id = src.id), total = (SELECT src.total FROM s src WHERE t.id = src.id) WHERE EXISTS (SELECT 1 FROM s src WHERE t.id = src.id)";
+
+    assertEquals( correlated, Dialect.GENERIC.constructUpdateFromQuery( "t", "s", FIELDS, KEYS ) );
+    assertEquals( correlated, Dialect.H2.constructUpdateFromQuery( "t", "s", FIELDS, KEYS ) );
+    assertEquals( correlated, Dialect.HSQLDB18.constructUpdateFromQuery( "t", "s", FIELDS, KEYS ) );
+    }
+
+  public void testUpdateFromCompositeKey()
+    {
+    String[] fields = {"a", "b", "v"};
+    String[] keys = {"a", "b"};
+
+    assertEquals( "MERGE INTO t USING s src ON (t.a = src.a AND t.b = src.b) WHEN MATCHED THEN UPDATE SET v = src.v", Dialect.HSQLDB.constructUpdateFromQuery( "t", "s", fields, keys ) );
+    assertEquals( "UPDATE t SET v = src.v FROM t JOIN s src ON t.a = src.a AND t.b = src.b", Dialect.SQLSERVER.constructUpdateFromQuery( "t", "s", fields, keys ) );
+    assertEquals( "UPDATE t JOIN s src ON t.a = src.a AND t.b = src.b SET t.v = src.v", Dialect.MYSQL.constructUpdateFromQuery( "t", "s", fields, keys ) );
+    }
+
+  public void testUpdateFromKeysOnly()
+    {
+    for( Dialect dialect : Dialect.values() )
+      assertNull( "nothing to update: " + dialect, dialect.constructUpdateFromQuery( "t", "s", KEY_FIELDS, KEY_FIELDS ) );
+    }
+
+  public void testRename()
+    {
+    assertEquals( "ALTER TABLE t_load RENAME TO t", Dialect.HSQLDB.constructRenameQuery( "t_load", "t" ) );
+    assertEquals( "ALTER TABLE t_load RENAME TO t", Dialect.POSTGRESQL.constructRenameQuery( "t_load", "t" ) );
+    assertEquals( "ALTER TABLE t_load RENAME TO t", Dialect.ORACLE.constructRenameQuery( "t_load", "t" ) );
+    assertEquals( "EXEC sp_rename 't_load', 't'", Dialect.SQLSERVER.constructRenameQuery( "t_load", "t" ) );
+    assertEquals( "RENAME TABLE t_load TO t", Dialect.MYSQL.constructRenameQuery( "t_load", "t" ) );
+    }
+
+  public void testRenameIndex()
+    {
+    assertEquals( "ALTER INDEX i_load RENAME TO i", Dialect.HSQLDB.constructRenameIndexQuery( "t", "i_load", "i" ) );
+    assertEquals( "ALTER INDEX i_load RENAME TO i", Dialect.POSTGRESQL.constructRenameIndexQuery( "t", "i_load", "i" ) );
+    assertEquals( "EXEC sp_rename 't.i_load', 'i', 'INDEX'", Dialect.SQLSERVER.constructRenameIndexQuery( "t", "i_load", "i" ) );
+    assertEquals( "ALTER TABLE t RENAME INDEX i_load TO i", Dialect.MYSQL.constructRenameIndexQuery( "t", "i_load", "i" ) );
+    }
+
+  public void testConcurrentIndexBuilds()
+    {
+    for( Dialect dialect : Dialect.values() )
+      assertEquals( dialect.toString(), dialect == Dialect.POSTGRESQL, dialect.supportsConcurrentIndexBuilds() );
+    }
+
+  public void testCreateTableStorage()
+    {
+    TableOptions options = new TableOptions();
+
+    options.setUnlogged( true );
+    options.setFillFactor( 70 );
+    options.addStorageOption( "autovacuum_enabled", "false" );
+
+    assertEquals( Arrays.asList( "CREATE UNLOGGED TABLE t ( id INT ) WITH (fillfactor = 70, autovacuum_enabled = false)" ), Dialect.POSTGRESQL.constructCreateTableQueries( CREATE, "t", options ) );
+    assertEquals( Arrays.asList( "CREATE TABLE t ( id INT ) NOLOGGING PCTFREE 30 autovacuum_enabled false" ), Dialect.ORACLE.constructCreateTableQueries( CREATE, "t", options ) );
+    assertEquals( Arrays.asList( "CREATE TABLE t ( id INT ) autovacuum_enabled=false" ), Dialect.MYSQL.constructCreateTableQueries( CREATE, "t", options ) );
+
+    // dialects without storage options create the plain table
+    assertEquals( Arrays.asList( CREATE ), Dialect.HSQLDB18.constructCreateTableQueries( CREATE, "t", options ) );
+    assertEquals( Arrays.asList( CREATE ), Dialect.GENERIC.constructCreateTableQueries( CREATE, "t", options ) );
+    }
+
+  public void testCreateTableRangePartitions()
+    {
+    TableOptions options = new TableOptions();
+
+    options.setPartitioning( "RANGE", "id", new Object[][]{{10}, {20}} );
+
+    assertEquals( Arrays.asList( CREATE + " PARTITION BY RANGE (id)", "CREATE TABLE t_p0 PARTITION OF t FOR VALUES FROM (MINVALUE) TO (10)", "CREATE TABLE t_p1 PARTITION OF t FOR VALUES FROM (10) TO (20)", "CREATE TABLE t_p2 PARTITION OF t FOR VALUES FROM (20) TO (MAXVALUE)" ), Dialect.POSTGRESQL.constructCreateTableQueries( CREATE, "t", options ) );
+    assertEquals( Arrays.asList( CREATE + " PARTITION BY RANGE (id) (PARTITION p0 VALUES LESS THAN (10), PARTITION p1 VALUES LESS THAN (20), PARTITION p2 VALUES LESS THAN (MAXVALUE))" ), Dialect.ORACLE.constructCreateTableQueries( CREATE, "t", options ) );
+    assertEquals( Arrays.asList( CREATE + " PARTITION BY RANGE COLUMNS (id) (PARTITION p0 VALUES LESS THAN (10), PARTITION p1 VALUES LESS THAN (20), PARTITION p2 VALUES LESS THAN (MAXVALUE))" ), Dialect.MYSQL.constructCreateTableQueries( CREATE, "t", options ) );
+    assertEquals( Arrays.asList( CREATE ), Dialect.HSQLDB.constructCreateTableQueries( CREATE, "t", options ) );
+    }
+
+  public void testCreateTableListPartitions()
+    {
+    TableOptions options = new TableOptions();
+
+    options.setPartitioning( "LIST", "name", new Object[][]{{"a", "b"}, {"c"}} );
+
+    assertEquals( Arrays.asList( CREATE + " PARTITION BY LIST (name)", "CREATE TABLE t_p0 PARTITION OF t FOR VALUES IN ('a', 'b')", "CREATE TABLE t_p1 PARTITION OF t FOR VALUES IN ('c')" ), Dialect.POSTGRESQL.constructCreateTableQueries( CREATE, "t", options ) );
+    assertEquals( Arrays.asList( CREATE + " PARTITION BY LIST (name) (PARTITION p0 VALUES ('a', 'b'), PARTITION p1 VALUES ('c'))" ), Dialect.ORACLE.constructCreateTableQueries( CREATE, "t", options ) );
+    assertEquals( Arrays.asList( CREATE + " PARTITION BY LIST COLUMNS (name) (PARTITION p0 VALUES IN ('a', 'b'), PARTITION p1 VALUES IN ('c'))" ), Dialect.MYSQL.constructCreateTableQueries( CREATE, "t", options ) );
+    }
+
+  public void testCreateTableHashPartitions()
+    {
+    TableOptions options = new TableOptions();
+
+    options.setPartitioning( "HASH", "id", new Object[][]{{}, {}} );
+
+    assertEquals( Arrays.asList( CREATE + " PARTITION BY HASH (id)", "CREATE TABLE t_p0 PARTITION OF t FOR VALUES WITH (MODULUS 2, REMAINDER 0)", "CREATE TABLE t_p1 PARTITION OF t FOR VALUES WITH (MODULUS 2, REMAINDER 1)" ), Dialect.POSTGRESQL.constructCreateTableQueries( CREATE, "t", options ) );
+    assertEquals( Arrays.asList( CREATE + " PARTITION BY HASH (id) PARTITIONS 2" ), Dialect.ORACLE.constructCreateTableQueries( CREATE, "t", options ) );
+    assertEquals( Arrays.asList( CREATE + " PARTITION BY KEY (id) PARTITIONS 2" ), Dialect.MYSQL.constructCreateTableQueries( CREATE, "t", options ) );
+    }
+
+  public void testCreateTablePartitionStorage()
+    {
+    TableOptions options = new TableOptions();
+
+    options.setUnlogged( true );
+    options.setFillFactor( 70 );
+    options.setPartitioning( "RANGE", "id", new Object[][]{{10}} );
+
+    // the partitions take the storage options on PostgreSQL, the partitioned table holds no rows
+    assertEquals( Arrays.asList( CREATE + " PARTITION BY RANGE (id)", "CREATE UNLOGGED TABLE t_p0 PARTITION OF t FOR VALUES FROM (MINVALUE) TO (10) WITH (fillfactor = 70)", "CREATE UNLOGGED TABLE t_p1 PARTITION OF t FOR VALUES FROM (10) TO (MAXVALUE) WITH (fillfactor = 70)" ), Dialect.POSTGRESQL.constructCreateTableQueries( CREATE, "t", options ) );
+    assertEquals( Arrays.asList( CREATE + " NOLOGGING PCTFREE 30 PARTITION BY RANGE (id) (PARTITION p0 VALUES LESS THAN (10), PARTITION p1 VALUES LESS THAN (MAXVALUE))" ), Dialect.ORACLE.constructCreateTableQueries( CREATE, "t", options ) );
+    }
+
+  public void testCreateLike()
+    {
+    assertEquals( "CREATE TABLE s AS (SELECT * FROM t) WITH NO DATA", Dialect.HSQLDB.constructCreateLikeQuery( "s", "t" ) );
+    assertEquals( "SELECT * INTO s FROM t WHERE 1 = 0", Dialect.HSQLDB18.constructCreateLikeQuery( "s", "t" ) );
+    assertEquals( "SELECT * INTO s FROM t WHERE 1 = 0", Dialect.SQLSERVER.constructCreateLikeQuery( "s", "t" ) );
+    assertEquals( "CREATE UNLOGGED TABLE s (LIKE t INCLUDING DEFAULTS)", Dialect.POSTGRESQL.constructCreateLikeQuery( "s", "t" ) );
+    assertEquals( "CREATE TABLE s LIKE t", Dialect.MYSQL.constructCreateLikeQuery( "s", "t" ) );
+    assertEquals( "CREATE TABLE s AS SELECT * FROM t WHERE 1 = 0", Dialect.GENERIC.constructCreateLikeQuery( "s", "t" ) );
+    }
+  }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class LongIndexMapTest extends TestCase
+  {
+  public void testPutAndGet()
+    {
+    LongIndexMap map = new LongIndexMap( 4 );
+
+    assertEquals( -1, map.get( 42 ) );
+
+    map.put( 42, 0 );
+    map.put( -42, 1 );
+    map.put( 42, 2 );
+
+    assertEquals( 2, map.size() );
+    assertEquals( 2, map.get( 42 ) );
+    assertEquals( 1, map.get( -42 ) );
+    assertEquals( -1, map.get( 0 ) );
+    }
+
+  public void testCollisions()
+    {
+    LongIndexMap map = new LongIndexMap( 8 );
+
+    // keys differing only in their high bits, and keys a multiple of the capacity apart
+    long[] keys = {1L, 1L << 32, 1L << 40, 1L << 62, 17L, 33L, Long.MIN_VALUE, Long.MAX_VALUE};
+
+    for( int i = 0; i < keys.length; i++ )
+      map.put( keys[ i ], i );
+
+    for( int i = 0; i < keys.length; i++ )
+      assertEquals( i, map.get( keys[ i ] ) );
+
+    assertEquals( keys.length, map.size() );
+    }
+
+  public void testResize()
+    {
+    LongIndexMap map = new LongIndexMap( 1 );
+
+    for( int i = 0; i < 10000; i++ )
+      map.put( i * 31L, i );
+
+    assertEquals( 10000, map.size() );
+
+    for( int i = 0; i < 10000; i++ )
+      assertEquals( i, map.get( i * 31L ) );
+
+    assertEquals( -1, map.get( 1 ) );
+    }
+
+  public void testClear()
+    {
+    LongIndexMap map = new LongIndexMap( 4 );
+
+    map.put( 1, 0 );
+    map.put( 2, 1 );
+    map.clear();
+
+    assertEquals( 0, map.size() );
+    assertEquals( -1, map.get( 1 ) );
+
+    map.put( 2, 5 );
+
+    assertEquals( 5, map.get( 2 ) );
+    assertEquals( 1, map.size() );
+    }
+  }
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class ObjectIndexMapTest extends TestCase
+  {
+  public void testPutAndGet()
+    {
+    ObjectIndexMap map = new ObjectIndexMap( 4 );
+
+    assertEquals( -1, map.get( "a" ) );
+
+    map.put( "a", 0 );
+    map.put( Arrays.asList( "a", "b" ), 1 );
+    map.put( "a", 2 );
+
+    assertEquals( 2, map.size() );
+    assertEquals( 2, map.get( "a" ) );
+    assertEquals( 1, map.get( Arrays.asList( "a", "b" ) ) );
+    assertEquals( -1, map.get( Arrays.asList( "b", "a" ) ) );
+    }
+
+  public void testCollisions()
+    {
+    ObjectIndexMap map = new ObjectIndexMap( 8 );
+
+    // equal hash codes, all probing from the same slot
+    for( int i = 0; i < 6; i++ )
+      map.put( new CollidingKey( i ), i );
+
+    for( int i = 0; i < 6; i++ )
+      assertEquals( i, map.get( new CollidingKey( i ) ) );
+
+    assertEquals( -1, map.get( new CollidingKey( 6 ) ) );
+
+    // "Aa" and "BB" have the same hash code
+    map.put( "Aa", 10 );
+    map.put( "BB", 11 );
+
+    assertEquals( 10, map.get( "Aa" ) );
+    assertEquals( 11, map.get( "BB" ) );
+    }
+
+  public void testResize()
+    {
+    ObjectIndexMap map = new ObjectIndexMap( 1 );
+
+    for( int i = 0; i < 1000; i++ )
+      map.put( new CollidingKey( i ), i );
+
+    for( int i = 0; i < 10000; i++ )
+      map.put( "key" + i, i );
+
+    assertEquals( 11000, map.size() );
+
+    for( int i = 0; i < 1000; i++ )
+      assertEquals( i, map.get( new CollidingKey( i ) ) );
+
+    for( int i = 0; i < 10000; i++ )
+      assertEquals( i, map.get( "key" + i ) );
+    }
+
+  public void testClear()
+    {
+    ObjectIndexMap map = new ObjectIndexMap( 4 );
+
+    map.put( "a", 0 );
+    map.clear();
+
+    assertEquals( 0, map.size() );
+    assertEquals( -1, map.get( "a" ) );
+
+    map.put( "a", 3 );
+
+    assertEquals( 3, map.get( "a" ) );
+    }
+
+  private static class CollidingKey
+    {
+    private final int id;
+
+    private CollidingKey( int id )
+      {
+      this.id = id;
+      }
+
+    @Override
+    public boolean equals( Object object )
+      {
+      return object instanceof CollidingKey && ( (CollidingKey) object ).id == id;
+      }
+
+    @Override
+    public int hashCode()
+      {
+      return 7;
+      }
+    }
+  }
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.util.Progressable;
+
+/**
+ *
+ */
+public class ProgressHeartbeatTest extends TestCase
+  {
+  public void testHeartbeatReportsProgressWhileQueryRuns() throws InterruptedException
+    {
+    final AtomicInteger progress = new AtomicInteger();
+    Progressable progressable = new Progressable()
+    {
+    public void progress()
+      {
+      progress.incrementAndGet();
+      }
+    };
+
+    ProgressHeartbeat heartbeat = new ProgressHeartbeat( "test heartbeat", progressable, 10 );
+
+    heartbeat.start();
+
+    // stands in for a select query blocking the task
+    Thread.sleep( 200 );
+
+    heartbeat.halt();
+    heartbeat.join( 1000 );
+
+    assertFalse( "heartbeat still running", heartbeat.isAlive() );
+    assertTrue( "no progress reported", progress.get() > 0 );
+
+    int reported = progress.get();
+
+    Thread.sleep( 50 );
+
+    assertEquals( "progress reported after halt", reported, progress.get() );
+    }
+  }
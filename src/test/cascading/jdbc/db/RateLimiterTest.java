@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ *
+ */
+public class RateLimiterTest extends TestCase
+  {
+  private static final String URL = "jdbc:hsqldb:mem:ratelimiter";
+
+  private DBConfiguration dbConf;
+
+  @Override
+  public void setUp() throws Exception
+    {
+    JobConf job = new JobConf();
+
+    DBConfiguration.configureDB( job, "org.hsqldb.jdbcDriver", URL, "sa", "" );
+
+    dbConf = new DBConfiguration( job );
+
+    execute( "CREATE TABLE lag ( seconds INT )" );
+    execute( "INSERT INTO lag VALUES ( 10 )" );
+    }
+
+  @Override
+  public void tearDown() throws Exception
+    {
+    execute( "DROP TABLE lag" );
+    }
+
+  public void testAdmitsFullBucket() throws IOException
+    {
+    RateLimiter limiter = new RateLimiter( 100, dbConf, null, 0 );
+
+    long start = System.currentTimeMillis();
+
+    limiter.acquire( 60 );
+    limiter.acquire( 40 );
+
+    assertTrue( "a full bucket must not wait", System.currentTimeMillis() - start < 250 );
+    }
+
+  public void testWaitsForTokens() throws IOException
+    {
+    RateLimiter limiter = new RateLimiter( 100, dbConf, null, 0 );
+
+    limiter.acquire( 100 );
+
+    long start = System.currentTimeMillis();
+
+    // an empty bucket refills at 100 rows a second
+    limiter.acquire( 50 );
+
+    assertTrue( "the rate limit was exceeded", System.currentTimeMillis() - start >= 400 );
+    }
+
+  public void testSlowsDownOnFeedback() throws IOException
+    {
+    // a feedback value at the limit slows writes down to a tenth of the rate, 10 rows a second
+    RateLimiter limiter = new RateLimiter( 100, dbConf, "SELECT seconds FROM lag", 10 );
+
+    long start = System.currentTimeMillis();
+
+    limiter.acquire( 15 );
+
+    assertTrue( "the feedback query was ignored", System.currentTimeMillis() - start >= 400 );
+    }
+
+  public void testKeepsRateOnFailedFeedback() throws IOException
+    {
+    RateLimiter limiter = new RateLimiter( 100, dbConf, "SELECT seconds FROM missing", 10 );
+
+    long start = System.currentTimeMillis();
+
+    limiter.acquire( 100 );
+
+    assertTrue( "a failed feedback query must keep the rate", System.currentTimeMillis() - start < 250 );
+    }
+
+  private void execute( String query ) throws IOException, SQLException
+    {
+    Connection connection = dbConf.getConnection();
+
+    try
+      {
+      Statement statement = connection.createStatement();
+
+      try
+        {
+        statement.executeUpdate( query );
+        }
+      finally
+        {
+        statement.close();
+        }
+
+      if( !connection.getAutoCommit() )
+        connection.commit();
+      }
+    finally
+      {
+      connection.close();
+      }
+    }
+  }
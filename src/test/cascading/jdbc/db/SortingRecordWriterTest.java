@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ *
+ */
+public class SortingRecordWriterTest extends TestCase
+  {
+  private static final String[] FIELDS = {"id", "name", "total"};
+
+  public void testWritesInKeyOrder() throws IOException
+    {
+    CollectingRecordWriter collector = new CollectingRecordWriter();
+    SortingRecordWriter<DBWritable, Object> writer = new SortingRecordWriter<DBWritable, Object>( collector, FIELDS, null, new String[]{"id"}, 1024 * 1024 );
+
+    for( int id : new int[]{5, 3, 9, 1, 7} )
+      writer.write( record( id, "name" + id, id * 10 ), null );
+
+    assertEquals( "records written before close", 0, collector.values.size() );
+
+    writer.close( Reporter.NULL );
+
+    assertEquals( Arrays.<Object>asList( 1, 3, 5, 7, 9 ), collector.column( 0 ) );
+    assertTrue( collector.closed );
+    }
+
+  public void testOrdersByUpdateKeysAfterOtherFields() throws IOException
+    {
+    CollectingRecordWriter collector = new CollectingRecordWriter();
+    SortingRecordWriter<DBWritable, Object> writer = new SortingRecordWriter<DBWritable, Object>( collector, FIELDS, new String[]{"id"}, new String[]{"id"}, 1024 * 1024 );
+
+    // updates bind the other fields first, then the key
+    writer.write( record( "b", 2, 20 ), Boolean.TRUE );
+    writer.write( record( "a", 1, 10 ), Boolean.TRUE );
+    writer.close( Reporter.NULL );
+
+    assertEquals( Arrays.<Object>asList( 1, 2 ), collector.column( 1 ) );
+    assertEquals( Arrays.asList( true, true ), collector.updates );
+    }
+
+  public void testSpillsAndMerges() throws IOException
+    {
+    CollectingRecordWriter collector = new CollectingRecordWriter();
+
+    // a buffer smaller than two records spills every other record
+    SortingRecordWriter<DBWritable, Object> writer = new SortingRecordWriter<DBWritable, Object>( collector, FIELDS, null, new String[]{"id"}, 200 );
+
+    int[] ids = {8, 2, 6, 4, 0, 9, 1, 7, 3, 5};
+
+    for( int id : ids )
+      writer.write( record( id, "name" + id, id ), null );
+
+    writer.close( Reporter.NULL );
+
+    assertEquals( Arrays.<Object>asList( 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 ), collector.column( 0 ) );
+    assertEquals( "name" + 0, collector.values.get( 0 )[ 1 ] );
+    }
+
+  public void testKeepsWriteOrderOfEqualKeys() throws IOException
+    {
+    CollectingRecordWriter collector = new CollectingRecordWriter();
+    SortingRecordWriter<DBWritable, Object> writer = new SortingRecordWriter<DBWritable, Object>( collector, FIELDS, null, new String[]{"id"}, 200 );
+
+    writer.write( record( 2, "first", 1 ), null );
+    writer.write( record( 1, "first", 1 ), null );
+    writer.write( record( 2, "second", 2 ), Boolean.TRUE );
+    writer.write( record( 1, "second", 2 ), Boolean.TRUE );
+    writer.write( record( 2, "third", 3 ), Boolean.TRUE );
+    writer.close( Reporter.NULL );
+
+    // an update of a key is written after the earlier writes of the same key, so the last write wins
+    assertEquals( Arrays.<Object>asList( 1, 1, 2, 2, 2 ), collector.column( 0 ) );
+    assertEquals( Arrays.<Object>asList( "first", "second", "first", "second", "third" ), collector.column( 1 ) );
+    assertEquals( Arrays.asList( false, true, false, true, true ), collector.updates );
+    }
+
+  static DBWritable record( Object... values )
+    {
+    return new CapturedRecord( values );
+    }
+  }
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class StatementCancellerTest extends TestCase
+  {
+  public void testRegisteredStatementIsCancelled()
+    {
+    AtomicInteger cancels = new AtomicInteger();
+    StatementCanceller canceller = new StatementCanceller( createStatement( cancels ) );
+
+    canceller.register();
+
+    try
+      {
+      // what the shutdown hook runs when the task is killed
+      canceller.run();
+
+      assertEquals( "statement not cancelled", 1, cancels.get() );
+      }
+    finally
+      {
+      canceller.unregister();
+      }
+
+    assertFalse( "hook still registered", Runtime.getRuntime().removeShutdownHook( canceller ) );
+    assertEquals( "statement cancelled on unregister", 1, cancels.get() );
+    }
+
+  private static Statement createStatement( final AtomicInteger cancels )
+    {
+    InvocationHandler handler = new InvocationHandler()
+    {
+    public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable
+      {
+      if( method.getName().equals( "cancel" ) )
+        cancels.incrementAndGet();
+
+      return null;
+      }
+    };
+
+    return (Statement) Proxy.newProxyInstance( Statement.class.getClassLoader(), new Class[]{Statement.class}, handler );
+    }
+  }
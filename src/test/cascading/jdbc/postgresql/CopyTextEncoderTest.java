@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.postgresql;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+import cascading.tuple.Tuple;
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class CopyTextEncoderTest extends TestCase
+  {
+  public void testNull() throws UnsupportedEncodingException
+    {
+    assertEquals( "\\N", encode( null ) );
+    }
+
+  public void testEscapes() throws UnsupportedEncodingException
+    {
+    assertEquals( "a\\tb", encode( "a\tb" ) );
+    assertEquals( "a\\nb", encode( "a\nb" ) );
+    assertEquals( "a\\rb", encode( "a\rb" ) );
+    assertEquals( "a\\\\b", encode( "a\\b" ) );
+    assertEquals( "\\\\N", encode( "\\N" ) );
+    }
+
+  public void testMultiByte() throws UnsupportedEncodingException
+    {
+    String value = "\u00e9\u20ac";
+
+    assertTrue( Arrays.equals( value.getBytes( "UTF-8" ), encodeBytes( value ) ) );
+    assertTrue( Arrays.equals( new byte[]{(byte) 0xc3, (byte) 0xa9, (byte) 0xe2, (byte) 0x82, (byte) 0xac}, encodeBytes( value ) ) );
+    }
+
+  public void testSurrogatePair() throws UnsupportedEncodingException
+    {
+    String value = "a\ud83d\ude00b";
+
+    assertTrue( Arrays.equals( value.getBytes( "UTF-8" ), encodeBytes( value ) ) );
+    assertTrue( Arrays.equals( new byte[]{'a', (byte) 0xf0, (byte) 0x9f, (byte) 0x98, (byte) 0x80, 'b'}, encodeBytes( value ) ) );
+    assertEquals( "a?b", encode( "a\ud83db" ) );
+    }
+
+  public void testNumbers() throws UnsupportedEncodingException
+    {
+    assertEquals( "0", encode( 0 ) );
+    assertEquals( "-42", encode( -42L ) );
+    assertEquals( "2147483647", encode( Integer.MAX_VALUE ) );
+    assertEquals( "-9223372036854775808", encode( Long.MIN_VALUE ) );
+    assertEquals( "9223372036854775807", encode( Long.MAX_VALUE ) );
+    assertEquals( "1.5", encode( 1.5d ) );
+    assertEquals( "t", encode( true ) );
+    assertEquals( "f", encode( false ) );
+    }
+
+  public void testBytea() throws UnsupportedEncodingException
+    {
+    assertEquals( "\\\\x001fff", encode( new byte[]{0, 0x1f, (byte) 0xff} ) );
+    assertEquals( "\\\\x", encode( new byte[0] ) );
+    }
+
+  public void testRow() throws UnsupportedEncodingException
+    {
+    CopyTextEncoder encoder = new CopyTextEncoder( 1 );
+    StringBuilder value = new StringBuilder();
+
+    for( int i = 0; i < 100; i++ )
+      value.append( "x\t" );
+
+    encoder.encodeRow( new Tuple( "a", null, 1 ) );
+    encoder.encodeRow( new Tuple( value.toString() ) );
+
+    String expected = "a\t\\N\t1\n" + value.toString().replace( "\t", "\\t" ) + "\n";
+
+    assertEquals( expected, new String( encoder.getBuffer(), 0, encoder.getLength(), "UTF-8" ) );
+
+    encoder.reset();
+
+    assertEquals( 0, encoder.getLength() );
+    }
+
+  private String encode( Object value ) throws UnsupportedEncodingException
+    {
+    return new String( encodeBytes( value ), "UTF-8" );
+    }
+
+  private byte[] encodeBytes( Object value )
+    {
+    CopyTextEncoder encoder = new CopyTextEncoder( 16 );
+
+    encoder.encodeValue( value );
+
+    return Arrays.copyOf( encoder.getBuffer(), encoder.getLength() );
+    }
+  }
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2009 Concurrent, Inc.
+ *
+ * This work has been released into the public domain
+ * by the copyright holder. This applies worldwide.
+ *
+ * In case this is not legally possible:
+ * The copyright holder grants any entity the right
+ * to use this work for any purpose, without any
+ * conditions, unless such conditions are required by law.
+ */
+
+package cascading.jdbc.postgresql;
+
+import java.io.IOException;
+
+import cascading.jdbc.db.DBConfiguration;
+import cascading.jdbc.db.DBOutputFormat;
+import cascading.jdbc.db.DBWritable;
+import junit.framework.TestCase;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ *
+ */
+public class PGCopyOutputFormatTest extends TestCase
+  {
+  public void testStagedWritesAreRefused()
+    {
+    JobConf job = createJob();
+
+    DBOutputFormat.setStaged( job );
+
+    assertRefused( job );
+    }
+
+  public void testMaxWritersAreRefused()
+    {
+    JobConf job = createJob();
+
+    DBOutputFormat.setMaxWriters( job, 2, null );
+
+    assertRefused( job );
+    }
+
+  public void testRateLimitIsRefused()
+    {
+    JobConf job = createJob();
+
+    DBOutputFormat.setRateLimit( job, 100 );
+
+    assertRefused( job );
+    }
+
+  private static JobConf createJob()
+    {
+    JobConf job = new JobConf();
+
+    DBConfiguration.configureDB( job, "org.postgresql.Driver", "jdbc:postgresql://localhost/test", "test", "" );
+    DBOutputFormat.setOutput( job, PGCopyOutputFormat.class, "copied", new String[]{"id", "name"}, null, 100 );
+
+    return job;
+    }
+
+  private static void assertRefused( JobConf job )
+    {
+    try
+      {
+      new PGCopyOutputFormat<DBWritable, Object>().getRecordWriter( null, job, "copied", Reporter.NULL );
+      fail( "COPY must refuse options it cannot honor" );
+      }
+    catch( IOException exception )
+      {
+      // refused before any connection is opened
+      assertTrue( "wrong exception: " + exception.getMessage(), exception.getMessage().startsWith( "COPY cannot" ) );
+      }
+    }
+  }